@@ -0,0 +1,118 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.adapter;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.util.Log;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.assistant.model.Message;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 长AI回答的绑定基准：对比主线程直接测量和使用后台预计算结果时，
+ * 每次onBindViewHolder加measure的耗时
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageBindBenchmark {
+    private static final String TAG = "MessageBindBenchmark";
+
+    private static final int MESSAGE_COUNT = 20;
+    private static final int MESSAGE_LENGTH = 3000;
+    private static final int WIDTH_PX = 900;
+    // 两组测量使用相同的文本
+    private static final long SEED = 1;
+
+    private static final String[] WORDS = {
+            "因为", "所以", "三角形", "面积", "等于", "底", "乘以", "高", "除以", "二，",
+            "我们", "先", "求出", "**关键**", "步骤", "`x`", "然后", "代入", "公式", "得到",
+            "$x^2$", "答案。", "\n\n", "- 第一步", "\n", "注意", "单位", "换算"
+    };
+
+    // 生成指定长度的随机Markdown回答，相同种子生成相同的文本
+    private static List<Message> buildMessages(long seed) {
+        Random random = new Random(seed);
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            StringBuilder content = new StringBuilder();
+            while (content.length() < MESSAGE_LENGTH) {
+                content.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(1000));
+            }
+            messages.add(new Message(content.toString(), Message.TYPE_AI));
+        }
+        return messages;
+    }
+
+    // 依次绑定并测量每条消息，返回耗时中位数（微秒）
+    private static long bindAndMeasure(MessageAdapter adapter, RecyclerView.ViewHolder holder) {
+        long[] samples = new long[adapter.getItemCount()];
+        for (int i = 0; i < samples.length; i++) {
+            long start = System.nanoTime();
+            bindAndMeasure(adapter, holder, i);
+            samples[i] = (System.nanoTime() - start) / 1000;
+        }
+        Arrays.sort(samples);
+        return samples[samples.length / 2];
+    }
+
+    private static void bindAndMeasure(MessageAdapter adapter, RecyclerView.ViewHolder holder, int position) {
+        adapter.onBindViewHolder(holder, position);
+        holder.itemView.measure(View.MeasureSpec.makeMeasureSpec(WIDTH_PX, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+    }
+
+    // 不计时地绑定并测量一遍：两组都先完成Markdown渲染缓存和JIT预热，
+    // 预计算组同时在后台完成测量，计时只比较主线程测量和使用预计算结果的差别
+    private static RecyclerView.ViewHolder warmUp(Context context, MessageAdapter adapter) {
+        adapter.submitList(buildMessages(SEED));
+        RecyclerView.ViewHolder holder = adapter.onCreateViewHolder(new FrameLayout(context), Message.TYPE_AI);
+        for (int i = 0; i < adapter.getItemCount(); i++) {
+            bindAndMeasure(adapter, holder, i);
+        }
+        return holder;
+    }
+
+    @Test
+    public void precomputedBindIsFasterThanMainThreadMeasure() throws Exception {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        Context context = instrumentation.getTargetContext();
+        long[] medians = new long[2];
+
+        // 基线：关闭预计算，在主线程上直接设置文本并测量
+        MessageAdapter baselineAdapter = new MessageAdapter(context);
+        baselineAdapter.setTextPrecomputeEnabled(false);
+        instrumentation.runOnMainSync(() -> {
+            RecyclerView.ViewHolder holder = warmUp(context, baselineAdapter);
+            medians[0] = bindAndMeasure(baselineAdapter, holder);
+        });
+
+        // 预计算：同样预热一遍，等后台预计算全部完成后再计时
+        MessageAdapter adapter = new MessageAdapter(context);
+        RecyclerView.ViewHolder[] holder = new RecyclerView.ViewHolder[1];
+        instrumentation.runOnMainSync(() -> holder[0] = warmUp(context, adapter));
+        assertTrue(adapter.getTextPrecomputer().awaitIdle(30000));
+        instrumentation.runOnMainSync(() -> medians[1] = bindAndMeasure(adapter, holder[0]));
+
+        Log.i(TAG, "median bind+measure: main thread=" + medians[0] + "us, precomputed=" + medians[1] + "us");
+        baselineAdapter.release();
+        adapter.release();
+        assertTrue("baseline=" + medians[0] + "us precomputed=" + medians[1] + "us", medians[1] < medians[0]);
+    }
+}
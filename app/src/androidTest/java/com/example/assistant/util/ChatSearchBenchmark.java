@@ -0,0 +1,110 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.util;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.assistant.model.Message;
+import com.example.assistant.model.SearchResult;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 聊天记录搜索基准：10万条消息中搜索常见词，所有命中的消息都参与排序，
+ * 较早但更相关的消息排在前面，每次搜索的耗时中位数低于50毫秒
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChatSearchBenchmark {
+    private static final String TAG = "ChatSearchBenchmark";
+
+    private static final String DATABASE_NAME = "search_benchmark_db";
+    private static final int MESSAGE_COUNT = 100000;
+    private static final int BATCH_SIZE = 10000;
+    private static final int SEARCH_RUNS = 20;
+    private static final long MAX_MEDIAN_MS = 50;
+
+    private static final String[] WORDS = {
+            "今天", "作业", "数学", "语文", "英语", "小数", "加法", "乘法", "应用题",
+            "老师", "同学", "练习", "答案", "步骤", "检查", "单位", "面积", "周长", "时间"
+    };
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        dbHelper = new DatabaseHelper(context, DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    // 生成一条随机的短消息，每5条中有一条顺带提到一次分数
+    private static String randomContent(Random random, int index) {
+        StringBuilder content = new StringBuilder();
+        int words = 5 + random.nextInt(20);
+        for (int i = 0; i < words; i++) {
+            content.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        if (index % 5 == 0) {
+            content.append("分数");
+        }
+        return content.toString();
+    }
+
+    @Test
+    public void ranksAllMatchesWithinLatencyTarget() {
+        Random random = new Random(1);
+        // 最早的一条消息专门讲分数，之后的大量消息只是顺带提到
+        Message oldest = new Message("分数的加法：分数相加先通分，分数的分母相同后分子相加，最后约分得到分数", Message.TYPE_AI);
+        List<Message> batch = new ArrayList<>();
+        batch.add(oldest);
+        for (int i = 1; i < MESSAGE_COUNT; i++) {
+            batch.add(new Message(randomContent(random, i), i % 2 == 0 ? Message.TYPE_USER : Message.TYPE_AI));
+            if (batch.size() == BATCH_SIZE) {
+                assertTrue(dbHelper.saveChatMessages(Message.DEFAULT_THREAD_ID, batch));
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            assertTrue(dbHelper.saveChatMessages(Message.DEFAULT_THREAD_ID, batch));
+        }
+
+        // 预热一次，之后计时
+        List<SearchResult> results = dbHelper.searchChatMessages("分数", 20);
+        long[] samples = new long[SEARCH_RUNS];
+        for (int i = 0; i < SEARCH_RUNS; i++) {
+            long start = System.nanoTime();
+            results = dbHelper.searchChatMessages("分数", 20);
+            samples[i] = (System.nanoTime() - start) / 1000000;
+        }
+        Arrays.sort(samples);
+        long median = samples[SEARCH_RUNS / 2];
+        Log.i(TAG, "median search over " + MESSAGE_COUNT + " messages: " + median + "ms");
+
+        assertEquals(20, results.size());
+        assertEquals(oldest.getId(), results.get(0).getMessage().getId());
+        assertTrue("median=" + median + "ms", median < MAX_MEDIAN_MS);
+    }
+}
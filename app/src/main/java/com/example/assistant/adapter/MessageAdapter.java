@@ -5,44 +5,141 @@
 package com.example.assistant.adapter;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.text.Editable;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.ImageView;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.appcompat.widget.AppCompatTextView;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.assistant.R;
+import com.example.assistant.model.ConfirmPayload;
+import com.example.assistant.model.ImageAttachment;
 import com.example.assistant.model.Message;
+import com.example.assistant.model.ThinkingText;
+import com.example.assistant.util.ThumbnailCache;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
-public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+public class MessageAdapter extends ListAdapter<Message, RecyclerView.ViewHolder> {
     // 定义确认消息回调接口
     public interface ConfirmMessageListener {
         void onConfirm(String conversationId);
         void onCancel(String conversationId);
     }
     
+    // 图片消息回调接口，上传失败的图片点击后继续上传
+    public interface ImageMessageListener {
+        void onRetryUpload(long messageId);
+    }
+    
+    // 流式文本增长的局部更新负载，记录更新前已绑定的文本长度
+    static final class TextAppendedPayload {
+        final int previousLength;
+
+        TextAppendedPayload(int previousLength) {
+            this.previousLength = previousLength;
+        }
+    }
+
+    // 基于稳定ID的差分回调，文本只在尾部增长时返回局部更新负载
+    private static final DiffUtil.ItemCallback<Message> DIFF_CALLBACK = new DiffUtil.ItemCallback<Message>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Message oldItem, @NonNull Message newItem) {
+            return oldItem.getId() == newItem.getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Message oldItem, @NonNull Message newItem) {
+            // 消息不可变，每次更新都生成新对象，同一对象不需要逐项比较
+            if (oldItem == newItem) {
+                return true;
+            }
+            return oldItem.getType() == newItem.getType()
+                    && oldItem.getConfirmStatus() == newItem.getConfirmStatus()
+                    && oldItem.getDeliveryStatus() == newItem.getDeliveryStatus()
+                    && oldItem.getUploadProgress() == newItem.getUploadProgress()
+                    && oldItem.getAttachment() == newItem.getAttachment()
+                    && oldItem.getContent().equals(newItem.getContent());
+        }
+
+        @Override
+        public Object getChangePayload(@NonNull Message oldItem, @NonNull Message newItem) {
+            String oldContent = oldItem.getContent();
+            String newContent = newItem.getContent();
+            if (oldItem.getType() == newItem.getType()
+                    && oldItem.getConfirmStatus() == newItem.getConfirmStatus()
+                    && oldItem.getDeliveryStatus() == newItem.getDeliveryStatus()
+                    && newContent.length() > oldContent.length()
+                    && newContent.startsWith(oldContent)) {
+                return new TextAppendedPayload(oldContent.length());
+            }
+            return null;
+        }
+    };
+
     private ConfirmMessageListener confirmMessageListener;
-     private List<Message> messageList;
+    private ImageMessageListener imageMessageListener;
+    // 已展开的思考消息，其他思考消息只绑定预览
+    private final Set<Long> expandedThinkingIds = new HashSet<>();
      private Context context;
+    // AI回答的富文本渲染缓存
+    private final RichTextRenderer richTextRenderer = new RichTextRenderer();
+    
+    // 超过该长度的已完成回答在后台线程上预计算文本测量
+    static final int PRECOMPUTE_MIN_LENGTH = 400;
+    private final TextPrecomputer textPrecomputer = new TextPrecomputer();
+    private boolean textPrecomputeEnabled = true;
+    // 正在流式接收的回答消息ID，它的内容仍在变化，不做预计算；没有时为-1
+    private long streamingMessageId = -1;
 
-    public MessageAdapter(Context context, List<Message> messageList) {
+    public MessageAdapter(Context context) {
+        super(DIFF_CALLBACK);
         this.context = context;
-        this.messageList = messageList;
+        setHasStableIds(true);
     }
     
     // 设置确认消息监听器
     public void setConfirmMessageListener(ConfirmMessageListener listener) {
         this.confirmMessageListener = listener;
     }
+    
+    // 设置图片消息监听器
+    public void setImageMessageListener(ImageMessageListener listener) {
+        this.imageMessageListener = listener;
+    }
+    
+    // 更新正在流式接收的回答消息。排队的追问显示在它后面，不能按位置判断
+    public void setStreamingMessageId(long streamingMessageId) {
+        this.streamingMessageId = streamingMessageId;
+    }
+    
+    // 开关文本预计算，用于基准测试对比
+    void setTextPrecomputeEnabled(boolean enabled) {
+        this.textPrecomputeEnabled = enabled;
+    }
+    
+    TextPrecomputer getTextPrecomputer() {
+        return textPrecomputer;
+    }
+    
+    // 释放后台预计算线程
+    public void release() {
+        textPrecomputer.shutdown();
+    }
 
     @NonNull
     @Override
@@ -52,51 +149,272 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
             return new UserMessageViewHolder(view);
         } else if (viewType == Message.TYPE_AI_THINK) {
             View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_message_ai_think, parent, false);
-            return new AiThinkMessageViewHolder(view);
+            AiThinkMessageViewHolder holder = new AiThinkMessageViewHolder(view);
+            view.setOnClickListener(v -> toggleThinking(holder));
+            return holder;
         } else if (viewType == Message.TYPE_CONFIRM) {
             View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_message_confirm, parent, false);
             return new ConfirmMessageViewHolder(view);
+        } else if (viewType == Message.TYPE_IMAGE) {
+            View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_message_image, parent, false);
+            return new ImageMessageViewHolder(view);
         } else {
             View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_message_ai, parent, false);
             return new AiMessageViewHolder(view);
         }
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+
+        // AI回答由渲染器增量渲染尾部段落
+        if (holder instanceof AiMessageViewHolder) {
+            for (Object payload : payloads) {
+                if (!(payload instanceof TextAppendedPayload)) {
+                    onBindViewHolder(holder, position);
+                    return;
+                }
+            }
+            bindAiText(((AiMessageViewHolder) holder).messageText, getItem(position));
+            return;
+        }
+
+        // 思考内容为纯文本：只更新对应的TextView，不重新绑定整个气泡
+        TextView messageText = getStreamingTextView(holder);
+        if (messageText == null) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+
+        String content = getItem(position).getContent();
+        // 合并后的多个负载取最早的长度，TextView当前内容与之一致时只追加尾部
+        int boundLength = Integer.MAX_VALUE;
+        for (Object payload : payloads) {
+            if (!(payload instanceof TextAppendedPayload)) {
+                onBindViewHolder(holder, position);
+                return;
+            }
+            boundLength = Math.min(boundLength, ((TextAppendedPayload) payload).previousLength);
+        }
+        if (messageText.length() == boundLength && boundLength <= content.length()) {
+            messageText.append(content, boundLength, content.length());
+        } else {
+            messageText.setText(content);
+        }
+    }
+
+    // 获取纯文本流式消息的文本视图，其他类型返回null。
+    // 折叠的思考消息只显示预览，不追加完整内容
+    private TextView getStreamingTextView(RecyclerView.ViewHolder holder) {
+        if (holder instanceof AiThinkMessageViewHolder) {
+            AiThinkMessageViewHolder thinkHolder = (AiThinkMessageViewHolder) holder;
+            return thinkHolder.expanded ? thinkHolder.messageText : null;
+        }
+        return null;
+    }
+
+    // 展开或折叠思考消息
+    private void toggleThinking(AiThinkMessageViewHolder holder) {
+        int position = holder.getBindingAdapterPosition();
+        if (position == RecyclerView.NO_POSITION) {
+            return;
+        }
+        long messageId = getItem(position).getId();
+        if (!expandedThinkingIds.remove(messageId)) {
+            expandedThinkingIds.add(messageId);
+        }
+        notifyItemChanged(position);
+    }
+
     @Override
     public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
-        Message message = messageList.get(position);
+        Message message = getItem(position);
         if (holder instanceof UserMessageViewHolder) {
-            ((UserMessageViewHolder) holder).messageText.setText(message.getContent());
+            ((UserMessageViewHolder) holder).bind(message);
         } else if (holder instanceof AiThinkMessageViewHolder) {
-            ((AiThinkMessageViewHolder) holder).messageText.setText(message.getContent());
+            ((AiThinkMessageViewHolder) holder).bind(message, expandedThinkingIds.contains(message.getId()));
         } else if (holder instanceof AiMessageViewHolder) {
-            ((AiMessageViewHolder) holder).messageText.setText(message.getContent());
+            bindAiText(((AiMessageViewHolder) holder).messageText, message);
         } else if (holder instanceof ConfirmMessageViewHolder) {
             ((ConfirmMessageViewHolder) holder).bind(message, confirmMessageListener);
+        } else if (holder instanceof ImageMessageViewHolder) {
+            ((ImageMessageViewHolder) holder).bind(message, imageMessageListener);
         }
     }
 
-    @Override
-    public int getItemCount() {
-        return messageList.size();
+    // 绑定AI回答：长的已完成回答使用后台预计算的文本，避免在主线程上测量
+    private void bindAiText(TextView textView, Message message) {
+        // 丢弃复用视图上一次绑定尚未取用的预计算结果
+        if (textView instanceof AppCompatTextView) {
+            ((AppCompatTextView) textView).setTextFuture(null);
+        }
+        
+        if (message.getId() == streamingMessageId) {
+            bindStreamingAiText(textView, message);
+            return;
+        }
+        textView.setTag(null);
+        
+        CharSequence rendered = richTextRenderer.render(message.getId(), message.getVersion(), message.getContent());
+        if (!textPrecomputeEnabled || rendered.length() < PRECOMPUTE_MIN_LENGTH) {
+            textView.setText(rendered);
+            return;
+        }
+        
+        long version = message.getVersion();
+        PrecomputedTextCompat.Params params = TextViewCompat.getTextMetricsParams(textView);
+        PrecomputedTextCompat precomputed = textPrecomputer.get(message.getId(), version, params);
+        if (precomputed != null) {
+            TextViewCompat.setPrecomputedText(textView, precomputed);
+        } else if (textView instanceof AppCompatTextView) {
+            // 在测量时才取结果，RecyclerView预取的绑定和后台计算可以并行
+            ((AppCompatTextView) textView).setTextFuture(
+                    textPrecomputer.precompute(message.getId(), version, rendered, params));
+        } else {
+            textView.setText(rendered);
+            textPrecomputer.precompute(message.getId(), version, rendered, params);
+        }
     }
-    
-    // 设置消息列表并更新UI
-    public void setMessages(List<Message> messages) {
-        this.messageList = messages;
+
+    // 绑定流式中的回答：TextView持有可编辑文本，标签记录它显示的消息版本。
+    // 每次刷新只替换渲染结果变化的尾部，不把整段回答复制成新的SpannedString
+    private void bindStreamingAiText(TextView textView, Message message) {
+        CharSequence shown = textView.getText();
+        Object shownVersion = textView.getTag();
+        if (!(shown instanceof Editable) || !(shownVersion instanceof Long)
+                || !richTextRenderer.renderInto(message.getId(), (Long) shownVersion, message.getVersion(),
+                        message.getContent(), (Editable) shown)) {
+            textView.setText(richTextRenderer.render(message.getId(), message.getVersion(), message.getContent()),
+                    TextView.BufferType.EDITABLE);
+        }
+        textView.setTag(message.getVersion());
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).getId();
     }
 
     @Override
     public int getItemViewType(int position) {
-        return messageList.get(position).getType();
+        return getItem(position).getType();
     }
 
     static class UserMessageViewHolder extends RecyclerView.ViewHolder {
         TextView messageText;
+        TextView statusText;
 
         public UserMessageViewHolder(@NonNull View itemView) {
             super(itemView);
             messageText = itemView.findViewById(R.id.user_message_text);
+            statusText = itemView.findViewById(R.id.user_message_status);
+        }
+
+        public void bind(Message message) {
+            messageText.setText(message.getContent());
+            
+            // 根据送达状态显示提示，已送达的消息不显示
+            int deliveryStatus = message.getDeliveryStatus();
+            if (deliveryStatus == Message.DELIVERY_QUEUED) {
+                statusText.setVisibility(View.VISIBLE);
+                statusText.setText("排队中");
+            } else if (deliveryStatus == Message.DELIVERY_PENDING) {
+                statusText.setVisibility(View.VISIBLE);
+                statusText.setText("等待发送");
+            } else if (deliveryStatus == Message.DELIVERY_SENT) {
+                statusText.setVisibility(View.VISIBLE);
+                statusText.setText("发送中");
+            } else {
+                statusText.setVisibility(View.GONE);
+            }
+        }
+    }
+
+    static class ImageMessageViewHolder extends RecyclerView.ViewHolder {
+        ImageView thumbnail;
+        ProgressBar progressBar;
+        TextView captionText;
+        TextView statusText;
+
+        public ImageMessageViewHolder(@NonNull View itemView) {
+            super(itemView);
+            thumbnail = itemView.findViewById(R.id.image_message_thumbnail);
+            progressBar = itemView.findViewById(R.id.image_message_progress);
+            captionText = itemView.findViewById(R.id.image_message_caption);
+            statusText = itemView.findViewById(R.id.image_message_status);
+        }
+
+        public void bind(Message message, ImageMessageListener listener) {
+            bindThumbnail(message.getAttachment());
+
+            String caption = message.getContent();
+            captionText.setVisibility(caption.isEmpty() ? View.GONE : View.VISIBLE);
+            captionText.setText(caption);
+
+            // 根据上传进度显示提示，上传完成后和文字消息一样显示送达状态
+            int progress = message.getUploadProgress();
+            itemView.setOnClickListener(null);
+            if (progress == Message.UPLOAD_PREPARING) {
+                progressBar.setVisibility(View.VISIBLE);
+                progressBar.setIndeterminate(true);
+                showStatus("正在压缩");
+            } else if (progress == Message.UPLOAD_FAILED) {
+                progressBar.setVisibility(View.GONE);
+                showStatus("上传失败，点击重试");
+                itemView.setOnClickListener(v -> {
+                    if (listener != null) {
+                        listener.onRetryUpload(message.getId());
+                    }
+                });
+            } else if (progress < Message.UPLOAD_DONE) {
+                progressBar.setVisibility(View.VISIBLE);
+                progressBar.setIndeterminate(false);
+                progressBar.setProgress(progress);
+                showStatus("上传中 " + progress + "%");
+            } else {
+                progressBar.setVisibility(View.GONE);
+                int deliveryStatus = message.getDeliveryStatus();
+                if (deliveryStatus == Message.DELIVERY_QUEUED) {
+                    showStatus("排队中");
+                } else if (deliveryStatus == Message.DELIVERY_PENDING) {
+                    showStatus("等待发送");
+                } else if (deliveryStatus == Message.DELIVERY_SENT) {
+                    showStatus("发送中");
+                } else {
+                    statusText.setVisibility(View.GONE);
+                }
+            }
+        }
+
+        // 缩略图从内存缓存中取，未缓存时在后台解码，视图已被复用时丢弃结果
+        private void bindThumbnail(ImageAttachment attachment) {
+            String path = attachment != null ? attachment.getThumbnailPath() : null;
+            thumbnail.setTag(path);
+            if (path == null) {
+                thumbnail.setImageDrawable(null);
+                return;
+            }
+            ThumbnailCache cache = ThumbnailCache.getInstance();
+            Bitmap cached = cache.get(path);
+            if (cached != null) {
+                thumbnail.setImageBitmap(cached);
+                return;
+            }
+            thumbnail.setImageDrawable(null);
+            cache.load(path, (loadedPath, bitmap) -> {
+                if (bitmap != null && loadedPath.equals(thumbnail.getTag())) {
+                    thumbnail.setImageBitmap(bitmap);
+                }
+            });
+        }
+
+        private void showStatus(String status) {
+            statusText.setVisibility(View.VISIBLE);
+            statusText.setText(status);
         }
     }
 
@@ -110,12 +428,35 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
     }
 
     static class AiThinkMessageViewHolder extends RecyclerView.ViewHolder {
+        TextView headerText;
         TextView messageText;
+        boolean expanded = false;
+        // 折叠时已绑定的预览，内容增长但预览不变时不重新设置文本
+        private String boundPreview;
 
         public AiThinkMessageViewHolder(@NonNull View itemView) {
             super(itemView);
+            headerText = itemView.findViewById(R.id.ai_think_header);
             messageText = itemView.findViewById(R.id.ai_think_message_text);
         }
+
+        public void bind(Message message, boolean expanded) {
+            this.expanded = expanded;
+            if (expanded) {
+                headerText.setText("▾ 思考过程");
+                messageText.setMaxLines(Integer.MAX_VALUE);
+                messageText.setText(message.getFullContent());
+                boundPreview = null;
+                return;
+            }
+            headerText.setText("▸ 思考过程");
+            messageText.setMaxLines(2);
+            String preview = ThinkingText.preview(message.getContent());
+            if (!preview.equals(boundPreview)) {
+                messageText.setText(preview);
+                boundPreview = preview;
+            }
+        }
     }
     
     static class ConfirmMessageViewHolder extends RecyclerView.ViewHolder {
@@ -133,18 +474,17 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
         }
         
         public void bind(Message message, ConfirmMessageListener listener) {
-            messageText.setText(message.getContent());
-            
-            // 尝试从confirmData中解析更多信息
-            String conversationId = "";
-            
-            try {
-                if (message.getConfirmData() != null) {
-                    JSONObject confirmData = new JSONObject(message.getConfirmData());
-                    conversationId = confirmData.getString("conversation_id");
+            // 使用已解析的确认数据，绑定时不做JSON解析
+            ConfirmPayload confirmPayload = message.getConfirmPayload();
+            String conversationId = confirmPayload != null ? confirmPayload.getConversationId() : "";
+            if (confirmPayload != null && !confirmPayload.getConfirmList().isEmpty()) {
+                StringBuilder text = new StringBuilder(message.getContent());
+                for (String item : confirmPayload.getConfirmList()) {
+                    text.append("\n• ").append(item);
                 }
-            } catch (JSONException e) {
-                e.printStackTrace();
+                messageText.setText(text);
+            } else {
+                messageText.setText(message.getContent());
             }
             
             // 根据消息的确认状态设置按钮和标题
@@ -167,10 +507,9 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
             // 设置确认按钮点击事件
             final String finalConversationId = conversationId;
             confirmButton.setOnClickListener(v -> {
-                if (listener != null && message.getConfirmStatus() == Message.STATUS_PENDING) {
+                if (listener != null && confirmButton.isEnabled()) {
                     listener.onConfirm(finalConversationId);
-                    // 立即更新UI状态以提供即时反馈
-                    message.setConfirmStatus(Message.STATUS_CONFIRMED);
+                    // 立即更新UI状态以提供即时反馈，消息状态由ChatSession更新
                     confirmButton.setEnabled(false);
                     cancelButton.setEnabled(false);
                     confirmTitle.setText("已确认");
@@ -179,10 +518,9 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
             
             // 设置取消按钮点击事件
             cancelButton.setOnClickListener(v -> {
-                if (listener != null && message.getConfirmStatus() == Message.STATUS_PENDING) {
+                if (listener != null && confirmButton.isEnabled()) {
                     listener.onCancel(finalConversationId);
-                    // 立即更新UI状态以提供即时反馈
-                    message.setConfirmStatus(Message.STATUS_CANCELED);
+                    // 立即更新UI状态以提供即时反馈，消息状态由ChatSession更新
                     confirmButton.setEnabled(false);
                     cancelButton.setEnabled(false);
                     confirmTitle.setText("已取消");
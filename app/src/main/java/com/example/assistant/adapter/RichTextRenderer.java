@@ -0,0 +1,484 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.adapter;
+
+import android.graphics.Typeface;
+import android.text.Editable;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.SpannedString;
+import android.text.style.BackgroundColorSpan;
+import android.text.style.BulletSpan;
+import android.text.style.QuoteSpan;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+import android.text.style.SuperscriptSpan;
+import android.text.style.TypefaceSpan;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// AI回答的富文本渲染：支持常用Markdown（标题、列表、引用、代码块、粗体、斜体、行内代码）
+// 和简单的数学公式（$...$），结果按消息ID和消息版本缓存。
+// 流式追加时只重新渲染最后一个未闭合的段落，之前的段落直接复用，
+// 并且只把变化的尾部写入TextView的可编辑文本，不复制整段回答；
+// 回滚到已渲染过的消息时直接返回缓存的SpannedString，不再解析
+public class RichTextRenderer {
+
+    public static final int DEFAULT_MAX_ENTRIES = 100;
+
+    private static final int CODE_BACKGROUND = 0x14000000;
+    private static final int MATH_BACKGROUND = 0x0F3F51B5;
+
+    // 缓存项：消息版本、源文本、可继续追加的渲染结果，以及已稳定部分的位置
+    private static final class Entry {
+        long version;
+        String source;
+        SpannableStringBuilder builder;
+        SpannedString snapshot;  // builder的不可变副本，需要时才创建
+        int stableSourceEnd;     // 源文本中不会再变化的前缀长度（段落边界）
+        int stableRenderedEnd;   // 对应的渲染结果长度
+    }
+
+    private final Map<Long, Entry> cache;
+
+    // 统计信息
+    private int fullRenderCount = 0;
+    private int tailRenderCount = 0;
+    private int cacheHitCount = 0;
+
+    public RichTextRenderer() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public RichTextRenderer(final int maxEntries) {
+        this.cache = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    // 渲染消息内容，返回的SpannedString不可变，可以直接交给TextView而不会被再次复制。
+    // 版本相同时直接返回缓存结果，不比较内容；版本变化但内容没变（例如只更新了送达状态）时也复用
+    public CharSequence render(long messageId, long version, String content) {
+        if (content == null) {
+            content = "";
+        }
+
+        Entry entry = cache.get(messageId);
+        if (entry != null && entry.version == version) {
+            cacheHitCount++;
+        } else if (entry != null && entry.source.equals(content)) {
+            cacheHitCount++;
+            entry.source = content;
+        } else if (entry != null && content.length() > entry.source.length() && content.startsWith(entry.source)) {
+            renderTail(entry, content);
+        } else {
+            entry = renderFull(messageId, content);
+        }
+        entry.version = version;
+
+        if (entry.snapshot == null) {
+            entry.snapshot = new SpannedString(entry.builder);
+        }
+        return entry.snapshot;
+    }
+
+    // 流式追加时直接更新TextView的可编辑文本。target必须是同一消息上一次渲染的结果，
+    // shownVersion是当时的消息版本；只替换稳定位置之后的尾部，已稳定的段落不复制也不重新排版。
+    // 无法增量更新时（缓存已被淘汰或target不是上一次的结果）返回false，调用方应设置render的完整结果
+    public boolean renderInto(long messageId, long shownVersion, long version, String content, Editable target) {
+        Entry entry = cache.get(messageId);
+        if (entry == null || content == null || entry.version != shownVersion
+                || target.length() != entry.builder.length()) {
+            return false;
+        }
+        String shownContent = entry.source;
+        if (version == shownVersion) {
+            cacheHitCount++;
+            return true;
+        }
+        if (content.length() == shownContent.length()) {
+            if (!content.equals(shownContent)) {
+                return false;
+            }
+            cacheHitCount++;
+            entry.source = content;
+            entry.version = version;
+            return true;
+        }
+        // 流式内容只会追加，只比较上次的不稳定尾部
+        int stableEnd = entry.stableSourceEnd;
+        if (content.length() < shownContent.length()
+                || !content.regionMatches(stableEnd, shownContent, stableEnd, shownContent.length() - stableEnd)) {
+            return false;
+        }
+
+        int start = entry.stableRenderedEnd;
+        renderTail(entry, content);
+        entry.version = version;
+        // 旧尾部的样式先移除，替换时再从重新渲染的结果复制过来
+        for (Object span : target.getSpans(start, target.length(), Object.class)) {
+            if (target.getSpanStart(span) >= start) {
+                target.removeSpan(span);
+            }
+        }
+        target.replace(start, target.length(), entry.builder, start, entry.builder.length());
+        return true;
+    }
+
+    // 流式追加：丢弃最后一个未稳定的段落，从稳定位置开始重新渲染尾部
+    private void renderTail(Entry entry, String content) {
+        tailRenderCount++;
+        entry.builder.delete(entry.stableRenderedEnd, entry.builder.length());
+        entry.source = content;
+        entry.snapshot = null;
+        renderBlocks(content, entry);
+    }
+
+    private Entry renderFull(long messageId, String content) {
+        fullRenderCount++;
+        Entry entry = new Entry();
+        entry.builder = new SpannableStringBuilder();
+        entry.stableSourceEnd = 0;
+        entry.stableRenderedEnd = 0;
+        entry.source = content;
+        cache.put(messageId, entry);
+        renderBlocks(content, entry);
+        return entry;
+    }
+
+    // 移除指定消息的缓存
+    public void evict(long messageId) {
+        cache.remove(messageId);
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    public int getFullRenderCount() {
+        return fullRenderCount;
+    }
+
+    public int getTailRenderCount() {
+        return tailRenderCount;
+    }
+
+    public int getCacheHitCount() {
+        return cacheHitCount;
+    }
+
+    // 从稳定位置开始按行渲染，遇到代码块外的空行时推进稳定位置
+    private static void renderBlocks(String source, Entry entry) {
+        SpannableStringBuilder out = entry.builder;
+        int pos = entry.stableSourceEnd;
+        boolean inFence = false;
+        int fenceStart = -1;
+        StringBuilder paragraph = new StringBuilder();
+        int length = source.length();
+
+        while (pos < length) {
+            int lineEnd = source.indexOf('\n', pos);
+            boolean complete = lineEnd >= 0;
+            if (!complete) {
+                lineEnd = length;
+            }
+            String line = source.substring(pos, lineEnd);
+            String trimmed = line.trim();
+
+            if (trimmed.startsWith("```")) {
+                flushParagraph(out, paragraph);
+                if (inFence) {
+                    // 代码块结束
+                    applySpan(out, new TypefaceSpan("monospace"), fenceStart, out.length());
+                    applySpan(out, new BackgroundColorSpan(CODE_BACKGROUND), fenceStart, out.length());
+                    inFence = false;
+                } else {
+                    inFence = true;
+                    fenceStart = out.length();
+                }
+            } else if (inFence) {
+                out.append(line).append('\n');
+            } else if (trimmed.isEmpty()) {
+                flushParagraph(out, paragraph);
+                if (complete) {
+                    out.append('\n');
+                    // 代码块外的空行之前的内容不会再因为追加而改变
+                    entry.stableSourceEnd = lineEnd + 1;
+                    entry.stableRenderedEnd = out.length();
+                }
+            } else if (isBlockLine(trimmed)) {
+                flushParagraph(out, paragraph);
+                renderBlockLine(out, trimmed);
+            } else {
+                // 普通文本行合并为段落，段落内的行内格式可以跨行
+                if (paragraph.length() > 0) {
+                    paragraph.append('\n');
+                }
+                paragraph.append(line);
+            }
+
+            pos = complete ? lineEnd + 1 : length;
+        }
+
+        flushParagraph(out, paragraph);
+        if (inFence) {
+            // 流式过程中尚未闭合的代码块也按代码样式显示
+            applySpan(out, new TypefaceSpan("monospace"), fenceStart, out.length());
+            applySpan(out, new BackgroundColorSpan(CODE_BACKGROUND), fenceStart, out.length());
+        }
+        // 去掉末尾多余的换行
+        while (out.length() > entry.stableRenderedEnd && out.charAt(out.length() - 1) == '\n') {
+            out.delete(out.length() - 1, out.length());
+        }
+    }
+
+    private static boolean isBlockLine(String trimmed) {
+        return trimmed.startsWith("#")
+                || trimmed.startsWith("- ")
+                || trimmed.startsWith("* ")
+                || trimmed.startsWith("> ")
+                || isNumberedItem(trimmed);
+    }
+
+    private static boolean isNumberedItem(String trimmed) {
+        int i = 0;
+        while (i < trimmed.length() && Character.isDigit(trimmed.charAt(i))) {
+            i++;
+        }
+        return i > 0 && i + 1 < trimmed.length() && trimmed.charAt(i) == '.' && trimmed.charAt(i + 1) == ' ';
+    }
+
+    // 渲染标题、列表项和引用行
+    private static void renderBlockLine(SpannableStringBuilder out, String trimmed) {
+        int start = out.length();
+        if (trimmed.startsWith("#")) {
+            int level = 0;
+            while (level < trimmed.length() && trimmed.charAt(level) == '#') {
+                level++;
+            }
+            renderInline(out, trimmed.substring(level).trim());
+            float size = level == 1 ? 1.3f : level == 2 ? 1.2f : 1.1f;
+            applySpan(out, new StyleSpan(Typeface.BOLD), start, out.length());
+            applySpan(out, new RelativeSizeSpan(size), start, out.length());
+        } else if (trimmed.startsWith("- ") || trimmed.startsWith("* ")) {
+            renderInline(out, trimmed.substring(2));
+            applySpan(out, new BulletSpan(16), start, out.length());
+        } else if (trimmed.startsWith("> ")) {
+            renderInline(out, trimmed.substring(2));
+            applySpan(out, new QuoteSpan(), start, out.length());
+        } else {
+            // 有序列表保留编号
+            renderInline(out, trimmed);
+        }
+        out.append('\n');
+    }
+
+    private static void flushParagraph(SpannableStringBuilder out, StringBuilder paragraph) {
+        if (paragraph.length() == 0) {
+            return;
+        }
+        renderInline(out, paragraph.toString());
+        out.append('\n');
+        paragraph.setLength(0);
+    }
+
+    // 渲染行内格式，未闭合的标记按原文显示（流式时闭合后会随尾部重新渲染）
+    private static void renderInline(SpannableStringBuilder out, String text) {
+        int i = 0;
+        int length = text.length();
+        while (i < length) {
+            char c = text.charAt(i);
+            if (c == '`') {
+                int close = text.indexOf('`', i + 1);
+                if (close > i) {
+                    int start = out.length();
+                    out.append(text, i + 1, close);
+                    applySpan(out, new TypefaceSpan("monospace"), start, out.length());
+                    applySpan(out, new BackgroundColorSpan(CODE_BACKGROUND), start, out.length());
+                    i = close + 1;
+                    continue;
+                }
+            } else if (c == '$') {
+                boolean display = i + 1 < length && text.charAt(i + 1) == '$';
+                String marker = display ? "$$" : "$";
+                int close = text.indexOf(marker, i + marker.length());
+                if (close > i) {
+                    int start = out.length();
+                    renderMath(out, text.substring(i + marker.length(), close));
+                    applySpan(out, new StyleSpan(Typeface.ITALIC), start, out.length());
+                    applySpan(out, new BackgroundColorSpan(MATH_BACKGROUND), start, out.length());
+                    i = close + marker.length();
+                    continue;
+                }
+            } else if (c == '*' && i + 1 < length && text.charAt(i + 1) == '*') {
+                int close = text.indexOf("**", i + 2);
+                if (close > i + 2) {
+                    int start = out.length();
+                    renderInline(out, text.substring(i + 2, close));
+                    applySpan(out, new StyleSpan(Typeface.BOLD), start, out.length());
+                    i = close + 2;
+                    continue;
+                }
+            } else if ((c == '*' || c == '_') && (i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1)))
+                    && i + 1 < length && !Character.isWhitespace(text.charAt(i + 1))) {
+                // 单个*和_只在词边界上表示斜体，3*4=12、snake_case和x_1按原文显示
+                int close = findClosingMarker(text, c, i + 2);
+                if (close > i + 1) {
+                    int start = out.length();
+                    renderInline(out, text.substring(i + 1, close));
+                    applySpan(out, new StyleSpan(Typeface.ITALIC), start, out.length());
+                    i = close + 1;
+                    continue;
+                }
+            }
+            out.append(c);
+            i++;
+        }
+    }
+
+    // 查找闭合的斜体标记：前面不是空白，后面不是字母或数字，找不到时返回-1
+    private static int findClosingMarker(String text, char marker, int from) {
+        for (int close = text.indexOf(marker, from); close >= 0; close = text.indexOf(marker, close + 1)) {
+            boolean afterWord = !Character.isWhitespace(text.charAt(close - 1));
+            boolean atBoundary = close + 1 == text.length() || !Character.isLetterOrDigit(text.charAt(close + 1));
+            if (afterWord && atBoundary) {
+                return close;
+            }
+        }
+        return -1;
+    }
+
+    // 把常用的TeX命令转换为Unicode符号，上标用SuperscriptSpan显示
+    private static void renderMath(SpannableStringBuilder out, String tex) {
+        int i = 0;
+        int length = tex.length();
+        while (i < length) {
+            char c = tex.charAt(i);
+            if (c == '\\') {
+                int end = i + 1;
+                while (end < length && Character.isLetter(tex.charAt(end))) {
+                    end++;
+                }
+                String command = tex.substring(i + 1, end);
+                if ("frac".equals(command)) {
+                    String[] numerator = readGroup(tex, end);
+                    String[] denominator = numerator != null ? readGroup(tex, Integer.parseInt(numerator[1])) : null;
+                    if (denominator != null) {
+                        appendMathOperand(out, numerator[0]);
+                        out.append('/');
+                        appendMathOperand(out, denominator[0]);
+                        i = Integer.parseInt(denominator[1]);
+                        continue;
+                    }
+                } else if ("sqrt".equals(command)) {
+                    String[] radicand = readGroup(tex, end);
+                    if (radicand != null) {
+                        out.append('√');
+                        appendMathOperand(out, radicand[0]);
+                        i = Integer.parseInt(radicand[1]);
+                        continue;
+                    }
+                }
+                String symbol = mathSymbol(command);
+                out.append(symbol != null ? symbol : command);
+                i = end;
+                continue;
+            } else if (c == '^' || c == '_') {
+                String[] group = readGroup(tex, i + 1);
+                String script;
+                int next;
+                if (group != null) {
+                    script = group[0];
+                    next = Integer.parseInt(group[1]);
+                } else if (i + 1 < length) {
+                    script = tex.substring(i + 1, i + 2);
+                    next = i + 2;
+                } else {
+                    out.append(c);
+                    i++;
+                    continue;
+                }
+                int start = out.length();
+                renderMath(out, script);
+                if (c == '^') {
+                    applySpan(out, new SuperscriptSpan(), start, out.length());
+                }
+                applySpan(out, new RelativeSizeSpan(0.75f), start, out.length());
+                i = next;
+                continue;
+            } else if (c == '{' || c == '}') {
+                i++;
+                continue;
+            }
+            out.append(c);
+            i++;
+        }
+    }
+
+    // 多字符的分子分母加括号，避免歧义
+    private static void appendMathOperand(SpannableStringBuilder out, String operand) {
+        boolean wrap = operand.length() > 1;
+        if (wrap) {
+            out.append('(');
+        }
+        renderMath(out, operand);
+        if (wrap) {
+            out.append(')');
+        }
+    }
+
+    // 读取从pos开始的{...}分组，返回{内容, 分组后的位置}，不是分组时返回null
+    private static String[] readGroup(String tex, int pos) {
+        if (pos >= tex.length() || tex.charAt(pos) != '{') {
+            return null;
+        }
+        int depth = 0;
+        for (int i = pos; i < tex.length(); i++) {
+            char c = tex.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+                if (depth == 0) {
+                    return new String[]{tex.substring(pos + 1, i), String.valueOf(i + 1)};
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String mathSymbol(String command) {
+        switch (command) {
+            case "times": return "×";
+            case "div": return "÷";
+            case "cdot": return "·";
+            case "pm": return "±";
+            case "leq": case "le": return "≤";
+            case "geq": case "ge": return "≥";
+            case "neq": case "ne": return "≠";
+            case "approx": return "≈";
+            case "infty": return "∞";
+            case "pi": return "π";
+            case "alpha": return "α";
+            case "beta": return "β";
+            case "theta": return "θ";
+            case "angle": return "∠";
+            case "triangle": return "△";
+            case "degree": case "circ": return "°";
+            case "left": case "right": return "";
+            default: return null;
+        }
+    }
+
+    private static void applySpan(SpannableStringBuilder out, Object span, int start, int end) {
+        if (end > start) {
+            out.setSpan(span, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.adapter;
+
+import android.graphics.Typeface;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.BackgroundColorSpan;
+import android.text.style.StyleSpan;
+import android.text.format.DateFormat;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.assistant.R;
+import com.example.assistant.model.Message;
+import com.example.assistant.model.SearchResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// 聊天记录搜索结果列表，显示命中位置附近的片段并高亮关键词
+public class SearchResultAdapter extends RecyclerView.Adapter<SearchResultAdapter.SearchResultViewHolder> {
+
+    // 片段长度和命中位置之前保留的字数
+    private static final int SNIPPET_LENGTH = 120;
+    private static final int SNIPPET_LEADING = 20;
+    private static final int HIGHLIGHT_BACKGROUND = 0x66FFD54F;
+
+    // 点击结果的回调
+    public interface OnResultClickListener {
+        void onResultClick(SearchResult result);
+    }
+
+    private List<SearchResult> results = new ArrayList<>();
+    private List<String> terms = new ArrayList<>();
+    private final OnResultClickListener listener;
+
+    public SearchResultAdapter(OnResultClickListener listener) {
+        this.listener = listener;
+    }
+
+    @NonNull
+    @Override
+    public SearchResultViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_search_result, parent, false);
+        return new SearchResultViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull SearchResultViewHolder holder, int position) {
+        SearchResult result = results.get(position);
+        Message message = result.getMessage();
+        holder.resultText.setText(buildSnippet(message.getContent(), terms));
+        String sender = message.getType() == Message.TYPE_USER ? "我" : "AI";
+        holder.metaText.setText(sender + " · " + DateFormat.format("yyyy-MM-dd HH:mm", message.getCreatedTime()));
+        holder.itemView.setOnClickListener(v -> listener.onResultClick(result));
+    }
+
+    @Override
+    public int getItemCount() {
+        return results.size();
+    }
+
+    // 更新结果和需要高亮的关键词
+    public void setResults(List<SearchResult> results, List<String> terms) {
+        this.results = results;
+        this.terms = terms;
+        notifyDataSetChanged();
+    }
+
+    // 截取第一个命中位置附近的片段，并高亮其中所有关键词（不区分大小写）
+    static CharSequence buildSnippet(String content, List<String> terms) {
+        String lower = content.toLowerCase(Locale.ROOT);
+        int first = -1;
+        for (String term : terms) {
+            int index = lower.indexOf(term);
+            if (index >= 0 && (first < 0 || index < first)) {
+                first = index;
+            }
+        }
+
+        int start = first > SNIPPET_LEADING ? first - SNIPPET_LEADING : 0;
+        int end = Math.min(content.length(), start + SNIPPET_LENGTH);
+        SpannableStringBuilder snippet = new SpannableStringBuilder();
+        if (start > 0) {
+            snippet.append('…');
+        }
+        int offset = snippet.length() - start;
+        snippet.append(content, start, end);
+        if (end < content.length()) {
+            snippet.append('…');
+        }
+
+        for (String term : terms) {
+            if (term.isEmpty()) {
+                continue;
+            }
+            int index = lower.indexOf(term, start);
+            while (index >= 0 && index + term.length() <= end) {
+                snippet.setSpan(new BackgroundColorSpan(HIGHLIGHT_BACKGROUND), index + offset,
+                        index + offset + term.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                snippet.setSpan(new StyleSpan(Typeface.BOLD), index + offset,
+                        index + offset + term.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                index = lower.indexOf(term, index + term.length());
+            }
+        }
+        return snippet;
+    }
+
+    static class SearchResultViewHolder extends RecyclerView.ViewHolder {
+        TextView resultText;
+        TextView metaText;
+
+        public SearchResultViewHolder(@NonNull View itemView) {
+            super(itemView);
+            resultText = itemView.findViewById(R.id.search_result_text);
+            metaText = itemView.findViewById(R.id.search_result_meta);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.adapter;
+
+import androidx.core.text.PrecomputedTextCompat;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+// 长文本的后台预计算：在后台线程上用PrecomputedTextCompat完成字形测量，
+// 结果按消息ID、消息版本和文本测量参数缓存，绑定时只需设置已测量好的文本
+public class TextPrecomputer {
+
+    public static final int DEFAULT_MAX_ENTRIES = 50;
+
+    // 已完成的预计算结果
+    private static final class Entry {
+        final long version;
+        final PrecomputedTextCompat.Params params;
+        final PrecomputedTextCompat text;
+
+        Entry(long version, PrecomputedTextCompat.Params params, PrecomputedTextCompat text) {
+            this.version = version;
+            this.params = params;
+            this.text = text;
+        }
+
+        boolean matches(long version, PrecomputedTextCompat.Params params) {
+            return this.version == version && this.params.equals(params);
+        }
+    }
+
+    // 进行中的预计算任务，完成后写入缓存
+    private final class Task extends FutureTask<PrecomputedTextCompat> {
+        final long messageId;
+        final long version;
+        final PrecomputedTextCompat.Params params;
+
+        Task(long messageId, long version, CharSequence text, PrecomputedTextCompat.Params params) {
+            super(() -> PrecomputedTextCompat.create(text, params));
+            this.messageId = messageId;
+            this.version = version;
+            this.params = params;
+        }
+
+        @Override
+        protected void set(PrecomputedTextCompat result) {
+            cache.put(messageId, new Entry(version, params, result));
+            super.set(result);
+        }
+
+        @Override
+        protected void done() {
+            pending.remove(messageId, this);
+        }
+
+        boolean matches(long version, PrecomputedTextCompat.Params params) {
+            return this.version == version && this.params.equals(params);
+        }
+    }
+
+    private final Map<Long, Entry> cache;
+    private final Map<Long, Task> pending = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "TextPrecomputer");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    public TextPrecomputer() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public TextPrecomputer(final int maxEntries) {
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    // 获取已完成的预计算结果，版本或测量参数不一致时返回null
+    public PrecomputedTextCompat get(long messageId, long version, PrecomputedTextCompat.Params params) {
+        Entry entry = cache.get(messageId);
+        return entry != null && entry.matches(version, params) ? entry.text : null;
+    }
+
+    // 提交预计算，同一版本已在进行中时复用原任务
+    public Future<PrecomputedTextCompat> precompute(long messageId, long version, CharSequence text,
+                                                   PrecomputedTextCompat.Params params) {
+        Task task = pending.get(messageId);
+        if (task != null && task.matches(version, params)) {
+            return task;
+        }
+        task = new Task(messageId, version, text, params);
+        pending.put(messageId, task);
+        executor.execute(task);
+        return task;
+    }
+
+    // 等待已提交的预计算全部完成，用于基准测试
+    boolean awaitIdle(long timeoutMs) throws Exception {
+        Future<Boolean> marker = executor.submit((Callable<Boolean>) () -> true);
+        return marker.get(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    // 停止后台线程并清空缓存
+    public void shutdown() {
+        executor.shutdownNow();
+        pending.clear();
+        cache.clear();
+    }
+}
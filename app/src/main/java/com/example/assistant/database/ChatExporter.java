@@ -0,0 +1,290 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.database;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.assistant.model.ImageAttachment;
+import com.example.assistant.model.Message;
+import com.example.assistant.util.DatabaseHelper;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// 把一个对话的聊天记录导出为Markdown或JSON Lines。
+// 按消息ID分页读取，边读边写入带缓冲的输出流，内存中最多只有一页消息，
+// 导出几个月的记录也不会一次性加载。导出在后台线程上执行，进度回调到主线程
+public class ChatExporter {
+
+    static final int PAGE_SIZE = 200;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // 导出格式
+    public enum Format {
+        MARKDOWN("text/markdown", ".md"),
+        JSON_LINES("application/x-ndjson", ".jsonl");
+
+        public final String mimeType;
+        public final String extension;
+
+        Format(String mimeType, String extension) {
+            this.mimeType = mimeType;
+            this.extension = extension;
+        }
+    }
+
+    // 聊天记录的分页来源，生产环境直接查询数据库
+    public interface Source {
+        int count(String threadId);
+        List<Message> loadPage(String threadId, long afterId, int limit);
+
+        // 导出器关闭时在后台线程上调用
+        default void close() {
+        }
+    }
+
+    // 导出进度回调，在主线程上调用。写入失败或读取数据库出错（SQLiteException等运行时异常）都报告为失败
+    public interface Listener {
+        void onProgress(int exported, int total);
+        void onFinished(int exported, boolean cancelled);
+        void onFailed(Exception e);
+    }
+
+    private final Source source;
+    private final Executor executor;
+    private final Executor callbackExecutor;
+    private final TimeZone timeZone;
+    private volatile boolean cancelled = false;
+
+    public ChatExporter(Source source, Executor executor, Executor callbackExecutor, TimeZone timeZone) {
+        this.source = source;
+        this.executor = executor;
+        this.callbackExecutor = callbackExecutor;
+        this.timeZone = timeZone;
+    }
+
+    // 创建读取本地数据库的导出器。使用独立的DatabaseHelper和线程，
+    // 导出期间聊天记录的写入不需要排队等待
+    public static ChatExporter create(Context context) {
+        DatabaseHelper dbHelper = new DatabaseHelper(context.getApplicationContext());
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        return new ChatExporter(new Source() {
+            @Override
+            public int count(String threadId) {
+                return dbHelper.countChatMessages(threadId);
+            }
+
+            @Override
+            public List<Message> loadPage(String threadId, long afterId, int limit) {
+                return dbHelper.getChatMessagesAfter(threadId, afterId, limit);
+            }
+
+            @Override
+            public void close() {
+                dbHelper.close();
+            }
+        }, Executors.newSingleThreadExecutor(), mainHandler::post, TimeZone.getDefault());
+    }
+
+    // 在后台线程上导出，完成或失败后关闭输出流
+    public void start(String threadId, Format format, OutputStream out, Listener listener) {
+        cancelled = false;
+        executor.execute(() -> {
+            try {
+                int exported = export(threadId, format, out, (done, total) ->
+                        callbackExecutor.execute(() -> listener.onProgress(done, total)));
+                boolean wasCancelled = cancelled;
+                callbackExecutor.execute(() -> listener.onFinished(exported, wasCancelled));
+            } catch (IOException | RuntimeException e) {
+                callbackExecutor.execute(() -> listener.onFailed(e));
+            }
+        });
+    }
+
+    // 取消正在进行的导出，当前页写完后停止
+    public void cancel() {
+        cancelled = true;
+    }
+
+    // 取消正在进行的导出，等它停止后关闭数据来源并结束后台线程，之后不能再导出
+    public void shutdown() {
+        cancelled = true;
+        executor.execute(source::close);
+        if (executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+    // 在当前线程上导出，返回写入的消息数量。每写完一页报告一次进度
+    int export(String threadId, Format format, OutputStream out, ProgressCallback progress) throws IOException {
+        int total = source.count(threadId);
+        int exported = 0;
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            TranscriptFormatter formatter = new TranscriptFormatter(format, writer, timeZone);
+            formatter.writeHeader(System.currentTimeMillis());
+            progress.onProgress(0, total);
+
+            long afterId = Long.MIN_VALUE;
+            while (!cancelled) {
+                List<Message> page = source.loadPage(threadId, afterId, PAGE_SIZE);
+                for (Message message : page) {
+                    formatter.write(message);
+                }
+                exported += page.size();
+                if (page.size() < PAGE_SIZE) {
+                    break;
+                }
+                afterId = page.get(page.size() - 1).getId();
+                // 导出期间新增的消息也会被导出，进度不超过100%
+                progress.onProgress(exported, Math.max(total, exported));
+            }
+            progress.onProgress(exported, Math.max(total, exported));
+        }
+        return exported;
+    }
+
+    interface ProgressCallback {
+        void onProgress(int exported, int total);
+    }
+
+    // 单条消息的格式化。思考过程不属于对话内容，不导出
+    static class TranscriptFormatter {
+        private final Format format;
+        private final Writer writer;
+        private final SimpleDateFormat dayFormat;
+        private final SimpleDateFormat timeFormat;
+        private String currentDay;
+
+        TranscriptFormatter(Format format, Writer writer, TimeZone timeZone) {
+            this.format = format;
+            this.writer = writer;
+            dayFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.ROOT);
+            dayFormat.setTimeZone(timeZone);
+            timeFormat = new SimpleDateFormat("HH:mm", Locale.ROOT);
+            timeFormat.setTimeZone(timeZone);
+        }
+
+        void writeHeader(long exportTime) throws IOException {
+            if (format == Format.MARKDOWN) {
+                Date date = new Date(exportTime);
+                writer.write("# 聊天记录\n\n导出时间：" + dayFormat.format(date) + " " + timeFormat.format(date) + "\n");
+            }
+        }
+
+        void write(Message message) throws IOException {
+            if (message.getType() == Message.TYPE_AI_THINK) {
+                return;
+            }
+            if (format == Format.MARKDOWN) {
+                writeMarkdown(message);
+            } else {
+                writeJsonLine(message);
+            }
+        }
+
+        private void writeMarkdown(Message message) throws IOException {
+            Date date = new Date(message.getCreatedTime());
+            // 每天的消息放在一个二级标题下
+            String day = dayFormat.format(date);
+            if (!day.equals(currentDay)) {
+                currentDay = day;
+                writer.write("\n## " + day + "\n");
+            }
+
+            writer.write("\n**" + senderOf(message) + "** " + timeFormat.format(date) + "\n\n");
+            if (message.getType() == Message.TYPE_IMAGE) {
+                // 导出文件中不包含图片本身，只标记这里发送过照片
+                writer.write(message.getContent().isEmpty() ? "[图片]" : "[图片] ");
+            }
+            writer.write(message.getContent());
+            writer.write('\n');
+            if (message.getType() == Message.TYPE_CONFIRM) {
+                if (message.getConfirmPayload() != null) {
+                    for (String item : message.getConfirmPayload().getConfirmList()) {
+                        writer.write("- " + item + "\n");
+                    }
+                }
+                writer.write("\n> " + confirmStatusOf(message) + "\n");
+            }
+        }
+
+        private void writeJsonLine(Message message) throws IOException {
+            try {
+                JSONObject line = new JSONObject();
+                line.put("id", message.getId());
+                line.put("time", message.getCreatedTime());
+                line.put("role", roleOf(message));
+                line.put("content", message.getContent());
+                ImageAttachment attachment = message.getAttachment();
+                if (attachment != null && attachment.isUploaded()) {
+                    line.put("image_url", attachment.getUploadUrl());
+                }
+                if (message.getType() == Message.TYPE_CONFIRM) {
+                    line.put("confirm_status", confirmStatusOf(message));
+                    if (message.getConfirmPayload() != null) {
+                        line.put("confirm_list", new JSONArray(message.getConfirmPayload().getConfirmList()));
+                    }
+                }
+                writer.write(line.toString());
+                writer.write('\n');
+            } catch (JSONException e) {
+                throw new IOException("Failed to encode message " + message.getId(), e);
+            }
+        }
+
+        private static String senderOf(Message message) {
+            switch (message.getType()) {
+                case Message.TYPE_USER:
+                case Message.TYPE_IMAGE:
+                    return "孩子";
+                case Message.TYPE_CONFIRM:
+                    return "确认请求";
+                default:
+                    return "AI";
+            }
+        }
+
+        private static String roleOf(Message message) {
+            switch (message.getType()) {
+                case Message.TYPE_USER:
+                case Message.TYPE_IMAGE:
+                    return "user";
+                case Message.TYPE_CONFIRM:
+                    return "confirm";
+                default:
+                    return "assistant";
+            }
+        }
+
+        private static String confirmStatusOf(Message message) {
+            switch (message.getConfirmStatus()) {
+                case Message.STATUS_CONFIRMED:
+                    return "已确认";
+                case Message.STATUS_CANCELED:
+                    return "已取消";
+                default:
+                    return "未处理";
+            }
+        }
+    }
+}
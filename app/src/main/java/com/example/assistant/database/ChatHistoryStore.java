@@ -0,0 +1,200 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.database;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.assistant.model.CachedAnswer;
+import com.example.assistant.model.Message;
+import com.example.assistant.model.OutboundMessage;
+import com.example.assistant.model.SearchResult;
+import com.example.assistant.util.DatabaseHelper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// 聊天记录存储，所有数据库操作都在单个后台线程上顺序执行，结果回调到主线程
+public class ChatHistoryStore {
+
+    // 分页加载回调
+    public interface PageCallback {
+        void onPageLoaded(List<Message> messages, boolean hasMore);
+    }
+
+    // 对话列表加载回调
+    public interface ThreadsCallback {
+        void onThreadsLoaded(List<String> threadIds);
+    }
+
+    // 搜索结果回调
+    public interface SearchCallback {
+        void onSearchResults(String query, List<SearchResult> results);
+    }
+
+    // 待发送消息加载回调
+    public interface OutboundCallback {
+        void onOutboundLoaded(List<OutboundMessage> messages);
+    }
+
+    // 单条消息的回调，消息不存在时为null
+    public interface MessageCallback {
+        void onMessageLoaded(Message message);
+    }
+
+    // 回答缓存加载回调
+    public interface AnswerCacheCallback {
+        void onAnswersLoaded(List<CachedAnswer> answers);
+    }
+
+    private final DatabaseHelper dbHelper;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public ChatHistoryStore(Context context) {
+        this.dbHelper = new DatabaseHelper(context.getApplicationContext());
+    }
+
+    // 保存单条消息
+    public void saveMessage(String threadId, Message message) {
+        saveMessages(threadId, Collections.singletonList(message));
+    }
+
+    // 批量保存同一对话的消息，在一个事务中写入
+    public void saveMessages(String threadId, List<Message> messages) {
+        if (messages == null || messages.isEmpty()) {
+            return;
+        }
+        final List<Message> snapshot = new ArrayList<>(messages);
+        executor.execute(() -> dbHelper.saveChatMessages(threadId, snapshot));
+    }
+
+    // 更新确认消息状态
+    public void updateConfirmStatus(long messageId, int confirmStatus) {
+        executor.execute(() -> dbHelper.updateChatMessageConfirmStatus(messageId, confirmStatus));
+    }
+
+    // 更新用户消息送达状态
+    public void updateDeliveryStatus(long messageId, int deliveryStatus) {
+        executor.execute(() -> dbHelper.updateChatMessageDeliveryStatus(messageId, deliveryStatus));
+    }
+
+    // 保存待发送消息，与消息本身在同一个线程上顺序写入
+    public void saveOutbound(OutboundMessage message) {
+        executor.execute(() -> dbHelper.saveOutboundMessage(message));
+    }
+
+    // 删除已确认的待发送消息
+    public void deleteOutbound(long clientId) {
+        executor.execute(() -> dbHelper.deleteOutboundMessage(clientId));
+    }
+
+    // 加载所有未确认的待发送消息，按发送顺序回调
+    public void loadOutbound(OutboundCallback callback) {
+        executor.execute(() -> {
+            final List<OutboundMessage> messages = dbHelper.getOutboundMessages();
+            mainHandler.post(() -> callback.onOutboundLoaded(messages));
+        });
+    }
+
+    // 保存缓存的回答
+    public void saveCachedAnswer(CachedAnswer answer) {
+        executor.execute(() -> dbHelper.saveCachedAnswer(answer));
+    }
+
+    // 删除缓存的回答
+    public void deleteCachedAnswer(String key) {
+        executor.execute(() -> dbHelper.deleteCachedAnswer(key));
+    }
+
+    // 加载所有缓存的回答
+    public void loadCachedAnswers(AnswerCacheCallback callback) {
+        executor.execute(() -> {
+            final List<CachedAnswer> answers = dbHelper.getCachedAnswers();
+            mainHandler.post(() -> callback.onAnswersLoaded(answers));
+        });
+    }
+
+    // 加载所有已有消息的对话ID
+    public void loadThreadIds(ThreadsCallback callback) {
+        executor.execute(() -> {
+            final List<String> threadIds = dbHelper.getChatThreadIds();
+            mainHandler.post(() -> callback.onThreadsLoaded(threadIds));
+        });
+    }
+
+    // 加载指定对话中ID小于beforeId的一页消息，按时间正序回调
+    public void loadPage(String threadId, long beforeId, int pageSize, PageCallback callback) {
+        executor.execute(() -> {
+            // 多查一条用于判断是否还有更早的消息
+            List<Message> messages = dbHelper.getChatMessagesBefore(threadId, beforeId, pageSize + 1);
+            boolean hasMore = messages.size() > pageSize;
+            if (hasMore) {
+                messages = new ArrayList<>(messages.subList(1, messages.size()));
+            }
+            final List<Message> page = compactThinking(messages);
+            mainHandler.post(() -> callback.onPageLoaded(page, hasMore));
+        });
+    }
+
+    // 加载指定对话中的一条消息
+    public void loadMessage(String threadId, long messageId, MessageCallback callback) {
+        executor.execute(() -> {
+            List<Message> messages = dbHelper.getChatMessagesBetween(threadId, messageId, messageId + 1);
+            final Message message = messages.isEmpty() ? null : messages.get(0);
+            mainHandler.post(() -> callback.onMessageLoaded(message));
+        });
+    }
+
+    // 加载从指定消息开始、到beforeId之前的所有消息，并在前面多带contextSize条更早的消息，
+    // 用于跳转到搜索结果时补齐目标消息和当前内存列表之间的消息
+    public void loadFrom(String threadId, long messageId, int contextSize, long beforeId, PageCallback callback) {
+        executor.execute(() -> {
+            List<Message> messages = dbHelper.getChatMessagesBefore(threadId, messageId, contextSize + 1);
+            boolean hasMore = messages.size() > contextSize;
+            if (hasMore) {
+                messages = new ArrayList<>(messages.subList(1, messages.size()));
+            }
+            messages.addAll(dbHelper.getChatMessagesBetween(threadId, messageId, beforeId));
+            final List<Message> range = compactThinking(messages);
+            mainHandler.post(() -> callback.onPageLoaded(range, hasMore));
+        });
+    }
+
+    // 压缩刚结束的思考消息，压缩比较耗时，不在主线程上进行
+    public void compactMessage(Message message, MessageCallback callback) {
+        executor.execute(() -> {
+            final Message compacted = message.copyCompacted();
+            mainHandler.post(() -> callback.onMessageLoaded(compacted));
+        });
+    }
+
+    // 历史中的思考过程在后台线程上压缩，加载到内存的只有预览
+    private static List<Message> compactThinking(List<Message> messages) {
+        for (int i = 0; i < messages.size(); i++) {
+            if (messages.get(i).getType() == Message.TYPE_AI_THINK) {
+                messages.set(i, messages.get(i).copyCompacted());
+            }
+        }
+        return messages;
+    }
+
+    // 全文搜索聊天记录，结果按相关度排序
+    public void search(String query, int limit, SearchCallback callback) {
+        executor.execute(() -> {
+            final List<SearchResult> results = dbHelper.searchChatMessages(query, limit);
+            mainHandler.post(() -> callback.onSearchResults(query, results));
+        });
+    }
+
+    // 关闭存储，已提交的写操作会继续执行完
+    public void close() {
+        executor.shutdown();
+    }
+}
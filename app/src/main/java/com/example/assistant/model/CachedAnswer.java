@@ -0,0 +1,62 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.model;
+
+// 本地缓存的一条回答。过了刷新时间仍可立即显示，但会在后台向服务器重新请求；
+// 过了过期时间则不再使用。不可变对象
+public final class CachedAnswer {
+    private final String key;           // 规范化的问题和对话上下文
+    private final String answer;
+    private final long storedTime;
+    private final long refreshTime;     // 之后命中时在后台刷新
+    private final long expireTime;      // 之后不再命中
+    private final long lastUsedTime;    // 用于重启后恢复LRU顺序
+
+    public CachedAnswer(String key, String answer, long storedTime, long refreshTime, long expireTime, long lastUsedTime) {
+        this.key = key;
+        this.answer = answer;
+        this.storedTime = storedTime;
+        this.refreshTime = refreshTime;
+        this.expireTime = expireTime;
+        this.lastUsedTime = lastUsedTime;
+    }
+
+    // 创建命中后的副本，只更新最近使用时间
+    public CachedAnswer copyWithLastUsedTime(long lastUsedTime) {
+        return new CachedAnswer(key, answer, storedTime, refreshTime, expireTime, lastUsedTime);
+    }
+
+    public boolean isStale(long now) {
+        return now >= refreshTime;
+    }
+
+    public boolean isExpired(long now) {
+        return now >= expireTime;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getAnswer() {
+        return answer;
+    }
+
+    public long getStoredTime() {
+        return storedTime;
+    }
+
+    public long getRefreshTime() {
+        return refreshTime;
+    }
+
+    public long getExpireTime() {
+        return expireTime;
+    }
+
+    public long getLastUsedTime() {
+        return lastUsedTime;
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.model;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// 已解析的确认数据，在收到confirm帧或从本地存储加载时解析一次，
+// 之后更新状态和绑定界面都直接使用解析结果。不可变对象
+public final class ConfirmPayload {
+    private final String rawJson;           // 原始确认数据，保存到本地存储
+    private final String conversationId;
+    private final List<String> confirmList; // 需要家长知晓的事项，服务器未提供时为空
+
+    private ConfirmPayload(String rawJson, String conversationId, List<String> confirmList) {
+        this.rawJson = rawJson;
+        this.conversationId = conversationId;
+        this.confirmList = confirmList;
+    }
+
+    // 解析确认数据，缺少conversation_id时抛出JSONException
+    public static ConfirmPayload parse(String json) throws JSONException {
+        JSONObject data = new JSONObject(json);
+        String conversationId = data.getString("conversation_id");
+
+        List<String> confirmList = Collections.emptyList();
+        JSONArray items = data.optJSONArray("confirm_list");
+        if (items != null && items.length() > 0) {
+            confirmList = new ArrayList<>(items.length());
+            for (int i = 0; i < items.length(); i++) {
+                confirmList.add(items.optString(i));
+            }
+            confirmList = Collections.unmodifiableList(confirmList);
+        }
+        return new ConfirmPayload(json, conversationId, confirmList);
+    }
+
+    // 解析本地存储中的确认数据，格式错误时返回null
+    public static ConfirmPayload parseOrNull(String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            return parse(json);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    public String getRawJson() {
+        return rawJson;
+    }
+
+    public String getConversationId() {
+        return conversationId;
+    }
+
+    public List<String> getConfirmList() {
+        return confirmList;
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.model;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// 图片消息的附件：本地压缩后的图片和缩略图文件，以及上传状态。
+// uploadUrl为服务器分配的上传地址，断点续传时据此查询已接收的字节数。不可变对象
+public final class ImageAttachment {
+    private final String localPath;     // 压缩后的图片
+    private final String thumbnailPath; // 气泡中显示的缩略图
+    private final int width;
+    private final int height;
+    private final long byteSize;
+    private final String uploadUrl;     // 尚未创建上传时为null
+    private final boolean uploaded;
+
+    public ImageAttachment(String localPath, String thumbnailPath, int width, int height, long byteSize,
+                           String uploadUrl, boolean uploaded) {
+        this.localPath = localPath;
+        this.thumbnailPath = thumbnailPath;
+        this.width = width;
+        this.height = height;
+        this.byteSize = byteSize;
+        this.uploadUrl = uploadUrl;
+        this.uploaded = uploaded;
+    }
+
+    // 记录服务器分配的上传地址
+    public ImageAttachment withUploadUrl(String uploadUrl) {
+        return new ImageAttachment(localPath, thumbnailPath, width, height, byteSize, uploadUrl, false);
+    }
+
+    // 标记为已上传完成
+    public ImageAttachment asUploaded() {
+        return new ImageAttachment(localPath, thumbnailPath, width, height, byteSize, uploadUrl, true);
+    }
+
+    // 转换为保存到本地存储的JSON
+    public String toJson() {
+        try {
+            JSONObject data = new JSONObject();
+            data.put("path", localPath);
+            data.put("thumbnail", thumbnailPath);
+            data.put("width", width);
+            data.put("height", height);
+            data.put("size", byteSize);
+            if (uploadUrl != null) {
+                data.put("upload_url", uploadUrl);
+            }
+            data.put("uploaded", uploaded);
+            return data.toString();
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // 解析本地存储中的附件数据，格式错误时返回null
+    public static ImageAttachment parseOrNull(String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            JSONObject data = new JSONObject(json);
+            return new ImageAttachment(
+                    data.getString("path"),
+                    data.getString("thumbnail"),
+                    data.getInt("width"),
+                    data.getInt("height"),
+                    data.getLong("size"),
+                    data.has("upload_url") ? data.getString("upload_url") : null,
+                    data.optBoolean("uploaded"));
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    public String getLocalPath() {
+        return localPath;
+    }
+
+    public String getThumbnailPath() {
+        return thumbnailPath;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getByteSize() {
+        return byteSize;
+    }
+
+    public String getUploadUrl() {
+        return uploadUrl;
+    }
+
+    public boolean isUploaded() {
+        return uploaded;
+    }
+}
@@ -4,58 +4,239 @@
  */
 package com.example.assistant.model;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public class Message {
     public static final int TYPE_USER = 0;
     public static final int TYPE_AI = 1;
     public static final int TYPE_AI_THINK = 2;
     public static final int TYPE_CONFIRM = 3;
+    public static final int TYPE_IMAGE = 4;
     
     // 确认消息的状态常量
     public static final int STATUS_PENDING = 0;      // 待处理
     public static final int STATUS_CONFIRMED = 1;    // 已确认
     public static final int STATUS_CANCELED = 2;     // 已取消
+    
+    // 用户消息的送达状态常量
+    public static final int DELIVERY_NONE = 0;       // 不需要显示（AI消息或旧版本保存的消息）
+    public static final int DELIVERY_PENDING = 1;    // 等待连接后发送
+    public static final int DELIVERY_SENT = 2;       // 已写入连接，等待服务器确认
+    public static final int DELIVERY_DELIVERED = 3;  // 服务器已确认收到
+    public static final int DELIVERY_QUEUED = 4;     // 等待当前回答结束后发送，只在内存中
+
+    // 图片消息的上传进度，0到100之间为上传中的百分比
+    public static final int UPLOAD_PREPARING = -1;   // 正在压缩图片
+    public static final int UPLOAD_FAILED = -2;      // 上传中断，点击后从断点继续
+    public static final int UPLOAD_DONE = 100;
+
+    // 默认对话ID，旧版本的消息和不带thread_id的服务器帧都属于默认对话
+    public static final String DEFAULT_THREAD_ID = "default";
 
+    // 消息ID生成器，以当前时间为基数，保证重启后生成的ID仍然递增
+    private static final AtomicLong ID_GENERATOR = new AtomicLong(System.currentTimeMillis() * 1000);
+    // 排队中问题的临时ID，大于所有正常生成的ID，排队期间始终显示在列表末尾
+    private static final AtomicLong QUEUED_ID_GENERATOR = new AtomicLong(Long.MAX_VALUE / 2);
+    // 版本号生成器，每个新对象（包括每次copyWith*生成的副本）取一个新版本。
+    // 全局递增，从本地存储重新加载的消息也不会和内存中旧副本的版本相同
+    private static final AtomicLong VERSION_GENERATOR = new AtomicLong();
+
+    private final long id;      // 稳定的消息ID，用于列表差分和定位
+    private final long createdTime; // 创建时间
+    private final long version; // 内容版本，和ID一起作为渲染结果的缓存键
     private String content;
     private String confirmData; // 存储确认消息的原始数据
+    private ConfirmPayload confirmPayload; // 已解析的确认数据，绑定和更新状态时不再解析JSON
     private int type;
     private int confirmStatus;  // 确认消息的状态
+    private int deliveryStatus; // 用户消息的送达状态
+    private ImageAttachment attachment; // 图片消息的附件，压缩完成前为null
+    private int uploadProgress = UPLOAD_DONE; // 图片上传进度，只在内存中
+    private byte[] compressedContent; // 已压缩的完整思考内容，此时content只保留预览
 
     public Message(String content, int type) {
+        this.id = ID_GENERATOR.incrementAndGet();
+        this.version = VERSION_GENERATOR.incrementAndGet();
+        this.createdTime = System.currentTimeMillis();
         this.content = content;
         this.type = type;
         this.confirmData = null;
         this.confirmStatus = STATUS_PENDING;
+        this.deliveryStatus = DELIVERY_NONE;
     }
 
-    public Message(String content, int type, String confirmData) {
+    public Message(String content, int type, ConfirmPayload confirmPayload) {
+        this.id = ID_GENERATOR.incrementAndGet();
+        this.version = VERSION_GENERATOR.incrementAndGet();
+        this.createdTime = System.currentTimeMillis();
         this.content = content;
         this.type = type;
-        this.confirmData = confirmData;
+        this.confirmData = confirmPayload.getRawJson();
+        this.confirmPayload = confirmPayload;
         this.confirmStatus = STATUS_PENDING;
+        this.deliveryStatus = DELIVERY_NONE;
     }
 
-    public String getContent() {
-        return content;
+    // 创建图片消息，附件在后台压缩完成后再设置
+    public static Message image(String caption) {
+        Message message = new Message(caption, TYPE_IMAGE);
+        message.deliveryStatus = DELIVERY_PENDING;
+        message.uploadProgress = UPLOAD_PREPARING;
+        return message;
     }
 
-    public void setContent(String content) {
-        this.content = content;
+    // 创建排队中的用户消息，发送时用copyWithNewId换成正常ID
+    public static Message queued(String content) {
+        return new Message(QUEUED_ID_GENERATOR.incrementAndGet(), content, TYPE_USER, null, STATUS_PENDING,
+                System.currentTimeMillis(), DELIVERY_QUEUED);
     }
 
-    public int getType() {
-        return type;
+    // 创建排队中的图片消息，图片照常压缩上传，发送时再换成正常ID
+    public static Message queuedImage(String caption) {
+        Message message = new Message(QUEUED_ID_GENERATOR.incrementAndGet(), caption, TYPE_IMAGE, null, STATUS_PENDING,
+                System.currentTimeMillis(), DELIVERY_QUEUED);
+        message.uploadProgress = UPLOAD_PREPARING;
+        return message;
     }
 
-    public void setType(int type) {
+    // 从本地存储恢复消息，确认数据在数据库线程上解析
+    public Message(long id, String content, int type, String confirmData, int confirmStatus, long createdTime,
+                   int deliveryStatus) {
+        this(id, content, type, confirmData, confirmStatus, createdTime, deliveryStatus, null);
+    }
+
+    // 从本地存储恢复消息，确认数据和图片附件在数据库线程上解析。
+    // 上次没有上传完成的图片显示为上传中断，由用户点击继续
+    public Message(long id, String content, int type, String confirmData, int confirmStatus, long createdTime,
+                   int deliveryStatus, String attachmentData) {
+        this.id = id;
+        this.version = VERSION_GENERATOR.incrementAndGet();
+        this.createdTime = createdTime;
+        this.content = content;
         this.type = type;
+        this.confirmData = confirmData;
+        this.confirmPayload = type == TYPE_CONFIRM ? ConfirmPayload.parseOrNull(confirmData) : null;
+        this.confirmStatus = confirmStatus;
+        this.deliveryStatus = deliveryStatus;
+        if (type == TYPE_IMAGE) {
+            this.attachment = ImageAttachment.parseOrNull(attachmentData);
+            this.uploadProgress = attachment != null && attachment.isUploaded() ? UPLOAD_DONE : UPLOAD_FAILED;
+        }
+    }
+
+    // 复制构造，保留原消息的ID。消息提交给列表后不再修改，所有更新都生成新的副本
+    private Message(Message other) {
+        this(other, other.id);
+    }
+
+    private Message(Message other, long id) {
+        this.id = id;
+        this.version = VERSION_GENERATOR.incrementAndGet();
+        this.createdTime = other.createdTime;
+        this.content = other.content;
+        this.type = other.type;
+        this.confirmData = other.confirmData;
+        this.confirmPayload = other.confirmPayload;
+        this.confirmStatus = other.confirmStatus;
+        this.deliveryStatus = other.deliveryStatus;
+        this.attachment = other.attachment;
+        this.uploadProgress = other.uploadProgress;
+        this.compressedContent = other.compressedContent;
+    }
+
+    // 生成使用新ID的副本，列表按ID排序，副本排在当前所有消息之后
+    public Message copyWithNewId() {
+        return new Message(this, ID_GENERATOR.incrementAndGet());
+    }
+
+    // 生成内容更新后的副本，已提交给列表的旧对象保持不变
+    public Message copyWithContent(String content) {
+        Message copy = new Message(this);
+        copy.content = content;
+        copy.compressedContent = null;
+        return copy;
+    }
+
+    // 生成确认状态更新后的副本
+    public Message copyWithConfirmStatus(int confirmStatus) {
+        Message copy = new Message(this);
+        copy.confirmStatus = confirmStatus;
+        return copy;
+    }
+
+    // 生成送达状态更新后的副本，状态没有变化时返回原消息
+    public Message copyWithDeliveryStatus(int deliveryStatus) {
+        if (this.deliveryStatus == deliveryStatus) {
+            return this;
+        }
+        Message copy = new Message(this);
+        copy.deliveryStatus = deliveryStatus;
+        return copy;
+    }
+
+    // 生成图片附件更新后的副本
+    public Message copyWithAttachment(ImageAttachment attachment) {
+        Message copy = new Message(this);
+        copy.attachment = attachment;
+        return copy;
+    }
+
+    // 生成上传进度更新后的副本
+    public Message copyWithUploadProgress(int uploadProgress) {
+        Message copy = new Message(this);
+        copy.uploadProgress = uploadProgress;
+        return copy;
+    }
+
+    // 生成压缩后的思考消息副本：完整内容压缩保存，content只保留折叠时的预览。
+    // 已压缩或内容不超过预览长度时返回原消息
+    public Message copyCompacted() {
+        if (compressedContent != null || content.length() <= ThinkingText.PREVIEW_LENGTH) {
+            return this;
+        }
+        Message copy = new Message(this);
+        copy.compressedContent = ThinkingText.compress(content);
+        copy.content = ThinkingText.preview(content);
+        return copy;
+    }
+
+    public boolean isCompacted() {
+        return compressedContent != null;
+    }
+
+    // 获取完整内容，压缩过的思考消息在这里解压，保存到本地存储和展开显示时使用
+    public String getFullContent() {
+        return compressedContent != null ? ThinkingText.decompress(compressedContent) : content;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    // 获取版本号，消息的任何字段变化后版本号都不同
+    public long getVersion() {
+        return version;
+    }
+
+    public long getCreatedTime() {
+        return createdTime;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public int getType() {
+        return type;
     }
 
     public String getConfirmData() {
         return confirmData;
     }
 
-    public void setConfirmData(String confirmData) {
-        this.confirmData = confirmData;
+    // 获取已解析的确认数据，非确认消息或数据格式错误时为null
+    public ConfirmPayload getConfirmPayload() {
+        return confirmPayload;
     }
     
     // 获取确认消息状态
@@ -63,8 +244,23 @@ public class Message {
         return confirmStatus;
     }
     
-    // 设置确认消息状态
-    public void setConfirmStatus(int confirmStatus) {
-        this.confirmStatus = confirmStatus;
+    // 获取用户消息送达状态
+    public int getDeliveryStatus() {
+        return deliveryStatus;
+    }
+    
+    // 获取图片附件，非图片消息或压缩尚未完成时为null
+    public ImageAttachment getAttachment() {
+        return attachment;
+    }
+    
+    // 获取附件序列化后的数据，用于保存到本地存储
+    public String getAttachmentData() {
+        return attachment != null ? attachment.toJson() : null;
+    }
+    
+    // 获取图片上传进度
+    public int getUploadProgress() {
+        return uploadProgress;
     }
-}
\ No newline at end of file
+}
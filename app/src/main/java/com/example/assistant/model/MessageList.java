@@ -0,0 +1,255 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.model;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// 不可变的消息列表，按消息ID升序排列。内部是带子树大小的持久化AVL树：
+// 追加、替换或删除一条消息只复制根到该节点路径上的O(log n)个节点，其余节点与旧列表共享，
+// 已提交给界面的旧列表保持不变。按位置和按ID查找都是O(log n)。
+// 消息ID按创建顺序递增，历史记录只会加在最前面，因此ID顺序就是显示顺序
+public final class MessageList extends AbstractList<Message> {
+
+    public static final MessageList EMPTY = new MessageList(null);
+
+    private final Node root;
+
+    private MessageList(Node root) {
+        this.root = root;
+    }
+
+    private static final class Node {
+        final Message message;
+        final Node left;
+        final Node right;
+        final int height;
+        final int size;
+
+        Node(Message message, Node left, Node right) {
+            this.message = message;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+            this.size = size(left) + size(right) + 1;
+        }
+    }
+
+    // 从任意顺序的消息创建列表，ID重复时保留后出现的消息
+    public static MessageList of(Collection<Message> messages) {
+        return EMPTY.putAll(messages);
+    }
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    @Override
+    public Message get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index > leftSize) {
+                index -= leftSize + 1;
+                node = node.right;
+            } else {
+                return node.message;
+            }
+        }
+    }
+
+    public Message first() {
+        return isEmpty() ? null : get(0);
+    }
+
+    public Message last() {
+        return isEmpty() ? null : get(size() - 1);
+    }
+
+    // 根据消息ID查找索引，没有时返回-1
+    public int indexOfId(long messageId) {
+        Node node = root;
+        int offset = 0;
+        while (node != null) {
+            long id = node.message.getId();
+            if (messageId < id) {
+                node = node.left;
+            } else if (messageId > id) {
+                offset += size(node.left) + 1;
+                node = node.right;
+            } else {
+                return offset + size(node.left);
+            }
+        }
+        return -1;
+    }
+
+    // 根据消息ID查找消息，没有时返回null
+    public Message findById(long messageId) {
+        Node node = root;
+        while (node != null) {
+            long id = node.message.getId();
+            if (messageId < id) {
+                node = node.left;
+            } else if (messageId > id) {
+                node = node.right;
+            } else {
+                return node.message;
+            }
+        }
+        return null;
+    }
+
+    // 插入消息，已有同一ID的消息时替换它。消息对象没有变化时返回原列表
+    public MessageList put(Message message) {
+        Node updated = put(root, message);
+        return updated == root ? this : new MessageList(updated);
+    }
+
+    public MessageList putAll(Collection<Message> messages) {
+        Node updated = root;
+        for (Message message : messages) {
+            updated = put(updated, message);
+        }
+        return updated == root ? this : new MessageList(updated);
+    }
+
+    // 删除指定ID的消息，没有时返回原列表
+    public MessageList removeById(long messageId) {
+        Node updated = remove(root, messageId);
+        return updated == root ? this : new MessageList(updated);
+    }
+
+    // 删除最前面的count条消息
+    public MessageList dropFirst(int count) {
+        Node updated = root;
+        for (int i = 0; i < count && updated != null; i++) {
+            updated = removeMin(updated);
+        }
+        return updated == root ? this : new MessageList(updated);
+    }
+
+    // 中序遍历，不逐个按位置查找
+    @Override
+    public Iterator<Message> iterator() {
+        return new Iterator<Message>() {
+            private final ArrayDeque<Node> stack = new ArrayDeque<>();
+
+            {
+                pushLeft(root);
+            }
+
+            private void pushLeft(Node node) {
+                while (node != null) {
+                    stack.push(node);
+                    node = node.left;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return !stack.isEmpty();
+            }
+
+            @Override
+            public Message next() {
+                if (stack.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                Node node = stack.pop();
+                pushLeft(node.right);
+                return node.message;
+            }
+        };
+    }
+
+    private static int height(Node node) {
+        return node != null ? node.height : 0;
+    }
+
+    private static int size(Node node) {
+        return node != null ? node.size : 0;
+    }
+
+    private static Node put(Node node, Message message) {
+        if (node == null) {
+            return new Node(message, null, null);
+        }
+        long id = message.getId();
+        long nodeId = node.message.getId();
+        if (id < nodeId) {
+            Node left = put(node.left, message);
+            return left == node.left ? node : balance(node.message, left, node.right);
+        } else if (id > nodeId) {
+            Node right = put(node.right, message);
+            return right == node.right ? node : balance(node.message, node.left, right);
+        }
+        return node.message == message ? node : new Node(message, node.left, node.right);
+    }
+
+    private static Node remove(Node node, long messageId) {
+        if (node == null) {
+            return null;
+        }
+        long nodeId = node.message.getId();
+        if (messageId < nodeId) {
+            Node left = remove(node.left, messageId);
+            return left == node.left ? node : balance(node.message, left, node.right);
+        } else if (messageId > nodeId) {
+            Node right = remove(node.right, messageId);
+            return right == node.right ? node : balance(node.message, node.left, right);
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        // 用右子树中最小的消息代替被删除的节点
+        Node successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return balance(successor.message, node.left, removeMin(node.right));
+    }
+
+    private static Node removeMin(Node node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return balance(node.message, removeMin(node.left), node.right);
+    }
+
+    // 创建节点，左右子树高度相差超过1时旋转
+    private static Node balance(Message message, Node left, Node right) {
+        int diff = height(left) - height(right);
+        if (diff > 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new Node(left.message, left.left, new Node(message, left.right, right));
+            }
+            return new Node(left.right.message,
+                    new Node(left.message, left.left, left.right.left),
+                    new Node(message, left.right.right, right));
+        }
+        if (diff < -1) {
+            if (height(right.right) >= height(right.left)) {
+                return new Node(right.message, new Node(message, left, right.left), right.right);
+            }
+            return new Node(right.left.message,
+                    new Node(message, left, right.left.left),
+                    new Node(right.message, right.left.right, right.right));
+        }
+        return new Node(message, left, right);
+    }
+}
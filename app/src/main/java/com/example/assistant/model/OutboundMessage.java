@@ -0,0 +1,30 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.model;
+
+// 待发送的WebSocket消息，服务器确认收到client_id之前一直保留在本地
+public class OutboundMessage {
+    private final long clientId;    // 客户端生成的消息ID，与对应的用户消息ID相同
+    private final String payload;   // 要发送的完整JSON文本
+    private final long createdTime;
+
+    public OutboundMessage(long clientId, String payload, long createdTime) {
+        this.clientId = clientId;
+        this.payload = payload;
+        this.createdTime = createdTime;
+    }
+
+    public long getClientId() {
+        return clientId;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public long getCreatedTime() {
+        return createdTime;
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.model;
+
+// 聊天记录搜索结果：命中的消息、所属对话和相关度得分
+public class SearchResult {
+    private final Message message;
+    private final String threadId;
+    private final double score;
+
+    public SearchResult(Message message, String threadId, double score) {
+        this.message = message;
+        this.threadId = threadId;
+        this.score = score;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public String getThreadId() {
+        return threadId;
+    }
+
+    public double getScore() {
+        return score;
+    }
+}
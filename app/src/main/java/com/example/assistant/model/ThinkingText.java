@@ -0,0 +1,75 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.model;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// 思考过程的折叠显示和压缩保存。思考内容通常比回答更长，列表中默认只显示开头的预览；
+// 回答结束后完整内容用Deflate压缩保存在消息中，展开时才解压
+public final class ThinkingText {
+
+    public static final int PREVIEW_LENGTH = 80;
+
+    private ThinkingText() {
+    }
+
+    // 折叠时显示的预览：换行合并为空格，超出长度时截断并加省略号
+    public static String preview(String text) {
+        if (text == null) {
+            return "";
+        }
+        boolean truncated = text.length() > PREVIEW_LENGTH;
+        int end = truncated ? PREVIEW_LENGTH : text.length();
+        // 不在代理对中间截断
+        if (truncated && Character.isHighSurrogate(text.charAt(end - 1))) {
+            end--;
+        }
+        String preview = text.substring(0, end).replace('\n', ' ').trim();
+        return truncated ? preview + "…" : preview;
+    }
+
+    public static byte[] compress(String text) {
+        byte[] input = text.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2 + 16);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // 解压compress的结果，数据损坏时返回空字符串
+    public static String decompress(byte[] data) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 3);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                out.write(buffer, 0, length);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            return "";
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import com.example.assistant.model.CachedAnswer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// 重复问题的本地回答缓存：按最近使用顺序淘汰，每次变化都交给Store持久化，
+// 重启后从本地存储恢复。缓存规则由AnswerCachePolicy决定。
+// 所有方法都应在主线程上调用
+public class AnswerCache {
+
+    public static final int DEFAULT_CAPACITY = 200;
+
+    // 持久化接口，生产环境由ChatHistoryStore在后台线程写入
+    public interface Store {
+        void save(CachedAnswer answer);
+        void delete(String key);
+    }
+
+    private final Store store;
+    private final int capacity;
+    // 按访问顺序排列，最久未使用的在最前面
+    private final LinkedHashMap<String, CachedAnswer> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    public AnswerCache(Store store) {
+        this(store, DEFAULT_CAPACITY);
+    }
+
+    public AnswerCache(Store store, int capacity) {
+        this.store = store;
+        this.capacity = Math.max(1, capacity);
+    }
+
+    // 查找缓存的回答，没有或已过期时返回null。命中会更新最近使用时间
+    public CachedAnswer get(String key, long now) {
+        CachedAnswer answer = entries.get(key);
+        if (answer == null) {
+            return null;
+        }
+        if (answer.isExpired(now)) {
+            remove(key);
+            return null;
+        }
+        CachedAnswer touched = answer.copyWithLastUsedTime(now);
+        entries.put(key, touched);
+        store.save(touched);
+        return touched;
+    }
+
+    // 按规则保存服务器的回答，超出容量时淘汰最久未使用的回答
+    public void put(AnswerCachePolicy.Rule rule, String answer, long now) {
+        CachedAnswer cached = new CachedAnswer(rule.key, answer, now,
+                now + rule.refreshAfterMs, now + rule.expireAfterMs, now);
+        entries.put(rule.key, cached);
+        store.save(cached);
+        evict();
+    }
+
+    // 删除缓存的回答，例如刷新时发现回答已不可缓存
+    public void remove(String key) {
+        if (entries.remove(key) != null) {
+            store.delete(key);
+        }
+    }
+
+    // 恢复本地存储中的回答。已过期的直接删除，恢复前已写入的较新回答不会被覆盖
+    public void restore(List<CachedAnswer> answers, long now) {
+        List<CachedAnswer> sorted = new ArrayList<>(answers);
+        Collections.sort(sorted, Comparator.comparingLong(CachedAnswer::getLastUsedTime));
+
+        // 先放入恢复的回答，再把恢复前已有的回答移到最近使用的位置
+        Map<String, CachedAnswer> current = new LinkedHashMap<>(entries);
+        entries.clear();
+        for (CachedAnswer answer : sorted) {
+            if (answer.isExpired(now)) {
+                store.delete(answer.getKey());
+            } else if (!current.containsKey(answer.getKey())) {
+                entries.put(answer.getKey(), answer);
+            }
+        }
+        entries.putAll(current);
+        evict();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, CachedAnswer>> iterator = entries.entrySet().iterator();
+        while (entries.size() > capacity && iterator.hasNext()) {
+            String key = iterator.next().getKey();
+            iterator.remove();
+            store.delete(key);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import java.text.Normalizer;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+// 回答缓存的策略：哪些问题可以缓存、缓存键怎么构造、缓存多久。
+// - 会让服务器执行操作的请求（提醒、添加、删除等）不缓存，重复发送必须真正到达服务器
+// - 过长的问题几乎不会重复，不缓存
+// - 和日期、课程、作业有关的问题缓存键带上当天日期，命中时先显示缓存，每次都在后台刷新
+// - 其他问题（拼写、乘法表等）缓存30天，超过1天的命中在后台刷新
+// - "那明天呢"这类追问的缓存键带上前一个问题，其他问题与对话上下文无关，可以跨对话命中
+// - 带确认请求的回答、没有内容或被中断的回答不缓存
+public final class AnswerCachePolicy {
+
+    static final int MAX_QUESTION_LENGTH = 100;
+
+    static final long GENERAL_REFRESH_AFTER_MS = 24 * 60 * 60 * 1000L;
+    static final long GENERAL_EXPIRE_AFTER_MS = 30 * 24 * 60 * 60 * 1000L;
+    static final long TIME_SENSITIVE_REFRESH_AFTER_MS = 0;
+    static final long TIME_SENSITIVE_EXPIRE_AFTER_MS = 6 * 60 * 60 * 1000L;
+
+    // 会触发服务器端操作的请求
+    private static final String[] ACTION_WORDS = {
+            "提醒", "添加", "加上", "删除", "取消", "设置", "修改", "记住", "通知", "发给", "告诉爸爸", "告诉妈妈",
+            "remind", "delete", "cancel", "remember", "notify"
+    };
+    // 答案随时间变化的问题
+    private static final String[] TIME_SENSITIVE_WORDS = {
+            "今天", "明天", "昨天", "后天", "现在", "几点", "星期", "周末", "作业", "课", "日程", "安排", "考试", "天气",
+            "today", "tomorrow", "yesterday", "now", "homework", "class", "schedule", "exam", "weather"
+    };
+    // 依赖上一个问题的追问
+    private static final String[] FOLLOW_UP_PREFIXES = {
+            "那", "还有", "然后", "为什么", "它", "这个", "那个", "再", "and ", "what about", "why", "then"
+    };
+
+    private AnswerCachePolicy() {
+    }
+
+    // 一个可缓存问题的缓存键和有效期
+    public static final class Rule {
+        final String key;
+        final long refreshAfterMs;
+        final long expireAfterMs;
+
+        Rule(String key, long refreshAfterMs, long expireAfterMs) {
+            this.key = key;
+            this.refreshAfterMs = refreshAfterMs;
+            this.expireAfterMs = expireAfterMs;
+        }
+    }
+
+    // 根据问题和同一对话中的上一个问题决定缓存规则，问题不可缓存时返回null
+    public static Rule forQuestion(String question, String previousQuestion, long now, TimeZone timeZone) {
+        String normalized = normalize(question);
+        if (normalized.isEmpty() || normalized.length() > MAX_QUESTION_LENGTH || containsAny(normalized, ACTION_WORDS)) {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder(normalized);
+        if (isFollowUp(normalized)) {
+            // 没有上一个问题的追问无法确定含义，不缓存
+            String previous = normalize(previousQuestion);
+            if (previous.isEmpty()) {
+                return null;
+            }
+            key.append('\n').append(previous);
+        }
+
+        if (containsAny(normalized, TIME_SENSITIVE_WORDS)) {
+            Calendar calendar = Calendar.getInstance(timeZone, Locale.ROOT);
+            calendar.setTimeInMillis(now);
+            key.append('\n').append(calendar.get(Calendar.YEAR))
+                    .append('-').append(calendar.get(Calendar.DAY_OF_YEAR));
+            return new Rule(key.toString(), TIME_SENSITIVE_REFRESH_AFTER_MS, TIME_SENSITIVE_EXPIRE_AFTER_MS);
+        }
+        return new Rule(key.toString(), GENERAL_REFRESH_AFTER_MS, GENERAL_EXPIRE_AFTER_MS);
+    }
+
+    // 服务器的回答是否可以缓存
+    public static boolean isCacheableAnswer(String answer, boolean hasConfirm) {
+        return !hasConfirm && answer != null && !answer.trim().isEmpty();
+    }
+
+    // 规范化问题文本：全角转半角、转小写，标点和连续空白合并为一个空格
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String folded = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        StringBuilder normalized = new StringBuilder(folded.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < folded.length(); ) {
+            int codePoint = folded.codePointAt(i);
+            if (Character.isLetterOrDigit(codePoint)) {
+                if (pendingSpace && normalized.length() > 0) {
+                    normalized.append(' ');
+                }
+                normalized.appendCodePoint(codePoint);
+                pendingSpace = false;
+            } else {
+                pendingSpace = true;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return normalized.toString();
+    }
+
+    private static boolean isFollowUp(String normalized) {
+        if (normalized.endsWith("呢")) {
+            return true;
+        }
+        for (String prefix : FOLLOW_UP_PREFIXES) {
+            if (normalized.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsAny(String normalized, String[] words) {
+        for (String word : words) {
+            if (normalized.contains(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import com.example.assistant.model.ConfirmPayload;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+// 紧凑的二进制帧编码（TLV），连接时通过Sec-WebSocket-Protocol协商。
+// 每个字段为：1字节标签 + varint长度 + 值，未知标签直接跳过以便服务器扩展字段。
+// 一个普通chunk帧只比内容本身多几个字节，而JSON信封通常比内容还长
+public final class BinaryFrameCodec {
+
+    // 协商使用的子协议名，服务器不支持时继续使用JSON文本帧
+    public static final String PROTOCOL_TLV = "assistant.tlv.v1";
+    public static final String PROTOCOL_JSON = "assistant.json";
+
+    // 字段标签
+    static final int TAG_TYPE = 1;             // 1字节，取值为ChatFrame.TYPE_*
+    static final int TAG_CONTENT = 2;          // UTF-8文本
+    static final int TAG_THINKING = 3;         // 1字节，非0表示思考内容
+    static final int TAG_RESPONSE_ID = 4;      // UTF-8文本
+    static final int TAG_SEQ = 5;              // varint
+    static final int TAG_CLIENT_ID = 6;        // varint
+    static final int TAG_CONVERSATION_ID = 7;  // UTF-8文本
+    static final int TAG_THREAD_ID = 8;        // UTF-8文本，省略时为默认对话
+
+    private BinaryFrameCodec() {
+    }
+
+    // 解码一个二进制帧，格式错误时抛出IllegalArgumentException，不会抛出其他异常。
+    // 帧来自网络，长度和数值字段都不可信
+    public static ChatFrame decode(byte[] data) {
+        int type = -1;
+        String content = null;
+        boolean thinking = false;
+        String responseId = null;
+        long seq = ChatFrame.NO_SEQ;
+        long clientId = -1;
+        String conversationId = null;
+        String threadId = null;
+
+        int pos = 0;
+        while (pos < data.length) {
+            int tag = data[pos++] & 0xff;
+            long[] lengthAndPos = readVarint(data, pos, data.length);
+            long length = lengthAndPos[0];
+            pos = (int) lengthAndPos[1];
+            // 超过63位的varint读出来是负数
+            if (length < 0 || length > data.length - pos) {
+                throw new IllegalArgumentException("Field " + tag + " overruns frame");
+            }
+            int end = pos + (int) length;
+
+            switch (tag) {
+                case TAG_TYPE:
+                    type = length > 0 ? data[pos] & 0xff : -1;
+                    break;
+                case TAG_CONTENT:
+                    content = new String(data, pos, (int) length, StandardCharsets.UTF_8);
+                    break;
+                case TAG_THINKING:
+                    thinking = length > 0 && data[pos] != 0;
+                    break;
+                case TAG_RESPONSE_ID:
+                    responseId = new String(data, pos, (int) length, StandardCharsets.UTF_8);
+                    break;
+                case TAG_SEQ:
+                    seq = readVarint(data, pos, end)[0];
+                    break;
+                case TAG_CLIENT_ID:
+                    clientId = readVarint(data, pos, end)[0];
+                    break;
+                case TAG_CONVERSATION_ID:
+                    conversationId = new String(data, pos, (int) length, StandardCharsets.UTF_8);
+                    break;
+                case TAG_THREAD_ID:
+                    threadId = new String(data, pos, (int) length, StandardCharsets.UTF_8);
+                    break;
+                default:
+                    // 未知字段
+                    break;
+            }
+            pos = end;
+        }
+
+        return createFrame(type, content, thinking, responseId, seq, clientId, conversationId).withThreadId(threadId);
+    }
+
+    private static ChatFrame createFrame(int type, String content, boolean thinking, String responseId, long seq,
+                                         long clientId, String conversationId) {
+        switch (type) {
+            case ChatFrame.TYPE_START:
+                return ChatFrame.start(responseId);
+            case ChatFrame.TYPE_CHUNK:
+                return ChatFrame.chunk(content != null ? content : "", thinking, responseId, seq);
+            case ChatFrame.TYPE_END:
+                return ChatFrame.end(responseId, seq);
+            case ChatFrame.TYPE_STATUS:
+                if (content == null) {
+                    throw new IllegalArgumentException("Status frame without content");
+                }
+                return ChatFrame.status(content);
+            case ChatFrame.TYPE_CONFIRM:
+                if (content == null || conversationId == null) {
+                    throw new IllegalArgumentException("Confirm frame without data");
+                }
+                try {
+                    return ChatFrame.confirm(ConfirmPayload.parse(content));
+                } catch (JSONException e) {
+                    throw new IllegalArgumentException("Malformed confirm data", e);
+                }
+            case ChatFrame.TYPE_ACK:
+                if (clientId < 0) {
+                    throw new IllegalArgumentException("Ack frame without client id");
+                }
+                return ChatFrame.ack(clientId);
+            case ChatFrame.TYPE_TEXT:
+                if (content == null) {
+                    throw new IllegalArgumentException("Text frame without content");
+                }
+                return ChatFrame.text(content);
+            default:
+                throw new IllegalArgumentException("Unknown frame type " + type);
+        }
+    }
+
+    // 编码一个帧，目前只有测试服务器使用，上行消息仍为JSON
+    public static byte[] encode(ChatFrame frame) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + (frame.getContent() != null ? frame.getContent().length() * 3 : 0));
+        writeField(out, TAG_TYPE, new byte[]{(byte) frame.getType()});
+        if (frame.getContent() != null) {
+            writeField(out, TAG_CONTENT, frame.getContent().getBytes(StandardCharsets.UTF_8));
+        }
+        if (frame.isThinking()) {
+            writeField(out, TAG_THINKING, new byte[]{1});
+        }
+        if (frame.getResponseId() != null) {
+            writeField(out, TAG_RESPONSE_ID, frame.getResponseId().getBytes(StandardCharsets.UTF_8));
+        }
+        if (frame.getSeq() != ChatFrame.NO_SEQ) {
+            writeField(out, TAG_SEQ, varint(frame.getSeq()));
+        }
+        if (frame.getType() == ChatFrame.TYPE_ACK) {
+            writeField(out, TAG_CLIENT_ID, varint(frame.getClientId()));
+        }
+        if (frame.getConversationId() != null) {
+            writeField(out, TAG_CONVERSATION_ID, frame.getConversationId().getBytes(StandardCharsets.UTF_8));
+        }
+        if (frame.getThreadId() != null) {
+            writeField(out, TAG_THREAD_ID, frame.getThreadId().getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeField(ByteArrayOutputStream out, int tag, byte[] value) {
+        out.write(tag);
+        byte[] length = varint(value.length);
+        out.write(length, 0, length.length);
+        out.write(value, 0, value.length);
+    }
+
+    // 无符号LEB128编码
+    private static byte[] varint(long value) {
+        byte[] buffer = new byte[10];
+        int count = 0;
+        while ((value & ~0x7fL) != 0) {
+            buffer[count++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[count++] = (byte) value;
+        byte[] result = new byte[count];
+        System.arraycopy(buffer, 0, result, 0, count);
+        return result;
+    }
+
+    // 读取varint，不超过limit，返回{值, 读取后的位置}
+    private static long[] readVarint(byte[] data, int pos, int limit) {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            if (pos >= limit || shift > 63) {
+                throw new IllegalArgumentException("Malformed varint");
+            }
+            byte b = data[pos++];
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return new long[]{value, pos};
+            }
+            shift += 7;
+        }
+    }
+}
@@ -4,10 +4,17 @@
  */
 package com.example.assistant.ui.home;
 
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
+import android.provider.MediaStore;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.graphics.Rect;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -19,6 +26,8 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.FileProvider;
 import androidx.fragment.app.Fragment;
 import androidx.lifecycle.Observer;
 import androidx.lifecycle.ViewModelProvider;
@@ -28,20 +37,74 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.example.assistant.R;
 import com.example.assistant.databinding.FragmentChatBinding;
 import com.example.assistant.adapter.MessageAdapter;
+import com.example.assistant.adapter.SearchResultAdapter;
 import com.example.assistant.model.Message;
 import com.example.assistant.ui.chat.ChatViewModel;
+import com.example.assistant.util.SearchTokenizer;
+import com.google.android.material.tabs.TabLayout;
 
-import java.util.ArrayList;
+import java.io.File;
 import java.util.List;
 
 public class ChatFragment extends Fragment {
 
+    // 距离顶部多少条消息时开始加载更早的历史
+    private static final int HISTORY_PREFETCH_DISTANCE = 5;
+    // 调试浮层的刷新间隔
+    private static final long METRICS_REFRESH_INTERVAL_MS = 1000;
+    // 搜索输入停顿多久后才执行查询
+    private static final long SEARCH_DEBOUNCE_MS = 200;
+    // 发送作业照片的请求码，拍摄的照片暂存在外部私有目录中
+    private static final int REQUEST_TAKE_PHOTO = 1;
+    private static final int REQUEST_PICK_PHOTO = 2;
+    private static final String CAMERA_DIR = "camera";
+
     private FragmentChatBinding binding;
     private RecyclerView messagesRecyclerView;
     private EditText messageInput;
     private TextView statusText;
     private MessageAdapter messageAdapter;
     private ChatViewModel chatViewModel;
+    private long displayedLastMessageId = -1;
+    private LinearLayoutManager layoutManager;
+    private SearchResultAdapter searchResultAdapter;
+    // 跳转到搜索结果后等待滚动到的消息，-1表示没有
+    private long pendingScrollMessageId = -1;
+    private String searchQuery = "";
+    // 正在拍摄的照片文件
+    private File pendingPhotoFile;
+    private final Runnable searchTask = () -> chatViewModel.searchMessages(searchQuery);
+    // 重建对话标签时忽略标签选中回调
+    private boolean isUpdatingThreadTabs = false;
+    // 流式刷新提交到列表后测量绘制它的那一帧：第一个帧回调在这一帧开始时记下时间，
+    // 到下一帧开始的间隔包含这一帧的布局和绘制。同一时间只测量一帧
+    private boolean isStreaming = false;
+    private boolean isMeasuringFrame = false;
+    private long measuredFrameStartNanos;
+    private final Choreographer.FrameCallback nextFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            isMeasuringFrame = false;
+            chatViewModel.getStreamingMetrics().onFrame((frameTimeNanos - measuredFrameStartNanos) / 1000);
+        }
+    };
+    private final Choreographer.FrameCallback measuredFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            measuredFrameStartNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(nextFrameCallback);
+        }
+    };
+    // 定时刷新调试浮层中的延迟统计
+    private final Runnable metricsRefreshTask = new Runnable() {
+        @Override
+        public void run() {
+            if (binding != null && binding.metricsOverlay.getVisibility() == View.VISIBLE) {
+                binding.metricsOverlay.setText(chatViewModel.getStreamingMetrics().summary());
+                binding.metricsOverlay.postDelayed(this, METRICS_REFRESH_INTERVAL_MS);
+            }
+        }
+    };
 
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, 
@@ -58,7 +121,7 @@ public class ChatFragment extends Fragment {
         chatViewModel = new ViewModelProvider(this).get(ChatViewModel.class);
 
         // 初始化消息适配器
-        messageAdapter = new MessageAdapter(getContext(), new ArrayList<>());
+        messageAdapter = new MessageAdapter(getContext());
         
         // 设置确认消息监听器
         messageAdapter.setConfirmMessageListener(new MessageAdapter.ConfirmMessageListener() {
@@ -77,24 +140,93 @@ public class ChatFragment extends Fragment {
             }
         });
 
+        // 上传中断的图片点击后继续上传
+        messageAdapter.setImageMessageListener(messageId -> chatViewModel.retryImageUpload(messageId));
+
         // 设置RecyclerView
-        messagesRecyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
+        layoutManager = new LinearLayoutManager(getContext());
+        messagesRecyclerView.setLayoutManager(layoutManager);
         messagesRecyclerView.setAdapter(messageAdapter);
+        
+        // 向上滚动接近顶部时加载更早的历史消息
+        messagesRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                int firstVisible = layoutManager.findFirstVisibleItemPosition();
+                if (dy < 0 && firstVisible <= HISTORY_PREFETCH_DISTANCE) {
+                    chatViewModel.loadOlderMessages();
+                }
+                
+                // 通知ViewModel当前可见区域，停在底部时允许裁剪内存中的旧消息
+                if (!recyclerView.canScrollVertically(1)) {
+                    chatViewModel.setFirstVisibleMessageId(-1);
+                } else if (firstVisible != RecyclerView.NO_POSITION) {
+                    chatViewModel.setFirstVisibleMessageId(messageAdapter.getItemId(firstVisible));
+                }
+            }
+        });
+
+        // 对话标签：切换对话或新建对话
+        binding.threadTabs.addOnTabSelectedListener(new TabLayout.OnTabSelectedListener() {
+            @Override
+            public void onTabSelected(TabLayout.Tab tab) {
+                if (isUpdatingThreadTabs) {
+                    return;
+                }
+                String threadId = (String) tab.getTag();
+                if (threadId == null) {
+                    chatViewModel.createThread();
+                } else {
+                    chatViewModel.selectThread(threadId);
+                }
+            }
+
+            @Override
+            public void onTabUnselected(TabLayout.Tab tab) {}
+
+            @Override
+            public void onTabReselected(TabLayout.Tab tab) {}
+        });
+        chatViewModel.getThreadIdsLiveData().observe(getViewLifecycleOwner(), threadIds -> updateThreadTabs());
+        chatViewModel.getMultiplexingLiveData().observe(getViewLifecycleOwner(), multiplexing -> updateThreadTabs());
+        chatViewModel.getSelectedThreadIdLiveData().observe(getViewLifecycleOwner(), threadId -> {
+            // 切换对话后滚动到新对话的底部
+            displayedLastMessageId = -1;
+            updateThreadTabs();
+        });
 
         // 观察消息列表变化
         chatViewModel.getMessageListLiveData().observe(getViewLifecycleOwner(), new Observer<List<Message>>() {
             @Override
             public void onChanged(List<Message> messages) {
-                // 创建新的消息列表副本，确保状态更新能够正确触发UI刷新
-                messageAdapter.setMessages(new ArrayList<>(messages));
-                messageAdapter.notifyDataSetChanged();
-                // 滚动到底部
-                if (messages.size() > 0) {
-                    messagesRecyclerView.scrollToPosition(messages.size() - 1);
-                }
+                // 只有新消息追加到末尾，或用户本来就停在底部时才滚动到底部，
+                // 加载历史消息插入到头部时保持当前位置
+                long lastMessageId = messages.isEmpty() ? -1 : messages.get(messages.size() - 1).getId();
+                boolean scrollToBottom = lastMessageId != displayedLastMessageId
+                        || !messagesRecyclerView.canScrollVertically(1);
+                displayedLastMessageId = lastMessageId;
+                
+                // ViewModel每次都会提交新的列表对象，由适配器差分出插入和局部更新
+                messageAdapter.submitList(messages, () -> {
+                    if (binding != null && isStreaming && !isMeasuringFrame) {
+                        isMeasuringFrame = true;
+                        Choreographer.getInstance().postFrameCallback(measuredFrameCallback);
+                    }
+                    // 跳转到搜索结果时优先滚动到目标消息
+                    if (binding == null || scrollToPendingMessage()) {
+                        return;
+                    }
+                    // 滚动到底部
+                    if (scrollToBottom && messages.size() > 0) {
+                        messagesRecyclerView.scrollToPosition(messages.size() - 1);
+                    }
+                });
             }
         });
 
+        // 聊天记录搜索
+        setupSearch();
+
         // 观察连接状态变化
         chatViewModel.getConnectionStatusLiveData().observe(getViewLifecycleOwner(), new Observer<String>() {
             @Override
@@ -107,13 +239,29 @@ public class ChatFragment extends Fragment {
         chatViewModel.getIsStreamingLiveData().observe(getViewLifecycleOwner(), new Observer<Boolean>() {
             @Override
             public void onChanged(Boolean isStreaming) {
-                // 根据流式处理状态更新发送按钮状态
-                binding.sendButton.setEnabled(messageInput.getText().toString().trim().length() > 0 && !isStreaming);
+                ChatFragment.this.isStreaming = isStreaming;
+                // 接收回答时显示停止按钮
+                binding.stopButton.setVisibility(isStreaming ? View.VISIBLE : View.GONE);
             }
         });
+        // 流式中的回答不做文本预计算
+        chatViewModel.getStreamingMessageIdLiveData().observe(getViewLifecycleOwner(),
+                messageId -> messageAdapter.setStreamingMessageId(messageId));
+
+        // 长按状态文字切换流式延迟统计的调试浮层
+        statusText.setOnLongClickListener(v -> {
+            toggleMetricsOverlay();
+            return true;
+        });
 
         // 设置发送按钮点击事件
         binding.sendButton.setOnClickListener(v -> sendMessage());
+        
+        // 设置停止按钮点击事件
+        binding.stopButton.setOnClickListener(v -> chatViewModel.stopGeneration());
+        
+        // 设置照片按钮点击事件
+        binding.attachButton.setOnClickListener(v -> showPhotoOptions());
 
         // 设置输入框文本变化监听
         messageInput.addTextChangedListener(new TextWatcher() {
@@ -122,12 +270,8 @@ public class ChatFragment extends Fragment {
 
             @Override
             public void onTextChanged(CharSequence s, int start, int before, int count) {
-                // 输入框有内容且不在流式处理时启用发送按钮
-                if (chatViewModel.getIsStreamingLiveData().getValue() != null) {
-                    binding.sendButton.setEnabled(s.toString().trim().length() > 0 && !chatViewModel.getIsStreamingLiveData().getValue());
-                } else {
-                    binding.sendButton.setEnabled(s.toString().trim().length() > 0);
-                }
+                // 输入框有内容时启用发送按钮，接收回答期间发送的追问会排队
+                binding.sendButton.setEnabled(s.toString().trim().length() > 0);
             }
 
             @Override
@@ -140,6 +284,110 @@ public class ChatFragment extends Fragment {
         return root;
     }
 
+    // 初始化搜索面板：输入防抖后查询，点击结果跳转到对应消息
+    private void setupSearch() {
+        searchResultAdapter = new SearchResultAdapter(result -> {
+            hideSearchPanel();
+            chatViewModel.jumpToMessage(result);
+        });
+        binding.searchResults.setLayoutManager(new LinearLayoutManager(getContext()));
+        binding.searchResults.setAdapter(searchResultAdapter);
+
+        binding.searchButton.setOnClickListener(v -> {
+            if (binding.searchPanel.getVisibility() == View.VISIBLE) {
+                hideSearchPanel();
+            } else {
+                binding.searchPanel.setVisibility(View.VISIBLE);
+                binding.searchInput.requestFocus();
+            }
+        });
+
+        binding.searchInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                searchQuery = s.toString();
+                binding.searchInput.removeCallbacks(searchTask);
+                binding.searchInput.postDelayed(searchTask, SEARCH_DEBOUNCE_MS);
+            }
+        });
+
+        chatViewModel.getSearchResultsLiveData().observe(getViewLifecycleOwner(), results ->
+                searchResultAdapter.setResults(results, SearchTokenizer.highlightTerms(searchQuery)));
+
+        // 目标消息已在列表中时直接滚动，否则等加载后的列表提交完成再滚动
+        chatViewModel.getScrollTargetLiveData().observe(getViewLifecycleOwner(), messageId -> {
+            if (messageId == null) {
+                return;
+            }
+            pendingScrollMessageId = messageId;
+            chatViewModel.clearScrollTarget();
+            scrollToPendingMessage();
+        });
+    }
+
+    private void hideSearchPanel() {
+        binding.searchPanel.setVisibility(View.GONE);
+        InputMethodManager imm = (InputMethodManager) requireContext().getSystemService(Context.INPUT_METHOD_SERVICE);
+        imm.hideSoftInputFromWindow(binding.searchInput.getWindowToken(), 0);
+    }
+
+    // 滚动到等待跳转的消息，目标还不在适配器列表中时返回false
+    private boolean scrollToPendingMessage() {
+        if (pendingScrollMessageId == -1) {
+            return false;
+        }
+        List<Message> messages = messageAdapter.getCurrentList();
+        for (int i = 0; i < messages.size(); i++) {
+            if (messages.get(i).getId() == pendingScrollMessageId) {
+                pendingScrollMessageId = -1;
+                layoutManager.scrollToPositionWithOffset(i, 0);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 显示或隐藏调试浮层，显示时每秒刷新一次
+    private void toggleMetricsOverlay() {
+        TextView overlay = binding.metricsOverlay;
+        overlay.removeCallbacks(metricsRefreshTask);
+        if (overlay.getVisibility() == View.VISIBLE) {
+            overlay.setVisibility(View.GONE);
+        } else {
+            overlay.setVisibility(View.VISIBLE);
+            metricsRefreshTask.run();
+        }
+    }
+
+    // 按对话列表重建标签，并选中当前对话
+    private void updateThreadTabs() {
+        List<String> threadIds = chatViewModel.getThreadIdsLiveData().getValue();
+        String selectedThreadId = chatViewModel.getSelectedThreadIdLiveData().getValue();
+        if (binding == null || threadIds == null) {
+            return;
+        }
+        
+        isUpdatingThreadTabs = true;
+        TabLayout tabLayout = binding.threadTabs;
+        tabLayout.removeAllTabs();
+        for (int i = 0; i < threadIds.size(); i++) {
+            String threadId = threadIds.get(i);
+            tabLayout.addTab(tabLayout.newTab().setText("对话 " + (i + 1)).setTag(threadId),
+                    threadId.equals(selectedThreadId));
+        }
+        // 新建对话的标签不带对话ID；服务器只能依次回答时不显示，已有的对话仍可切换
+        if (Boolean.TRUE.equals(chatViewModel.getMultiplexingLiveData().getValue())) {
+            tabLayout.addTab(tabLayout.newTab().setText("+"), false);
+        }
+        isUpdatingThreadTabs = false;
+    }
+
     // 设置键盘可见性监听器，动态调整输入区域位置
     private void setupKeyboardVisibilityListener(final View rootView) {
         // 使用DecorView来监听布局变化，这是检测键盘状态的更可靠方式
@@ -205,7 +453,7 @@ public class ChatFragment extends Fragment {
 
     private void sendMessage() {
         String message = messageInput.getText().toString().trim();
-        if (!message.isEmpty() && chatViewModel.getIsStreamingLiveData().getValue() != null && !chatViewModel.getIsStreamingLiveData().getValue()) {
+        if (!message.isEmpty()) {
             // 使用ViewModel发送消息
             chatViewModel.sendMessage(message);
 
@@ -214,11 +462,85 @@ public class ChatFragment extends Fragment {
         }
     }
 
+    // 选择拍照或从相册选择作业照片
+    private void showPhotoOptions() {
+        new AlertDialog.Builder(requireContext())
+                .setTitle("发送照片")
+                .setItems(new String[]{"拍照", "从相册选择"}, (dialog, which) -> {
+                    if (which == 0) {
+                        takePhoto();
+                    } else {
+                        pickPhoto();
+                    }
+                })
+                .setNegativeButton("取消", null)
+                .show();
+    }
+
+    private void takePhoto() {
+        Intent intent = new Intent(MediaStore.ACTION_IMAGE_CAPTURE);
+        if (intent.resolveActivity(requireContext().getPackageManager()) == null) {
+            Toast.makeText(requireContext(), "没有可用的相机", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        // 之前拍摄的照片已压缩保存，不再需要原图
+        File dir = requireContext().getExternalFilesDir(CAMERA_DIR);
+        File[] previous = dir != null ? dir.listFiles() : null;
+        if (previous != null) {
+            for (File file : previous) {
+                file.delete();
+            }
+        }
+        if (dir == null || (!dir.isDirectory() && !dir.mkdirs())) {
+            Toast.makeText(requireContext(), "创建图片文件失败", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        pendingPhotoFile = new File(dir, "photo_" + System.currentTimeMillis() + ".jpg");
+        Uri photoUri = FileProvider.getUriForFile(requireContext(),
+                requireContext().getPackageName() + ".fileprovider", pendingPhotoFile);
+        intent.putExtra(MediaStore.EXTRA_OUTPUT, photoUri);
+        intent.addFlags(Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
+        startActivityForResult(intent, REQUEST_TAKE_PHOTO);
+    }
+
+    private void pickPhoto() {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("image/*");
+        startActivityForResult(intent, REQUEST_PICK_PHOTO);
+    }
+
+    @Override
+    public void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != Activity.RESULT_OK) {
+            return;
+        }
+        Uri uri = null;
+        if (requestCode == REQUEST_TAKE_PHOTO && pendingPhotoFile != null) {
+            uri = Uri.fromFile(pendingPhotoFile);
+        } else if (requestCode == REQUEST_PICK_PHOTO && data != null) {
+            uri = data.getData();
+        }
+        if (uri != null) {
+            // 输入框中的文字作为图片说明一起发送
+            chatViewModel.sendImage(uri, messageInput.getText().toString().trim());
+            messageInput.setText("");
+        }
+    }
+
     // 消息的添加和更新现在由ViewModel处理，不再需要这些方法
 
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        binding.metricsOverlay.removeCallbacks(metricsRefreshTask);
+        binding.searchInput.removeCallbacks(searchTask);
+        Choreographer.getInstance().removeFrameCallback(measuredFrameCallback);
+        Choreographer.getInstance().removeFrameCallback(nextFrameCallback);
+        isMeasuringFrame = false;
+        messageAdapter.release();
         binding = null;
+        displayedLastMessageId = -1;
+        pendingScrollMessageId = -1;
     }
 }
\ No newline at end of file
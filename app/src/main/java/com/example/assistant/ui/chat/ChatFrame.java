@@ -0,0 +1,123 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import com.example.assistant.model.ConfirmPayload;
+
+// 已解析的WebSocket帧，不可变对象，可以安全地从解码线程传递到主线程
+public final class ChatFrame {
+    public static final int TYPE_START = 0;
+    public static final int TYPE_CHUNK = 1;
+    public static final int TYPE_END = 2;
+    public static final int TYPE_STATUS = 3;
+    public static final int TYPE_CONFIRM = 4;
+    public static final int TYPE_TEXT = 5;   // 非JSON或未知类型的原始文本
+    public static final int TYPE_ACK = 6;    // 服务器确认收到客户端消息
+
+    private final int type;
+    private final String content;
+    private final boolean thinking;
+    private final ConfirmPayload confirmPayload; // 仅确认帧使用，在解码线程上解析
+    private final long clientId;           // 仅ack帧使用
+    private final String responseId;       // start/chunk/end帧所属的回答，旧版本服务器可能不提供
+    private final long seq;                // chunk/end帧在回答中的序号，从1开始，NO_SEQ表示未提供
+    private final String threadId;         // 帧所属的对话，null表示默认对话
+
+    public static final long NO_SEQ = -1;
+
+    private ChatFrame(int type, String content, boolean thinking, ConfirmPayload confirmPayload) {
+        this(type, content, thinking, confirmPayload, -1, null, NO_SEQ);
+    }
+
+    private ChatFrame(int type, String content, boolean thinking, ConfirmPayload confirmPayload, long clientId,
+                      String responseId, long seq) {
+        this(type, content, thinking, confirmPayload, clientId, responseId, seq, null);
+    }
+
+    private ChatFrame(int type, String content, boolean thinking, ConfirmPayload confirmPayload, long clientId,
+                      String responseId, long seq, String threadId) {
+        this.type = type;
+        this.content = content;
+        this.thinking = thinking;
+        this.confirmPayload = confirmPayload;
+        this.clientId = clientId;
+        this.responseId = responseId;
+        this.seq = seq;
+        this.threadId = threadId;
+    }
+
+    public static ChatFrame start(String responseId) {
+        return new ChatFrame(TYPE_START, null, false, null, -1, responseId, NO_SEQ);
+    }
+
+    public static ChatFrame chunk(String content, boolean thinking, String responseId, long seq) {
+        return new ChatFrame(TYPE_CHUNK, content, thinking, null, -1, responseId, seq);
+    }
+
+    public static ChatFrame end(String responseId, long seq) {
+        return new ChatFrame(TYPE_END, null, false, null, -1, responseId, seq);
+    }
+
+    public static ChatFrame status(String content) {
+        return new ChatFrame(TYPE_STATUS, content, false, null);
+    }
+
+    // 确认帧的content为原始确认数据JSON
+    public static ChatFrame confirm(ConfirmPayload confirmPayload) {
+        return new ChatFrame(TYPE_CONFIRM, confirmPayload.getRawJson(), false, confirmPayload);
+    }
+
+    public static ChatFrame text(String text) {
+        return new ChatFrame(TYPE_TEXT, text, false, null);
+    }
+
+    public static ChatFrame ack(long clientId) {
+        return new ChatFrame(TYPE_ACK, null, false, null, clientId, null, NO_SEQ);
+    }
+
+    // 生成属于指定对话的副本
+    public ChatFrame withThreadId(String threadId) {
+        if (threadId == null) {
+            return this;
+        }
+        return new ChatFrame(type, content, thinking, confirmPayload, clientId, responseId, seq, threadId);
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public boolean isThinking() {
+        return thinking;
+    }
+
+    public String getConversationId() {
+        return confirmPayload != null ? confirmPayload.getConversationId() : null;
+    }
+
+    public ConfirmPayload getConfirmPayload() {
+        return confirmPayload;
+    }
+
+    public long getClientId() {
+        return clientId;
+    }
+
+    public String getResponseId() {
+        return responseId;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public String getThreadId() {
+        return threadId;
+    }
+}
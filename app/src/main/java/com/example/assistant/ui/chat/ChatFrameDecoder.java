@@ -0,0 +1,71 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import android.util.Log;
+
+import com.example.assistant.model.ConfirmPayload;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import okio.ByteString;
+
+// WebSocket帧解码器，在OkHttp读线程上运行，把JSON文本解析为ChatFrame，
+// 主线程只需要应用已经解析好的状态变化
+public final class ChatFrameDecoder {
+    private static final String TAG = "ChatFrameDecoder";
+
+    private ChatFrameDecoder() {
+    }
+
+    public static ChatFrame decode(String text) {
+        try {
+            JSONObject data = new JSONObject(text);
+            // 多对话的服务器在每个帧中带上thread_id，旧版本服务器的帧都属于默认对话
+            return decodeFrame(data, text).withThreadId(data.optString("thread_id", null));
+        } catch (JSONException e) {
+            Log.w(TAG, "Failed to decode frame as JSON", e);
+            // 如果不是JSON格式，作为原始文本显示
+            return ChatFrame.text(text);
+        }
+    }
+
+    // 按type字段构造帧
+    private static ChatFrame decodeFrame(JSONObject data, String text) throws JSONException {
+        String type = data.getString("type");
+
+        // 支持续传的服务器会在start/chunk/end帧中带上response_id和seq
+        String responseId = data.optString("response_id", null);
+        long seq = data.optLong("seq", ChatFrame.NO_SEQ);
+
+        if ("start".equals(type)) {
+            return ChatFrame.start(responseId);
+        } else if ("chunk".equals(type)) {
+            return ChatFrame.chunk(data.getString("content"), data.optBoolean("is_thinking", false), responseId, seq);
+        } else if ("end".equals(type)) {
+            return ChatFrame.end(responseId, seq);
+        } else if ("status".equals(type)) {
+            return ChatFrame.status(data.getString("content"));
+        } else if ("confirm".equals(type)) {
+            // 确认数据只在这里解析一次
+            return ChatFrame.confirm(ConfirmPayload.parse(data.getString("content")));
+        } else if ("ack".equals(type)) {
+            return ChatFrame.ack(data.getLong("client_id"));
+        }
+        // 处理其他类型的消息
+        return ChatFrame.text(text);
+    }
+
+    // 解码协商了紧凑协议后的二进制帧，格式错误的帧返回null并被丢弃
+    public static ChatFrame decode(ByteString bytes) {
+        try {
+            return BinaryFrameCodec.decode(bytes.toByteArray());
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Failed to decode binary frame", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,845 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import androidx.lifecycle.MutableLiveData;
+import android.util.Log;
+
+import com.example.assistant.model.CachedAnswer;
+import com.example.assistant.model.ConfirmPayload;
+import com.example.assistant.model.ImageAttachment;
+import com.example.assistant.model.Message;
+import com.example.assistant.model.OutboundMessage;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+// 聊天协议的状态机：把已解码的服务器帧应用到各对话，处理发问、排队、续传和停止生成。
+// 不持有WebSocket也不依赖Handler，连接打开时由调用方传入发送接口，定时任务通过调度器安排，
+// ChatSession和测试使用同一套帧处理逻辑。所有方法都应在主线程上调用
+class ChatProtocol {
+    private static final String TAG = "ChatProtocol";
+
+    // 消息持久化接口，生产环境由ChatHistoryStore在后台线程写入
+    interface Store {
+        void saveMessages(String threadId, List<Message> messages);
+        void updateDeliveryStatus(long messageId, int deliveryStatus);
+        void updateConfirmStatus(long messageId, int confirmStatus);
+        // 读取一条已保存的消息，在主线程上回调，没有时为null
+        void loadMessage(String threadId, long messageId, Consumer<Message> callback);
+        // 在后台线程上压缩思考消息，结果在主线程上回调
+        void compactMessage(Message message, Consumer<Message> callback);
+    }
+
+    // 续传请求发出后等待服务器继续发送的时间
+    static final long RESUME_TIMEOUT_MS = 15000;
+
+    private final StreamingAccumulator.FrameScheduler scheduler;
+    private final Store store;
+    private final AnswerCache answerCache;
+    private final ReconnectController reconnectController;
+
+    // 连接状态
+    private final MutableLiveData<String> connectionStatusLiveData = new MutableLiveData<>("(Connecting...)");
+
+    // 所有对话，按创建顺序排列，默认对话始终存在
+    private final Map<String, ChatThread> threads = new LinkedHashMap<>();
+    private final MutableLiveData<List<String>> threadIdsLiveData = new MutableLiveData<>(new ArrayList<>());
+
+    // 当前连接的发送接口，未连接时为null；服务器在握手时声明的能力
+    private OutboundQueue.Transport transport;
+    private ServerFeatures serverFeatures = ServerFeatures.NONE;
+    // 服务器是否支持同时进行多个对话，断线期间保留上次连接的结果
+    private final MutableLiveData<Boolean> multiplexingLiveData = new MutableLiveData<>(false);
+    // 最近一次向服务器提问的对话。服务器不支持多路复用时同一时间只有一个对话在等待回答，
+    // 不带thread_id的回答帧属于这个对话
+    private ChatThread exchangeThread;
+
+    // 流式chunk累加器，按帧合并UI更新；所有对话共用，刷新时按消息所属对话分组
+    private final StreamingAccumulator streamingAccumulator;
+    private final Map<Long, ChatThread> streamingMessageThreads = new HashMap<>();
+
+    // 持久化发送队列，服务器确认前的消息在重连后重放
+    private final OutboundQueue outboundQueue;
+
+    // 流式回答的延迟统计
+    private final StreamingMetrics streamingMetrics = new StreamingMetrics();
+
+    ChatProtocol(StreamingAccumulator.FrameScheduler scheduler, Store store, OutboundQueue.Store outboundStore,
+                 AnswerCache answerCache, ReconnectController reconnectController) {
+        this.scheduler = scheduler;
+        this.store = store;
+        this.answerCache = answerCache;
+        this.reconnectController = reconnectController;
+        this.streamingAccumulator = new StreamingAccumulator(scheduler, this::applyStreamingUpdates);
+        this.outboundQueue = new OutboundQueue(outboundStore, this::updateDeliveryStatus);
+        getOrCreateThread(Message.DEFAULT_THREAD_ID);
+    }
+
+    MutableLiveData<String> getConnectionStatusLiveData() {
+        return connectionStatusLiveData;
+    }
+
+    MutableLiveData<List<String>> getThreadIdsLiveData() {
+        return threadIdsLiveData;
+    }
+
+    MutableLiveData<Boolean> getMultiplexingLiveData() {
+        return multiplexingLiveData;
+    }
+
+    StreamingMetrics getStreamingMetrics() {
+        return streamingMetrics;
+    }
+
+    // 恢复上次退出时未被确认的消息
+    void restoreOutbound(List<OutboundMessage> messages) {
+        outboundQueue.restore(messages);
+    }
+
+    // 创建一个新对话并返回其ID
+    String createThread() {
+        return getOrCreateThread(UUID.randomUUID().toString()).id;
+    }
+
+    // 对话是否已经存在
+    boolean hasThread(String threadId) {
+        return threads.containsKey(threadId);
+    }
+
+    // 获取指定对话，不存在时创建（例如服务器推送了其他设备上的对话）
+    ChatThread getOrCreateThread(String threadId) {
+        ChatThread thread = threads.get(threadId);
+        if (thread == null) {
+            final ChatThread created = new ChatThread(threadId);
+            created.resumeTimeoutTask = () -> onResumeTimeout(created);
+            threads.put(threadId, created);
+            threadIdsLiveData.setValue(new ArrayList<>(threads.keySet()));
+            thread = created;
+        }
+        return thread;
+    }
+
+    // 查找帧所属的对话，不带thread_id的帧属于最近提问的对话，还没有提问时属于默认对话
+    private ChatThread threadOf(ChatFrame frame) {
+        String threadId = frame.getThreadId();
+        if (threadId != null && !threadId.isEmpty()) {
+            return getOrCreateThread(threadId);
+        }
+        return exchangeThread != null ? exchangeThread : getOrCreateThread(Message.DEFAULT_THREAD_ID);
+    }
+
+    // 连接已打开：先请求续传各对话被中断的回答，再重放未被确认的消息
+    void onConnected(OutboundQueue.Transport transport, ServerFeatures serverFeatures) {
+        this.transport = transport;
+        this.serverFeatures = serverFeatures;
+        multiplexingLiveData.setValue(serverFeatures.multiplexing);
+        connectionStatusLiveData.setValue("(Connected)");
+        reconnectController.onConnected();
+        for (ChatThread thread : threads.values()) {
+            if (thread.streamCursor.canResume()) {
+                requestResume(thread);
+            }
+        }
+        outboundQueue.onConnected(transport);
+    }
+
+    // 连接断开（包括心跳超时）后交给重连控制器安排重试。
+    // 可续传的回答保留流式状态，先保存已收到的部分，重连后从断点继续
+    void onDisconnected(String status) {
+        transport = null;
+        outboundQueue.onDisconnected();
+        streamingMetrics.onDisconnected();
+        connectionStatusLiveData.setValue(status);
+        streamingAccumulator.flush();
+        for (ChatThread thread : threads.values()) {
+            // 已确认的问题无法确定服务器重连后还会不会回答，不再等待；未确认的问题会在重连后重发，
+            // 对话在它被回答前仍在等待服务器，避免不支持多路复用时其他对话的问题同时发出。
+            // 这些回答都不再和缓存关联
+            int pendingCount = thread.pendingAnswers.size();
+            for (int i = 0; i < pendingCount; i++) {
+                ChatThread.PendingAnswer pending = thread.pendingAnswers.poll();
+                if (outboundQueue.contains(pending.clientId)) {
+                    thread.pendingAnswers.add(pending.withoutCache());
+                }
+            }
+            // 被停止的回答不会再续传
+            thread.discarding = false;
+            if (!thread.isStreaming()) {
+                continue;
+            }
+            streamingMetrics.onInterrupted(thread.id);
+            if (thread.streamCursor.canResume()) {
+                scheduler.cancel(thread.resumeTimeoutTask);
+                persistMessages(thread, thread.currentAiThinkingMessageId, thread.currentAiMessageId);
+            } else {
+                finishStreaming(thread);
+            }
+        }
+        // 排队的问题交给发送队列在重连后发送，续传中的回答结束后再发送
+        for (ChatThread thread : threads.values()) {
+            sendQueuedQuestions(thread);
+        }
+        reconnectController.onDisconnected();
+    }
+
+    // 在主线程上应用已解析的帧，按thread_id分发到对应对话。
+    // receivedAt为帧到达读线程的时间，用于统计服务器侧延迟
+    void applyFrame(ChatFrame frame, long receivedAt) {
+        streamingMetrics.onFrameDispatched(receivedAt, scheduler.now());
+        switch (frame.getType()) {
+            case ChatFrame.TYPE_START: {
+                // 开始流式响应，被停止的回答到此为止
+                ChatThread thread = threadOf(frame);
+                thread.discarding = false;
+                thread.isStreamingLiveData.setValue(true);
+                thread.streamCursor.begin(frame.getResponseId());
+                if (!serverFeatures.acks) {
+                    // 服务器不回复ack，开始回答说明已收到该对话最早发出的问题
+                    outboundQueue.ackOldest(clientId -> thread.findMessage(clientId) != null);
+                }
+                streamingMetrics.onStart(thread.id, receivedAt);
+                thread.clearCurrentAnswer();
+                thread.currentAnswer = thread.pendingAnswers.poll();
+                thread.currentAiThinkingMessageId = -1;
+                thread.currentAiMessageId = -1;
+
+                // 后台刷新缓存回答时不显示思考过程
+                if (thread.isRefreshingCachedAnswer()) {
+                    connectionStatusLiveData.setValue("Refreshing answer...");
+                    break;
+                }
+
+                // 创建思考消息
+                thread.currentAiThinkingMessageId = addStreamingMessage(thread, Message.TYPE_AI_THINK);
+
+                connectionStatusLiveData.setValue("Generating response...");
+                break;
+            }
+
+            case ChatFrame.TYPE_CHUNK: {
+                ChatThread thread = threadOf(frame);
+                // 丢弃被停止的回答、续传时重复的片段和已结束回答的片段
+                if (thread.discarding || !thread.streamCursor.accept(frame)) {
+                    break;
+                }
+                scheduler.cancel(thread.resumeTimeoutTask);
+                // 处理消息片段
+                String content = frame.getContent();
+                if (content != null && !content.isEmpty()) {
+                    streamingMetrics.onChunk(thread.id, frame.isThinking(), content.length(), receivedAt);
+                    // 根据is_thinking属性决定更新哪个消息
+                    if (thread.isRefreshingCachedAnswer()) {
+                        // 刷新的回答在结束时一次性替换缓存回答
+                        if (!frame.isThinking()) {
+                            thread.refreshBuffer.append(content);
+                        }
+                    } else if (frame.isThinking()) {
+                        // 如果还没有思考消息，则创建一个
+                        if (thread.currentAiThinkingMessageId == -1) {
+                            thread.currentAiThinkingMessageId = addStreamingMessage(thread, Message.TYPE_AI_THINK);
+                        }
+                        // 追加到缓冲区，由累加器按帧刷新
+                        streamingAccumulator.append(thread.currentAiThinkingMessageId, content);
+                    } else {
+                        // 如果还没有AI消息，则创建一个
+                        if (thread.currentAiMessageId == -1) {
+                            thread.currentAiMessageId = addStreamingMessage(thread, Message.TYPE_AI);
+                            thread.streamingMessageIdLiveData.setValue(thread.currentAiMessageId);
+                        }
+                        streamingAccumulator.append(thread.currentAiMessageId, content);
+                    }
+                }
+                break;
+            }
+
+            case ChatFrame.TYPE_END: {
+                ChatThread thread = threadOf(frame);
+                if (thread.discarding) {
+                    // 服务器已结束被停止的回答，可以发送排队的问题了
+                    thread.discarding = false;
+                    sendQueuedQuestions(thread);
+                    break;
+                }
+                if (!thread.streamCursor.accept(frame)) {
+                    break;
+                }
+                streamingMetrics.onEnd(thread.id, receivedAt);
+                completeAnswer(thread);
+                finishStreaming(thread);
+                if (!isAnyThreadStreaming()) {
+                    connectionStatusLiveData.setValue("(Connected)");
+                }
+                break;
+            }
+
+            case ChatFrame.TYPE_STATUS:
+                // 更新状态消息
+                connectionStatusLiveData.setValue(frame.getContent());
+                break;
+
+            case ChatFrame.TYPE_CONFIRM: {
+                // 添加确认消息，确认数据已在解码线程上解析
+                ChatThread thread = threadOf(frame);
+                if (thread.discarding) {
+                    break;
+                }
+                thread.currentAnswerHasConfirm = true;
+                persistMessages(thread, addConfirmMessage(thread, frame.getConfirmPayload()));
+                break;
+            }
+
+            case ChatFrame.TYPE_ACK:
+                // 服务器已收到客户端消息；未声明ack能力的服务器不会发送，重复的确认被忽略
+                outboundQueue.onAck(frame.getClientId());
+                break;
+
+            default: {
+                // 处理其他类型的消息或原始文本消息
+                ChatThread thread = threadOf(frame);
+                persistMessages(thread, addMessage(thread, frame.getContent(), Message.TYPE_AI));
+                if (!thread.isStreaming() && thread.pendingAnswers.poll() != null) {
+                    // 不分片的完整回答，和start帧一样确认问题，之后可以发送排队的问题
+                    if (!serverFeatures.acks) {
+                        outboundQueue.ackOldest(clientId -> thread.findMessage(clientId) != null);
+                    }
+                    sendQueuedQuestions(thread);
+                }
+                break;
+            }
+        }
+    }
+
+    // 添加一条流式接收的空消息，并记录它所属的对话
+    private long addStreamingMessage(ChatThread thread, int type) {
+        long messageId = addMessage(thread, "", type);
+        streamingMessageThreads.put(messageId, thread);
+        return messageId;
+    }
+
+    boolean isAnyThreadStreaming() {
+        for (ChatThread thread : threads.values()) {
+            if (thread.isStreaming()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 结束指定对话的流式响应，先把剩余内容刷新到消息中，其他对话的缓冲区不受影响。
+    // 被停止的回答要等服务器的end帧到达后才发送排队的问题
+    private void finishStreaming(ChatThread thread) {
+        streamingAccumulator.flush();
+        releaseStreamingMessage(thread.currentAiThinkingMessageId);
+        releaseStreamingMessage(thread.currentAiMessageId);
+        // 流式回答只在结束时写入一次本地存储
+        persistMessages(thread, thread.currentAiThinkingMessageId, thread.currentAiMessageId);
+        compactThinkingMessage(thread, thread.currentAiThinkingMessageId);
+        thread.isStreamingLiveData.setValue(false);
+        thread.currentAiThinkingMessageId = -1;
+        thread.currentAiMessageId = -1;
+        thread.streamingMessageIdLiveData.setValue(-1L);
+        thread.clearCurrentAnswer();
+        thread.streamCursor.end();
+        scheduler.cancel(thread.resumeTimeoutTask);
+        if (!thread.discarding) {
+            sendQueuedQuestions(thread);
+        }
+    }
+
+    // 思考内容不再变化，保存后在后台把完整内容压缩，列表中只保留预览。
+    // 压缩期间消息已被替换（例如重新加载）时保留新的版本
+    private void compactThinkingMessage(ChatThread thread, long messageId) {
+        Message message = messageId != -1 ? thread.findMessage(messageId) : null;
+        if (message == null) {
+            return;
+        }
+        store.compactMessage(message, compacted -> thread.dispatch(MessageAction.update(messageId,
+                current -> current == message ? compacted : current)));
+    }
+
+    // 回答正常结束后按缓存策略更新回答缓存；后台刷新的回答有变化时替换界面上的缓存回答
+    private void completeAnswer(ChatThread thread) {
+        ChatThread.PendingAnswer pending = thread.currentAnswer;
+        if (pending == null || pending.cacheRule == null) {
+            return;
+        }
+
+        String answer;
+        if (pending.isRefresh()) {
+            answer = thread.refreshBuffer.toString();
+        } else {
+            streamingAccumulator.flush();
+            Message message = thread.currentAiMessageId != -1 ? thread.findMessage(thread.currentAiMessageId) : null;
+            answer = message != null ? message.getContent() : null;
+        }
+        if (!AnswerCachePolicy.isCacheableAnswer(answer, thread.currentAnswerHasConfirm)) {
+            answerCache.remove(pending.cacheRule.key);
+            return;
+        }
+        answerCache.put(pending.cacheRule, answer, System.currentTimeMillis());
+
+        if (pending.isRefresh()) {
+            Message cached = thread.findMessage(pending.cachedMessageId);
+            if (cached != null && !cached.getContent().equals(answer)) {
+                thread.dispatch(MessageAction.update(pending.cachedMessageId, m -> m.copyWithContent(answer)));
+                persistMessages(thread, pending.cachedMessageId);
+            }
+        }
+    }
+
+    private void releaseStreamingMessage(long messageId) {
+        if (messageId != -1) {
+            streamingAccumulator.release(messageId);
+            streamingMessageThreads.remove(messageId);
+        }
+    }
+
+    // 请求服务器从最后应用的序号之后继续发送指定对话的当前回答
+    private void requestResume(ChatThread thread) {
+        try {
+            JSONObject messageObj = new JSONObject();
+            messageObj.put("type", "resume");
+            messageObj.put("thread_id", thread.id);
+            messageObj.put("response_id", thread.streamCursor.getResponseId());
+            messageObj.put("from_seq", thread.streamCursor.getResumeFromSeq());
+            if (transport.send(messageObj.toString())) {
+                connectionStatusLiveData.setValue("Resuming response...");
+                // 服务器不支持续传或回答已过期时不会再有数据，超时后结束流式状态
+                scheduler.schedule(thread.resumeTimeoutTask, RESUME_TIMEOUT_MS);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to build resume request", e);
+            finishStreaming(thread);
+        }
+    }
+
+    // 续传请求超时，保留已收到的部分内容并结束流式状态
+    private void onResumeTimeout(ChatThread thread) {
+        if (thread.isStreaming()) {
+            finishStreaming(thread);
+            if (!isAnyThreadStreaming()) {
+                connectionStatusLiveData.setValue("(Connected)");
+            }
+        }
+    }
+
+    // 停止指定对话正在接收的回答：通知服务器取消生成，本地立即结束流式状态并释放缓冲区，
+    // 已收到的部分保留，不写入回答缓存。对话进入丢弃状态，服务器结束该回答前到达的
+    // chunk、确认和end帧都被丢弃，收到end帧后才发送排队的问题
+    void stopGeneration(String threadId) {
+        ChatThread thread = getOrCreateThread(threadId);
+        if (!thread.isStreaming()) {
+            return;
+        }
+        if (transport != null) {
+            try {
+                JSONObject messageObj = new JSONObject();
+                messageObj.put("type", "cancel");
+                messageObj.put("thread_id", thread.id);
+                messageObj.put("response_id", thread.streamCursor.getResponseId());
+                transport.send(messageObj.toString());
+            } catch (JSONException e) {
+                Log.e(TAG, "Failed to build cancel request", e);
+            }
+        }
+        streamingMetrics.onInterrupted(thread.id);
+        // 未连接时服务器不会再发送该回答的帧，不需要等待
+        thread.discarding = transport != null;
+        finishStreaming(thread);
+        connectionStatusLiveData.setValue(isAnyThreadStreaming() ? "Generating response..." : "(Stopped)");
+    }
+
+    // 在指定对话中发送消息。需要等待服务器的回答结束时（包括已停止、服务器尚未结束的回答），
+    // 问题先显示为排队中，回答结束后再发送
+    void sendMessage(String threadId, String message) {
+        ChatThread thread = getOrCreateThread(threadId);
+        if (message == null || message.isEmpty()) {
+            return;
+        }
+        boolean queued = mustQueue(thread);
+        if (queued) {
+            // 排队中的问题显示在当前回答之后，不写入本地存储，发送时再保存
+            Message userMessage = Message.queued(message);
+            appendMessage(thread, userMessage);
+            thread.queuedQuestions.add(userMessage);
+            return;
+        }
+        Message userMessage = new Message(message, Message.TYPE_USER).copyWithDeliveryStatus(Message.DELIVERY_PENDING);
+        appendMessage(thread, userMessage);
+        submitQuestion(thread, userMessage);
+    }
+
+    // 把已显示在列表中的问题交给服务器，返回是否需要等待服务器的回答。
+    // 重复的问题直接显示缓存的回答，缓存已到刷新时间时仍发送给服务器，在后台刷新
+    private boolean submitQuestion(ChatThread thread, Message userMessage) {
+        String message = userMessage.getContent();
+        long now = System.currentTimeMillis();
+        String previousQuestion = thread.findQuestionBefore(userMessage.getId());
+        AnswerCachePolicy.Rule cacheRule = AnswerCachePolicy.forQuestion(message, previousQuestion, now, TimeZone.getDefault());
+        CachedAnswer cached = cacheRule != null ? answerCache.get(cacheRule.key, now) : null;
+
+        if (cached != null && !cached.isStale(now)) {
+            // 缓存命中且不需要刷新，不经过服务器
+            updateMessage(thread, userMessage.getId(), m -> m.copyWithDeliveryStatus(Message.DELIVERY_NONE));
+            long answerMessageId = addMessage(thread, cached.getAnswer(), Message.TYPE_AI);
+            persistMessages(thread, userMessage.getId(), answerMessageId);
+            return false;
+        }
+
+        // 消息ID同时作为发送队列的客户端ID
+        updateMessage(thread, userMessage.getId(), m -> m.copyWithDeliveryStatus(Message.DELIVERY_PENDING));
+        persistMessages(thread, userMessage.getId());
+
+        // 缓存已到刷新时间时先显示缓存的回答，服务器的回答到达后再替换
+        long cachedMessageId = -1;
+        if (cached != null) {
+            cachedMessageId = addMessage(thread, cached.getAnswer(), Message.TYPE_AI);
+            persistMessages(thread, cachedMessageId);
+        }
+        thread.pendingAnswers.add(new ChatThread.PendingAnswer(userMessage.getId(), cacheRule, cachedMessageId));
+        exchangeThread = thread;
+
+        // 格式化为JSON后交给发送队列，断线期间的消息会在重连后发送
+        try {
+            JSONObject messageObj = new JSONObject();
+            messageObj.put("type", "message");
+            messageObj.put("thread_id", thread.id);
+            messageObj.put("client_id", userMessage.getId());
+            messageObj.put("content", message);
+            outboundQueue.enqueue(new OutboundMessage(userMessage.getId(), messageObj.toString(), userMessage.getCreatedTime()));
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to build message payload", e);
+        }
+        return true;
+    }
+
+    // 当前回答结束后发送下一个排队的问题；用缓存回答的问题不需要等待，继续发送后面的问题。
+    // 服务器不支持多路复用时按提问顺序在所有对话中选出下一个问题，同一时间只有一个对话等待回答。
+    // 排队的图片还没上传完时，后面的问题也等待，保持提问顺序
+    private void sendQueuedQuestions(ChatThread thread) {
+        if (serverFeatures.multiplexing) {
+            while (!thread.queuedQuestions.isEmpty() && !thread.isAwaitingServer()
+                    && isReadyToSend(thread, thread.queuedQuestions.peek())) {
+                submitNextQueued(thread);
+            }
+            return;
+        }
+        while (!isAnyThreadAwaitingServer()) {
+            ChatThread next = null;
+            for (ChatThread candidate : threads.values()) {
+                Message head = candidate.queuedQuestions.peek();
+                if (head != null && (next == null || head.getId() < next.queuedQuestions.peek().getId())) {
+                    next = candidate;
+                }
+            }
+            if (next == null || !isReadyToSend(next, next.queuedQuestions.peek())) {
+                return;
+            }
+            submitNextQueued(next);
+        }
+    }
+
+    // 排队的文字问题随时可以发送，图片要等上传完成
+    private static boolean isReadyToSend(ChatThread thread, Message queued) {
+        if (queued.getType() != Message.TYPE_IMAGE) {
+            return true;
+        }
+        Message current = thread.findMessage(queued.getId());
+        return current != null && current.getUploadProgress() == Message.UPLOAD_DONE;
+    }
+
+    private void submitNextQueued(ChatThread thread) {
+        Message message = dequeueQuestion(thread);
+        if (message.getType() == Message.TYPE_IMAGE) {
+            persistMessages(thread, message.getId());
+            sendImageMessage(thread, message);
+        } else {
+            submitQuestion(thread, message);
+        }
+    }
+
+    // 取出下一个排队的问题，换成正常的消息ID，排在上一个回答之后。
+    // 图片在排队期间更新过附件，以列表中的当前内容为准
+    private Message dequeueQuestion(ChatThread thread) {
+        Message queued = thread.queuedQuestions.poll();
+        Message current = thread.findMessage(queued.getId());
+        Message message = (current != null ? current : queued).copyWithNewId();
+        if (message.getType() == Message.TYPE_IMAGE) {
+            message = message.copyWithDeliveryStatus(Message.DELIVERY_PENDING);
+        }
+        thread.dispatch(MessageAction.remove(queued.getId()), MessageAction.append(message));
+        return message;
+    }
+
+    private boolean isAnyThreadAwaitingServer() {
+        for (ChatThread thread : threads.values()) {
+            if (thread.isAwaitingServer()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 新问题是否需要排队：已有排队的问题时排在后面，保持提问顺序；服务器不支持流水线时等当前回答结束；
+    // 服务器不支持多路复用时还要等其他对话的回答结束
+    private boolean mustQueue(ChatThread thread) {
+        if (!thread.queuedQuestions.isEmpty()) {
+            return true;
+        }
+        if (!serverFeatures.multiplexing) {
+            for (ChatThread other : threads.values()) {
+                if (other != thread && (other.isAwaitingServer() || !other.queuedQuestions.isEmpty())) {
+                    return true;
+                }
+            }
+        }
+        return thread.isAwaitingServer() && !serverFeatures.pipelining;
+    }
+
+    // 在指定对话中显示图片消息并返回消息ID。和文字问题一样，需要等待服务器的回答时先排队，
+    // 排队期间图片照常压缩上传
+    long appendImage(ChatThread thread, String caption) {
+        if (mustQueue(thread)) {
+            Message message = Message.queuedImage(caption);
+            appendMessage(thread, message);
+            thread.queuedQuestions.add(message);
+            return message.getId();
+        }
+        return appendMessage(thread, Message.image(caption));
+    }
+
+    // 图片上传完成，保存状态后把图片消息交给发送队列；排队中的图片等轮到它时再发送
+    void submitImage(ChatThread thread, long messageId, ImageAttachment attachment) {
+        UnaryOperator<Message> uploaded = m -> m.copyWithAttachment(attachment).copyWithUploadProgress(Message.UPLOAD_DONE);
+        Message message = updateMessage(thread, messageId, uploaded);
+        if (message == null) {
+            // 上传期间消息已被移出内存窗口，按本地存储中的记录发送
+            store.loadMessage(thread.id, messageId, stored -> {
+                if (stored != null) {
+                    Message updated = uploaded.apply(stored);
+                    store.saveMessages(thread.id, Collections.singletonList(updated));
+                    sendImageMessage(thread, updated);
+                }
+            });
+            return;
+        }
+        if (message.getDeliveryStatus() == Message.DELIVERY_QUEUED) {
+            // 上传失败时移出过队列，重试成功后重新排在最后
+            if (!isQueued(thread, messageId)) {
+                thread.queuedQuestions.add(message);
+            }
+            sendQueuedQuestions(thread);
+            return;
+        }
+        persistMessages(thread, messageId);
+        sendImageMessage(thread, message);
+    }
+
+    // 图片上传失败，等待用户重试；排队中的图片先移出队列，不阻塞后面的问题
+    void onImageUploadFailed(ChatThread thread, long messageId) {
+        updateMessage(thread, messageId, m -> m.copyWithUploadProgress(Message.UPLOAD_FAILED));
+        if (thread.queuedQuestions.removeIf(m -> m.getId() == messageId)) {
+            sendQueuedQuestions(thread);
+        }
+    }
+
+    private static boolean isQueued(ChatThread thread, long messageId) {
+        for (Message queued : thread.queuedQuestions) {
+            if (queued.getId() == messageId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 把已上传的图片消息交给发送队列，图片的回答不使用回答缓存
+    private void sendImageMessage(ChatThread thread, Message message) {
+        thread.pendingAnswers.add(new ChatThread.PendingAnswer(message.getId(), null, -1));
+        exchangeThread = thread;
+
+        try {
+            JSONObject messageObj = new JSONObject();
+            messageObj.put("type", "message");
+            messageObj.put("thread_id", thread.id);
+            messageObj.put("client_id", message.getId());
+            messageObj.put("content", message.getContent());
+            messageObj.put("image_url", message.getAttachment().getUploadUrl());
+            outboundQueue.enqueue(new OutboundMessage(message.getId(), messageObj.toString(), message.getCreatedTime()));
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to build image message payload", e);
+        }
+    }
+
+    // 在指定对话中显示一问一答，回答在本地生成，不发送给服务器，
+    // 因此对话正在接收回答时也不需要排队
+    void answerLocally(String threadId, String question, String answer) {
+        ChatThread thread = getOrCreateThread(threadId);
+        long userMessageId = appendMessage(thread, new Message(question, Message.TYPE_USER));
+        long answerMessageId = addMessage(thread, answer, Message.TYPE_AI);
+        persistMessages(thread, userMessageId, answerMessageId);
+    }
+
+    // 发送确认请求的回复，content为confirmed或canceled，并更新对应确认消息的状态
+    void sendConfirmResponse(String conversationId, String content, int status) {
+        if (transport == null) {
+            return;
+        }
+        try {
+            JSONObject messageObj = new JSONObject();
+            messageObj.put("type", "confirm");
+            messageObj.put("conversation_id", conversationId);
+            messageObj.put("content", content);
+            transport.send(messageObj.toString());
+            connectionStatusLiveData.setValue(status == Message.STATUS_CONFIRMED
+                    ? "Sending confirmation..." : "Sending cancellation...");
+            updateMessageStatusByConversationId(conversationId, status);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // 根据conversation_id更新消息状态，通过各对话的确认消息索引直接定位
+    private void updateMessageStatusByConversationId(String conversationId, int status) {
+        if (conversationId == null || conversationId.isEmpty()) {
+            return;
+        }
+        for (ChatThread thread : threads.values()) {
+            long messageId = thread.findConfirmMessageId(conversationId);
+            // 已移出内存窗口的消息不会再被点击，不需要更新
+            Message message = messageId != -1 ? thread.findMessage(messageId) : null;
+            if (message == null) {
+                continue;
+            }
+            // 只有当消息状态为待处理时才更新，防止覆盖已存在的状态
+            if (message.getConfirmStatus() == Message.STATUS_PENDING) {
+                store.updateConfirmStatus(message.getId(), status);
+                thread.dispatch(MessageAction.update(messageId, m -> m.copyWithConfirmStatus(status)));
+            }
+        }
+    }
+
+    // 用副本替换对话中的指定消息，返回更新后的消息；消息不在内存中时返回null
+    Message updateMessage(ChatThread thread, long messageId, UnaryOperator<Message> update) {
+        thread.dispatch(MessageAction.update(messageId, update));
+        return thread.findMessage(messageId);
+    }
+
+    // 移除消息，排队中的消息同时移出队列
+    void removeMessage(ChatThread thread, long messageId) {
+        thread.dispatch(MessageAction.remove(messageId));
+        if (thread.queuedQuestions.removeIf(m -> m.getId() == messageId)) {
+            sendQueuedQuestions(thread);
+        }
+    }
+
+    // 更新用户消息的送达状态
+    private void updateDeliveryStatus(long messageId, int deliveryStatus) {
+        if (deliveryStatus == Message.DELIVERY_SENT) {
+            connectionStatusLiveData.setValue("Sending...");
+        } else if (deliveryStatus == Message.DELIVERY_DELIVERED) {
+            // 本地存储中只记录最终状态，未确认的消息重启后仍显示为待发送
+            store.updateDeliveryStatus(messageId, deliveryStatus);
+        }
+
+        // 发送队列不区分对话，在各对话的内存列表中查找该消息
+        for (ChatThread thread : threads.values()) {
+            Message message = thread.findMessage(messageId);
+            if (message == null) {
+                continue;
+            }
+            if (deliveryStatus == Message.DELIVERY_SENT) {
+                streamingMetrics.onSent(thread.id, scheduler.now());
+            }
+            if (message.getDeliveryStatus() != deliveryStatus) {
+                thread.dispatch(MessageAction.update(messageId, m -> m.copyWithDeliveryStatus(deliveryStatus)));
+            }
+            return;
+        }
+    }
+
+    // 添加消息并返回消息ID
+    private long addMessage(ChatThread thread, String content, int type) {
+        return appendMessage(thread, new Message(content, type));
+    }
+
+    // 追加消息生成新的列表，已提交给适配器的列表不会被修改
+    long appendMessage(ChatThread thread, Message message) {
+        thread.dispatch(MessageAction.append(message));
+        return message.getId();
+    }
+
+    // 把指定消息的当前内容写入本地存储
+    void persistMessages(ChatThread thread, long... messageIds) {
+        List<Message> messages = new ArrayList<>();
+        for (long messageId : messageIds) {
+            Message message = messageId != -1 ? thread.findMessage(messageId) : null;
+            // 没有收到任何内容的空消息不保存，图片消息可以没有文字；排队中的消息发送时再保存
+            if (message != null && message.getDeliveryStatus() != Message.DELIVERY_QUEUED
+                    && (!message.getContent().isEmpty() || message.getAttachment() != null)) {
+                messages.add(message);
+            }
+        }
+        store.saveMessages(thread.id, messages);
+    }
+
+    // 添加确认消息并返回消息ID，同时记入确认消息索引
+    private long addConfirmMessage(ChatThread thread, ConfirmPayload confirmPayload) {
+        // 创建确认消息内容
+        String content = "遇到困难的题目应该首先自己尝试完成，如果实在不会，我可以帮你解答，但会发送消息通知爸爸妈妈，你确定吗？";
+
+        // 使用带确认数据的构造函数
+        Message message = new Message(content, Message.TYPE_CONFIRM, confirmPayload);
+        thread.indexConfirmMessage(message, true);
+        return appendMessage(thread, message);
+    }
+
+    // 将累加器中合并后的内容写入消息，按所属对话分组，每个有变化的对话只触发一次LiveData更新
+    private void applyStreamingUpdates(Map<Long, String> updates) {
+        long startNanos = System.nanoTime();
+        Map<ChatThread, List<MessageAction>> actions = new HashMap<>();
+        for (Map.Entry<Long, String> entry : updates.entrySet()) {
+            ChatThread thread = streamingMessageThreads.get(entry.getKey());
+            if (thread == null) {
+                continue;
+            }
+            // 用新内容的消息副本替换原消息，便于适配器差分出追加的文本
+            String content = entry.getValue();
+            List<MessageAction> threadActions = actions.get(thread);
+            if (threadActions == null) {
+                threadActions = new ArrayList<>();
+                actions.put(thread, threadActions);
+            }
+            threadActions.add(MessageAction.update(entry.getKey(), m -> m.copyWithContent(content)));
+        }
+
+        for (Map.Entry<ChatThread, List<MessageAction>> entry : actions.entrySet()) {
+            entry.getKey().dispatch(entry.getValue().toArray(new MessageAction[0]));
+        }
+        // 包括观察者提交列表给适配器的时间
+        streamingMetrics.onRender((System.nanoTime() - startNanos) / 1000);
+    }
+
+    // 释放流式缓冲区和待执行的续传超时任务
+    void release() {
+        transport = null;
+        streamingAccumulator.clear();
+        streamingMessageThreads.clear();
+        for (ChatThread thread : threads.values()) {
+            scheduler.cancel(thread.resumeTimeoutTask);
+        }
+    }
+}
@@ -0,0 +1,670 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.LiveData;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.assistant.database.ChatHistoryStore;
+import com.example.assistant.model.CachedAnswer;
+import com.example.assistant.model.ImageAttachment;
+import com.example.assistant.model.Message;
+import com.example.assistant.model.OutboundMessage;
+import com.example.assistant.util.AuthManager;
+import com.example.assistant.util.ImageCompressor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okio.ByteString;
+
+// 进程级聊天会话：持有唯一的WebSocket连接和所有对话的消息状态，
+// 所有界面的ViewModel只观察它的LiveData，切换页面不会断开连接或丢失消息。
+// 帧的应用、发问和续传都交给ChatProtocol，这里只负责连接、网络监听、历史记录和图片上传
+public class ChatSession {
+    private static final String TAG = "ChatSession";
+    
+    private static ChatSession instance;
+    
+    // WebSocket服务器URL
+    private static final String WEB_SOCKET_URL_BASE = "wss://biubiu.org:443/assistant/ws";
+    // 上下文引用
+    private final Context applicationContext;
+    // 实际连接的服务器地址，压力测试连接本地的模拟服务器
+    private final String webSocketUrlBase;
+
+    // 所有对话的协议状态，帧在读线程上解码后交给它在主线程上应用
+    private final ChatProtocol protocol;
+    
+    // WebSocket相关
+    private WebSocket webSocket;
+    private final OkHttpClient client;
+    private final Handler handler;
+    private boolean isReleased = false;
+    
+    // 重连控制器和网络状态监听
+    private final ReconnectController reconnectController;
+    private ConnectivityManager.NetworkCallback networkCallback;
+    
+    // 聊天记录本地存储，按对话分页加载
+    private static final int HISTORY_PAGE_SIZE = 30;
+    // 搜索结果数量上限，以及跳转到搜索结果时目标消息之前多加载的消息数量
+    private static final int SEARCH_RESULT_LIMIT = 50;
+    private static final int JUMP_CONTEXT_SIZE = 10;
+    private final ChatHistoryStore historyStore;
+    
+    // 图片消息的压缩和上传在单独的线程上依次执行，压缩后的图片保存在应用私有目录
+    private static final String IMAGE_DIR = "chat_images";
+    private static final long UPLOAD_RETRY_DELAY_MS = 1000;
+    private final ExecutorService imageExecutor = Executors.newSingleThreadExecutor();
+    
+    // 获取进程内唯一的会话，首次调用时建立连接
+    public static synchronized ChatSession getInstance(Context context) {
+        if (instance == null) {
+            instance = new ChatSession(context.getApplicationContext());
+        }
+        return instance;
+    }
+    
+    // 释放当前会话（例如退出登录时），下次获取会重新创建并使用新的token连接
+    public static synchronized void release() {
+        if (instance != null) {
+            instance.shutdown();
+            instance = null;
+        }
+    }
+    
+    private ChatSession(Context applicationContext) {
+        this(applicationContext, WEB_SOCKET_URL_BASE);
+    }
+    
+    ChatSession(Context applicationContext, String webSocketUrlBase) {
+        this.applicationContext = applicationContext;
+        this.webSocketUrlBase = webSocketUrlBase;
+        
+        // 初始化Handler
+        handler = new Handler(Looper.getMainLooper());
+        HandlerScheduler scheduler = new HandlerScheduler();
+        
+        // 重连控制器：抖动退避、网络恢复立即重试
+        reconnectController = new ReconnectController(new ReconnectController.Config(), scheduler, this::initWebSocket);
+        
+        // 聊天记录存储同时保存待发送消息和回答缓存
+        historyStore = new ChatHistoryStore(applicationContext);
+        AnswerCache answerCache = new AnswerCache(new AnswerCache.Store() {
+            @Override
+            public void save(CachedAnswer answer) {
+                historyStore.saveCachedAnswer(answer);
+            }
+            
+            @Override
+            public void delete(String key) {
+                historyStore.deleteCachedAnswer(key);
+            }
+        });
+        protocol = new ChatProtocol(scheduler, new ChatProtocol.Store() {
+            @Override
+            public void saveMessages(String threadId, List<Message> messages) {
+                historyStore.saveMessages(threadId, messages);
+            }
+            
+            @Override
+            public void updateDeliveryStatus(long messageId, int deliveryStatus) {
+                historyStore.updateDeliveryStatus(messageId, deliveryStatus);
+            }
+            
+            @Override
+            public void updateConfirmStatus(long messageId, int confirmStatus) {
+                historyStore.updateConfirmStatus(messageId, confirmStatus);
+            }
+            
+            @Override
+            public void loadMessage(String threadId, long messageId, Consumer<Message> callback) {
+                historyStore.loadMessage(threadId, messageId, callback::accept);
+            }
+            
+            @Override
+            public void compactMessage(Message message, Consumer<Message> callback) {
+                historyStore.compactMessage(message, callback::accept);
+            }
+        }, new OutboundQueue.Store() {
+            @Override
+            public void save(OutboundMessage message) {
+                historyStore.saveOutbound(message);
+            }
+            
+            @Override
+            public void delete(long clientId) {
+                historyStore.deleteOutbound(clientId);
+            }
+        }, answerCache, reconnectController);
+        
+        // 恢复已有的对话并加载各自最近一页历史消息
+        loadOlderMessages(Message.DEFAULT_THREAD_ID);
+        historyStore.loadThreadIds(threadIds -> {
+            for (String threadId : threadIds) {
+                if (!protocol.hasThread(threadId)) {
+                    protocol.getOrCreateThread(threadId);
+                    loadOlderMessages(threadId);
+                }
+            }
+        });
+        
+        // 恢复上次未被确认的消息和上次保存的回答
+        historyStore.loadOutbound(protocol::restoreOutbound);
+        historyStore.loadCachedAnswers(answers -> answerCache.restore(answers, System.currentTimeMillis()));
+        
+        // 整个会话共用一个OkHttpClient，重连时复用其连接池
+        client = buildClient(reconnectController.getConfig().pingIntervalMs);
+        
+        // 监听网络变化
+        registerNetworkCallback();
+        
+        // 初始化WebSocket连接
+        reconnectController.start();
+    }
+    
+    // 基于主线程Handler的调度器，供流式累加器和重连控制器使用
+    private class HandlerScheduler implements StreamingAccumulator.FrameScheduler, ReconnectController.Scheduler {
+        @Override
+        public long now() {
+            return SystemClock.uptimeMillis();
+        }
+        
+        @Override
+        public void schedule(Runnable task, long delayMs) {
+            handler.postDelayed(task, delayMs);
+        }
+        
+        @Override
+        public void cancel(Runnable task) {
+            handler.removeCallbacks(task);
+        }
+    }
+    
+    // 注册默认网络回调，网络恢复时立即重连，网络断开时暂停重试
+    private void registerNetworkCallback() {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) applicationContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return;
+        }
+        
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(@NonNull Network network) {
+                handler.post(reconnectController::onNetworkAvailable);
+            }
+            
+            @Override
+            public void onLost(@NonNull Network network) {
+                handler.post(reconnectController::onNetworkLost);
+            }
+        };
+        try {
+            connectivityManager.registerDefaultNetworkCallback(networkCallback);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to register network callback", e);
+            networkCallback = null;
+        }
+    }
+    
+    // 获取重连控制器，用于查询重连耗时统计
+    public ReconnectController getReconnectController() {
+        return reconnectController;
+    }
+    
+    // 获取流式回答的延迟统计
+    public StreamingMetrics getStreamingMetrics() {
+        return protocol.getStreamingMetrics();
+    }
+    
+    // 获取所有对话ID的LiveData，按创建顺序排列
+    public LiveData<List<String>> getThreadIdsLiveData() {
+        return protocol.getThreadIdsLiveData();
+    }
+    
+    // 服务器是否支持同时进行多个对话，不支持时不能新建对话
+    public LiveData<Boolean> getMultiplexingLiveData() {
+        return protocol.getMultiplexingLiveData();
+    }
+    
+    // 创建一个新对话并返回其ID
+    public String createThread() {
+        return protocol.createThread();
+    }
+    
+    private ChatThread getOrCreateThread(String threadId) {
+        return protocol.getOrCreateThread(threadId);
+    }
+    
+    // 获取指定对话消息列表的LiveData
+    public LiveData<List<Message>> getMessageListLiveData(String threadId) {
+        return getOrCreateThread(threadId).messageListLiveData;
+    }
+    
+    // 获取连接状态的LiveData
+    public LiveData<String> getConnectionStatusLiveData() {
+        return protocol.getConnectionStatusLiveData();
+    }
+    
+    // 获取指定对话是否正在流式处理的LiveData
+    public LiveData<Boolean> getIsStreamingLiveData(String threadId) {
+        return getOrCreateThread(threadId).isStreamingLiveData;
+    }
+    
+    // 获取指定对话正在流式接收的回答消息ID，没有时为-1
+    public LiveData<Long> getStreamingMessageIdLiveData(String threadId) {
+        return getOrCreateThread(threadId).streamingMessageIdLiveData;
+    }
+    
+    // 记录用户在指定对话中正在查看的最早一条消息，传入-1表示已回到底部
+    public void setFirstVisibleMessageId(String threadId, long messageId) {
+        ChatThread thread = getOrCreateThread(threadId);
+        if (messageId == MessageWindow.NO_ANCHOR) {
+            if (thread.messageWindow.getAnchor() == MessageWindow.NO_ANCHOR) {
+                return;
+            }
+            thread.messageWindow.clearAnchor();
+            // 回到底部后，把之前加载的历史消息移出内存
+            thread.dispatch(MessageAction.trim());
+        } else {
+            thread.messageWindow.setAnchor(messageId);
+        }
+    }
+    
+    // 加载指定对话更早的一页历史消息，插入到列表头部
+    public void loadOlderMessages(String threadId) {
+        final ChatThread thread = getOrCreateThread(threadId);
+        if (thread.isLoadingHistory || !thread.hasMoreHistory) {
+            return;
+        }
+        
+        thread.isLoadingHistory = true;
+        Message first = thread.getMessages().first();
+        long beforeId = first != null ? first.getId() : Long.MAX_VALUE;
+        historyStore.loadPage(thread.id, beforeId, HISTORY_PAGE_SIZE, (messages, hasMore) -> {
+            thread.isLoadingHistory = false;
+            thread.hasMoreHistory = hasMore;
+            if (messages.isEmpty()) {
+                return;
+            }
+            
+            prependMessages(thread, messages);
+        });
+    }
+    
+    // 全文搜索所有对话的聊天记录，结果在主线程回调
+    public void searchMessages(String query, ChatHistoryStore.SearchCallback callback) {
+        historyStore.search(query, SEARCH_RESULT_LIMIT, callback);
+    }
+    
+    // 确保指定消息已加载到对话的内存列表中，并把它设为窗口锚点，加载完成后回调。
+    // 消息已被移出内存时，从本地存储补齐它到当前列表头部之间的所有消息
+    public void loadAroundMessage(String threadId, long messageId, Runnable onLoaded) {
+        final ChatThread thread = getOrCreateThread(threadId);
+        if (thread.indexOfMessage(messageId) >= 0) {
+            thread.messageWindow.setAnchor(messageId);
+            onLoaded.run();
+            return;
+        }
+        
+        Message first = thread.getMessages().first();
+        long beforeId = first != null ? first.getId() : Long.MAX_VALUE;
+        thread.isLoadingHistory = true;
+        historyStore.loadFrom(thread.id, messageId, JUMP_CONTEXT_SIZE, beforeId, (messages, hasMore) -> {
+            thread.isLoadingHistory = false;
+            thread.hasMoreHistory = hasMore;
+            // 先设置锚点，之后的新消息不会把跳转目标裁掉
+            thread.messageWindow.setAnchor(messageId);
+            prependMessages(thread, messages);
+            onLoaded.run();
+        });
+    }
+    
+    // 把从本地存储加载的更早消息插入到列表头部，
+    // 只保留比当前第一条更早的消息，避免和同时进行的分页加载重复
+    private void prependMessages(ChatThread thread, List<Message> messages) {
+        Message first = thread.getMessages().first();
+        long firstId = first != null ? first.getId() : Long.MAX_VALUE;
+        int end = messages.size();
+        while (end > 0 && messages.get(end - 1).getId() >= firstId) {
+            end--;
+        }
+        if (end == 0) {
+            return;
+        }
+        
+        // 从后向前建立索引，同一conversation_id保留较新的消息
+        for (int i = end - 1; i >= 0; i--) {
+            thread.indexConfirmMessage(messages.get(i), false);
+        }
+        
+        thread.dispatch(MessageAction.prepend(messages.subList(0, end)));
+    }
+    
+    // 创建自定义OkHttpClient，配置SSL证书验证和心跳
+    private static OkHttpClient buildClient(long pingIntervalMs) {
+        OkHttpClient.Builder clientBuilder = new OkHttpClient.Builder();
+        
+        // 定期发送ping，一个间隔内没有收到pong时OkHttp会判定连接失效并回调onFailure，
+        // 用于发现半开连接
+        clientBuilder.pingInterval(pingIntervalMs, TimeUnit.MILLISECONDS);
+        
+        // 添加SSL证书信任逻辑
+        try {
+            // 获取SSL上下文
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            
+            // 创建信任所有证书的TrustManager
+            TrustManager[] trustAllCerts = new TrustManager[] {
+                new X509TrustManager() {
+                    @Override
+                    public void checkClientTrusted(java.security.cert.X509Certificate[] chain, String authType) {}
+                    
+                    @Override
+                    public void checkServerTrusted(java.security.cert.X509Certificate[] chain, String authType) {}
+                    
+                    @Override
+                    public java.security.cert.X509Certificate[] getAcceptedIssuers() {
+                        return new java.security.cert.X509Certificate[]{};
+                    }
+                }
+            };
+            
+            // 初始化SSL上下文
+            sslContext.init(null, trustAllCerts, new java.security.SecureRandom());
+            
+            // 添加SSL套接字工厂
+            clientBuilder.sslSocketFactory(sslContext.getSocketFactory(), (X509TrustManager)trustAllCerts[0]);
+            
+            // 忽略主机名验证
+            clientBuilder.hostnameVerifier((hostname, session) -> true);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        
+        return clientBuilder.build();
+    }
+    
+    private void initWebSocket() {
+        if (isReleased) {
+            return;
+        }
+        
+        // 如果已经连接，则先关闭
+        if (webSocket != null) {
+            webSocket.close(1000, "Reconnecting");
+        }
+        
+        // 获取认证token
+        String token = AuthManager.getAuthToken(applicationContext);
+        
+        // 构建WebSocket URL
+        String webSocketUrl = webSocketUrlBase + "?token=" + (token != null ? token : "");
+        
+        // 优先协商紧凑的二进制帧协议，服务器不支持时不会返回该子协议，继续使用JSON文本帧。
+        // permessage-deflate压缩由OkHttp在握手时自动协商
+        Request request = new Request.Builder()
+                .url(webSocketUrl)
+                .header("Sec-WebSocket-Protocol", BinaryFrameCodec.PROTOCOL_TLV + ", " + BinaryFrameCodec.PROTOCOL_JSON)
+                .build();
+        WebSocketListener webSocketListener = new WebSocketListener() {
+            @Override
+            public void onOpen(WebSocket webSocket, Response response) {
+                super.onOpen(webSocket, response);
+                Log.i(TAG, "Connected, protocol=" + response.header("Sec-WebSocket-Protocol", BinaryFrameCodec.PROTOCOL_JSON)
+                        + ", extensions=" + response.header("Sec-WebSocket-Extensions", "none"));
+                handler.post(() -> {
+                    // 忽略已被替换的旧连接的回调
+                    if (webSocket != ChatSession.this.webSocket) {
+                        return;
+                    }
+                    protocol.onConnected(webSocket::send, ServerFeatures.fromHeaders(response::header));
+                });
+            }
+
+            @Override
+            public void onMessage(WebSocket webSocket, String text) {
+                super.onMessage(webSocket, text);
+                // 在OkHttp读线程上完成JSON解析，主线程只应用解析结果
+                final long receivedAt = SystemClock.uptimeMillis();
+                final ChatFrame frame = ChatFrameDecoder.decode(text);
+                handler.post(() -> {
+                    // 重连时旧连接只是正常关闭，关闭前仍会收到同一回答的片段和ack、end帧，
+                    // 这些内容已由新连接续传或重放，直接丢弃
+                    if (webSocket != ChatSession.this.webSocket) {
+                        return;
+                    }
+                    protocol.applyFrame(frame, receivedAt);
+                });
+            }
+
+            @Override
+            public void onMessage(WebSocket webSocket, ByteString bytes) {
+                super.onMessage(webSocket, bytes);
+                // 紧凑协议的二进制帧，同样在读线程上解码
+                final long receivedAt = SystemClock.uptimeMillis();
+                final ChatFrame frame = ChatFrameDecoder.decode(bytes);
+                if (frame != null) {
+                    handler.post(() -> {
+                        if (webSocket != ChatSession.this.webSocket) {
+                            return;
+                        }
+                        protocol.applyFrame(frame, receivedAt);
+                    });
+                }
+            }
+
+            @Override
+            public void onClosing(WebSocket webSocket, int code, String reason) {
+                super.onClosing(webSocket, code, reason);
+                handler.post(() -> {
+                    if (webSocket != ChatSession.this.webSocket) {
+                        return;
+                    }
+                    handleDisconnect("(Disconnected)");
+                });
+            }
+
+            @Override
+            public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+                super.onFailure(webSocket, t, response);
+                handler.post(() -> {
+                    if (webSocket != ChatSession.this.webSocket) {
+                        return;
+                    }
+                    handleDisconnect("(Connection Failed)");
+                });
+            }
+        };
+
+        webSocket = client.newWebSocket(request, webSocketListener);
+    }
+
+    // 连接断开（包括心跳超时）后交给协议状态安排续传和重连
+    private void handleDisconnect(String status) {
+        if (isReleased) {
+            return;
+        }
+        protocol.onDisconnected(status);
+    }
+    
+    // 停止指定对话正在接收的回答
+    public void stopGeneration(String threadId) {
+        protocol.stopGeneration(threadId);
+    }
+    
+    // 在指定对话中发送消息，各对话之间互不影响
+    public void sendMessage(String threadId, String message) {
+        protocol.sendMessage(threadId, message);
+    }
+    
+    // 在指定对话中发送作业照片：先显示图片消息，在后台压缩并分块上传，
+    // 上传完成后和文字消息一样交给发送队列，正在回答时排在当前回答之后。图片的回答不使用回答缓存
+    public void sendImage(String threadId, Uri uri, String caption) {
+        ChatThread thread = getOrCreateThread(threadId);
+        if (uri == null) {
+            return;
+        }
+        
+        long messageId = protocol.appendImage(thread, caption != null ? caption : "");
+        File dir = new File(applicationContext.getFilesDir(), IMAGE_DIR);
+        imageExecutor.execute(() -> {
+            try {
+                ImageAttachment attachment = ImageCompressor.compress(
+                        applicationContext.getContentResolver(), uri, dir, String.valueOf(messageId));
+                handler.post(() -> {
+                    updateMessage(thread, messageId, m -> m.copyWithAttachment(attachment).copyWithUploadProgress(0));
+                    persistMessages(thread, messageId);
+                    uploadImage(thread, messageId, attachment);
+                });
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to compress image", e);
+                // 图片无法读取时没有可以重试的内容，直接移除这条消息
+                handler.post(() -> {
+                    protocol.removeMessage(thread, messageId);
+                    protocol.getConnectionStatusLiveData().setValue("(Failed to read image)");
+                });
+            }
+        });
+    }
+    
+    // 继续上传中断的图片，服务器已收到的部分不再发送
+    public void retryImageUpload(String threadId, long messageId) {
+        ChatThread thread = getOrCreateThread(threadId);
+        Message message = thread.findMessage(messageId);
+        if (message == null || message.getUploadProgress() != Message.UPLOAD_FAILED
+                || message.getAttachment() == null) {
+            return;
+        }
+        updateMessage(thread, messageId, m -> m.copyWithUploadProgress(0));
+        uploadImage(thread, messageId, message.getAttachment());
+    }
+    
+    // 在指定对话中显示一问一答，回答在本地生成，不发送给服务器，
+    // 因此对话正在接收回答时也不需要排队
+    public void answerLocally(String threadId, String question, String answer) {
+        protocol.answerLocally(threadId, question, answer);
+    }
+    
+    // 在图片线程上上传压缩后的图片。上传地址创建后立即保存，中断后从断点继续
+    private void uploadImage(ChatThread thread, long messageId, ImageAttachment attachment) {
+        imageExecutor.execute(() -> {
+            String token = AuthManager.getAuthToken(applicationContext);
+            ImageUploader uploader = new ImageUploader(client, ImageUploader.UPLOAD_URL, token, UPLOAD_RETRY_DELAY_MS);
+            File file = new File(attachment.getLocalPath());
+            try {
+                ImageAttachment current = attachment;
+                if (current.getUploadUrl() == null) {
+                    current = current.withUploadUrl(uploader.create(file.length()));
+                    final ImageAttachment created = current;
+                    handler.post(() -> {
+                        updateMessage(thread, messageId, m -> m.copyWithAttachment(created));
+                        persistMessages(thread, messageId);
+                    });
+                }
+                
+                // 百分比变化时才更新界面，100留给上传完成
+                int[] lastPercent = {0};
+                uploader.upload(current.getUploadUrl(), file, (uploaded, total) -> {
+                    int percent = total > 0 ? (int) (uploaded * (Message.UPLOAD_DONE - 1) / total) : 0;
+                    if (percent != lastPercent[0]) {
+                        lastPercent[0] = percent;
+                        handler.post(() -> updateMessage(thread, messageId, m -> m.copyWithUploadProgress(percent)));
+                    }
+                });
+                
+                ImageAttachment uploaded = current.asUploaded();
+                handler.post(() -> protocol.submitImage(thread, messageId, uploaded));
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to upload image", e);
+                handler.post(() -> protocol.onImageUploadFailed(thread, messageId));
+            }
+        });
+    }
+    
+    private Message updateMessage(ChatThread thread, long messageId, UnaryOperator<Message> update) {
+        return protocol.updateMessage(thread, messageId, update);
+    }
+    
+    private void persistMessages(ChatThread thread, long... messageIds) {
+        protocol.persistMessages(thread, messageIds);
+    }
+    
+    // 发送确认响应
+    public void sendConfirmResponse(String conversationId) {
+        protocol.sendConfirmResponse(conversationId, "confirmed", Message.STATUS_CONFIRMED);
+    }
+    
+    // 发送取消响应
+    public void sendCancelResponse(String conversationId) {
+        protocol.sendConfirmResponse(conversationId, "canceled", Message.STATUS_CANCELED);
+    }
+    
+    // 断开WebSocket连接
+    private void disconnectWebSocket() {
+        if (webSocket != null) {
+            webSocket.close(1000, "Disconnecting");
+            webSocket = null;
+        }
+    }
+    
+    // 关闭连接并释放会话持有的资源
+    void shutdown() {
+        isReleased = true;
+        reconnectController.stop();
+        
+        // 取消网络监听
+        if (networkCallback != null) {
+            ConnectivityManager connectivityManager =
+                    (ConnectivityManager) applicationContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+            try {
+                connectivityManager.unregisterNetworkCallback(networkCallback);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to unregister network callback", e);
+            }
+            networkCallback = null;
+        }
+        
+        // 断开WebSocket连接
+        disconnectWebSocket();
+        
+        // 释放流式缓冲区
+        protocol.release();
+        
+        // 停止图片压缩和上传
+        imageExecutor.shutdownNow();
+        
+        // 关闭聊天记录存储
+        historyStore.close();
+        
+        // 清除Handler中的所有回调
+        handler.removeCallbacksAndMessages(null);
+    }
+}
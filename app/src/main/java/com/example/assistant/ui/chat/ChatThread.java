@@ -0,0 +1,166 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import androidx.lifecycle.MutableLiveData;
+
+import com.example.assistant.model.Message;
+import com.example.assistant.model.MessageList;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// 一个独立的对话：有自己的消息列表、流式状态和续传游标。
+// 所有对话共用ChatSession的一条WebSocket连接，服务器帧按thread_id分发到对应对话
+class ChatThread {
+
+    final String id;
+
+    // 对话的消息列表和流式状态。列表是不可变的MessageList，只通过dispatch修改
+    final MutableLiveData<List<Message>> messageListLiveData = new MutableLiveData<>(MessageList.EMPTY);
+    private MessageList messages = MessageList.EMPTY;
+    final MutableLiveData<Boolean> isStreamingLiveData = new MutableLiveData<>(false);
+
+    // 正在流式接收的思考消息和回答消息
+    long currentAiThinkingMessageId = -1;
+    long currentAiMessageId = -1;
+    // 正在流式接收的回答消息ID，界面据此找到内容仍在变化的那一行，没有时为-1
+    final MutableLiveData<Long> streamingMessageIdLiveData = new MutableLiveData<>(-1L);
+
+    // 续传游标和续传超时任务
+    final StreamCursor streamCursor = new StreamCursor();
+    Runnable resumeTimeoutTask;
+
+    // 内存消息窗口和历史分页状态
+    final MessageWindow messageWindow = new MessageWindow();
+    private final MessageReducer reducer = new MessageReducer(messageWindow);
+    boolean isLoadingHistory = false;
+    boolean hasMoreHistory = true;
+
+    // 已发送、等待服务器回答的问题，服务器按发送顺序回答，每个回答开始时取出一个
+    final ArrayDeque<PendingAnswer> pendingAnswers = new ArrayDeque<>();
+    // 当前回答对应的问题，以及回答中是否收到了确认请求
+    PendingAnswer currentAnswer;
+    boolean currentAnswerHasConfirm = false;
+    // 后台刷新缓存回答时接收的内容，不流式显示
+    final StringBuilder refreshBuffer = new StringBuilder();
+    // 接收回答期间输入的追问，当前回答结束后按顺序逐个发送
+    final ArrayDeque<Message> queuedQuestions = new ArrayDeque<>();
+    // 用户已停止当前回答，服务器结束它之前到达的chunk、确认和end帧都属于被停止的回答，直接丢弃
+    boolean discarding = false;
+
+    // conversation_id到确认消息ID的索引，更新确认状态时不需要遍历和解析消息
+    private final Map<String, Long> confirmMessageIds = new HashMap<>();
+
+    ChatThread(String id) {
+        this.id = id;
+    }
+
+    // 等待回答的问题：clientId为问题在发送队列中的ID；缓存规则为null表示回答不可缓存；
+    // cachedMessageId不为-1表示界面已显示缓存的回答，服务器的回答只用于在后台刷新它
+    static final class PendingAnswer {
+        final long clientId;
+        final AnswerCachePolicy.Rule cacheRule;
+        final long cachedMessageId;
+
+        PendingAnswer(long clientId, AnswerCachePolicy.Rule cacheRule, long cachedMessageId) {
+            this.clientId = clientId;
+            this.cacheRule = cacheRule;
+            this.cachedMessageId = cachedMessageId;
+        }
+
+        // 断线后服务器的回答不再和缓存关联
+        PendingAnswer withoutCache() {
+            return new PendingAnswer(clientId, null, -1);
+        }
+
+        boolean isRefresh() {
+            return cachedMessageId != -1;
+        }
+    }
+
+    boolean isStreaming() {
+        return Boolean.TRUE.equals(isStreamingLiveData.getValue());
+    }
+
+    // 服务器是否还在处理这个对话的问题，包括已发出尚未开始回答的问题和已停止但服务器尚未结束的回答
+    boolean isAwaitingServer() {
+        return isStreaming() || discarding || !pendingAnswers.isEmpty();
+    }
+
+    // 当前回答是否只是在后台刷新缓存
+    boolean isRefreshingCachedAnswer() {
+        return currentAnswer != null && currentAnswer.isRefresh();
+    }
+
+    // 结束当前回答的缓存状态
+    void clearCurrentAnswer() {
+        currentAnswer = null;
+        currentAnswerHasConfirm = false;
+        refreshBuffer.setLength(0);
+    }
+
+    // 查找指定消息之前最近的一条用户消息内容，用于判断追问的上下文，没有时返回null
+    String findQuestionBefore(long messageId) {
+        int index = messages.indexOfId(messageId);
+        for (int i = (index >= 0 ? index : messages.size()) - 1; i >= 0; i--) {
+            if (messages.get(i).getType() == Message.TYPE_USER) {
+                return messages.get(i).getContent();
+            }
+        }
+        return null;
+    }
+
+    MessageList getMessages() {
+        return messages;
+    }
+
+    // 根据消息ID查找索引，没有时返回-1
+    int indexOfMessage(long messageId) {
+        return messages.indexOfId(messageId);
+    }
+
+    // 根据消息ID查找消息，没有时返回null
+    Message findMessage(long messageId) {
+        return messages.findById(messageId);
+    }
+
+    // 依次应用一组动作，最后只通知界面一次；列表没有变化时不通知。
+    // 内存窗口裁掉了旧消息时，标记还有可以重新加载的历史
+    void dispatch(MessageAction... actions) {
+        int evictedCount = messageWindow.getEvictedCount();
+        MessageList state = messages;
+        for (MessageAction action : actions) {
+            state = reducer.reduce(state, action);
+        }
+        if (messageWindow.getEvictedCount() != evictedCount) {
+            hasMoreHistory = true;
+        }
+        if (state != messages) {
+            messages = state;
+            messageListLiveData.setValue(state);
+        }
+    }
+
+    // 记录确认消息。同一conversation_id有多条时以最新的为准，
+    // 因此加载更早的历史时不覆盖已有的索引
+    void indexConfirmMessage(Message message, boolean newest) {
+        if (message.getType() != Message.TYPE_CONFIRM || message.getConfirmPayload() == null) {
+            return;
+        }
+        String conversationId = message.getConfirmPayload().getConversationId();
+        if (newest || !confirmMessageIds.containsKey(conversationId)) {
+            confirmMessageIds.put(conversationId, message.getId());
+        }
+    }
+
+    // 查找确认消息ID，没有时返回-1
+    long findConfirmMessageId(String conversationId) {
+        Long messageId = confirmMessageIds.get(conversationId);
+        return messageId != null ? messageId : -1;
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+// 图片的分块续传上传，协议与tus相同：
+// POST创建上传（Upload-Length）并从Location得到上传地址；HEAD查询服务器已收到的字节数（Upload-Offset）；
+// PATCH从该偏移继续发送一个分块。上传地址保存在消息中，网络中断或应用重启后从断点继续，
+// 不需要重新发送已上传的部分。所有方法都是阻塞调用，需在后台线程上执行
+class ImageUploader {
+
+    static final String UPLOAD_URL = "https://biubiu.org/api/uploads";
+    static final int CHUNK_SIZE = 256 * 1024;
+    static final int MAX_ATTEMPTS = 3;
+
+    private static final String TUS_VERSION = "1.0.0";
+    private static final MediaType OFFSET_OCTET_STREAM = MediaType.get("application/offset+octet-stream");
+
+    // 上传进度回调，在上传线程上调用
+    interface ProgressListener {
+        void onProgress(long uploaded, long total);
+    }
+
+    private final OkHttpClient client;
+    private final String endpoint;
+    private final String authToken;
+    private final long retryDelayMs;
+
+    ImageUploader(OkHttpClient client, String endpoint, String authToken, long retryDelayMs) {
+        this.client = client;
+        this.endpoint = endpoint;
+        this.authToken = authToken;
+        this.retryDelayMs = retryDelayMs;
+    }
+
+    // 创建上传并返回上传地址
+    String create(long length) throws IOException {
+        Request request = newRequest(endpoint)
+                .header("Upload-Length", String.valueOf(length))
+                .post(RequestBody.create(new byte[0], null))
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            String location = response.header("Location");
+            if (response.code() != 201 || location == null) {
+                throw new IOException("Failed to create upload: HTTP " + response.code());
+            }
+            HttpUrl resolved = response.request().url().resolve(location);
+            if (resolved == null) {
+                throw new IOException("Invalid upload location: " + location);
+            }
+            return resolved.toString();
+        }
+    }
+
+    // 查询服务器已收到的字节数
+    long queryOffset(String uploadUrl) throws IOException {
+        Request request = newRequest(uploadUrl).head().build();
+        try (Response response = client.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Failed to query upload offset: HTTP " + response.code());
+            }
+            return parseOffset(response);
+        }
+    }
+
+    // 从服务器记录的偏移开始分块上传文件。请求失败后退避重试，
+    // 重试前重新查询偏移，连续MAX_ATTEMPTS次没有进展时抛出最后一次的异常
+    void upload(String uploadUrl, File file, ProgressListener listener) throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            long total = input.length();
+            long offset = -1;
+            int failures = 0;
+            while (offset < total) {
+                try {
+                    if (offset < 0) {
+                        offset = queryOffset(uploadUrl);
+                    } else {
+                        int length = (int) Math.min(CHUNK_SIZE, total - offset);
+                        input.seek(offset);
+                        input.readFully(buffer, 0, length);
+                        offset = sendChunk(uploadUrl, offset, buffer, length);
+                        failures = 0;
+                    }
+                    listener.onProgress(offset, total);
+                } catch (IOException e) {
+                    failures++;
+                    if (failures >= MAX_ATTEMPTS) {
+                        throw e;
+                    }
+                    sleep(retryDelayMs << (failures - 1));
+                    offset = -1;
+                }
+            }
+        }
+    }
+
+    // 发送一个分块，返回服务器确认后的新偏移
+    private long sendChunk(String uploadUrl, long offset, byte[] buffer, int length) throws IOException {
+        Request request = newRequest(uploadUrl)
+                .header("Upload-Offset", String.valueOf(offset))
+                .patch(RequestBody.create(buffer, OFFSET_OCTET_STREAM, 0, length))
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            if (response.code() != 204 && !response.isSuccessful()) {
+                throw new IOException("Failed to upload chunk at " + offset + ": HTTP " + response.code());
+            }
+            long newOffset = parseOffset(response);
+            if (newOffset <= offset) {
+                throw new IOException("Upload made no progress at " + offset);
+            }
+            return newOffset;
+        }
+    }
+
+    private Request.Builder newRequest(String url) {
+        return new Request.Builder()
+                .url(url)
+                .header("Authorization", "Bearer " + authToken)
+                .header("Tus-Resumable", TUS_VERSION);
+    }
+
+    private static long parseOffset(Response response) throws IOException {
+        String offset = response.header("Upload-Offset");
+        if (offset == null) {
+            throw new IOException("Missing Upload-Offset header");
+        }
+        try {
+            return Long.parseLong(offset);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid Upload-Offset: " + offset, e);
+        }
+    }
+
+    private static void sleep(long delayMs) throws IOException {
+        try {
+            Thread.sleep(delayMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Upload interrupted", e);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import com.example.assistant.model.Message;
+
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+// 对消息列表的一次修改。消息列表只通过ChatThread.dispatch提交动作来修改，
+// 由MessageReducer在旧列表上生成新列表
+final class MessageAction {
+
+    static final int APPEND = 0;   // 在末尾追加一条新消息
+    static final int UPDATE = 1;   // 用更新函数替换指定ID的消息
+    static final int REMOVE = 2;   // 删除指定ID的消息
+    static final int PREPEND = 3;  // 把更早的历史消息加到列表前面
+    static final int TRIM = 4;     // 按内存窗口裁剪旧消息
+
+    final int type;
+    final long messageId;
+    final Message message;
+    final List<Message> messages;
+    final UnaryOperator<Message> update;
+
+    private MessageAction(int type, long messageId, Message message, List<Message> messages,
+                          UnaryOperator<Message> update) {
+        this.type = type;
+        this.messageId = messageId;
+        this.message = message;
+        this.messages = messages;
+        this.update = update;
+    }
+
+    static MessageAction append(Message message) {
+        return new MessageAction(APPEND, message.getId(), message, null, null);
+    }
+
+    // 更新函数返回原消息时列表保持不变
+    static MessageAction update(long messageId, UnaryOperator<Message> update) {
+        return new MessageAction(UPDATE, messageId, null, null, update);
+    }
+
+    static MessageAction remove(long messageId) {
+        return new MessageAction(REMOVE, messageId, null, null, null);
+    }
+
+    static MessageAction prepend(List<Message> messages) {
+        return new MessageAction(PREPEND, -1, null, messages, null);
+    }
+
+    static MessageAction trim() {
+        return new MessageAction(TRIM, -1, null, null, null);
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import com.example.assistant.model.Message;
+import com.example.assistant.model.MessageList;
+
+// 消息列表的唯一修改入口：reduce根据旧列表和动作生成新列表，旧列表保持不变。
+// 每个动作只复制O(log n)个节点，没有变化时返回原列表，界面据此跳过刷新
+class MessageReducer {
+
+    private final MessageWindow messageWindow;
+
+    MessageReducer(MessageWindow messageWindow) {
+        this.messageWindow = messageWindow;
+    }
+
+    MessageList reduce(MessageList state, MessageAction action) {
+        switch (action.type) {
+            case MessageAction.APPEND:
+                return messageWindow.trim(state.put(action.message));
+            case MessageAction.UPDATE: {
+                Message message = state.findById(action.messageId);
+                return message != null ? state.put(action.update.apply(message)) : state;
+            }
+            case MessageAction.REMOVE:
+                return state.removeById(action.messageId);
+            case MessageAction.PREPEND:
+                return prepend(state, action);
+            case MessageAction.TRIM:
+                return messageWindow.trim(state);
+            default:
+                throw new IllegalArgumentException("Unknown message action: " + action.type);
+        }
+    }
+
+    // 只加入比当前第一条更早的消息，加载期间已在列表中的消息不会被旧数据覆盖
+    private static MessageList prepend(MessageList state, MessageAction action) {
+        long firstId = state.isEmpty() ? Long.MAX_VALUE : state.first().getId();
+        MessageList updated = state;
+        for (Message message : action.messages) {
+            if (message.getId() < firstId) {
+                updated = updated.put(message);
+            }
+        }
+        return updated;
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import com.example.assistant.model.MessageList;
+
+// 内存中的消息窗口：只保留最近的若干条消息和用户正在查看的区域，
+// 更早的消息已经写入本地存储，滚动到时再按页加载回来
+public class MessageWindow {
+
+    public static final int DEFAULT_CAPACITY = 200;
+    public static final long NO_ANCHOR = -1;
+
+    // 锚点之前额外保留的消息数量，避免可见区域上方立刻被裁掉
+    private static final int ANCHOR_MARGIN = 10;
+
+    private final int capacity;
+    private long anchorMessageId = NO_ANCHOR;
+    private int evictedCount = 0;
+
+    public MessageWindow() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public MessageWindow(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    // 设置用户正在查看的最早一条消息，该消息及其后的消息不会被裁剪
+    public void setAnchor(long messageId) {
+        anchorMessageId = messageId;
+    }
+
+    // 用户回到底部时清除锚点
+    public void clearAnchor() {
+        anchorMessageId = NO_ANCHOR;
+    }
+
+    public long getAnchor() {
+        return anchorMessageId;
+    }
+
+    // 超出容量时裁剪列表头部的旧消息，返回新的列表；没有裁剪时原样返回
+    public MessageList trim(MessageList messages) {
+        int cut = messages.size() - capacity;
+        if (cut <= 0) {
+            return messages;
+        }
+
+        if (anchorMessageId != NO_ANCHOR) {
+            int anchorIndex = messages.indexOfId(anchorMessageId);
+            if (anchorIndex >= 0) {
+                cut = Math.min(cut, Math.max(0, anchorIndex - ANCHOR_MARGIN));
+            }
+        }
+        if (cut <= 0) {
+            return messages;
+        }
+
+        evictedCount += cut;
+        return messages.dropFirst(cut);
+    }
+
+    // 累计被移出内存的消息数量
+    public int getEvictedCount() {
+        return evictedCount;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
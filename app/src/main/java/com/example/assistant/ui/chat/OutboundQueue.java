@@ -0,0 +1,141 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import com.example.assistant.model.Message;
+import com.example.assistant.model.OutboundMessage;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+// 持久化的发送队列：消息带客户端ID入队并写入本地存储，直到服务器确认收到才删除。
+// 服务器在握手时声明支持ack时以ack帧确认，否则以回答的start帧确认。连接断开时已发送未确认的消息回到待发送状态，重连后按ID顺序重放。
+// 所有方法都应在主线程上调用
+public class OutboundQueue {
+
+    // 当前连接的发送接口，返回false表示连接已不可写
+    public interface Transport {
+        boolean send(String payload);
+    }
+
+    // 持久化接口，生产环境由ChatHistoryStore在后台线程写入
+    public interface Store {
+        void save(OutboundMessage message);
+        void delete(long clientId);
+    }
+
+    // 送达状态变化回调，状态取值为Message.DELIVERY_*
+    public interface Listener {
+        void onDeliveryStatusChanged(long clientId, int deliveryStatus);
+    }
+
+    private final Store store;
+    private final Listener listener;
+
+    // 客户端ID随时间递增，按ID排序即为发送顺序
+    private final TreeMap<Long, OutboundMessage> pending = new TreeMap<>();
+    // 已写入当前连接、尚未确认的消息，按写入顺序排列
+    private final Set<Long> inFlight = new LinkedHashSet<>();
+    private Transport transport;
+    // 上次未确认的消息从本地存储加载完成之前不发送，保证重放顺序
+    private boolean restored = false;
+
+    public OutboundQueue(Store store, Listener listener) {
+        this.store = store;
+        this.listener = listener;
+    }
+
+    // 入队一条新消息，已连接时立即发送
+    public void enqueue(OutboundMessage message) {
+        pending.put(message.getClientId(), message);
+        store.save(message);
+        flush();
+    }
+
+    // 恢复上次退出时未被确认的消息
+    public void restore(List<OutboundMessage> messages) {
+        for (OutboundMessage message : messages) {
+            if (!pending.containsKey(message.getClientId())) {
+                pending.put(message.getClientId(), message);
+            }
+        }
+        restored = true;
+        flush();
+    }
+
+    // 连接已打开，按顺序重放所有未确认的消息
+    public void onConnected(Transport transport) {
+        this.transport = transport;
+        flush();
+    }
+
+    // 连接断开，已发送但未确认的消息需要在下次连接时重发
+    public void onDisconnected() {
+        transport = null;
+        for (Long clientId : inFlight) {
+            listener.onDeliveryStatusChanged(clientId, Message.DELIVERY_PENDING);
+        }
+        inFlight.clear();
+    }
+
+    // 服务器确认收到消息
+    public void onAck(long clientId) {
+        inFlight.remove(clientId);
+        if (pending.remove(clientId) != null) {
+            store.delete(clientId);
+            listener.onDeliveryStatusChanged(clientId, Message.DELIVERY_DELIVERED);
+        }
+    }
+
+    // 服务器不回复ack时，回答的start帧说明服务器已收到问题：确认最早写入当前连接且满足preferred的消息，
+    // 没有满足的消息时（例如问题已不在内存中）确认最早写入的消息
+    public void ackOldest(Predicate<Long> preferred) {
+        Long oldest = null;
+        for (Long clientId : inFlight) {
+            if (preferred.test(clientId)) {
+                oldest = clientId;
+                break;
+            }
+            if (oldest == null) {
+                oldest = clientId;
+            }
+        }
+        if (oldest != null) {
+            onAck(oldest);
+        }
+    }
+
+    // 发送所有尚未写入当前连接的消息
+    private void flush() {
+        if (transport == null || !restored) {
+            return;
+        }
+        for (OutboundMessage message : pending.values()) {
+            if (inFlight.contains(message.getClientId())) {
+                continue;
+            }
+            if (!transport.send(message.getPayload())) {
+                // 连接已关闭或发送缓冲区已满，等待重连后重放
+                transport = null;
+                return;
+            }
+            inFlight.add(message.getClientId());
+            listener.onDeliveryStatusChanged(message.getClientId(), Message.DELIVERY_SENT);
+        }
+    }
+
+    // 消息是否还未被服务器确认，断线后会在重连时重发
+    public boolean contains(long clientId) {
+        return pending.containsKey(clientId);
+    }
+
+    // 尚未被服务器确认的消息数
+    public int size() {
+        return pending.size();
+    }
+}
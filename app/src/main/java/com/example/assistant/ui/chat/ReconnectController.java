@@ -0,0 +1,186 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import java.util.Random;
+
+// 重连控制器：带随机抖动的指数退避、网络恢复时立即重试，并统计重连耗时。
+// 本身不依赖Android，所有方法都应在同一个线程（主线程）上调用
+public class ReconnectController {
+
+    // 调度器接口，生产环境基于Handler实现
+    public interface Scheduler {
+        long now();
+        void schedule(Runnable task, long delayMs);
+        void cancel(Runnable task);
+    }
+
+    // 建立新连接的回调
+    public interface Connector {
+        void connect();
+    }
+
+    // 重连参数
+    public static class Config {
+        // 第一次重试的基准等待时间
+        public long baseDelayMs = 1000;
+        // 退避等待时间上限
+        public long maxDelayMs = 30000;
+        // 心跳间隔，超过一个间隔没有收到pong即认为连接已断开
+        public long pingIntervalMs = 5000;
+    }
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_CONNECTING = 1;
+    private static final int STATE_CONNECTED = 2;
+    private static final int STATE_WAITING = 3;   // 等待重试或等待网络恢复
+
+    private final Config config;
+    private final Scheduler scheduler;
+    private final Connector connector;
+    private final Random random;
+    private final Runnable retryTask = this::connectNow;
+
+    private int state = STATE_IDLE;
+    private int attempts = 0;
+    private boolean networkAvailable = true;
+    private boolean retryScheduled = false;
+    private long disconnectedAt = -1;
+
+    // 重连耗时统计
+    private int reconnectCount = 0;
+    private long lastReconnectMs = 0;
+    private long maxReconnectMs = 0;
+    private long totalReconnectMs = 0;
+
+    public ReconnectController(Config config, Scheduler scheduler, Connector connector) {
+        this(config, scheduler, connector, new Random());
+    }
+
+    public ReconnectController(Config config, Scheduler scheduler, Connector connector, Random random) {
+        this.config = config;
+        this.scheduler = scheduler;
+        this.connector = connector;
+        this.random = random;
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    // 首次建立连接
+    public void start() {
+        if (state == STATE_IDLE) {
+            connectNow();
+        }
+    }
+
+    // 连接已打开，重置退避并记录重连耗时
+    public void onConnected() {
+        if (disconnectedAt >= 0) {
+            long elapsed = scheduler.now() - disconnectedAt;
+            reconnectCount++;
+            lastReconnectMs = elapsed;
+            maxReconnectMs = Math.max(maxReconnectMs, elapsed);
+            totalReconnectMs += elapsed;
+            disconnectedAt = -1;
+        }
+        state = STATE_CONNECTED;
+        attempts = 0;
+        cancelRetry();
+    }
+
+    // 连接关闭或失败（包括心跳超时），安排下一次重试
+    public void onDisconnected() {
+        if (state == STATE_IDLE || state == STATE_WAITING) {
+            return;
+        }
+        if (disconnectedAt < 0) {
+            disconnectedAt = scheduler.now();
+        }
+        state = STATE_WAITING;
+        scheduleRetry();
+    }
+
+    // 网络恢复时不再等待退避，立即重试
+    public void onNetworkAvailable() {
+        networkAvailable = true;
+        if (state == STATE_WAITING) {
+            cancelRetry();
+            attempts = 0;
+            connectNow();
+        }
+    }
+
+    // 网络不可用时暂停重试，等待网络恢复
+    public void onNetworkLost() {
+        networkAvailable = false;
+        if (state == STATE_WAITING) {
+            cancelRetry();
+        }
+    }
+
+    // 停止重连（例如会话释放时）
+    public void stop() {
+        cancelRetry();
+        state = STATE_IDLE;
+    }
+
+    // 计算第attempt次重试的等待时间：一半固定退避加一半随机抖动，
+    // 避免大量客户端在服务器恢复后同时重连
+    long computeDelay(int attempt) {
+        int exponent = Math.min(Math.max(attempt - 1, 0), 20);
+        long backoff = Math.min(config.maxDelayMs, config.baseDelayMs << exponent);
+        long half = backoff / 2;
+        return half + (long) (random.nextDouble() * (backoff - half));
+    }
+
+    private void scheduleRetry() {
+        if (!networkAvailable) {
+            // 等网络恢复回调再重试
+            return;
+        }
+        attempts++;
+        retryScheduled = true;
+        scheduler.schedule(retryTask, computeDelay(attempts));
+    }
+
+    private void cancelRetry() {
+        if (retryScheduled) {
+            scheduler.cancel(retryTask);
+            retryScheduled = false;
+        }
+    }
+
+    private void connectNow() {
+        retryScheduled = false;
+        state = STATE_CONNECTING;
+        connector.connect();
+    }
+
+    public boolean isConnected() {
+        return state == STATE_CONNECTED;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public int getReconnectCount() {
+        return reconnectCount;
+    }
+
+    public long getLastReconnectMs() {
+        return lastReconnectMs;
+    }
+
+    public long getMaxReconnectMs() {
+        return maxReconnectMs;
+    }
+
+    public long getAverageReconnectMs() {
+        return reconnectCount > 0 ? totalReconnectMs / reconnectCount : 0;
+    }
+}
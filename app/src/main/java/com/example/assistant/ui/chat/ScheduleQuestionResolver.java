@@ -0,0 +1,309 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import com.example.assistant.ui.course.ScheduleCache;
+import com.example.assistant.ui.course.model.Activity;
+import com.example.assistant.ui.course.model.Assignment;
+import com.example.assistant.ui.course.model.Course;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// 本地日程问答：识别“明天有什么课”“周五要交什么作业”这类问题，直接用ScheduleCache中的数据回答。
+// 只有问题恰好由一个日期、一个主题和若干虚词组成，并且对应数据已从服务器加载时才回答，
+// 其他问题（包括“明天数学课讲什么”这类需要理解内容的问题）返回null，照常发给服务器
+class ScheduleQuestionResolver {
+
+    // 超过该长度的问题不做本地识别
+    static final int MAX_QUESTION_LENGTH = 24;
+
+    private enum Topic { COURSES, ASSIGNMENTS, ACTIVITIES }
+
+    // 问句中可以忽略的虚词，较长的在前
+    private static final String[] FILLER_WORDS = {
+            "有没有", "哪几节", "哪几门", "哪几个", "几节", "几门", "几个", "哪些", "什么", "需要",
+            "我", "的", "要", "有", "都", "是", "上", "交", "还", "吗", "呢", "啊", "呀", "了",
+    };
+
+    private static final Pattern RELATIVE_DAY = Pattern.compile("大后天|后天|明天|明日|今天|今日|昨天");
+    private static final Pattern WEEK_DAY = Pattern.compile("(这|本|下)?(周|星期|礼拜)([一二三四五六日天])");
+    private static final Pattern MONTH_DAY = Pattern.compile("(?:(\\d{1,2})月)?(\\d{1,2})[日号]");
+
+    private static final String WEEK_DAY_NAMES = "一二三四五六日";
+
+    private final ScheduleCache cache;
+
+    ScheduleQuestionResolver(ScheduleCache cache) {
+        this.cache = cache;
+    }
+
+    // 返回本地生成的回答，不能确定时返回null
+    String answer(String question, long now, TimeZone timeZone) {
+        String text = AnswerCachePolicy.normalize(question).replace(" ", "");
+        if (text.isEmpty() || text.length() > MAX_QUESTION_LENGTH) {
+            return null;
+        }
+
+        Calendar today = Calendar.getInstance(timeZone, Locale.ROOT);
+        today.setTimeInMillis(now);
+        DateMatch date = findDate(text, today);
+        if (date == null) {
+            return null;
+        }
+        Topic topic = findTopic(text.substring(0, date.start) + text.substring(date.end));
+        if (topic == null) {
+            return null;
+        }
+
+        String label = date.expression + "（" + (date.day.get(Calendar.MONTH) + 1) + "月"
+                + date.day.get(Calendar.DAY_OF_MONTH) + "日 星期" + weekDayName(date.day) + "）";
+        switch (topic) {
+            case COURSES:
+                return answerCourses(date.day, label);
+            case ASSIGNMENTS:
+                return answerAssignments(date.day, label);
+            default:
+                return answerActivities(date.day, label);
+        }
+    }
+
+    private String answerCourses(Calendar day, String label) {
+        List<Course> courses = cache.getCourses();
+        if (courses == null || courses.isEmpty()) {
+            return null;
+        }
+        // 课程表中的星期几为1到5，表示周一到周五
+        int weekDay = mondayBasedWeekDay(day);
+        List<Course> dayCourses = new ArrayList<>();
+        for (Course course : courses) {
+            if (course.getDayOfWeek() != weekDay) {
+                continue;
+            }
+            // 只上部分周次的课程无法判断这一天是否上课
+            String weekRange = course.getWeekRange();
+            if (weekRange != null && !weekRange.isEmpty() && !weekRange.equals("全学期")) {
+                return null;
+            }
+            dayCourses.add(course);
+        }
+        if (dayCourses.isEmpty()) {
+            return label + "没有课。";
+        }
+        dayCourses.sort(Comparator.comparing(course -> nullToEmpty(course.getStartTime())));
+
+        StringBuilder answer = new StringBuilder(label).append("有").append(dayCourses.size()).append("节课：");
+        for (int i = 0; i < dayCourses.size(); i++) {
+            Course course = dayCourses.get(i);
+            answer.append('\n').append(i + 1).append(". ")
+                    .append(course.getStartTime()).append('-').append(course.getEndTime()).append(' ')
+                    .append(course.getCourseName());
+            appendDetails(answer, course.getTeacherName(), course.getClassroom());
+        }
+        return answer.toString();
+    }
+
+    private String answerAssignments(Calendar day, String label) {
+        List<Assignment> assignments = cache.getAssignments(day.get(Calendar.YEAR), day.get(Calendar.MONTH) + 1);
+        if (assignments == null) {
+            return null;
+        }
+        String date = formatDate(day);
+        List<Assignment> dueAssignments = new ArrayList<>();
+        for (Assignment assignment : assignments) {
+            if (date.equals(assignment.getDueDate())) {
+                dueAssignments.add(assignment);
+            }
+        }
+        if (dueAssignments.isEmpty()) {
+            return label + "没有要交的作业。";
+        }
+
+        StringBuilder answer = new StringBuilder(label).append("要交").append(dueAssignments.size()).append("项作业：");
+        for (int i = 0; i < dueAssignments.size(); i++) {
+            Assignment assignment = dueAssignments.get(i);
+            answer.append('\n').append(i + 1).append(". ")
+                    .append(assignment.getCourseName()).append('：').append(assignment.getTitle());
+            if (assignment.isCompleted()) {
+                answer.append("（已完成）");
+            }
+        }
+        return answer.toString();
+    }
+
+    private String answerActivities(Calendar day, String label) {
+        List<Activity> activities = cache.getActivities(day.get(Calendar.YEAR), day.get(Calendar.MONTH) + 1);
+        if (activities == null) {
+            return null;
+        }
+        String date = formatDate(day);
+        List<Activity> dayActivities = new ArrayList<>();
+        for (Activity activity : activities) {
+            if (date.equals(activity.getDate())) {
+                dayActivities.add(activity);
+            }
+        }
+        if (dayActivities.isEmpty()) {
+            return label + "没有安排活动。";
+        }
+
+        StringBuilder answer = new StringBuilder(label).append("有").append(dayActivities.size()).append("个活动：");
+        for (int i = 0; i < dayActivities.size(); i++) {
+            Activity activity = dayActivities.get(i);
+            answer.append('\n').append(i + 1).append(". ");
+            if (activity.getTime() != null && !activity.getTime().isEmpty()) {
+                answer.append(activity.getTime()).append(' ');
+            }
+            answer.append(activity.getTitle());
+            appendDetails(answer, activity.getLocation());
+        }
+        return answer.toString();
+    }
+
+    // 问题中的日期表达式及其对应的日期
+    private static final class DateMatch {
+        final String expression;
+        final int start;
+        final int end;
+        final Calendar day;
+
+        DateMatch(String expression, int start, int end, Calendar day) {
+            this.expression = expression;
+            this.start = start;
+            this.end = end;
+            this.day = day;
+        }
+    }
+
+    // 查找问题中唯一的日期表达式，没有或有多个时返回null
+    private static DateMatch findDate(String text, Calendar today) {
+        DateMatch found = null;
+        int count = 0;
+
+        Matcher relative = RELATIVE_DAY.matcher(text);
+        while (relative.find()) {
+            count++;
+            found = new DateMatch(relative.group(), relative.start(), relative.end(),
+                    plusDays(today, relativeOffset(relative.group())));
+        }
+
+        Matcher weekDay = WEEK_DAY.matcher(text);
+        while (weekDay.find()) {
+            count++;
+            int target = WEEK_DAY_NAMES.indexOf(weekDay.group(3).equals("天") ? "日" : weekDay.group(3)) + 1;
+            int offset = target - mondayBasedWeekDay(today);
+            String prefix = weekDay.group(1);
+            if (prefix == null) {
+                // 不带“这”“下”时指今天或之后最近的一天
+                if (offset < 0) {
+                    offset += 7;
+                }
+            } else if (prefix.equals("下")) {
+                offset += 7;
+            }
+            found = new DateMatch(weekDay.group(), weekDay.start(), weekDay.end(), plusDays(today, offset));
+        }
+
+        Matcher monthDay = MONTH_DAY.matcher(text);
+        while (monthDay.find()) {
+            count++;
+            int month = monthDay.group(1) != null ? Integer.parseInt(monthDay.group(1)) : today.get(Calendar.MONTH) + 1;
+            int dayOfMonth = Integer.parseInt(monthDay.group(2));
+            Calendar day = (Calendar) today.clone();
+            day.setLenient(false);
+            day.set(today.get(Calendar.YEAR), month - 1, dayOfMonth);
+            try {
+                day.getTimeInMillis();
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            found = new DateMatch(monthDay.group(), monthDay.start(), monthDay.end(), day);
+        }
+        return count == 1 ? found : null;
+    }
+
+    // 去掉虚词后剩余部分正好是一个主题词时返回该主题
+    private static Topic findTopic(String text) {
+        String rest = text;
+        for (String filler : FILLER_WORDS) {
+            rest = rest.replace(filler, "");
+        }
+        switch (rest) {
+            case "课":
+            case "课程":
+            case "课表":
+            case "课程表":
+                return Topic.COURSES;
+            case "作业":
+                return Topic.ASSIGNMENTS;
+            case "活动":
+                return Topic.ACTIVITIES;
+            default:
+                return null;
+        }
+    }
+
+    private static int relativeOffset(String expression) {
+        switch (expression) {
+            case "昨天":
+                return -1;
+            case "明天":
+            case "明日":
+                return 1;
+            case "后天":
+                return 2;
+            case "大后天":
+                return 3;
+            default:
+                return 0;
+        }
+    }
+
+    private static Calendar plusDays(Calendar today, int days) {
+        Calendar day = (Calendar) today.clone();
+        day.add(Calendar.DAY_OF_MONTH, days);
+        return day;
+    }
+
+    // 星期一为1，星期日为7
+    private static int mondayBasedWeekDay(Calendar day) {
+        int dayOfWeek = day.get(Calendar.DAY_OF_WEEK);
+        return dayOfWeek == Calendar.SUNDAY ? 7 : dayOfWeek - 1;
+    }
+
+    private static char weekDayName(Calendar day) {
+        return WEEK_DAY_NAMES.charAt(mondayBasedWeekDay(day) - 1);
+    }
+
+    private static String formatDate(Calendar day) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd", Locale.ROOT);
+        format.setTimeZone(day.getTimeZone());
+        return format.format(day.getTime());
+    }
+
+    // 在括号中附加非空的补充信息
+    private static void appendDetails(StringBuilder answer, String... details) {
+        List<String> present = new ArrayList<>();
+        for (String detail : details) {
+            if (detail != null && !detail.isEmpty()) {
+                present.add(detail);
+            }
+        }
+        if (!present.isEmpty()) {
+            answer.append('（').append(String.join("，", present)).append('）');
+        }
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+}
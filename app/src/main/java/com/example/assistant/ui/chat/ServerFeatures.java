@@ -0,0 +1,37 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import java.util.function.UnaryOperator;
+
+// 服务器在WebSocket握手响应头中声明的可选能力，值为"1"表示支持。
+// 旧版本服务器不声明任何能力，客户端只使用声明过的协议特性
+final class ServerFeatures {
+
+    // 回答过程中收到的新问题会在当前回答之后按顺序回答
+    static final String PIPELINING_HEADER = "X-Assistant-Pipelining";
+    // 收到每条客户端消息后回复带client_id的ack帧
+    static final String ACKS_HEADER = "X-Assistant-Acks";
+    // 可以同时回答多个对话的问题，所有回答帧都带thread_id
+    static final String MULTIPLEXING_HEADER = "X-Assistant-Multiplexing";
+
+    static final ServerFeatures NONE = new ServerFeatures(false, false, false);
+
+    final boolean pipelining;
+    final boolean acks;
+    final boolean multiplexing;
+
+    ServerFeatures(boolean pipelining, boolean acks, boolean multiplexing) {
+        this.pipelining = pipelining;
+        this.acks = acks;
+        this.multiplexing = multiplexing;
+    }
+
+    // 从握手响应头解析，header返回指定头的值，没有时返回null
+    static ServerFeatures fromHeaders(UnaryOperator<String> header) {
+        return new ServerFeatures("1".equals(header.apply(PIPELINING_HEADER)), "1".equals(header.apply(ACKS_HEADER)),
+                "1".equals(header.apply(MULTIPLEXING_HEADER)));
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+// 流式回答的续传游标：记录当前回答的response_id和已应用的最后一个序号，
+// 重连后据此请求服务器从断点继续发送，并丢弃重复或属于其他回答的帧
+public class StreamCursor {
+
+    private String responseId;
+    private long lastAppliedSeq = 0;
+    private boolean active = false;
+    private int droppedCount = 0;
+
+    // 开始一个新的回答
+    public void begin(String responseId) {
+        this.responseId = responseId;
+        this.lastAppliedSeq = 0;
+        this.active = true;
+    }
+
+    // 判断帧是否应该被应用，接受时推进游标。
+    // 没有序号的帧（旧版本服务器）总是接受
+    public boolean accept(ChatFrame frame) {
+        if (!active) {
+            // 已结束回答的迟到片段和重复的end帧；没有response_id和序号的片段来自旧版本服务器，仍然接受
+            if (frame.getType() == ChatFrame.TYPE_END || frame.getResponseId() != null
+                    || frame.getSeq() != ChatFrame.NO_SEQ) {
+                droppedCount++;
+                return false;
+            }
+            return true;
+        }
+        if (responseId != null && frame.getResponseId() != null && !responseId.equals(frame.getResponseId())) {
+            droppedCount++;
+            return false;
+        }
+        long seq = frame.getSeq();
+        if (seq == ChatFrame.NO_SEQ) {
+            return true;
+        }
+        if (seq <= lastAppliedSeq) {
+            // 续传时服务器重发的重复片段
+            droppedCount++;
+            return false;
+        }
+        lastAppliedSeq = seq;
+        return true;
+    }
+
+    // 当前回答结束
+    public void end() {
+        active = false;
+    }
+
+    // 是否有可以续传的未完成回答
+    public boolean canResume() {
+        return active && responseId != null;
+    }
+
+    public String getResponseId() {
+        return responseId;
+    }
+
+    // 续传请求中的起始序号
+    public long getResumeFromSeq() {
+        return lastAppliedSeq + 1;
+    }
+
+    // 被丢弃的重复帧数
+    public int getDroppedCount() {
+        return droppedCount;
+    }
+}
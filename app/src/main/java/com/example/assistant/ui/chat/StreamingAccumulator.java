@@ -0,0 +1,131 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+// 流式响应累加器：chunk按消息ID追加到可增长的缓冲区中，按帧间隔合并后再统一通知UI，
+// 避免每个token都拼接字符串并复制整个消息列表
+public class StreamingAccumulator {
+
+    // 默认刷新间隔，约3帧
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 50;
+
+    private static final int INITIAL_BUFFER_CAPACITY = 256;
+
+    // 调度器接口，生产环境基于Handler实现，测试中可替换为虚拟时钟
+    public interface FrameScheduler {
+        long now();
+        void schedule(Runnable task, long delayMs);
+        void cancel(Runnable task);
+    }
+
+    // 刷新回调，一次刷新中包含所有有变化的缓冲区内容
+    public interface FlushListener {
+        void onFlush(Map<Long, String> updates);
+    }
+
+    private final FrameScheduler scheduler;
+    private final FlushListener listener;
+    private final long flushIntervalMs;
+
+    private final Map<Long, StringBuilder> buffers = new HashMap<>();
+    private final Set<Long> dirtyKeys = new LinkedHashSet<>();
+    private final Runnable flushTask = this::flush;
+    private boolean flushScheduled = false;
+    private long lastFlushTime = Long.MIN_VALUE / 2;
+    private int flushCount = 0;
+
+    public StreamingAccumulator(FrameScheduler scheduler, FlushListener listener) {
+        this(scheduler, listener, DEFAULT_FLUSH_INTERVAL_MS);
+    }
+
+    public StreamingAccumulator(FrameScheduler scheduler, FlushListener listener, long flushIntervalMs) {
+        this.scheduler = scheduler;
+        this.listener = listener;
+        this.flushIntervalMs = Math.max(0, flushIntervalMs);
+    }
+
+    // 追加一个chunk，如果当前没有待执行的刷新则安排一次
+    public void append(long key, String text) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+
+        StringBuilder buffer = buffers.get(key);
+        if (buffer == null) {
+            buffer = new StringBuilder(INITIAL_BUFFER_CAPACITY);
+            buffers.put(key, buffer);
+        }
+        buffer.append(text);
+        dirtyKeys.add(key);
+
+        if (!flushScheduled) {
+            flushScheduled = true;
+            // 距离上次刷新不足一个间隔时，延迟到间隔结束再刷新
+            long elapsed = scheduler.now() - lastFlushTime;
+            long delay = Math.max(0, flushIntervalMs - elapsed);
+            scheduler.schedule(flushTask, delay);
+        }
+    }
+
+    // 立即把所有未刷新的内容交给监听器（例如收到end帧时）
+    public void flush() {
+        if (flushScheduled) {
+            scheduler.cancel(flushTask);
+            flushScheduled = false;
+        }
+        if (dirtyKeys.isEmpty()) {
+            return;
+        }
+
+        Map<Long, String> updates = new LinkedHashMap<>();
+        for (Long key : dirtyKeys) {
+            StringBuilder buffer = buffers.get(key);
+            if (buffer != null) {
+                updates.put(key, buffer.toString());
+            }
+        }
+        dirtyKeys.clear();
+        lastFlushTime = scheduler.now();
+        flushCount++;
+        listener.onFlush(updates);
+    }
+
+    // 获取指定缓冲区当前的完整内容
+    public String getContent(long key) {
+        StringBuilder buffer = buffers.get(key);
+        return buffer != null ? buffer.toString() : null;
+    }
+
+    // 释放指定缓冲区，未刷新的内容会被丢弃
+    public void release(long key) {
+        buffers.remove(key);
+        dirtyKeys.remove(key);
+    }
+
+    // 丢弃所有缓冲区并取消待执行的刷新
+    public void clear() {
+        if (flushScheduled) {
+            scheduler.cancel(flushTask);
+            flushScheduled = false;
+        }
+        buffers.clear();
+        dirtyKeys.clear();
+    }
+
+    public boolean hasPendingUpdates() {
+        return !dirtyKeys.isEmpty();
+    }
+
+    // 已执行的刷新次数，用于统计UI更新频率
+    public int getFlushCount() {
+        return flushCount;
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// 流式回答的延迟统计。服务器侧指标（发送到start、首个回答片段、片段间隔、总耗时）
+// 都按帧到达读线程的时间计算；客户端侧指标单独记录帧从读线程到主线程的排队延迟、
+// 每次刷新消息列表的耗时和绘制刷新结果的那一帧的耗时，用于区分服务器慢还是界面渲染慢。
+// 本身不依赖Android，所有方法都应在主线程上调用，时间戳由调用方传入（毫秒）
+public class StreamingMetrics {
+
+    // 每个指标只保留最近的样本
+    public static final int MAX_SAMPLES = 512;
+
+    // 固定容量的样本环形缓冲区，按需计算百分位
+    public static class Samples {
+        private final long[] values;
+        private int count = 0;
+        private int next = 0;
+        private long total = 0;
+
+        Samples(int capacity) {
+            values = new long[capacity];
+        }
+
+        void add(long value) {
+            if (count == values.length) {
+                total -= values[next];
+            } else {
+                count++;
+            }
+            values[next] = value;
+            total += value;
+            next = (next + 1) % values.length;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getMean() {
+            return count > 0 ? total / count : 0;
+        }
+
+        public long getMax() {
+            long max = 0;
+            for (int i = 0; i < count; i++) {
+                max = Math.max(max, values[i]);
+            }
+            return max;
+        }
+
+        // 最近样本的第percentile百分位（0到100，最近秩法），没有样本时返回0
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(percentile / 100.0 * count);
+            return sorted[Math.min(count - 1, Math.max(0, rank - 1))];
+        }
+
+        void clear() {
+            count = 0;
+            next = 0;
+            total = 0;
+        }
+    }
+
+    // 一个对话中正在接收的回答
+    private static class Response {
+        long sentAt = -1;
+        long startAt = -1;
+        long firstChunkAt = -1;
+        long firstAnswerChunkAt = -1;
+        long lastChunkAt = -1;
+        int chunks = 0;
+        long chars = 0;
+    }
+
+    private final Map<String, Response> responses = new HashMap<>();
+    // 各对话已写入连接、还没有开始回答的问题的发送时间。服务器支持流水线时
+    // 回答过程中可以发出多个问题，按发送顺序对应后面的回答
+    private final Map<String, ArrayDeque<Long>> sentTimes = new HashMap<>();
+
+    private final Samples sendToStartMs = new Samples(MAX_SAMPLES);
+    private final Samples timeToFirstChunkMs = new Samples(MAX_SAMPLES);
+    private final Samples interChunkGapMs = new Samples(MAX_SAMPLES);
+    private final Samples chunksPerSecond = new Samples(MAX_SAMPLES);
+    private final Samples charsPerSecond = new Samples(MAX_SAMPLES);
+    private final Samples totalResponseMs = new Samples(MAX_SAMPLES);
+    private final Samples dispatchDelayMs = new Samples(MAX_SAMPLES);
+    private final Samples renderUs = new Samples(MAX_SAMPLES);
+    private final Samples frameUs = new Samples(MAX_SAMPLES);
+
+    private Response responseOf(String threadId) {
+        Response response = responses.get(threadId);
+        if (response == null) {
+            response = new Response();
+            responses.put(threadId, response);
+        }
+        return response;
+    }
+
+    // 用户消息已写入连接，不影响正在接收的回答
+    public void onSent(String threadId, long now) {
+        ArrayDeque<Long> times = sentTimes.get(threadId);
+        if (times == null) {
+            times = new ArrayDeque<>();
+            sentTimes.put(threadId, times);
+        }
+        times.add(now);
+    }
+
+    // 收到start帧，对应该对话最早发出、还没有开始回答的问题
+    public void onStart(String threadId, long receivedAt) {
+        Response response = new Response();
+        responses.put(threadId, response);
+        ArrayDeque<Long> times = sentTimes.get(threadId);
+        Long sentAt = times != null ? times.poll() : null;
+        response.sentAt = sentAt != null ? sentAt : -1;
+        response.startAt = receivedAt;
+        if (response.sentAt >= 0) {
+            sendToStartMs.add(receivedAt - response.sentAt);
+        }
+    }
+
+    // 收到一个chunk帧，思考内容不计入首个回答片段的时间
+    public void onChunk(String threadId, boolean thinking, int chars, long receivedAt) {
+        Response response = responseOf(threadId);
+        if (response.lastChunkAt >= 0) {
+            interChunkGapMs.add(receivedAt - response.lastChunkAt);
+        } else {
+            response.firstChunkAt = receivedAt;
+        }
+        response.lastChunkAt = receivedAt;
+        response.chunks++;
+        response.chars += chars;
+
+        if (!thinking && response.firstAnswerChunkAt < 0) {
+            response.firstAnswerChunkAt = receivedAt;
+            if (response.sentAt >= 0) {
+                timeToFirstChunkMs.add(receivedAt - response.sentAt);
+            }
+        }
+    }
+
+    // 收到end帧，结算这次回答的吞吐和总耗时
+    public void onEnd(String threadId, long receivedAt) {
+        Response response = responses.remove(threadId);
+        if (response == null) {
+            return;
+        }
+        long begin = response.sentAt >= 0 ? response.sentAt : response.startAt;
+        if (begin >= 0) {
+            totalResponseMs.add(receivedAt - begin);
+        }
+        long streamingMs = receivedAt - response.firstChunkAt;
+        if (response.chunks > 0 && streamingMs > 0) {
+            chunksPerSecond.add(response.chunks * 1000L / streamingMs);
+            charsPerSecond.add(response.chars * 1000L / streamingMs);
+        }
+    }
+
+    // 回答被中断（断线续传或超时），重连等待时间不计入统计
+    public void onInterrupted(String threadId) {
+        responses.remove(threadId);
+    }
+
+    // 连接断开，未开始回答的问题会在重连后重发，发送时间以重发为准
+    public void onDisconnected() {
+        sentTimes.clear();
+    }
+
+    // 一个帧从读线程收到到主线程开始处理的排队时间
+    public void onFrameDispatched(long receivedAt, long appliedAt) {
+        dispatchDelayMs.add(appliedAt - receivedAt);
+    }
+
+    // 一次流式刷新更新消息列表的耗时（微秒）
+    public void onRender(long durationUs) {
+        renderUs.add(durationUs);
+    }
+
+    // 绘制一次流式刷新的那一帧的耗时（微秒），按这一帧和下一帧开始时间的间隔计算，
+    // 超过屏幕刷新周期说明这次更新掉了帧
+    public void onFrame(long durationUs) {
+        frameUs.add(durationUs);
+    }
+
+    public Samples getSendToStartMs() {
+        return sendToStartMs;
+    }
+
+    public Samples getTimeToFirstChunkMs() {
+        return timeToFirstChunkMs;
+    }
+
+    public Samples getInterChunkGapMs() {
+        return interChunkGapMs;
+    }
+
+    public Samples getChunksPerSecond() {
+        return chunksPerSecond;
+    }
+
+    public Samples getCharsPerSecond() {
+        return charsPerSecond;
+    }
+
+    public Samples getTotalResponseMs() {
+        return totalResponseMs;
+    }
+
+    public Samples getDispatchDelayMs() {
+        return dispatchDelayMs;
+    }
+
+    public Samples getRenderUs() {
+        return renderUs;
+    }
+
+    public Samples getFrameUs() {
+        return frameUs;
+    }
+
+    // 清空所有样本和进行中的回答
+    public void reset() {
+        responses.clear();
+        sendToStartMs.clear();
+        timeToFirstChunkMs.clear();
+        interChunkGapMs.clear();
+        chunksPerSecond.clear();
+        charsPerSecond.clear();
+        totalResponseMs.clear();
+        dispatchDelayMs.clear();
+        renderUs.clear();
+        frameUs.clear();
+    }
+
+    // 生成调试浮层显示的摘要，每行一个指标的p50/p90/p99
+    public String summary() {
+        StringBuilder builder = new StringBuilder();
+        appendLine(builder, "send→start ms", sendToStartMs);
+        appendLine(builder, "first chunk ms", timeToFirstChunkMs);
+        appendLine(builder, "chunk gap ms", interChunkGapMs);
+        appendLine(builder, "chunks/s", chunksPerSecond);
+        appendLine(builder, "chars/s", charsPerSecond);
+        appendLine(builder, "total ms", totalResponseMs);
+        appendLine(builder, "dispatch ms", dispatchDelayMs);
+        appendLine(builder, "render us", renderUs);
+        appendLine(builder, "frame us", frameUs);
+        return builder.toString().trim();
+    }
+
+    private static void appendLine(StringBuilder builder, String name, Samples samples) {
+        builder.append(String.format(Locale.US, "%-15s n=%-4d p50=%-6d p90=%-6d p99=%d%n", name,
+                samples.getCount(), samples.getPercentile(50), samples.getPercentile(90), samples.getPercentile(99)));
+    }
+}
@@ -198,6 +198,8 @@ public class CourseViewModel extends AndroidViewModel {
                     
                     // 缓存课程数据到本地存储
                     cacheCoursesToLocalStorage(loadedCourses);
+                    // 同时提供给聊天界面回答课程问题
+                    ScheduleCache.getInstance().setCourses(loadedCourses);
                     
                     Log.d("CourseViewModel", "课程数据解析完成，共解析" + loadedCourses.size() + "条数据");
                     
@@ -369,6 +371,7 @@ public class CourseViewModel extends AndroidViewModel {
                     // 更新缓存月份信息
                     cachedMonth = month;
                     cachedYear = year;
+                    ScheduleCache.getInstance().putAssignments(year, month, monthlyAssignmentCache);
                     
                     Log.d("CourseViewModel", "作业数据解析完成，共解析" + monthlyAssignmentCache.size() + "条数据");
                     
@@ -510,6 +513,7 @@ public class CourseViewModel extends AndroidViewModel {
                     // 更新缓存月份信息
                     cachedActivityMonth = month;
                     cachedActivityYear = year;
+                    ScheduleCache.getInstance().putActivities(year, month, monthlyActivityCache);
                     
                     Log.d("CourseViewModel", "活动数据解析完成，共解析" + monthlyActivityCache.size() + "条数据");
                     
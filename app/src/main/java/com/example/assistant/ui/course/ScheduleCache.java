@@ -0,0 +1,72 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.course;
+
+import com.example.assistant.ui.course.model.Activity;
+import com.example.assistant.ui.course.model.Assignment;
+import com.example.assistant.ui.course.model.Course;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// 进程级的日程缓存：CourseViewModel从服务器加载到的课程表、作业和活动同时放在这里，
+// 聊天界面可以直接用它回答日程问题。只保存服务器的真实数据，不保存模拟数据；
+// 作业和活动按月缓存，未加载的月份返回null。所有方法都是线程安全的
+public final class ScheduleCache {
+
+    private static ScheduleCache instance;
+
+    private List<Course> courses;
+    private final Map<Integer, List<Assignment>> assignmentsByMonth = new HashMap<>();
+    private final Map<Integer, List<Activity>> activitiesByMonth = new HashMap<>();
+
+    public static synchronized ScheduleCache getInstance() {
+        if (instance == null) {
+            instance = new ScheduleCache();
+        }
+        return instance;
+    }
+
+    // 退出登录时清空
+    public synchronized void clear() {
+        courses = null;
+        assignmentsByMonth.clear();
+        activitiesByMonth.clear();
+    }
+
+    public synchronized void setCourses(List<Course> courses) {
+        this.courses = Collections.unmodifiableList(new ArrayList<>(courses));
+    }
+
+    // 获取整个学期的课程表，尚未从服务器加载时返回null
+    public synchronized List<Course> getCourses() {
+        return courses;
+    }
+
+    public synchronized void putAssignments(int year, int month, List<Assignment> assignments) {
+        assignmentsByMonth.put(monthKey(year, month), Collections.unmodifiableList(new ArrayList<>(assignments)));
+    }
+
+    // 获取指定月份的作业，month从1开始，尚未加载时返回null
+    public synchronized List<Assignment> getAssignments(int year, int month) {
+        return assignmentsByMonth.get(monthKey(year, month));
+    }
+
+    public synchronized void putActivities(int year, int month, List<Activity> activities) {
+        activitiesByMonth.put(monthKey(year, month), Collections.unmodifiableList(new ArrayList<>(activities)));
+    }
+
+    // 获取指定月份的活动，month从1开始，尚未加载时返回null
+    public synchronized List<Activity> getActivities(int year, int month) {
+        return activitiesByMonth.get(monthKey(year, month));
+    }
+
+    private static int monthKey(int year, int month) {
+        return year * 100 + month;
+    }
+}
@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -32,8 +33,10 @@ import androidx.navigation.Navigation;
 
 import com.example.assistant.LoginActivity;
 import com.example.assistant.R;
+import com.example.assistant.database.ChatExporter;
 import com.example.assistant.databinding.FragmentMeBinding;
-import com.example.assistant.ui.chat.ChatViewModel;
+import com.example.assistant.ui.chat.ChatSession;
+import com.example.assistant.ui.course.ScheduleCache;
 import com.example.assistant.ui.notifications.MeViewModel;
 import com.example.assistant.util.AuthManager;
 import java.util.Date;
@@ -43,15 +46,28 @@ public class MeFragment extends Fragment {
     private static final String TAG = "MeFragment";
     private static final int REQUEST_IMAGE_CAPTURE = 1;
     private static final int REQUEST_IMAGE_PICK = 2;
+    private static final int REQUEST_EXPORT_CHAT = 3;
+    private static final String STATE_EXPORT_THREAD_ID = "export_thread_id";
+    private static final String STATE_EXPORT_FORMAT = "export_format";
 
     private FragmentMeBinding binding;
     private String currentPhotoPath;
     private MeViewModel meViewModel;
+    // 等待用户选择导出文件时记录要导出的对话和格式
+    private String exportThreadId;
+    private ChatExporter.Format exportFormat;
 
     public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         binding = FragmentMeBinding.inflate(inflater, container, false);
         View root = binding.getRoot();
 
+        // 选择导出文件期间Activity可能被系统回收，恢复要导出的对话和格式
+        if (savedInstanceState != null) {
+            exportThreadId = savedInstanceState.getString(STATE_EXPORT_THREAD_ID);
+            String format = savedInstanceState.getString(STATE_EXPORT_FORMAT);
+            exportFormat = format != null ? ChatExporter.Format.valueOf(format) : null;
+        }
+
         // 初始化ViewModel
         meViewModel = new ViewModelProvider(this).get(MeViewModel.class);
 
@@ -89,6 +105,9 @@ public class MeFragment extends Fragment {
         // 设置隐私设置点击事件
         binding.privacySettingsLayout.setOnClickListener(v -> navigateToPrivacySettings());
 
+        // 设置导出聊天记录点击事件
+        binding.exportChatLayout.setOnClickListener(v -> showExportOptions());
+
         // 设置清除缓存点击事件
         binding.clearCacheLayout.setOnClickListener(v -> showClearCacheConfirmation());
 
@@ -166,6 +185,11 @@ public class MeFragment extends Fragment {
             updateTimePeriodDisplay();
         });
 
+        // 观察聊天记录导出进度
+        meViewModel.getExportStatus().observe(getViewLifecycleOwner(), status -> {
+            binding.exportChatValue.setText(status);
+        });
+
         // 观察缓存大小
         meViewModel.getCacheSize().observe(getViewLifecycleOwner(), size -> {
             if (size != null) {
@@ -273,7 +297,11 @@ public class MeFragment extends Fragment {
         super.onActivityResult(requestCode, resultCode, data);
 
         if (resultCode == getActivity().RESULT_OK) {
-            if (requestCode == REQUEST_IMAGE_CAPTURE && currentPhotoPath != null) {
+            if (requestCode == REQUEST_EXPORT_CHAT && data != null && data.getData() != null
+                    && exportThreadId != null && exportFormat != null) {
+                // 用户已选择导出文件，在后台写入
+                meViewModel.exportChat(requireContext(), exportThreadId, exportFormat, data.getData());
+            } else if (requestCode == REQUEST_IMAGE_CAPTURE && currentPhotoPath != null) {
                 // 拍照成功，将临时文件保存为正式头像文件
                 try {
                     File tempFile = new File(currentPhotoPath);
@@ -426,6 +454,68 @@ public class MeFragment extends Fragment {
         Toast.makeText(requireContext(), "隐私设置", Toast.LENGTH_SHORT).show();
     }
 
+    /**
+     * 显示导出选项：选择格式，有多个对话时再选择对话；正在导出时可以取消
+     */
+    private void showExportOptions() {
+        if (meViewModel.isExporting()) {
+            new AlertDialog.Builder(requireContext())
+                    .setTitle("导出聊天记录")
+                    .setMessage("正在导出，确定要取消吗？")
+                    .setPositiveButton("确定", (dialog, which) -> meViewModel.cancelExport())
+                    .setNegativeButton("取消", null)
+                    .show();
+            return;
+        }
+
+        new AlertDialog.Builder(requireContext())
+                .setTitle("导出格式")
+                .setItems(new String[]{"Markdown", "JSON Lines"}, (dialog, which) -> {
+                    exportFormat = which == 0 ? ChatExporter.Format.MARKDOWN : ChatExporter.Format.JSON_LINES;
+                    chooseExportThread();
+                })
+                .setNegativeButton("取消", null)
+                .show();
+    }
+
+    /**
+     * 选择要导出的对话，对话名称与聊天页面的标签一致
+     */
+    private void chooseExportThread() {
+        List<String> threadIds = ChatSession.getInstance(requireContext()).getThreadIdsLiveData().getValue();
+        if (threadIds == null || threadIds.isEmpty()) {
+            Toast.makeText(requireContext(), "没有聊天记录", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (threadIds.size() == 1) {
+            createExportFile(threadIds.get(0));
+            return;
+        }
+
+        String[] names = new String[threadIds.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "对话 " + (i + 1);
+        }
+        new AlertDialog.Builder(requireContext())
+                .setTitle("选择对话")
+                .setItems(names, (dialog, which) -> createExportFile(threadIds.get(which)))
+                .setNegativeButton("取消", null)
+                .show();
+    }
+
+    /**
+     * 让用户选择导出文件的保存位置
+     */
+    private void createExportFile(String threadId) {
+        exportThreadId = threadId;
+        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmm").format(new Date());
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(exportFormat.mimeType);
+        intent.putExtra(Intent.EXTRA_TITLE, "聊天记录_" + timeStamp + exportFormat.extension);
+        startActivityForResult(intent, REQUEST_EXPORT_CHAT);
+    }
+
     /**
      * 显示清除缓存确认对话框
      */
@@ -466,14 +556,16 @@ public class MeFragment extends Fragment {
                 .setPositiveButton("确定", new DialogInterface.OnClickListener() {
                     @Override
                     public void onClick(DialogInterface dialog, int which) {
-                        // 断开WebSocket连接以释放资源
+                        // 释放聊天会话，断开WebSocket连接
                         try {
-                            ChatViewModel chatViewModel = new ViewModelProvider(requireActivity()).get(ChatViewModel.class);
-                            chatViewModel.disconnectWebSocket();
+                            ChatSession.release();
                         } catch (Exception e) {
                             Log.d(TAG, "断开WebSocket连接失败", e);
                         }
                         
+                        // 清除上一个账号的日程缓存
+                        ScheduleCache.getInstance().clear();
+                        
                         // 清除认证信息
                         AuthManager.clearAuthInfo(requireContext());
                         
@@ -530,6 +622,15 @@ public class MeFragment extends Fragment {
         }
     }
 
+    @Override
+    public void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_EXPORT_THREAD_ID, exportThreadId);
+        if (exportFormat != null) {
+            outState.putString(STATE_EXPORT_FORMAT, exportFormat.name());
+        }
+    }
+
     @Override
     public void onDestroyView() {
         super.onDestroyView();
@@ -4,7 +4,10 @@
  */
 package com.example.assistant.ui.notifications;
 
+import android.content.ContentResolver;
 import android.content.Context;
+import android.net.Uri;
+import android.provider.DocumentsContract;
 import android.util.Log;
 
 import androidx.lifecycle.LiveData;
@@ -14,9 +17,11 @@ import androidx.lifecycle.ViewModel;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
+import com.example.assistant.database.ChatExporter;
 import com.example.assistant.util.DatabaseHelper;
 import com.example.assistant.util.AuthManager;
 import com.example.assistant.model.TimePeriod;
@@ -46,6 +51,11 @@ public class MeViewModel extends ViewModel {
     // 应用缓存相关数据
     private final MutableLiveData<String> cacheSize = new MutableLiveData<>();
     
+    // 聊天记录导出的进度文字
+    private final MutableLiveData<String> exportStatus = new MutableLiveData<>("");
+    private ChatExporter chatExporter;
+    private boolean isExporting = false;
+    
     // 头像文件保存的目录
     private static final String AVATAR_DIR = "images";
     
@@ -338,13 +348,91 @@ public class MeViewModel extends ViewModel {
         cacheSize.setValue(size);
     }
     
+    // 获取聊天记录导出进度的LiveData
+    public LiveData<String> getExportStatus() {
+        return exportStatus;
+    }
+    
+    public boolean isExporting() {
+        return isExporting;
+    }
+    
+    // 把一个对话的聊天记录导出到用户选择的文件，失败或取消时删除不完整的文件
+    public void exportChat(Context context, String threadId, ChatExporter.Format format, Uri uri) {
+        if (isExporting) {
+            return;
+        }
+        ContentResolver resolver = context.getContentResolver();
+        OutputStream out;
+        try {
+            out = resolver.openOutputStream(uri);
+        } catch (IOException e) {
+            Log.e("MeViewModel", "Failed to open export file", e);
+            out = null;
+        }
+        if (out == null) {
+            exportStatus.setValue("导出失败");
+            return;
+        }
+        
+        if (chatExporter == null) {
+            chatExporter = ChatExporter.create(context);
+        }
+        isExporting = true;
+        exportStatus.setValue("导出中...");
+        chatExporter.start(threadId, format, out, new ChatExporter.Listener() {
+            @Override
+            public void onProgress(int exported, int total) {
+                exportStatus.setValue(total > 0 ? "导出中 " + (exported * 100 / total) + "%" : "导出中...");
+            }
+            
+            @Override
+            public void onFinished(int exported, boolean cancelled) {
+                isExporting = false;
+                if (cancelled) {
+                    deleteExportFile(resolver, uri);
+                    exportStatus.setValue("已取消");
+                } else {
+                    exportStatus.setValue("已导出" + exported + "条");
+                }
+            }
+            
+            @Override
+            public void onFailed(Exception e) {
+                Log.e("MeViewModel", "Failed to export chat", e);
+                isExporting = false;
+                deleteExportFile(resolver, uri);
+                exportStatus.setValue("导出失败");
+            }
+        });
+    }
+    
+    // 取消正在进行的导出
+    public void cancelExport() {
+        if (chatExporter != null && isExporting) {
+            chatExporter.cancel();
+        }
+    }
+    
+    private static void deleteExportFile(ContentResolver resolver, Uri uri) {
+        try {
+            DocumentsContract.deleteDocument(resolver, uri);
+        } catch (Exception e) {
+            Log.e("MeViewModel", "Failed to delete incomplete export", e);
+        }
+    }
+    
     @Override
     protected void onCleared() {
         super.onCleared();
-        // 清理资源
+        // 清理资源，未完成的导出被取消，不完整的文件由回调删除
         if (databaseHelper != null) {
             databaseHelper.close();
         }
+        if (chatExporter != null) {
+            chatExporter.shutdown();
+            chatExporter = null;
+        }
     }
     
     // 获取家长电话号码的LiveData
@@ -12,17 +12,28 @@ import android.util.Log;
 
 import androidx.annotation.Nullable;
 
+import com.example.assistant.model.Message;
+import com.example.assistant.model.CachedAnswer;
+import com.example.assistant.model.OutboundMessage;
+import com.example.assistant.model.SearchResult;
 import com.example.assistant.model.TimePeriod;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.stream.Collectors;
 
 public class DatabaseHelper extends SQLiteOpenHelper {
     private static final String TAG = "DatabaseHelper";
     private static final String DATABASE_NAME = "auth_db";
-    private static final int DATABASE_VERSION = 4; // 增加版本号以支持时段设置表
+    private static final int DATABASE_VERSION = 10; // 增加版本号以支持图片消息
 
     // 认证表名
     private static final String TABLE_AUTH = "auth";
@@ -59,6 +70,39 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     private static final String COLUMN_SELECTED_DAYS = "selected_days";
     private static final String COLUMN_ENABLED = "enabled";
 
+    // 聊天记录表名
+    private static final String TABLE_CHAT_MESSAGES = "chat_messages";
+    // 聊天记录表字段
+    private static final String COLUMN_MESSAGE_ID = "id";
+    private static final String COLUMN_MESSAGE_TYPE = "type";
+    private static final String COLUMN_MESSAGE_CONTENT = "content";
+    private static final String COLUMN_CONFIRM_DATA = "confirm_data";
+    private static final String COLUMN_CONFIRM_STATUS = "confirm_status";
+    private static final String COLUMN_MESSAGE_CREATED_TIME = "created_time";
+    private static final String COLUMN_DELIVERY_STATUS = "delivery_status";
+    private static final String COLUMN_THREAD_ID = "thread_id";
+    private static final String COLUMN_ATTACHMENT_DATA = "attachment_data"; // 图片消息附件的JSON
+
+    // 聊天记录全文索引表，docid为消息ID，tokens为SearchTokenizer切分后的词元
+    private static final String TABLE_CHAT_MESSAGES_FTS = "chat_messages_fts";
+    private static final String COLUMN_FTS_TOKENS = "tokens";
+
+    // 待发送消息表名，服务器确认前一直保留
+    private static final String TABLE_OUTBOUND_MESSAGES = "outbound_messages";
+    // 待发送消息表字段
+    private static final String COLUMN_CLIENT_ID = "client_id";
+    private static final String COLUMN_PAYLOAD = "payload";
+
+    // 回答缓存表名
+    private static final String TABLE_ANSWER_CACHE = "answer_cache";
+    // 回答缓存表字段
+    private static final String COLUMN_CACHE_KEY = "cache_key";
+    private static final String COLUMN_ANSWER = "answer";
+    private static final String COLUMN_STORED_TIME = "stored_time";
+    private static final String COLUMN_REFRESH_TIME = "refresh_time";
+    private static final String COLUMN_EXPIRE_TIME = "expire_time";
+    private static final String COLUMN_LAST_USED_TIME = "last_used_time";
+
     // 创建认证表的SQL语句
     private static final String CREATE_AUTH_TABLE = "CREATE TABLE " + TABLE_AUTH + "(" +
             COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
@@ -92,8 +136,52 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             COLUMN_ENABLED + " INTEGER" +
             ");";
 
+    // 创建聊天记录表的SQL语句，消息ID随时间递增，可直接用于分页
+    private static final String CREATE_CHAT_MESSAGES_TABLE = "CREATE TABLE " + TABLE_CHAT_MESSAGES + "(" +
+            COLUMN_MESSAGE_ID + " INTEGER PRIMARY KEY, " +
+            COLUMN_MESSAGE_TYPE + " INTEGER NOT NULL, " +
+            COLUMN_MESSAGE_CONTENT + " TEXT, " +
+            COLUMN_CONFIRM_DATA + " TEXT, " +
+            COLUMN_CONFIRM_STATUS + " INTEGER DEFAULT 0, " +
+            COLUMN_MESSAGE_CREATED_TIME + " INTEGER NOT NULL, " +
+            COLUMN_DELIVERY_STATUS + " INTEGER DEFAULT 0, " +
+            COLUMN_THREAD_ID + " TEXT NOT NULL DEFAULT '" + Message.DEFAULT_THREAD_ID + "', " +
+            COLUMN_ATTACHMENT_DATA + " TEXT" +
+            ");";
+
+    // 按对话分页查询的索引
+    private static final String CREATE_CHAT_MESSAGES_THREAD_INDEX = "CREATE INDEX IF NOT EXISTS " +
+            "idx_chat_messages_thread ON " + TABLE_CHAT_MESSAGES + "(" +
+            COLUMN_THREAD_ID + ", " + COLUMN_MESSAGE_ID + ");";
+
+    // 创建聊天记录全文索引表的SQL语句，只索引用户消息和AI回答
+    private static final String CREATE_CHAT_MESSAGES_FTS_TABLE = "CREATE VIRTUAL TABLE " + TABLE_CHAT_MESSAGES_FTS +
+            " USING fts4(" + COLUMN_FTS_TOKENS + ")";
+
+    // 创建待发送消息表的SQL语句，客户端ID随时间递增，按ID顺序重放
+    private static final String CREATE_OUTBOUND_MESSAGES_TABLE = "CREATE TABLE " + TABLE_OUTBOUND_MESSAGES + "(" +
+            COLUMN_CLIENT_ID + " INTEGER PRIMARY KEY, " +
+            COLUMN_PAYLOAD + " TEXT NOT NULL, " +
+            COLUMN_CREATED_TIME + " INTEGER NOT NULL" +
+            ");";
+
+    // 创建回答缓存表的SQL语句
+    private static final String CREATE_ANSWER_CACHE_TABLE = "CREATE TABLE " + TABLE_ANSWER_CACHE + "(" +
+            COLUMN_CACHE_KEY + " TEXT PRIMARY KEY, " +
+            COLUMN_ANSWER + " TEXT NOT NULL, " +
+            COLUMN_STORED_TIME + " INTEGER NOT NULL, " +
+            COLUMN_REFRESH_TIME + " INTEGER NOT NULL, " +
+            COLUMN_EXPIRE_TIME + " INTEGER NOT NULL, " +
+            COLUMN_LAST_USED_TIME + " INTEGER NOT NULL" +
+            ");";
+
     public DatabaseHelper(@Nullable Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    // 使用指定的数据库文件，基准测试用独立的文件，不影响应用数据
+    DatabaseHelper(@Nullable Context context, String databaseName) {
+        super(context, databaseName, null, DATABASE_VERSION);
     }
 
     @Override
@@ -106,6 +194,14 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     db.execSQL(CREATE_USER_SETTINGS_TABLE);
     // 创建时段表
     db.execSQL(CREATE_TIME_PERIODS_TABLE);
+    // 创建聊天记录表
+    db.execSQL(CREATE_CHAT_MESSAGES_TABLE);
+    db.execSQL(CREATE_CHAT_MESSAGES_THREAD_INDEX);
+    db.execSQL(CREATE_CHAT_MESSAGES_FTS_TABLE);
+    // 创建待发送消息表
+    db.execSQL(CREATE_OUTBOUND_MESSAGES_TABLE);
+    // 创建回答缓存表
+    db.execSQL(CREATE_ANSWER_CACHE_TABLE);
     }
 
     @Override
@@ -122,6 +218,50 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         if (oldVersion < 4) {
             db.execSQL(CREATE_TIME_PERIODS_TABLE);
         }
+        // 如果是从版本4升级到版本5，添加聊天记录表
+        if (oldVersion < 5) {
+            db.execSQL(CREATE_CHAT_MESSAGES_TABLE);
+        }
+        // 如果是从版本5升级到版本6，添加消息送达状态和待发送消息表
+        if (oldVersion < 6) {
+            if (oldVersion >= 5) {
+                db.execSQL("ALTER TABLE " + TABLE_CHAT_MESSAGES + " ADD COLUMN " +
+                        COLUMN_DELIVERY_STATUS + " INTEGER DEFAULT 0");
+            }
+            db.execSQL(CREATE_OUTBOUND_MESSAGES_TABLE);
+        }
+        // 如果是从版本6升级到版本7，为聊天记录添加对话ID
+        if (oldVersion < 7) {
+            if (oldVersion >= 5) {
+                db.execSQL("ALTER TABLE " + TABLE_CHAT_MESSAGES + " ADD COLUMN " +
+                        COLUMN_THREAD_ID + " TEXT NOT NULL DEFAULT '" + Message.DEFAULT_THREAD_ID + "'");
+            }
+            db.execSQL(CREATE_CHAT_MESSAGES_THREAD_INDEX);
+        }
+        // 如果是从版本7升级到版本8，添加全文索引并为已有的消息建立索引
+        if (oldVersion < 8) {
+            db.execSQL(CREATE_CHAT_MESSAGES_FTS_TABLE);
+            if (oldVersion >= 5) {
+                Cursor cursor = db.query(TABLE_CHAT_MESSAGES,
+                        new String[]{COLUMN_MESSAGE_ID, COLUMN_MESSAGE_TYPE, COLUMN_MESSAGE_CONTENT},
+                        null, null, null, null, null);
+                while (cursor.moveToNext()) {
+                    indexChatMessage(db, cursor.getLong(0), cursor.getInt(1), cursor.getString(2));
+                }
+                cursor.close();
+            }
+        }
+        // 如果是从版本8升级到版本9，添加回答缓存表
+        if (oldVersion < 9) {
+            db.execSQL(CREATE_ANSWER_CACHE_TABLE);
+        }
+        // 如果是从版本9升级到版本10，为聊天记录添加图片附件
+        if (oldVersion < 10) {
+            if (oldVersion >= 5) {
+                db.execSQL("ALTER TABLE " + TABLE_CHAT_MESSAGES + " ADD COLUMN " +
+                        COLUMN_ATTACHMENT_DATA + " TEXT");
+            }
+        }
     }
 
     // 保存认证信息
@@ -407,4 +547,480 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             db.close();
         }
     }
+
+    // 保存指定对话的聊天消息，已存在的消息会被覆盖
+    public boolean saveChatMessages(String threadId, List<Message> messages) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        
+        try {
+            db.beginTransaction();
+            
+            for (Message message : messages) {
+                db.execSQL("INSERT OR REPLACE INTO " + TABLE_CHAT_MESSAGES + "(" +
+                        COLUMN_MESSAGE_ID + ", " +
+                        COLUMN_MESSAGE_TYPE + ", " +
+                        COLUMN_MESSAGE_CONTENT + ", " +
+                        COLUMN_CONFIRM_DATA + ", " +
+                        COLUMN_CONFIRM_STATUS + ", " +
+                        COLUMN_MESSAGE_CREATED_TIME + ", " +
+                        COLUMN_DELIVERY_STATUS + ", " +
+                        COLUMN_THREAD_ID + ", " +
+                        COLUMN_ATTACHMENT_DATA + ") VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                        new Object[]{
+                                message.getId(),
+                                message.getType(),
+                                message.getFullContent(),
+                                message.getConfirmData(),
+                                message.getConfirmStatus(),
+                                message.getCreatedTime(),
+                                message.getDeliveryStatus(),
+                                threadId,
+                                message.getAttachmentData()
+                        });
+                // 消息写入时同步更新全文索引
+                indexChatMessage(db, message.getId(), message.getType(), message.getFullContent());
+            }
+            
+            db.setTransactionSuccessful();
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to save chat messages", e);
+            return false;
+        } finally {
+            db.endTransaction();
+            db.close();
+        }
+    }
+    
+    // 分页获取指定对话中ID小于beforeId的聊天消息，按时间正序返回
+    public List<Message> getChatMessagesBefore(String threadId, long beforeId, int limit) {
+        List<Message> messages = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        
+        try {
+            Cursor cursor = db.query(TABLE_CHAT_MESSAGES, null,
+                    COLUMN_THREAD_ID + " = ? AND " + COLUMN_MESSAGE_ID + " < ?",
+                    new String[]{threadId, String.valueOf(beforeId)},
+                    null, null,
+                    COLUMN_MESSAGE_ID + " DESC",
+                    String.valueOf(limit));
+            
+            if (cursor != null) {
+                messages.addAll(readChatMessages(cursor));
+                cursor.close();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to get chat messages", e);
+        } finally {
+            db.close();
+        }
+        
+        // 查询结果为倒序，翻转为正序
+        Collections.reverse(messages);
+        return messages;
+    }
+    
+    // 分页获取指定对话中ID大于afterId的聊天消息，按时间正序返回，用于顺序导出
+    public List<Message> getChatMessagesAfter(String threadId, long afterId, int limit) {
+        List<Message> messages = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        
+        try {
+            Cursor cursor = db.query(TABLE_CHAT_MESSAGES, null,
+                    COLUMN_THREAD_ID + " = ? AND " + COLUMN_MESSAGE_ID + " > ?",
+                    new String[]{threadId, String.valueOf(afterId)},
+                    null, null,
+                    COLUMN_MESSAGE_ID + " ASC",
+                    String.valueOf(limit));
+            
+            if (cursor != null) {
+                messages.addAll(readChatMessages(cursor));
+                cursor.close();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to get chat messages", e);
+        } finally {
+            db.close();
+        }
+        
+        return messages;
+    }
+    
+    // 获取指定对话的消息数量
+    public int countChatMessages(String threadId) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        int count = 0;
+        
+        try {
+            Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + TABLE_CHAT_MESSAGES +
+                    " WHERE " + COLUMN_THREAD_ID + " = ?", new String[]{threadId});
+            if (cursor != null) {
+                if (cursor.moveToFirst()) {
+                    count = cursor.getInt(0);
+                }
+                cursor.close();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to count chat messages", e);
+        } finally {
+            db.close();
+        }
+        
+        return count;
+    }
+    
+    // 读取游标中的所有聊天消息
+    private static List<Message> readChatMessages(Cursor cursor) {
+        List<Message> messages = new ArrayList<>();
+        if (!cursor.moveToFirst()) {
+            return messages;
+        }
+        int idIndex = cursor.getColumnIndexOrThrow(COLUMN_MESSAGE_ID);
+        int typeIndex = cursor.getColumnIndexOrThrow(COLUMN_MESSAGE_TYPE);
+        int contentIndex = cursor.getColumnIndexOrThrow(COLUMN_MESSAGE_CONTENT);
+        int confirmDataIndex = cursor.getColumnIndexOrThrow(COLUMN_CONFIRM_DATA);
+        int confirmStatusIndex = cursor.getColumnIndexOrThrow(COLUMN_CONFIRM_STATUS);
+        int createdTimeIndex = cursor.getColumnIndexOrThrow(COLUMN_MESSAGE_CREATED_TIME);
+        int deliveryStatusIndex = cursor.getColumnIndexOrThrow(COLUMN_DELIVERY_STATUS);
+        int attachmentDataIndex = cursor.getColumnIndexOrThrow(COLUMN_ATTACHMENT_DATA);
+        do {
+            String content = cursor.getString(contentIndex);
+            messages.add(new Message(
+                    cursor.getLong(idIndex),
+                    content != null ? content : "",
+                    cursor.getInt(typeIndex),
+                    cursor.getString(confirmDataIndex),
+                    cursor.getInt(confirmStatusIndex),
+                    cursor.getLong(createdTimeIndex),
+                    cursor.getInt(deliveryStatusIndex),
+                    cursor.getString(attachmentDataIndex)));
+        } while (cursor.moveToNext());
+        return messages;
+    }
+    
+    // 分页获取指定对话中ID大于等于fromId、小于beforeId的聊天消息，按时间正序返回
+    public List<Message> getChatMessagesBetween(String threadId, long fromId, long beforeId) {
+        List<Message> messages = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        
+        try {
+            Cursor cursor = db.query(TABLE_CHAT_MESSAGES, null,
+                    COLUMN_THREAD_ID + " = ? AND " + COLUMN_MESSAGE_ID + " >= ? AND " + COLUMN_MESSAGE_ID + " < ?",
+                    new String[]{threadId, String.valueOf(fromId), String.valueOf(beforeId)},
+                    null, null,
+                    COLUMN_MESSAGE_ID + " ASC");
+            
+            if (cursor != null) {
+                messages.addAll(readChatMessages(cursor));
+                cursor.close();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to get chat messages", e);
+        } finally {
+            db.close();
+        }
+        
+        return messages;
+    }
+    
+    // 更新一条消息的全文索引，只索引有内容的用户消息和AI回答
+    private static void indexChatMessage(SQLiteDatabase db, long messageId, int type, String content) {
+        db.execSQL("DELETE FROM " + TABLE_CHAT_MESSAGES_FTS + " WHERE docid = ?", new Object[]{messageId});
+        if ((type != Message.TYPE_USER && type != Message.TYPE_AI) || content == null || content.isEmpty()) {
+            return;
+        }
+        db.execSQL("INSERT INTO " + TABLE_CHAT_MESSAGES_FTS + "(docid, " + COLUMN_FTS_TOKENS + ") VALUES(?, ?)",
+                new Object[]{messageId, SearchTokenizer.tokenize(content)});
+    }
+    
+    // 全文搜索聊天记录，按相关度从高到低返回最多limit条结果。
+    // 所有命中的消息都参与排序：先只读取docid和matchinfo计算类似BM25的得分，保留得分最高的limit条，
+    // 再读取这些消息的内容。SQLiteDatabase不能注册自定义函数，matchinfo的得分只能在这里计算
+    public List<SearchResult> searchChatMessages(String query, int limit) {
+        List<SearchResult> results = new ArrayList<>();
+        String match = SearchTokenizer.buildQuery(query);
+        if (match == null || limit <= 0) {
+            return results;
+        }
+        SQLiteDatabase db = this.getReadableDatabase();
+        
+        try {
+            // 得分最低（得分相同时最旧）的候选在堆顶，超过limit条时淘汰
+            Comparator<SearchCandidate> ranking = (a, b) -> a.score != b.score
+                    ? Double.compare(a.score, b.score) : Long.compare(a.messageId, b.messageId);
+            PriorityQueue<SearchCandidate> top = new PriorityQueue<>(limit + 1, ranking);
+            Cursor cursor = db.rawQuery("SELECT docid, matchinfo(" + TABLE_CHAT_MESSAGES_FTS + ", 'pcnx') FROM " +
+                    TABLE_CHAT_MESSAGES_FTS + " WHERE " + TABLE_CHAT_MESSAGES_FTS + " MATCH ?", new String[]{match});
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    top.add(new SearchCandidate(cursor.getLong(0), scoreMatch(cursor.getBlob(1))));
+                    if (top.size() > limit) {
+                        top.poll();
+                    }
+                }
+                cursor.close();
+            }
+            if (top.isEmpty()) {
+                return results;
+            }
+            
+            Map<Long, SearchCandidate> candidates = new HashMap<>();
+            for (SearchCandidate candidate : top) {
+                candidates.put(candidate.messageId, candidate);
+            }
+            String ids = candidates.keySet().stream().map(String::valueOf).collect(Collectors.joining(","));
+            cursor = db.rawQuery("SELECT * FROM " + TABLE_CHAT_MESSAGES +
+                    " WHERE " + COLUMN_MESSAGE_ID + " IN (" + ids + ")", null);
+            if (cursor != null) {
+                List<Message> messages = readChatMessages(cursor);
+                int threadIndex = cursor.getColumnIndexOrThrow(COLUMN_THREAD_ID);
+                for (int i = 0; i < messages.size(); i++) {
+                    cursor.moveToPosition(i);
+                    Message message = messages.get(i);
+                    results.add(new SearchResult(message, cursor.getString(threadIndex),
+                            candidates.get(message.getId()).score));
+                }
+                cursor.close();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to search chat messages", e);
+        } finally {
+            db.close();
+        }
+        
+        // 得分相同时较新的消息在前
+        Collections.sort(results, (a, b) -> a.getScore() != b.getScore()
+                ? Double.compare(b.getScore(), a.getScore())
+                : Long.compare(b.getMessage().getId(), a.getMessage().getId()));
+        return results;
+    }
+    
+    // 搜索排序中的候选消息
+    private static final class SearchCandidate {
+        final long messageId;
+        final double score;
+        
+        SearchCandidate(long messageId, double score) {
+            this.messageId = messageId;
+            this.score = score;
+        }
+    }
+    
+    // 根据matchinfo('pcnx')计算得分：每个查询片段按命中次数饱和，并按包含该片段的消息数加权（越少见越重要）
+    private static double scoreMatch(byte[] info) {
+        ByteBuffer buffer = ByteBuffer.wrap(info).order(ByteOrder.nativeOrder());
+        int phrases = buffer.getInt(0);
+        int columns = buffer.getInt(4);
+        long rows = buffer.getInt(8) & 0xffffffffL;
+        double score = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns; column++) {
+                int offset = 12 + 12 * (phrase * columns + column);
+                long hits = buffer.getInt(offset) & 0xffffffffL;
+                long docs = buffer.getInt(offset + 8) & 0xffffffffL;
+                double idf = Math.log(1 + (rows - docs + 0.5) / (docs + 0.5));
+                score += idf * hits * 2.2 / (hits + 1.2);
+            }
+        }
+        return score;
+    }
+    
+    // 获取所有有消息的对话ID，按对话创建顺序返回
+    public List<String> getChatThreadIds() {
+        List<String> threadIds = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        
+        try {
+            Cursor cursor = db.rawQuery("SELECT " + COLUMN_THREAD_ID + " FROM " + TABLE_CHAT_MESSAGES +
+                    " GROUP BY " + COLUMN_THREAD_ID +
+                    " ORDER BY MIN(" + COLUMN_MESSAGE_ID + ")", null);
+            
+            if (cursor != null && cursor.moveToFirst()) {
+                do {
+                    threadIds.add(cursor.getString(0));
+                } while (cursor.moveToNext());
+                
+                cursor.close();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to get chat threads", e);
+        } finally {
+            db.close();
+        }
+        
+        return threadIds;
+    }
+    
+    // 更新确认消息的状态
+    public boolean updateChatMessageConfirmStatus(long messageId, int confirmStatus) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        try {
+            db.execSQL("UPDATE " + TABLE_CHAT_MESSAGES + " SET " +
+                    COLUMN_CONFIRM_STATUS + " = ? WHERE " +
+                    COLUMN_MESSAGE_ID + " = ?",
+                    new Object[]{confirmStatus, messageId});
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to update confirm status: " + messageId, e);
+            return false;
+        } finally {
+            db.close();
+        }
+    }
+    
+    // 更新用户消息的送达状态
+    public boolean updateChatMessageDeliveryStatus(long messageId, int deliveryStatus) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        try {
+            db.execSQL("UPDATE " + TABLE_CHAT_MESSAGES + " SET " +
+                    COLUMN_DELIVERY_STATUS + " = ? WHERE " +
+                    COLUMN_MESSAGE_ID + " = ?",
+                    new Object[]{deliveryStatus, messageId});
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to update delivery status: " + messageId, e);
+            return false;
+        } finally {
+            db.close();
+        }
+    }
+    
+    // 保存一条待发送消息
+    public boolean saveOutboundMessage(OutboundMessage message) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        try {
+            db.execSQL("INSERT OR REPLACE INTO " + TABLE_OUTBOUND_MESSAGES + "(" +
+                    COLUMN_CLIENT_ID + ", " +
+                    COLUMN_PAYLOAD + ", " +
+                    COLUMN_CREATED_TIME + ") VALUES(?, ?, ?)",
+                    new Object[]{message.getClientId(), message.getPayload(), message.getCreatedTime()});
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to save outbound message: " + message.getClientId(), e);
+            return false;
+        } finally {
+            db.close();
+        }
+    }
+    
+    // 删除已被服务器确认的待发送消息
+    public boolean deleteOutboundMessage(long clientId) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        try {
+            db.delete(TABLE_OUTBOUND_MESSAGES, COLUMN_CLIENT_ID + " = ?",
+                    new String[]{String.valueOf(clientId)});
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to delete outbound message: " + clientId, e);
+            return false;
+        } finally {
+            db.close();
+        }
+    }
+    
+    // 按发送顺序获取所有未确认的待发送消息
+    public List<OutboundMessage> getOutboundMessages() {
+        List<OutboundMessage> messages = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        
+        try {
+            Cursor cursor = db.query(TABLE_OUTBOUND_MESSAGES, null,
+                    null, null, null, null,
+                    COLUMN_CLIENT_ID + " ASC");
+            
+            if (cursor != null && cursor.moveToFirst()) {
+                int clientIdIndex = cursor.getColumnIndexOrThrow(COLUMN_CLIENT_ID);
+                int payloadIndex = cursor.getColumnIndexOrThrow(COLUMN_PAYLOAD);
+                int createdTimeIndex = cursor.getColumnIndexOrThrow(COLUMN_CREATED_TIME);
+                do {
+                    messages.add(new OutboundMessage(
+                            cursor.getLong(clientIdIndex),
+                            cursor.getString(payloadIndex),
+                            cursor.getLong(createdTimeIndex)));
+                } while (cursor.moveToNext());
+                
+                cursor.close();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to get outbound messages", e);
+        } finally {
+            db.close();
+        }
+        
+        return messages;
+    }
+    
+    // 保存一条缓存的回答
+    public boolean saveCachedAnswer(CachedAnswer answer) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        try {
+            db.execSQL("INSERT OR REPLACE INTO " + TABLE_ANSWER_CACHE + "(" +
+                    COLUMN_CACHE_KEY + ", " +
+                    COLUMN_ANSWER + ", " +
+                    COLUMN_STORED_TIME + ", " +
+                    COLUMN_REFRESH_TIME + ", " +
+                    COLUMN_EXPIRE_TIME + ", " +
+                    COLUMN_LAST_USED_TIME + ") VALUES(?, ?, ?, ?, ?, ?)",
+                    new Object[]{answer.getKey(), answer.getAnswer(), answer.getStoredTime(),
+                            answer.getRefreshTime(), answer.getExpireTime(), answer.getLastUsedTime()});
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to save cached answer", e);
+            return false;
+        } finally {
+            db.close();
+        }
+    }
+    
+    // 删除一条缓存的回答
+    public boolean deleteCachedAnswer(String key) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        try {
+            db.delete(TABLE_ANSWER_CACHE, COLUMN_CACHE_KEY + " = ?", new String[]{key});
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to delete cached answer", e);
+            return false;
+        } finally {
+            db.close();
+        }
+    }
+    
+    // 获取所有缓存的回答
+    public List<CachedAnswer> getCachedAnswers() {
+        List<CachedAnswer> answers = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        
+        try {
+            Cursor cursor = db.query(TABLE_ANSWER_CACHE, null,
+                    null, null, null, null,
+                    COLUMN_LAST_USED_TIME + " ASC");
+            
+            if (cursor != null && cursor.moveToFirst()) {
+                int keyIndex = cursor.getColumnIndexOrThrow(COLUMN_CACHE_KEY);
+                int answerIndex = cursor.getColumnIndexOrThrow(COLUMN_ANSWER);
+                int storedTimeIndex = cursor.getColumnIndexOrThrow(COLUMN_STORED_TIME);
+                int refreshTimeIndex = cursor.getColumnIndexOrThrow(COLUMN_REFRESH_TIME);
+                int expireTimeIndex = cursor.getColumnIndexOrThrow(COLUMN_EXPIRE_TIME);
+                int lastUsedTimeIndex = cursor.getColumnIndexOrThrow(COLUMN_LAST_USED_TIME);
+                do {
+                    answers.add(new CachedAnswer(
+                            cursor.getString(keyIndex),
+                            cursor.getString(answerIndex),
+                            cursor.getLong(storedTimeIndex),
+                            cursor.getLong(refreshTimeIndex),
+                            cursor.getLong(expireTimeIndex),
+                            cursor.getLong(lastUsedTimeIndex)));
+                } while (cursor.moveToNext());
+                
+                cursor.close();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to get cached answers", e);
+        } finally {
+            db.close();
+        }
+        
+        return answers;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,170 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.util;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.net.Uri;
+
+import com.example.assistant.model.ImageAttachment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// 图片消息的本地压缩：先只读取尺寸，按2的幂降采样解码（RGB_565，不含透明通道），
+// 再缩放到最长边不超过MAX_DIMENSION并按EXIF方向旋转，最后逐步降低JPEG质量直到不超过目标大小。
+// 1200万像素的照片解码后约为2000x1500，内存中不会出现原图大小的位图。
+// 同时生成气泡中使用的小缩略图。应在后台线程上调用
+public final class ImageCompressor {
+
+    public static final int MAX_DIMENSION = 1600;
+    public static final int THUMBNAIL_DIMENSION = 320;
+    public static final long TARGET_BYTES = 300 * 1024;
+
+    private static final int MAX_QUALITY = 85;
+    private static final int MIN_QUALITY = 50;
+    private static final int QUALITY_STEP = 10;
+    private static final int THUMBNAIL_QUALITY = 80;
+
+    private ImageCompressor() {
+    }
+
+    // 压缩图片并写入dir目录，返回尚未上传的附件
+    public static ImageAttachment compress(ContentResolver resolver, Uri source, File dir, String name) throws IOException {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream in = open(resolver, source)) {
+            BitmapFactory.decodeStream(in, null, bounds);
+        }
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IOException("Unsupported image: " + source);
+        }
+        int rotation = readRotation(resolver, source);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = calculateInSampleSize(bounds.outWidth, bounds.outHeight, MAX_DIMENSION);
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap sampled;
+        try (InputStream in = open(resolver, source)) {
+            sampled = BitmapFactory.decodeStream(in, null, options);
+        }
+        if (sampled == null) {
+            throw new IOException("Failed to decode image: " + source);
+        }
+
+        Bitmap image = scaleAndRotate(sampled, MAX_DIMENSION, rotation, true);
+        Bitmap thumbnail = null;
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Failed to create " + dir);
+            }
+            File imageFile = new File(dir, name + ".jpg");
+            long byteSize = writeJpeg(image, imageFile, TARGET_BYTES);
+
+            thumbnail = scaleAndRotate(image, THUMBNAIL_DIMENSION, 0, false);
+            File thumbnailFile = new File(dir, name + "_thumb.jpg");
+            try (OutputStream out = new FileOutputStream(thumbnailFile)) {
+                thumbnail.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, out);
+            }
+
+            return new ImageAttachment(imageFile.getAbsolutePath(), thumbnailFile.getAbsolutePath(),
+                    image.getWidth(), image.getHeight(), byteSize, null, false);
+        } finally {
+            image.recycle();
+            if (thumbnail != null && thumbnail != image) {
+                thumbnail.recycle();
+            }
+        }
+    }
+
+    // 最大的2的幂采样率，使降采样后的最长边仍不小于maxDimension，之后再精确缩放
+    static int calculateInSampleSize(int width, int height, int maxDimension) {
+        int longest = Math.max(width, height);
+        int sampleSize = 1;
+        while (longest / (sampleSize * 2) >= maxDimension) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    // 等比缩放后最长边不超过maxDimension的尺寸，不放大
+    static int[] scaledSize(int width, int height, int maxDimension) {
+        int longest = Math.max(width, height);
+        if (longest <= maxDimension) {
+            return new int[]{width, height};
+        }
+        float scale = (float) maxDimension / longest;
+        return new int[]{Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale))};
+    }
+
+    // 一次变换完成缩放和旋转，recycleSource为true时产生新位图后立即回收原位图
+    private static Bitmap scaleAndRotate(Bitmap source, int maxDimension, int rotation, boolean recycleSource) {
+        int[] size = scaledSize(source.getWidth(), source.getHeight(), maxDimension);
+        if (rotation == 0 && size[0] == source.getWidth() && size[1] == source.getHeight()) {
+            return source;
+        }
+        Matrix matrix = new Matrix();
+        matrix.postScale((float) size[0] / source.getWidth(), (float) size[1] / source.getHeight());
+        matrix.postRotate(rotation);
+        Bitmap result = Bitmap.createBitmap(source, 0, 0, source.getWidth(), source.getHeight(), matrix, true);
+        if (recycleSource && result != source) {
+            source.recycle();
+        }
+        return result;
+    }
+
+    // 从MAX_QUALITY开始逐步降低质量，直到不超过目标大小或达到最低质量，返回文件大小
+    private static long writeJpeg(Bitmap bitmap, File file, long targetBytes) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        int quality = MAX_QUALITY;
+        while (true) {
+            buffer.reset();
+            bitmap.compress(Bitmap.CompressFormat.JPEG, quality, buffer);
+            if (buffer.size() <= targetBytes || quality - QUALITY_STEP < MIN_QUALITY) {
+                break;
+            }
+            quality -= QUALITY_STEP;
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            buffer.writeTo(out);
+        }
+        return buffer.size();
+    }
+
+    // 读取照片的EXIF方向，相机拍摄的照片通常需要旋转
+    private static int readRotation(ContentResolver resolver, Uri source) {
+        try (InputStream in = open(resolver, source)) {
+            int orientation = new ExifInterface(in).getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            switch (orientation) {
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                    return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                    return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                    return 270;
+                default:
+                    return 0;
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static InputStream open(ContentResolver resolver, Uri source) throws IOException {
+        InputStream in = resolver.openInputStream(source);
+        if (in == null) {
+            throw new IOException("Failed to open " + source);
+        }
+        return in;
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// 聊天记录全文索引的分词：SQLite FTS自带的simple分词器不会切分中文，
+// 因此写入索引前先把文本转换为空格分隔的词元，再交给simple分词器。
+// 中日韩文字按相邻两字切分（二元组），每段末尾再补一个单字，便于单字前缀查询；
+// 英文和数字按连续字母数字切分并转为小写
+public final class SearchTokenizer {
+
+    private SearchTokenizer() {
+    }
+
+    // 把消息内容转换为写入索引的词元串
+    public static String tokenize(String text) {
+        StringBuilder tokens = new StringBuilder();
+        for (Segment segment : split(text)) {
+            if (segment.cjk) {
+                appendCjkTokens(tokens, segment.text);
+            } else {
+                appendToken(tokens, segment.text);
+            }
+        }
+        return tokens.toString();
+    }
+
+    // 把用户输入转换为FTS查询，所有片段都要匹配（AND）；无法查询时返回null。
+    // 两字以上的中文片段按二元组做短语查询，相当于子串匹配；单字和英文片段做前缀查询
+    public static String buildQuery(String query) {
+        StringBuilder match = new StringBuilder();
+        for (Segment segment : split(query)) {
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            if (segment.cjk && segment.text.codePointCount(0, segment.text.length()) > 1) {
+                StringBuilder phrase = new StringBuilder();
+                appendBigrams(phrase, segment.text);
+                match.append('"').append(phrase).append('"');
+            } else {
+                match.append(segment.text).append('*');
+            }
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+
+    // 用户输入中用于高亮的关键词，不区分大小写
+    public static List<String> highlightTerms(String query) {
+        List<String> terms = new ArrayList<>();
+        for (Segment segment : split(query)) {
+            terms.add(segment.text);
+        }
+        return terms;
+    }
+
+    // 连续的中日韩文字或连续的字母数字为一段，其他字符作为分隔符
+    private static final class Segment {
+        final String text;
+        final boolean cjk;
+
+        Segment(String text, boolean cjk) {
+            this.text = text;
+            this.cjk = cjk;
+        }
+    }
+
+    private static List<Segment> split(String text) {
+        List<Segment> segments = new ArrayList<>();
+        if (text == null) {
+            return segments;
+        }
+        int start = -1;
+        boolean startCjk = false;
+        int i = 0;
+        while (i <= text.length()) {
+            int codePoint = i < text.length() ? text.codePointAt(i) : -1;
+            boolean cjk = codePoint >= 0 && isCjk(codePoint);
+            boolean word = codePoint >= 0 && (cjk || Character.isLetterOrDigit(codePoint));
+            if (start >= 0 && (!word || cjk != startCjk)) {
+                String segment = text.substring(start, i);
+                segments.add(new Segment(startCjk ? segment : segment.toLowerCase(Locale.ROOT), startCjk));
+                start = -1;
+            }
+            if (word && start < 0) {
+                start = i;
+                startCjk = cjk;
+            }
+            i += codePoint >= 0 ? Character.charCount(codePoint) : 1;
+        }
+        return segments;
+    }
+
+    static boolean isCjk(int codePoint) {
+        if (Character.isIdeographic(codePoint)) {
+            return true;
+        }
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+    // 写入相邻两字的二元组，并在末尾补上最后一个单字
+    private static void appendCjkTokens(StringBuilder tokens, String run) {
+        appendBigrams(tokens, run);
+        int last = run.offsetByCodePoints(run.length(), -1);
+        appendToken(tokens, run.substring(last));
+    }
+
+    private static void appendBigrams(StringBuilder tokens, String run) {
+        int first = 0;
+        while (first < run.length()) {
+            int second = first + Character.charCount(run.codePointAt(first));
+            if (second >= run.length()) {
+                break;
+            }
+            int end = second + Character.charCount(run.codePointAt(second));
+            appendToken(tokens, run.substring(first, end));
+            first = second;
+        }
+    }
+
+    private static void appendToken(StringBuilder tokens, String token) {
+        if (tokens.length() > 0) {
+            tokens.append(' ');
+        }
+        tokens.append(token);
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+// 图片消息缩略图的内存缓存：按位图字节数计算容量，最多占用可用堆内存的1/16。
+// 缩略图文件在后台线程上解码，同一文件同时只解码一次，结果回调到主线程。
+// 滚动列表时复用已解码的位图，不会重复读取文件
+public final class ThumbnailCache {
+
+    private static ThumbnailCache instance;
+
+    // 缩略图加载完成的回调，解码失败时bitmap为null
+    public interface Callback {
+        void onLoaded(String path, Bitmap bitmap);
+    }
+
+    private final LruCache<String, Bitmap> cache;
+    private final Map<String, List<Callback>> pending = new HashMap<>();
+    private final Executor executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public static synchronized ThumbnailCache getInstance() {
+        if (instance == null) {
+            instance = new ThumbnailCache((int) (Runtime.getRuntime().maxMemory() / 16));
+        }
+        return instance;
+    }
+
+    private ThumbnailCache(int maxBytes) {
+        cache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String path, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    // 获取已缓存的缩略图，未缓存时返回null
+    public Bitmap get(String path) {
+        return cache.get(path);
+    }
+
+    // 加载缩略图，已缓存时立即回调。必须在主线程上调用
+    public void load(String path, Callback callback) {
+        Bitmap cached = cache.get(path);
+        if (cached != null) {
+            callback.onLoaded(path, cached);
+            return;
+        }
+        List<Callback> callbacks = pending.get(path);
+        if (callbacks != null) {
+            callbacks.add(callback);
+            return;
+        }
+        callbacks = new ArrayList<>();
+        callbacks.add(callback);
+        pending.put(path, callbacks);
+
+        executor.execute(() -> {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+            mainHandler.post(() -> {
+                if (bitmap != null) {
+                    cache.put(path, bitmap);
+                }
+                List<Callback> waiting = pending.remove(path);
+                if (waiting != null) {
+                    for (Callback waitingCallback : waiting) {
+                        waitingCallback.onLoaded(path, bitmap);
+                    }
+                }
+            });
+        });
+    }
+}
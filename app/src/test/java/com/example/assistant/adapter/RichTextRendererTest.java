@@ -0,0 +1,198 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.adapter;
+
+import android.graphics.Typeface;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.BulletSpan;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+import android.text.style.SuperscriptSpan;
+import android.text.style.TypefaceSpan;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * AI回答富文本渲染测试：代码块、列表、粗体斜体、上下标，以及流式增量渲染与一次性完整渲染的结果一致
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class RichTextRendererTest {
+
+    private static final String ANSWER = "# 解题思路\n\n"
+            + "先看**已知条件**：长方形的长是*8厘米*，宽是`a_1`厘米。\n\n"
+            + "- 周长 = 2 × (长 + 宽)\n"
+            + "- 面积 = 长 × 宽\n"
+            + "1. 代入数据\n\n"
+            + "```\nint area = 8 * width;\n\nreturn area;\n```\n\n"
+            + "> 注意单位\n\n"
+            + "所以 $S = 8a_{1}$，体积是 $a^{3}$，变量名 snake_case_name 不变。";
+
+    // 按位置和类型描述所有样式，便于比较两次渲染的结果
+    private static List<String> describeSpans(Spanned text) {
+        List<String> spans = new ArrayList<>();
+        for (Object span : text.getSpans(0, text.length(), Object.class)) {
+            String name = span.getClass().getSimpleName();
+            if (span instanceof StyleSpan) {
+                name += ":" + ((StyleSpan) span).getStyle();
+            }
+            spans.add(name + "[" + text.getSpanStart(span) + "," + text.getSpanEnd(span) + ")");
+        }
+        Collections.sort(spans);
+        return spans;
+    }
+
+    // 指定文字上的样式
+    private static <T> List<T> spansOn(Spanned text, String substring, Class<T> type) {
+        int start = text.toString().indexOf(substring);
+        assertTrue(substring, start >= 0);
+        List<T> result = new ArrayList<>();
+        for (T span : text.getSpans(start, start + substring.length(), type)) {
+            if (text.getSpanStart(span) <= start && text.getSpanEnd(span) >= start + substring.length()) {
+                result.add(span);
+            }
+        }
+        return result;
+    }
+
+    private static boolean hasStyle(Spanned text, String substring, int style) {
+        for (StyleSpan span : spansOn(text, substring, StyleSpan.class)) {
+            if (span.getStyle() == style) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void rendersCodeBlockVerbatimInMonospace() {
+        Spanned text = (Spanned) new RichTextRenderer().render(1, 1, "代码：\n```\nint a = b * c;\n\nreturn a;\n```\n结束");
+        assertEquals("代码：\nint a = b * c;\n\nreturn a;\n结束", text.toString());
+        // 代码块内的*和空行不作为格式处理
+        assertFalse(spansOn(text, "int a = b * c;\n\nreturn a;", TypefaceSpan.class).isEmpty());
+        assertFalse(hasStyle(text, " c", Typeface.ITALIC));
+        assertTrue(spansOn(text, "结束", TypefaceSpan.class).isEmpty());
+    }
+
+    @Test
+    public void rendersLists() {
+        Spanned text = (Spanned) new RichTextRenderer().render(1, 1, "- 苹果\n* 香蕉\n2. 橘子");
+        assertEquals("苹果\n香蕉\n2. 橘子", text.toString());
+        assertEquals(1, spansOn(text, "苹果", BulletSpan.class).size());
+        assertEquals(1, spansOn(text, "香蕉", BulletSpan.class).size());
+        // 有序列表保留编号，不加项目符号
+        assertTrue(spansOn(text, "橘子", BulletSpan.class).isEmpty());
+    }
+
+    @Test
+    public void rendersBoldAndItalic() {
+        Spanned text = (Spanned) new RichTextRenderer().render(1, 1, "**重点**和 *提示* 以及 _强调_");
+        assertEquals("重点和 提示 以及 强调", text.toString());
+        assertTrue(hasStyle(text, "重点", Typeface.BOLD));
+        assertTrue(hasStyle(text, "提示", Typeface.ITALIC));
+        assertTrue(hasStyle(text, "强调", Typeface.ITALIC));
+    }
+
+    @Test
+    public void keepsUnderscoresInsideWords() {
+        String content = "变量 snake_case_name 和 x_1、y_2 保持原样，_开头 也一样";
+        Spanned text = (Spanned) new RichTextRenderer().render(1, 1, content);
+        assertEquals(content, text.toString());
+        assertEquals(0, text.getSpans(0, text.length(), StyleSpan.class).length);
+    }
+
+    @Test
+    public void keepsAsterisksBetweenNumbers() {
+        String content = "口算 3*4=12, 5*6=30，再看 *提示*";
+        Spanned text = (Spanned) new RichTextRenderer().render(1, 1, content);
+        assertEquals("口算 3*4=12, 5*6=30，再看 提示", text.toString());
+        assertFalse(hasStyle(text, "4=12", Typeface.ITALIC));
+        assertTrue(hasStyle(text, "提示", Typeface.ITALIC));
+    }
+
+    @Test
+    public void rendersSuperscriptAndSubscriptInMath() {
+        Spanned text = (Spanned) new RichTextRenderer().render(1, 1, "面积 $x^{2} + a_1$");
+        assertEquals("面积 x2 + a1", text.toString());
+        int superscript = text.toString().indexOf('2');
+        SuperscriptSpan[] superscripts = text.getSpans(superscript, superscript + 1, SuperscriptSpan.class);
+        assertEquals(1, superscripts.length);
+        assertEquals(superscript, text.getSpanStart(superscripts[0]));
+        assertEquals(superscript + 1, text.getSpanEnd(superscripts[0]));
+        // 下标只缩小，不上移
+        int subscript = text.toString().indexOf('1');
+        assertEquals(0, text.getSpans(subscript, subscript + 1, SuperscriptSpan.class).length);
+        assertEquals(1, text.getSpans(subscript, subscript + 1, RelativeSizeSpan.class).length);
+    }
+
+    @Test
+    public void incrementalRenderingMatchesFullRendering() {
+        RichTextRenderer incremental = new RichTextRenderer();
+        SpannableStringBuilder shown = null;
+        long shownVersion = 0;
+        long version = 0;
+        for (int end = 1; end <= ANSWER.length(); end += 3) {
+            String content = ANSWER.substring(0, Math.min(end, ANSWER.length()));
+            Spanned expected = (Spanned) new RichTextRenderer().render(2, 1, content);
+
+            // 按适配器的方式更新同一个可编辑文本，每次刷新都是消息的新版本
+            version++;
+            if (shown == null || !incremental.renderInto(2, shownVersion, version, content, shown)) {
+                shown = new SpannableStringBuilder(incremental.render(2, version, content));
+            }
+            shownVersion = version;
+
+            assertEquals(expected.toString(), shown.toString());
+            assertEquals(content, describeSpans(expected), describeSpans(shown));
+        }
+        assertEquals(1, incremental.getFullRenderCount());
+        assertTrue(incremental.getTailRenderCount() > 0);
+
+        // 结束后得到的不可变结果也和完整渲染一致
+        Spanned finished = (Spanned) incremental.render(2, version + 1, ANSWER);
+        Spanned expected = (Spanned) new RichTextRenderer().render(2, 1, ANSWER);
+        assertEquals(expected.toString(), finished.toString());
+        assertEquals(describeSpans(expected), describeSpans(finished));
+    }
+
+    @Test
+    public void cachesByMessageVersion() {
+        RichTextRenderer renderer = new RichTextRenderer();
+        String content = "**重点**\n\n第二段";
+        CharSequence first = renderer.render(5, 1, content);
+        // 同一版本直接命中，版本变化但内容没变（例如送达状态更新）时也复用
+        assertSame(first, renderer.render(5, 1, content));
+        assertSame(first, renderer.render(5, 2, content));
+        // 内容相同、版本不同的另一条消息各自渲染
+        renderer.render(6, 2, content);
+        assertEquals(2, renderer.getFullRenderCount());
+        assertEquals(2, renderer.getCacheHitCount());
+        // 版本变化后按新内容渲染
+        assertEquals("重点\n\n第二段落", renderer.render(5, 3, content + "落").toString());
+    }
+
+    @Test
+    public void renderIntoRejectsStaleText() {
+        RichTextRenderer renderer = new RichTextRenderer();
+        String first = "第一段\n\n第二";
+        SpannableStringBuilder shown = new SpannableStringBuilder(renderer.render(3, 1, first));
+        // 之后的版本由别处渲染过，TextView上的文本已不是最新结果
+        renderer.render(3, 2, first + "段");
+        assertFalse(renderer.renderInto(3, 1, 3, first + "段落", shown));
+        // 内容被替换而不是追加
+        SpannableStringBuilder other = new SpannableStringBuilder(renderer.render(4, 1, first));
+        assertFalse(renderer.renderInto(4, 1, 2, "完全不同的内容，而且更长一些", other));
+    }
+}
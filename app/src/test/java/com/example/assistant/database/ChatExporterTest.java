@@ -0,0 +1,193 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.database;
+
+import com.example.assistant.model.Message;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * 聊天记录导出测试：分页读取、Markdown和JSON Lines格式以及取消
+ */
+public class ChatExporterTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    // 内存中的聊天记录，记录每次分页读取的大小
+    private static class MemorySource implements ChatExporter.Source {
+        final List<Message> messages = new ArrayList<>();
+        final List<Integer> pageSizes = new ArrayList<>();
+        ChatExporter exporter;
+        int cancelAfterPages = -1;
+
+        void add(long id, String content, int type, long time) {
+            messages.add(new Message(id, content, type, null, Message.STATUS_PENDING, time, Message.DELIVERY_NONE));
+        }
+
+        @Override
+        public int count(String threadId) {
+            return messages.size();
+        }
+
+        @Override
+        public List<Message> loadPage(String threadId, long afterId, int limit) {
+            List<Message> page = new ArrayList<>();
+            for (Message message : messages) {
+                if (message.getId() > afterId && page.size() < limit) {
+                    page.add(message);
+                }
+            }
+            pageSizes.add(page.size());
+            if (pageSizes.size() == cancelAfterPages) {
+                exporter.cancel();
+            }
+            return page;
+        }
+    }
+
+    private static ChatExporter exporterFor(MemorySource source) {
+        ChatExporter exporter = new ChatExporter(source, Runnable::run, Runnable::run, TimeZone.getTimeZone("UTC"));
+        source.exporter = exporter;
+        return exporter;
+    }
+
+    @Test
+    public void readsPageByPage() throws Exception {
+        MemorySource source = new MemorySource();
+        for (int i = 1; i <= 450; i++) {
+            source.add(i, "消息" + i, i % 2 == 0 ? Message.TYPE_AI : Message.TYPE_USER, 0);
+        }
+        List<Integer> progress = new ArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        int exported = exporterFor(source).export("t1", ChatExporter.Format.MARKDOWN, out,
+                (done, total) -> progress.add(done));
+
+        assertEquals(450, exported);
+        // 每次最多读取一页
+        assertEquals(3, source.pageSizes.size());
+        assertEquals(ChatExporter.PAGE_SIZE, (int) source.pageSizes.get(0));
+        assertEquals(Integer.valueOf(450), progress.get(progress.size() - 1));
+        String markdown = out.toString("UTF-8");
+        assertTrue(markdown.indexOf("消息1\n") < markdown.indexOf("消息450\n"));
+    }
+
+    @Test
+    public void writesMarkdownGroupedByDay() throws Exception {
+        MemorySource source = new MemorySource();
+        source.add(1, "7乘8等于多少", Message.TYPE_USER, 9 * 60 * 60 * 1000L);
+        source.add(2, "想一想", Message.TYPE_AI_THINK, 9 * 60 * 60 * 1000L);
+        source.add(3, "等于56", Message.TYPE_AI, 9 * 60 * 60 * 1000L + 60 * 1000L);
+        source.add(4, "明天见", Message.TYPE_USER, DAY);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        exporterFor(source).export("t1", ChatExporter.Format.MARKDOWN, out, (done, total) -> {});
+
+        String markdown = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        String body = markdown.substring(markdown.indexOf("\n## "));
+        assertEquals("\n## 1970-01-01\n"
+                + "\n**孩子** 09:00\n\n7乘8等于多少\n"
+                + "\n**AI** 09:01\n\n等于56\n"
+                + "\n## 1970-01-02\n"
+                + "\n**孩子** 00:00\n\n明天见\n", body);
+        // 思考过程不导出
+        assertFalse(markdown.contains("想一想"));
+    }
+
+    @Test
+    public void writesOneJsonObjectPerLine() throws Exception {
+        MemorySource source = new MemorySource();
+        source.add(1, "第一行\n第二行", Message.TYPE_USER, 1000);
+        source.add(2, "好的", Message.TYPE_AI, 2000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        exporterFor(source).export("t1", ChatExporter.Format.JSON_LINES, out, (done, total) -> {});
+
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        JSONObject first = new JSONObject(lines[0]);
+        assertEquals("user", first.getString("role"));
+        assertEquals("第一行\n第二行", first.getString("content"));
+        assertEquals(1000, first.getLong("time"));
+        assertEquals("assistant", new JSONObject(lines[1]).getString("role"));
+    }
+
+    @Test
+    public void stopsAfterCancel() throws Exception {
+        MemorySource source = new MemorySource();
+        for (int i = 1; i <= 1000; i++) {
+            source.add(i, "消息" + i, Message.TYPE_USER, 0);
+        }
+        source.cancelAfterPages = 2;
+        boolean[] cancelled = new boolean[1];
+        int[] exported = new int[1];
+
+        exporterFor(source).start("t1", ChatExporter.Format.MARKDOWN, new ByteArrayOutputStream(),
+                new ChatExporter.Listener() {
+                    @Override
+                    public void onProgress(int done, int total) {}
+
+                    @Override
+                    public void onFinished(int count, boolean wasCancelled) {
+                        exported[0] = count;
+                        cancelled[0] = wasCancelled;
+                    }
+
+                    @Override
+                    public void onFailed(Exception e) {
+                        fail(e.getMessage());
+                    }
+                });
+
+        assertTrue(cancelled[0]);
+        assertEquals(2 * ChatExporter.PAGE_SIZE, exported[0]);
+        assertEquals(2, source.pageSizes.size());
+    }
+
+    @Test
+    public void reportsDatabaseErrorsAsFailures() {
+        MemorySource source = new MemorySource() {
+            @Override
+            public List<Message> loadPage(String threadId, long afterId, int limit) {
+                throw new IllegalStateException("database is locked");
+            }
+        };
+        Exception[] failure = new Exception[1];
+        boolean[] closed = new boolean[1];
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+
+        exporterFor(source).start("t1", ChatExporter.Format.MARKDOWN, out, new ChatExporter.Listener() {
+            @Override
+            public void onProgress(int done, int total) {}
+
+            @Override
+            public void onFinished(int count, boolean wasCancelled) {
+                fail("Export should fail");
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+                failure[0] = e;
+            }
+        });
+
+        assertTrue(failure[0] instanceof IllegalStateException);
+        assertTrue(closed[0]);
+    }
+}
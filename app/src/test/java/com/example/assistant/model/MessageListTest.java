@@ -0,0 +1,95 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 持久化消息列表测试：更新后旧列表保持不变，大量随机操作后与普通列表的结果一致
+ */
+public class MessageListTest {
+
+    private static List<Message> createMessages(int count) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            messages.add(new Message("m" + i, Message.TYPE_AI));
+        }
+        return messages;
+    }
+
+    @Test
+    public void keepsMessagesInIdOrder() {
+        List<Message> messages = createMessages(100);
+        List<Message> shuffled = new ArrayList<>(messages);
+        Collections.shuffle(shuffled, new Random(1));
+
+        MessageList list = MessageList.of(shuffled);
+        assertEquals(messages, list);
+        assertEquals(messages.get(0), list.first());
+        assertEquals(messages.get(99), list.last());
+        assertEquals(42, list.indexOfId(messages.get(42).getId()));
+        assertSame(messages.get(42), list.findById(messages.get(42).getId()));
+        assertEquals(-1, list.indexOfId(-1));
+    }
+
+    @Test
+    public void updatesLeaveOldVersionUnchanged() {
+        List<Message> messages = createMessages(10);
+        MessageList before = MessageList.of(messages);
+
+        Message updated = messages.get(3).copyWithContent("changed");
+        MessageList after = before.put(updated).removeById(messages.get(0).getId());
+
+        assertEquals(10, before.size());
+        assertEquals("m3", before.get(3).getContent());
+        assertEquals(9, after.size());
+        assertEquals("changed", after.get(2).getContent());
+        // 消息和结构都没有变化时返回原列表
+        assertSame(before, before.put(messages.get(5)));
+        assertSame(before, before.removeById(-1));
+    }
+
+    @Test
+    public void matchesArrayListUnderRandomOperations() {
+        Random random = new Random(7);
+        List<Message> expected = new ArrayList<>();
+        MessageList list = MessageList.EMPTY;
+
+        for (int i = 0; i < 5000; i++) {
+            int op = random.nextInt(10);
+            if (op < 5 || expected.isEmpty()) {
+                Message message = new Message("a" + i, Message.TYPE_AI);
+                expected.add(message);
+                list = list.put(message);
+            } else if (op < 8) {
+                int index = random.nextInt(expected.size());
+                Message message = expected.get(index).copyWithContent("u" + i);
+                expected.set(index, message);
+                list = list.put(message);
+            } else if (op < 9) {
+                Message removed = expected.remove(random.nextInt(expected.size()));
+                list = list.removeById(removed.getId());
+            } else {
+                int count = random.nextInt(Math.min(5, expected.size()) + 1);
+                expected.subList(0, count).clear();
+                list = list.dropFirst(count);
+            }
+        }
+
+        assertEquals(expected.size(), list.size());
+        assertEquals(expected, list);
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i), list.get(i));
+            assertEquals(i, list.indexOfId(expected.get(i).getId()));
+        }
+    }
+}
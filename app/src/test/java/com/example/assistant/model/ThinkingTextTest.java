@@ -0,0 +1,68 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 思考过程的预览和压缩测试
+ */
+public class ThinkingTextTest {
+
+    private static String longThinking() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            text.append("先看明天是星期几，再查课程表里第").append(i).append("节课。\n");
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void previewTruncatesAndJoinsLines() {
+        assertEquals("第一步 第二步", ThinkingText.preview("第一步\n第二步"));
+
+        String preview = ThinkingText.preview(longThinking());
+        assertTrue(preview.endsWith("…"));
+        assertTrue(preview.length() <= ThinkingText.PREVIEW_LENGTH + 1);
+        assertFalse(preview.contains("\n"));
+    }
+
+    @Test
+    public void previewDoesNotSplitSurrogatePairs() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < ThinkingText.PREVIEW_LENGTH - 1; i++) {
+            text.append('a');
+        }
+        text.append("😀😀");
+        String preview = ThinkingText.preview(text.toString());
+        assertFalse(Character.isHighSurrogate(preview.charAt(preview.length() - 2)));
+    }
+
+    @Test
+    public void compressedContentRoundTripsAndIsSmaller() {
+        String thinking = longThinking();
+        byte[] compressed = ThinkingText.compress(thinking);
+        assertEquals(thinking, ThinkingText.decompress(compressed));
+        assertTrue(compressed.length * 4 < thinking.length() * 2);
+    }
+
+    @Test
+    public void compactedMessageKeepsPreviewAndFullContent() {
+        String thinking = longThinking();
+        Message message = new Message(thinking, Message.TYPE_AI_THINK);
+        Message compacted = message.copyCompacted();
+
+        assertTrue(compacted.isCompacted());
+        assertEquals(message.getId(), compacted.getId());
+        assertEquals(ThinkingText.preview(thinking), compacted.getContent());
+        assertEquals(thinking, compacted.getFullContent());
+        // 已压缩或短内容不再重复压缩
+        assertSame(compacted, compacted.copyCompacted());
+        Message shortMessage = new Message("很短", Message.TYPE_AI_THINK);
+        assertSame(shortMessage, shortMessage.copyCompacted());
+    }
+}
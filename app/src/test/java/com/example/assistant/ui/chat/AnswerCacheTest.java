@@ -0,0 +1,139 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import com.example.assistant.model.CachedAnswer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * 回答缓存的LRU淘汰、过期和持久化，以及缓存策略对问题的分类
+ */
+public class AnswerCacheTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    // 记录持久化操作的内存存储
+    private static class MemoryStore implements AnswerCache.Store {
+        final Map<String, CachedAnswer> saved = new LinkedHashMap<>();
+
+        @Override
+        public void save(CachedAnswer answer) {
+            saved.put(answer.getKey(), answer);
+        }
+
+        @Override
+        public void delete(String key) {
+            saved.remove(key);
+        }
+    }
+
+    private static AnswerCachePolicy.Rule rule(String question) {
+        return AnswerCachePolicy.forQuestion(question, null, 0, UTC);
+    }
+
+    @Test
+    public void normalizesQuestionsIntoTheSameKey() {
+        assertEquals(rule("How do you spell  Elephant?").key, rule("how do you spell elephant").key);
+        assertEquals(rule("７乘８等于多少？").key, rule("7乘8等于多少").key);
+        assertNotEquals(rule("7乘8等于多少").key, rule("7乘9等于多少").key);
+    }
+
+    @Test
+    public void classifiesQuestions() {
+        // 会触发操作的请求不缓存
+        assertNull(rule("提醒我明天带水彩笔"));
+        assertNull(rule("Remind me to read"));
+
+        AnswerCachePolicy.Rule spelling = rule("apple怎么拼");
+        assertEquals(AnswerCachePolicy.GENERAL_REFRESH_AFTER_MS, spelling.refreshAfterMs);
+
+        // 时间相关的问题当天有效，每次命中都在后台刷新
+        AnswerCachePolicy.Rule homework = AnswerCachePolicy.forQuestion("今天有什么作业", null, 0, UTC);
+        assertEquals(AnswerCachePolicy.TIME_SENSITIVE_REFRESH_AFTER_MS, homework.refreshAfterMs);
+        assertNotEquals(homework.key, AnswerCachePolicy.forQuestion("今天有什么作业", null, DAY, UTC).key);
+
+        // 追问的缓存键带上前一个问题，没有上下文时不缓存
+        assertNull(AnswerCachePolicy.forQuestion("那英语呢", null, 0, UTC));
+        assertNotEquals(AnswerCachePolicy.forQuestion("那英语呢", "语文课本在哪", 0, UTC).key,
+                AnswerCachePolicy.forQuestion("那英语呢", "数学课本在哪", 0, UTC).key);
+        // 独立的问题与上下文无关
+        assertEquals(AnswerCachePolicy.forQuestion("apple怎么拼", "你好", 0, UTC).key, spelling.key);
+
+        assertFalse(AnswerCachePolicy.isCacheableAnswer("好的", true));
+        assertFalse(AnswerCachePolicy.isCacheableAnswer("  ", false));
+        assertTrue(AnswerCachePolicy.isCacheableAnswer("a-p-p-l-e", false));
+    }
+
+    @Test
+    public void servesFreshAndStaleHitsUntilExpired() {
+        MemoryStore store = new MemoryStore();
+        AnswerCache cache = new AnswerCache(store);
+        AnswerCachePolicy.Rule spelling = rule("apple怎么拼");
+        cache.put(spelling, "a-p-p-l-e", 1000);
+
+        CachedAnswer fresh = cache.get(spelling.key, 2000);
+        assertEquals("a-p-p-l-e", fresh.getAnswer());
+        assertFalse(fresh.isStale(2000));
+        assertEquals(2000, store.saved.get(spelling.key).getLastUsedTime());
+
+        assertTrue(cache.get(spelling.key, 1000 + DAY).isStale(1000 + DAY));
+
+        assertNull(cache.get(spelling.key, 1000 + AnswerCachePolicy.GENERAL_EXPIRE_AFTER_MS));
+        assertEquals(0, cache.size());
+        assertTrue(store.saved.isEmpty());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        MemoryStore store = new MemoryStore();
+        AnswerCache cache = new AnswerCache(store, 2);
+        cache.put(rule("a怎么拼"), "a", 0);
+        cache.put(rule("b怎么拼"), "b", 1);
+        // 访问a后b成为最久未使用
+        cache.get(rule("a怎么拼").key, 2);
+        cache.put(rule("c怎么拼"), "c", 3);
+
+        assertNull(cache.get(rule("b怎么拼").key, 4));
+        assertNotNull(cache.get(rule("a怎么拼").key, 4));
+        assertEquals(2, store.saved.size());
+        assertFalse(store.saved.containsKey(rule("b怎么拼").key));
+    }
+
+    @Test
+    public void restoresPersistedAnswers() {
+        MemoryStore store = new MemoryStore();
+        AnswerCache cache = new AnswerCache(store, 2);
+        // 恢复完成前已经写入的回答
+        cache.put(rule("c怎么拼"), "new c", 10);
+
+        List<CachedAnswer> persisted = new ArrayList<>(Arrays.asList(
+                new CachedAnswer(rule("c怎么拼").key, "old c", 0, DAY, 2 * DAY, 5),
+                new CachedAnswer(rule("b怎么拼").key, "b", 0, DAY, 2 * DAY, 3),
+                new CachedAnswer(rule("a怎么拼").key, "a", 0, DAY, 2 * DAY, 1),
+                new CachedAnswer(rule("x怎么拼").key, "x", 0, 1, 5, 9)));
+        for (CachedAnswer answer : persisted) {
+            store.save(answer);
+        }
+        cache.restore(persisted, 20);
+
+        // 已过期的x被删除，容量为2时保留最近使用的b和新写入的c
+        assertEquals(2, cache.size());
+        assertEquals("new c", cache.get(rule("c怎么拼").key, 20).getAnswer());
+        assertEquals("b", cache.get(rule("b怎么拼").key, 20).getAnswer());
+        assertNull(cache.get(rule("a怎么拼").key, 20));
+        assertFalse(store.saved.containsKey(rule("x怎么拼").key));
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import com.example.assistant.model.ConfirmPayload;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okio.ByteString;
+
+import static org.junit.Assert.*;
+
+/**
+ * 二进制TLV帧编解码测试，以及与本地FakeAssistantServer的协议协商
+ */
+public class BinaryFrameCodecTest {
+
+    private static ChatFrame roundTrip(ChatFrame frame) {
+        return BinaryFrameCodec.decode(BinaryFrameCodec.encode(frame));
+    }
+
+    @Test
+    public void roundTripsAllFrameTypes() throws Exception {
+        ChatFrame chunk = roundTrip(ChatFrame.chunk("你好，world", true, "r1", 300));
+        assertEquals(ChatFrame.TYPE_CHUNK, chunk.getType());
+        assertEquals("你好，world", chunk.getContent());
+        assertTrue(chunk.isThinking());
+        assertEquals("r1", chunk.getResponseId());
+        assertEquals(300, chunk.getSeq());
+
+        ChatFrame start = roundTrip(ChatFrame.start("r2"));
+        assertEquals(ChatFrame.TYPE_START, start.getType());
+        assertEquals("r2", start.getResponseId());
+
+        ChatFrame end = roundTrip(ChatFrame.end("r2", ChatFrame.NO_SEQ));
+        assertEquals(ChatFrame.TYPE_END, end.getType());
+        assertEquals(ChatFrame.NO_SEQ, end.getSeq());
+
+        ChatFrame ack = roundTrip(ChatFrame.ack(1_700_000_000_000_123L));
+        assertEquals(ChatFrame.TYPE_ACK, ack.getType());
+        assertEquals(1_700_000_000_000_123L, ack.getClientId());
+
+        ChatFrame confirm = roundTrip(ChatFrame.confirm(
+                ConfirmPayload.parse("{\"conversation_id\":\"c1\",\"confirm_list\":[\"数学第3题\"]}")));
+        assertEquals(ChatFrame.TYPE_CONFIRM, confirm.getType());
+        assertEquals("c1", confirm.getConversationId());
+        assertEquals(Collections.singletonList("数学第3题"), confirm.getConfirmPayload().getConfirmList());
+
+        ChatFrame status = roundTrip(ChatFrame.status("Searching..."));
+        assertEquals(ChatFrame.TYPE_STATUS, status.getType());
+        assertEquals("Searching...", status.getContent());
+    }
+
+    @Test
+    public void roundTripsThreadId() {
+        ChatFrame chunk = roundTrip(ChatFrame.chunk("作业", false, "r1", 3).withThreadId("homework"));
+        assertEquals("homework", chunk.getThreadId());
+        assertEquals("作业", chunk.getContent());
+
+        // 旧版本服务器的帧不带对话ID
+        assertNull(roundTrip(ChatFrame.chunk("作业", false, "r1", 3)).getThreadId());
+    }
+
+    @Test
+    public void skipsUnknownFields() {
+        byte[] encoded = BinaryFrameCodec.encode(ChatFrame.chunk("abc", false, null, 7));
+        byte[] extended = Arrays.copyOf(encoded, encoded.length + 4);
+        // 追加一个未知标签的3字节字段
+        extended[encoded.length] = 0x40;
+        extended[encoded.length + 1] = 2;
+        extended[encoded.length + 2] = 9;
+        extended[encoded.length + 3] = 9;
+
+        ChatFrame frame = BinaryFrameCodec.decode(extended);
+        assertEquals("abc", frame.getContent());
+        assertEquals(7, frame.getSeq());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedFrame() {
+        byte[] encoded = BinaryFrameCodec.encode(ChatFrame.chunk("truncated", false, null, 1));
+        BinaryFrameCodec.decode(Arrays.copyOf(encoded, encoded.length - 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeFieldLength() {
+        // 长度为64位全1的varint，按long读出来是-1
+        byte[] frame = {BinaryFrameCodec.TAG_TYPE, 1, ChatFrame.TYPE_CHUNK, BinaryFrameCodec.TAG_CONTENT,
+                (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+                (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x01, 'a'};
+        BinaryFrameCodec.decode(frame);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNumberOverrunningItsField() {
+        // 长度为0的seq字段不能读到后面的字段
+        byte[] frame = {BinaryFrameCodec.TAG_TYPE, 1, ChatFrame.TYPE_END, BinaryFrameCodec.TAG_SEQ, 0,
+                BinaryFrameCodec.TAG_RESPONSE_ID, 1, 'r'};
+        BinaryFrameCodec.decode(frame);
+    }
+
+    @Test
+    public void rejectsFramesWithoutRequiredFields() {
+        byte[][] frames = {
+                {BinaryFrameCodec.TAG_TYPE, 1, ChatFrame.TYPE_TEXT},
+                {BinaryFrameCodec.TAG_TYPE, 1, ChatFrame.TYPE_STATUS},
+                {BinaryFrameCodec.TAG_TYPE, 1, ChatFrame.TYPE_ACK},
+                {BinaryFrameCodec.TAG_TYPE, 1, ChatFrame.TYPE_CONFIRM},
+                {BinaryFrameCodec.TAG_TYPE, 0},
+                {},
+        };
+        for (byte[] frame : frames) {
+            try {
+                BinaryFrameCodec.decode(frame);
+                fail("Accepted " + Arrays.toString(frame));
+            } catch (IllegalArgumentException expected) {
+                // 预期的格式错误
+            }
+        }
+    }
+
+    // 格式错误的帧只能抛出IllegalArgumentException，ChatFrameDecoder只捕获这一种异常
+    private static void decodeUntrusted(byte[] data) {
+        try {
+            BinaryFrameCodec.decode(data);
+        } catch (IllegalArgumentException expected) {
+            // 预期的格式错误
+        } catch (RuntimeException e) {
+            throw new AssertionError("Unexpected exception for " + Arrays.toString(data), e);
+        }
+    }
+
+    @Test
+    public void fuzzRandomBytes() {
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            byte[] data = new byte[random.nextInt(40)];
+            random.nextBytes(data);
+            decodeUntrusted(data);
+        }
+    }
+
+    @Test
+    public void fuzzTruncatedAndMutatedFrames() throws Exception {
+        List<ChatFrame> frames = Arrays.asList(
+                ChatFrame.chunk("你好，world", true, "r1", 300),
+                ChatFrame.start("r2").withThreadId("t1"),
+                ChatFrame.end("r2", 301),
+                ChatFrame.ack(1_700_000_000_000_123L),
+                ChatFrame.status("Thinking..."),
+                ChatFrame.text("plain"),
+                ChatFrame.confirm(ConfirmPayload.parse("{\"conversation_id\":\"c1\",\"confirm_list\":[\"数学第3题\"]}")));
+        Random random = new Random(7);
+        for (ChatFrame frame : frames) {
+            byte[] encoded = BinaryFrameCodec.encode(frame);
+            for (int length = 0; length < encoded.length; length++) {
+                decodeUntrusted(Arrays.copyOf(encoded, length));
+            }
+            for (int i = 0; i < 5000; i++) {
+                byte[] mutated = encoded.clone();
+                int flips = 1 + random.nextInt(3);
+                for (int j = 0; j < flips; j++) {
+                    mutated[random.nextInt(mutated.length)] = (byte) random.nextInt(256);
+                }
+                decodeUntrusted(mutated);
+            }
+        }
+    }
+
+    @Test
+    public void chunkEnvelopeIsSmallerThanJson() {
+        String token = "课";
+        String json = "{\"type\":\"chunk\",\"response_id\":\"response-1\",\"seq\":42,\"content\":\"" + token + "\",\"is_thinking\":false}";
+        byte[] binary = BinaryFrameCodec.encode(ChatFrame.chunk(token, false, null, 42));
+
+        int payload = token.getBytes(StandardCharsets.UTF_8).length;
+        // 类型、seq和内容三个字段的开销共8字节
+        assertEquals(payload + 8, binary.length);
+        assertTrue(binary.length * 5 < json.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    // 收集回答内容的测试客户端，同时处理文本帧和二进制帧
+    private static class CollectingClient extends WebSocketListener {
+        final StringBuilder answer = new StringBuilder();
+        final CountDownLatch ended = new CountDownLatch(1);
+        volatile String protocol;
+        volatile int binaryFrames = 0;
+
+        @Override
+        public void onOpen(WebSocket webSocket, Response response) {
+            protocol = response.header("Sec-WebSocket-Protocol");
+        }
+
+        @Override
+        public void onMessage(WebSocket webSocket, String text) {
+            apply(ChatFrameDecoder.decode(text));
+        }
+
+        @Override
+        public void onMessage(WebSocket webSocket, ByteString bytes) {
+            binaryFrames++;
+            apply(ChatFrameDecoder.decode(bytes));
+        }
+
+        private synchronized void apply(ChatFrame frame) {
+            if (frame.getType() == ChatFrame.TYPE_CHUNK) {
+                answer.append(frame.getContent());
+            } else if (frame.getType() == ChatFrame.TYPE_END) {
+                ended.countDown();
+            }
+        }
+    }
+
+    private static final List<String> ANSWER = Arrays.asList("明天", "上午", "有", "英语", "课。");
+
+    // 请求一次回答，返回服务器下行的字节数
+    private static long streamAnswer(boolean serverSupportsBinary, CollectingClient collector) throws Exception {
+        FakeAssistantServer server = new FakeAssistantServer(ANSWER);
+        server.setBinaryFramesSupported(serverSupportsBinary);
+        server.start();
+        OkHttpClient client = new OkHttpClient.Builder().build();
+        try {
+            Request request = new Request.Builder()
+                    .url(server.url())
+                    .header("Sec-WebSocket-Protocol", BinaryFrameCodec.PROTOCOL_TLV + ", " + BinaryFrameCodec.PROTOCOL_JSON)
+                    .build();
+            WebSocket webSocket = client.newWebSocket(request, collector);
+            webSocket.send("{\"type\":\"message\",\"client_id\":1,\"content\":\"明天有什么课\"}");
+            assertTrue(collector.ended.await(5, TimeUnit.SECONDS));
+            assertEquals(server.getFullAnswer(), collector.answer.toString());
+            webSocket.close(1000, null);
+            return server.getBytesSent();
+        } finally {
+            server.shutdown();
+            client.dispatcher().executorService().shutdown();
+        }
+    }
+
+    @Test
+    public void negotiatesBinaryFramesAndFallsBackToJson() throws Exception {
+        CollectingClient binaryClient = new CollectingClient();
+        long binaryBytes = streamAnswer(true, binaryClient);
+        assertEquals(BinaryFrameCodec.PROTOCOL_TLV, binaryClient.protocol);
+        assertTrue(binaryClient.binaryFrames > 0);
+
+        CollectingClient jsonClient = new CollectingClient();
+        long jsonBytes = streamAnswer(false, jsonClient);
+        assertNull(jsonClient.protocol);
+        assertEquals(0, jsonClient.binaryFrames);
+
+        assertTrue("binary=" + binaryBytes + " json=" + jsonBytes, binaryBytes * 3 < jsonBytes);
+    }
+}
@@ -0,0 +1,555 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+
+import com.example.assistant.model.CachedAnswer;
+import com.example.assistant.model.ImageAttachment;
+import com.example.assistant.model.Message;
+import com.example.assistant.model.MessageList;
+import com.example.assistant.model.OutboundMessage;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * ChatProtocol的单元测试：用内存中的连接和虚拟时钟驱动ChatSession使用的帧处理逻辑
+ */
+public class ChatProtocolTest {
+
+    @Rule
+    public InstantTaskExecutorRule instantTaskExecutorRule = new InstantTaskExecutorRule();
+
+    // 虚拟时钟调度器，按到期时间执行任务
+    static class FakeScheduler implements StreamingAccumulator.FrameScheduler, ReconnectController.Scheduler {
+        long now = 0;
+        final Map<Runnable, Long> tasks = new LinkedHashMap<>();
+
+        @Override
+        public long now() {
+            return now;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMs) {
+            tasks.put(task, now + delayMs);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            tasks.remove(task);
+        }
+
+        // 前进指定时间，执行期间到期的任务
+        void advance(long ms) {
+            long target = now + ms;
+            while (true) {
+                Runnable next = null;
+                long due = Long.MAX_VALUE;
+                for (Map.Entry<Runnable, Long> entry : tasks.entrySet()) {
+                    if (entry.getValue() <= target && entry.getValue() < due) {
+                        next = entry.getKey();
+                        due = entry.getValue();
+                    }
+                }
+                if (next == null) {
+                    break;
+                }
+                tasks.remove(next);
+                now = due;
+                next.run();
+            }
+            now = target;
+        }
+    }
+
+    // 记录客户端发出的帧，可以模拟连接不可写
+    static class FakeTransport implements OutboundQueue.Transport {
+        final List<JSONObject> sent = new ArrayList<>();
+        boolean writable = true;
+
+        @Override
+        public boolean send(String payload) {
+            if (!writable) {
+                return false;
+            }
+            try {
+                sent.add(new JSONObject(payload));
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+            return true;
+        }
+
+        List<JSONObject> ofType(String type) {
+            List<JSONObject> frames = new ArrayList<>();
+            for (JSONObject frame : sent) {
+                if (type.equals(frame.optString("type"))) {
+                    frames.add(frame);
+                }
+            }
+            return frames;
+        }
+    }
+
+    // 内存中的本地存储，记录写入的消息
+    static class MemoryStore implements ChatProtocol.Store, OutboundQueue.Store, AnswerCache.Store {
+        final List<Message> savedMessages = new ArrayList<>();
+        final Map<Long, OutboundMessage> outbound = new LinkedHashMap<>();
+        // 存储线程上等待执行的任务
+        final List<Runnable> background = new ArrayList<>();
+
+        @Override
+        public void saveMessages(String threadId, List<Message> messages) {
+            savedMessages.addAll(messages);
+        }
+
+        @Override
+        public void updateDeliveryStatus(long messageId, int deliveryStatus) {
+        }
+
+        @Override
+        public void updateConfirmStatus(long messageId, int confirmStatus) {
+        }
+
+        // 返回最后一次保存的内容
+        @Override
+        public void loadMessage(String threadId, long messageId, Consumer<Message> callback) {
+            Message stored = null;
+            for (Message message : savedMessages) {
+                if (message.getId() == messageId) {
+                    stored = message;
+                }
+            }
+            callback.accept(stored);
+        }
+
+        @Override
+        public void compactMessage(Message message, Consumer<Message> callback) {
+            background.add(() -> callback.accept(message.copyCompacted()));
+        }
+
+        void runBackground() {
+            List<Runnable> tasks = new ArrayList<>(background);
+            background.clear();
+            for (Runnable task : tasks) {
+                task.run();
+            }
+        }
+
+        @Override
+        public void save(OutboundMessage message) {
+            outbound.put(message.getClientId(), message);
+        }
+
+        @Override
+        public void delete(long clientId) {
+            outbound.remove(clientId);
+        }
+
+        @Override
+        public void save(CachedAnswer answer) {
+        }
+
+        @Override
+        public void delete(String key) {
+        }
+
+        int savedCount(long messageId) {
+            int count = 0;
+            for (Message message : savedMessages) {
+                if (message.getId() == messageId) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    private FakeScheduler scheduler;
+    private MemoryStore store;
+    private ChatProtocol protocol;
+    private ChatThread thread;
+
+    @Before
+    public void setUp() {
+        scheduler = new FakeScheduler();
+        store = new MemoryStore();
+        protocol = new ChatProtocol(scheduler, store, store, new AnswerCache(store),
+                new ReconnectController(new ReconnectController.Config(), scheduler, () -> { }));
+        protocol.restoreOutbound(new ArrayList<>());
+        thread = protocol.getOrCreateThread(Message.DEFAULT_THREAD_ID);
+    }
+
+    private void apply(ChatFrame frame) {
+        protocol.applyFrame(frame, scheduler.now());
+    }
+
+    private static List<Message> ofType(MessageList messages, int type) {
+        List<Message> result = new ArrayList<>();
+        for (Iterator<Message> it = messages.iterator(); it.hasNext(); ) {
+            Message message = it.next();
+            if (message.getType() == type) {
+                result.add(message);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void appliesStreamedAnswerAndPersistsItOnce() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        protocol.onConnected(transport, new ServerFeatures(false, true, false));
+        protocol.sendMessage(Message.DEFAULT_THREAD_ID, "今天有什么作业");
+
+        JSONObject sent = transport.ofType("message").get(0);
+        long clientId = sent.getLong("client_id");
+        assertEquals("今天有什么作业", sent.getString("content"));
+        assertEquals(Message.DELIVERY_SENT, thread.findMessage(clientId).getDeliveryStatus());
+
+        apply(ChatFrame.ack(clientId));
+        apply(ChatFrame.start("r1"));
+        assertTrue(thread.isStreaming());
+        apply(ChatFrame.chunk("想一想", true, "r1", 1));
+        apply(ChatFrame.chunk("数学", false, "r1", 2));
+        apply(ChatFrame.chunk("练习册", false, "r1", 3));
+        scheduler.advance(StreamingAccumulator.DEFAULT_FLUSH_INTERVAL_MS);
+        Message answer = ofType(thread.getMessages(), Message.TYPE_AI).get(0);
+        assertEquals("数学练习册", answer.getContent());
+        // 流式过程中只写入用户消息
+        assertEquals(0, store.savedCount(answer.getId()));
+
+        apply(ChatFrame.end("r1", 4));
+        assertFalse(thread.isStreaming());
+        assertEquals(Message.DELIVERY_DELIVERED, thread.findMessage(clientId).getDeliveryStatus());
+        assertEquals("想一想", ofType(thread.getMessages(), Message.TYPE_AI_THINK).get(0).getFullContent());
+        assertEquals(1, store.savedCount(answer.getId()));
+        assertTrue(store.outbound.isEmpty());
+    }
+
+    @Test
+    public void stopDiscardsLateFramesUntilServerEndsTheAnswer() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        protocol.onConnected(transport, new ServerFeatures(false, true, false));
+        protocol.sendMessage(Message.DEFAULT_THREAD_ID, "讲一个很长的故事");
+        apply(ChatFrame.start("r1"));
+        apply(ChatFrame.chunk("从前", false, "r1", 1));
+
+        protocol.stopGeneration(Message.DEFAULT_THREAD_ID);
+        assertFalse(thread.isStreaming());
+        JSONObject cancel = transport.ofType("cancel").get(0);
+        assertEquals("r1", cancel.getString("response_id"));
+
+        // 服务器结束被停止的回答之前，追问只排队不发送
+        protocol.sendMessage(Message.DEFAULT_THREAD_ID, "换一个短的");
+        assertEquals(1, transport.ofType("message").size());
+        Message queued = thread.getMessages().last();
+        assertEquals(Message.DELIVERY_QUEUED, queued.getDeliveryStatus());
+
+        // 停止之后到达的chunk（二进制帧没有response_id）和确认帧都被丢弃
+        int size = thread.getMessages().size();
+        apply(ChatFrame.chunk("有座山", false, null, 2));
+        apply(ChatFrame.confirm(com.example.assistant.model.ConfirmPayload.parse("{\"conversation_id\":\"c1\"}")));
+        scheduler.advance(StreamingAccumulator.DEFAULT_FLUSH_INTERVAL_MS);
+        assertEquals(size, thread.getMessages().size());
+        assertEquals("从前", ofType(thread.getMessages(), Message.TYPE_AI).get(0).getContent());
+        assertEquals(1, transport.ofType("message").size());
+
+        // 服务器的end帧到达后才发送排队的问题
+        apply(ChatFrame.end("r1", 3));
+        assertEquals(2, transport.ofType("message").size());
+        JSONObject followUp = transport.ofType("message").get(1);
+        assertEquals("换一个短的", followUp.getString("content"));
+        assertNull(thread.findMessage(queued.getId()));
+        assertEquals(Message.DELIVERY_SENT, thread.findMessage(followUp.getLong("client_id")).getDeliveryStatus());
+
+        // 下一个回答正常显示
+        apply(ChatFrame.start("r2"));
+        apply(ChatFrame.chunk("好的", false, "r2", 1));
+        apply(ChatFrame.end("r2", 2));
+        List<Message> answers = ofType(thread.getMessages(), Message.TYPE_AI);
+        assertEquals(2, answers.size());
+        assertEquals("好的", answers.get(1).getContent());
+    }
+
+    @Test
+    public void queuedFollowUpStaysBelowTheStreamingAnswer() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        protocol.onConnected(transport, new ServerFeatures(false, true, false));
+        protocol.sendMessage(Message.DEFAULT_THREAD_ID, "第一题");
+        apply(ChatFrame.start("r1"));
+        apply(ChatFrame.chunk("想一想", true, "r1", 1));
+        // 回答消息还没有创建时追问
+        protocol.sendMessage(Message.DEFAULT_THREAD_ID, "第二题");
+        apply(ChatFrame.chunk("答案", false, "r1", 2));
+        apply(ChatFrame.confirm(com.example.assistant.model.ConfirmPayload.parse("{\"conversation_id\":\"c1\"}")));
+        scheduler.advance(StreamingAccumulator.DEFAULT_FLUSH_INTERVAL_MS);
+
+        MessageList messages = thread.getMessages();
+        assertEquals(Message.TYPE_AI, messages.get(2).getType());
+        assertEquals(messages.get(2).getId(), (long) thread.streamingMessageIdLiveData.getValue());
+        assertEquals(Message.TYPE_CONFIRM, messages.get(3).getType());
+        assertEquals("第二题", messages.last().getContent());
+        assertEquals(Message.DELIVERY_QUEUED, messages.last().getDeliveryStatus());
+
+        // 发送时换成正常ID，仍然排在上一个回答之后，之后的回答排在它后面
+        apply(ChatFrame.end("r1", 3));
+        assertEquals(-1L, (long) thread.streamingMessageIdLiveData.getValue());
+        long followUpId = transport.ofType("message").get(1).getLong("client_id");
+        assertEquals(followUpId, thread.getMessages().last().getId());
+        apply(ChatFrame.start("r2"));
+        apply(ChatFrame.chunk("答案二", false, "r2", 1));
+        apply(ChatFrame.end("r2", 2));
+        messages = thread.getMessages();
+        assertEquals(followUpId, messages.get(messages.size() - 3).getId());
+        assertEquals("答案二", messages.last().getContent());
+    }
+
+    @Test
+    public void startFrameAcknowledgesQuestionWhenServerNeverAcks() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        protocol.onConnected(transport, ServerFeatures.NONE);
+        protocol.sendMessage(Message.DEFAULT_THREAD_ID, "第一题");
+        long first = transport.ofType("message").get(0).getLong("client_id");
+
+        // 回答开始之前断线，重连后重放
+        protocol.onDisconnected("(Disconnected)");
+        assertEquals(Message.DELIVERY_PENDING, thread.findMessage(first).getDeliveryStatus());
+        protocol.onConnected(transport, ServerFeatures.NONE);
+        assertEquals(2, transport.ofType("message").size());
+        assertEquals(1, store.outbound.size());
+
+        // 回答的start帧即为确认
+        apply(ChatFrame.start("r1"));
+        assertEquals(Message.DELIVERY_DELIVERED, thread.findMessage(first).getDeliveryStatus());
+        assertTrue(store.outbound.isEmpty());
+        apply(ChatFrame.chunk("答案", false, "r1", 1));
+        apply(ChatFrame.end("r1", 2));
+
+        // 已确认的问题重连后不再重放
+        protocol.onDisconnected("(Disconnected)");
+        protocol.onConnected(transport, ServerFeatures.NONE);
+        assertEquals(2, transport.ofType("message").size());
+        assertEquals(Message.DELIVERY_DELIVERED, thread.findMessage(first).getDeliveryStatus());
+    }
+
+    @Test
+    public void startFrameAcknowledgesQuestionOfItsOwnThread() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        protocol.onConnected(transport, new ServerFeatures(true, false, true));
+        ChatThread other = protocol.getOrCreateThread(protocol.createThread());
+        protocol.sendMessage(Message.DEFAULT_THREAD_ID, "第一题");
+        protocol.sendMessage(other.id, "第二题");
+        long first = transport.ofType("message").get(0).getLong("client_id");
+        long second = transport.ofType("message").get(1).getLong("client_id");
+
+        apply(ChatFrame.start("r2").withThreadId(other.id));
+        assertEquals(Message.DELIVERY_DELIVERED, other.findMessage(second).getDeliveryStatus());
+        assertEquals(Message.DELIVERY_SENT, thread.findMessage(first).getDeliveryStatus());
+        assertEquals(1, store.outbound.size());
+    }
+
+    @Test
+    public void withoutMultiplexingOnlyOneThreadWaitsForTheServer() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        protocol.onConnected(transport, new ServerFeatures(true, true, false));
+        assertFalse(protocol.getMultiplexingLiveData().getValue());
+        ChatThread other = protocol.getOrCreateThread(protocol.createThread());
+        protocol.sendMessage(Message.DEFAULT_THREAD_ID, "第一题");
+        protocol.sendMessage(other.id, "第二题");
+        // 服务器只能依次回答，另一个对话的问题等第一个回答结束后再发送
+        assertEquals(1, transport.ofType("message").size());
+        assertEquals(Message.DELIVERY_QUEUED, other.getMessages().last().getDeliveryStatus());
+
+        // 不带thread_id的回答属于提问的对话
+        apply(ChatFrame.start("r1"));
+        apply(ChatFrame.chunk("答案一", false, "r1", 1));
+        apply(ChatFrame.end("r1", 2));
+        assertEquals("答案一", ofType(thread.getMessages(), Message.TYPE_AI).get(0).getContent());
+        assertEquals(2, transport.ofType("message").size());
+        assertEquals(other.id, transport.ofType("message").get(1).getString("thread_id"));
+
+        apply(ChatFrame.start("r2"));
+        apply(ChatFrame.chunk("答案二", false, "r2", 1));
+        apply(ChatFrame.end("r2", 2));
+        assertEquals(1, ofType(thread.getMessages(), Message.TYPE_AI).size());
+        assertEquals("答案二", ofType(other.getMessages(), Message.TYPE_AI).get(0).getContent());
+    }
+
+    @Test
+    public void disconnectBeforeStartKeepsOtherThreadsQuestionQueued() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        ServerFeatures features = new ServerFeatures(true, true, false);
+        protocol.onConnected(transport, features);
+        ChatThread other = protocol.getOrCreateThread(protocol.createThread());
+        protocol.sendMessage(Message.DEFAULT_THREAD_ID, "第一题");
+        protocol.sendMessage(other.id, "第二题");
+
+        // 第一题发出后、start帧到达前断线，它会在重连后重发，另一个对话的问题继续排队
+        protocol.onDisconnected("(Disconnected)");
+        assertEquals(Message.DELIVERY_QUEUED, other.getMessages().last().getDeliveryStatus());
+        FakeTransport reconnected = new FakeTransport();
+        protocol.onConnected(reconnected, features);
+        assertEquals(1, reconnected.ofType("message").size());
+        JSONObject resent = reconnected.ofType("message").get(0);
+        assertEquals("第一题", resent.getString("content"));
+
+        // 重发的问题被确认后仍要等它的回答结束
+        apply(ChatFrame.ack(resent.getLong("client_id")));
+        assertEquals(1, reconnected.ofType("message").size());
+        apply(ChatFrame.start("r1"));
+        apply(ChatFrame.chunk("答案一", false, "r1", 1));
+        apply(ChatFrame.end("r1", 2));
+        assertEquals("答案一", ofType(thread.getMessages(), Message.TYPE_AI).get(0).getContent());
+        assertTrue(ofType(other.getMessages(), Message.TYPE_AI).isEmpty());
+        assertEquals(2, reconnected.ofType("message").size());
+        assertEquals(other.id, reconnected.ofType("message").get(1).getString("thread_id"));
+    }
+
+    @Test
+    public void thinkingIsCompactedOnTheStoreThread() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        protocol.onConnected(transport, new ServerFeatures(false, true, false));
+        protocol.sendMessage(Message.DEFAULT_THREAD_ID, "为什么天是蓝的");
+        StringBuilder thinking = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            thinking.append("先回忆光的散射，再比较不同波长。");
+        }
+        apply(ChatFrame.start("r1"));
+        apply(ChatFrame.chunk(thinking.toString(), true, "r1", 1));
+        apply(ChatFrame.chunk("因为瑞利散射", false, "r1", 2));
+        apply(ChatFrame.end("r1", 3));
+
+        // 结束时只保存完整内容，压缩交给存储线程
+        Message think = ofType(thread.getMessages(), Message.TYPE_AI_THINK).get(0);
+        assertFalse(think.isCompacted());
+        assertEquals(1, store.savedCount(think.getId()));
+        assertEquals(1, store.background.size());
+
+        store.runBackground();
+        Message compacted = thread.findMessage(think.getId());
+        assertTrue(compacted.isCompacted());
+        assertEquals(thinking.toString(), compacted.getFullContent());
+    }
+
+    @Test
+    public void compactionDoesNotOverwriteNewerVersion() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        protocol.onConnected(transport, new ServerFeatures(false, true, false));
+        protocol.sendMessage(Message.DEFAULT_THREAD_ID, "为什么天是蓝的");
+        StringBuilder thinking = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            thinking.append("先回忆光的散射，再比较不同波长。");
+        }
+        apply(ChatFrame.start("r1"));
+        apply(ChatFrame.chunk(thinking.toString(), true, "r1", 1));
+        apply(ChatFrame.end("r1", 2));
+        long thinkId = ofType(thread.getMessages(), Message.TYPE_AI_THINK).get(0).getId();
+
+        // 压缩完成前消息被替换，压缩结果不再覆盖
+        protocol.updateMessage(thread, thinkId, m -> m.copyWithContent("重新加载的内容"));
+        store.runBackground();
+        assertEquals("重新加载的内容", thread.findMessage(thinkId).getContent());
+    }
+
+    private static ImageAttachment attachment(String uploadUrl) {
+        return new ImageAttachment("/photos/1.jpg", "/photos/1_thumb.jpg", 800, 600, 1024, uploadUrl, false);
+    }
+
+    @Test
+    public void imageSentWhileAnsweringIsQueuedBelowTheAnswer() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        protocol.onConnected(transport, new ServerFeatures(false, true, false));
+        protocol.sendMessage(Message.DEFAULT_THREAD_ID, "第一题");
+        apply(ChatFrame.start("r1"));
+
+        // 回答还没有内容时拍照，图片排在回答之后，后面的问题排在图片之后
+        long imageId = protocol.appendImage(thread, "这道题");
+        protocol.sendMessage(Message.DEFAULT_THREAD_ID, "第三题");
+        assertEquals(Message.DELIVERY_QUEUED, thread.findMessage(imageId).getDeliveryStatus());
+        protocol.updateMessage(thread, imageId, m -> m.copyWithAttachment(attachment("/uploads/1")).copyWithUploadProgress(0));
+        protocol.persistMessages(thread, imageId);
+        assertEquals(0, store.savedCount(imageId));
+
+        // 回答结束时图片还在上传，图片和后面的问题都等待
+        apply(ChatFrame.chunk("答案一", false, "r1", 1));
+        apply(ChatFrame.end("r1", 2));
+        assertEquals(1, transport.ofType("message").size());
+        assertTrue(thread.indexOfMessage(ofType(thread.getMessages(), Message.TYPE_AI).get(0).getId())
+                < thread.indexOfMessage(imageId));
+
+        protocol.submitImage(thread, imageId, attachment("/uploads/1").asUploaded());
+        assertEquals(2, transport.ofType("message").size());
+        JSONObject image = transport.ofType("message").get(1);
+        assertEquals("/uploads/1", image.getString("image_url"));
+        long sentId = image.getLong("client_id");
+        assertNull(thread.findMessage(imageId));
+        assertEquals(Message.DELIVERY_SENT, thread.findMessage(sentId).getDeliveryStatus());
+        assertEquals(1, store.savedCount(sentId));
+
+        apply(ChatFrame.start("r2"));
+        apply(ChatFrame.end("r2", 1));
+        assertEquals(3, transport.ofType("message").size());
+        assertEquals("第三题", transport.ofType("message").get(2).getString("content"));
+    }
+
+    @Test
+    public void failedQueuedUploadDoesNotBlockLaterQuestions() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        protocol.onConnected(transport, new ServerFeatures(false, true, false));
+        protocol.sendMessage(Message.DEFAULT_THREAD_ID, "第一题");
+        apply(ChatFrame.start("r1"));
+        long imageId = protocol.appendImage(thread, "");
+        protocol.sendMessage(Message.DEFAULT_THREAD_ID, "第三题");
+
+        protocol.onImageUploadFailed(thread, imageId);
+        assertEquals(Message.UPLOAD_FAILED, thread.findMessage(imageId).getUploadProgress());
+        apply(ChatFrame.end("r1", 1));
+        assertEquals(2, transport.ofType("message").size());
+        assertEquals("第三题", transport.ofType("message").get(1).getString("content"));
+
+        // 重试成功后重新排队，等当前回答结束再发送
+        protocol.submitImage(thread, imageId, attachment("/uploads/1").asUploaded());
+        assertEquals(2, transport.ofType("message").size());
+        apply(ChatFrame.start("r2"));
+        apply(ChatFrame.end("r2", 1));
+        assertEquals(3, transport.ofType("message").size());
+        assertEquals("/uploads/1", transport.ofType("message").get(2).getString("image_url"));
+    }
+
+    @Test
+    public void uploadedImageOutsideMessageWindowIsSentFromStoredRow() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        protocol.onConnected(transport, new ServerFeatures(false, true, false));
+        long imageId = protocol.appendImage(thread, "这道题");
+        protocol.updateMessage(thread, imageId, m -> m.copyWithAttachment(attachment("/uploads/1")).copyWithUploadProgress(0));
+        protocol.persistMessages(thread, imageId);
+
+        // 上传期间有很多新消息，图片被移出内存窗口
+        for (int i = 0; i < MessageWindow.DEFAULT_CAPACITY; i++) {
+            protocol.answerLocally(Message.DEFAULT_THREAD_ID, "问题" + i, "回答" + i);
+        }
+        assertNull(thread.findMessage(imageId));
+
+        protocol.submitImage(thread, imageId, attachment("/uploads/1").asUploaded());
+        JSONObject image = transport.ofType("message").get(0);
+        assertEquals(imageId, image.getLong("client_id"));
+        assertEquals("这道题", image.getString("content"));
+        assertEquals("/uploads/1", image.getString("image_url"));
+        assertTrue(store.savedMessages.get(store.savedMessages.size() - 1).getAttachment().isUploaded());
+    }
+}
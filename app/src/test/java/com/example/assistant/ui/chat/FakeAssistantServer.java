@@ -0,0 +1,327 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import com.example.assistant.model.ConfirmPayload;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.HttpUrl;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.ByteString;
+
+/**
+ * 基于MockWebServer的本地助手服务器，用于测试。
+ * 收到message帧后回复ack，再以start/chunk/end帧流式发送预设回答，chunk的seq从1开始；
+ * 收到resume帧时从from_seq开始继续发送同一个回答。
+ * 客户端在握手时提供紧凑协议且服务器启用了二进制帧时，下行帧改用TLV编码。
+ * 压力测试可以设置按批发送的节奏、思考片段数量，以及start前的status帧和end前的confirm帧。
+ * 回答在单独的线程上发送，收到cancel帧后不再发送剩余的chunk，直接以end帧结束该回答；
+ * 可以设置发出指定数量的chunk后暂停，等待客户端的cancel帧。
+ */
+class FakeAssistantServer {
+
+    static final String RESPONSE_ID = "response-1";
+    private static final long CANCEL_TIMEOUT_SECONDS = 10;
+
+    private final MockWebServer server = new MockWebServer();
+    private final List<String> answerChunks;
+
+    // 第一次发送回答时，发出指定数量的chunk后关闭连接，小于0表示不关闭
+    private volatile int dropAfterChunks = -1;
+    // 续传时额外重发的已发送chunk数，用于验证客户端去重
+    private volatile int resumeOverlap = 0;
+    // 是否支持紧凑的二进制帧协议
+    private volatile boolean binaryFramesSupported = false;
+    // 是否在握手时声明并回复ack帧，旧版本服务器不回复
+    private volatile boolean acksSupported = true;
+    // 每发送burstSize个chunk暂停burstIntervalMs，0表示不暂停
+    private volatile int burstSize = 0;
+    private volatile long burstIntervalMs = 0;
+    // 前thinkingChunks个chunk作为思考内容发送
+    private volatile int thinkingChunks = 0;
+    // 发出指定数量的chunk后暂停，直到收到cancel帧，小于0表示不暂停
+    private volatile int pauseAfterChunks = -1;
+    // 不为null时在start之前发送status帧
+    private volatile String statusText;
+    // 不为null时在end之前发送该conversation_id的confirm帧
+    private volatile String confirmConversationId;
+
+    private final List<String> receivedFrames = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger chunksSent = new AtomicInteger();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicInteger cancelledResponses = new AtomicInteger();
+    // 按收到的顺序逐个发送回答，读线程只负责接收，发送期间也能收到cancel帧
+    private final ExecutorService streamExecutor = Executors.newSingleThreadExecutor();
+
+    FakeAssistantServer(List<String> answerChunks) {
+        this.answerChunks = new ArrayList<>(answerChunks);
+    }
+
+    void setDropAfterChunks(int dropAfterChunks) {
+        this.dropAfterChunks = dropAfterChunks;
+    }
+
+    void setResumeOverlap(int resumeOverlap) {
+        this.resumeOverlap = resumeOverlap;
+    }
+
+    void setBinaryFramesSupported(boolean binaryFramesSupported) {
+        this.binaryFramesSupported = binaryFramesSupported;
+    }
+
+    void setAcksSupported(boolean acksSupported) {
+        this.acksSupported = acksSupported;
+    }
+
+    void setPacing(int burstSize, long burstIntervalMs) {
+        this.burstSize = burstSize;
+        this.burstIntervalMs = burstIntervalMs;
+    }
+
+    void setThinkingChunks(int thinkingChunks) {
+        this.thinkingChunks = thinkingChunks;
+    }
+
+    void setPauseAfterChunks(int pauseAfterChunks) {
+        this.pauseAfterChunks = pauseAfterChunks;
+    }
+
+    void setStatusText(String statusText) {
+        this.statusText = statusText;
+    }
+
+    void setConfirmConversationId(String confirmConversationId) {
+        this.confirmConversationId = confirmConversationId;
+    }
+
+    void start() throws IOException {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                connectionCount.incrementAndGet();
+                String offered = request.getHeader("Sec-WebSocket-Protocol");
+                boolean binary = binaryFramesSupported && offered != null
+                        && offered.contains(BinaryFrameCodec.PROTOCOL_TLV);
+                MockResponse response = new MockResponse();
+                if (binary) {
+                    response.setHeader("Sec-WebSocket-Protocol", BinaryFrameCodec.PROTOCOL_TLV);
+                }
+                if (acksSupported) {
+                    response.setHeader(ServerFeatures.ACKS_HEADER, "1");
+                }
+                return response.withWebSocketUpgrade(new ServerListener(binary));
+            }
+        });
+        server.start();
+    }
+
+    HttpUrl url() {
+        return server.url("/assistant/ws");
+    }
+
+    void shutdown() throws IOException {
+        streamExecutor.shutdownNow();
+        server.shutdown();
+    }
+
+    // 服务器收到的所有文本帧
+    List<String> getReceivedFrames() {
+        synchronized (receivedFrames) {
+            return new ArrayList<>(receivedFrames);
+        }
+    }
+
+    int getChunksSent() {
+        return chunksSent.get();
+    }
+
+    // 下行帧的总字节数（压缩前）
+    long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    // 因cancel帧提前结束的回答数量
+    int getCancelledResponses() {
+        return cancelledResponses.get();
+    }
+
+    int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    String getFullAnswer() {
+        StringBuilder builder = new StringBuilder();
+        for (String chunk : answerChunks) {
+            builder.append(chunk);
+        }
+        return builder.toString();
+    }
+
+    private class ServerListener extends WebSocketListener {
+        private final boolean binary;
+        // 客户端已请求停止当前回答
+        private volatile boolean cancelRequested = false;
+
+        ServerListener(boolean binary) {
+            this.binary = binary;
+        }
+
+        @Override
+        public void onMessage(WebSocket webSocket, String text) {
+            receivedFrames.add(text);
+            try {
+                JSONObject frame = new JSONObject(text);
+                if ("cancel".equals(frame.getString("type"))) {
+                    if (RESPONSE_ID.equals(frame.optString("response_id", RESPONSE_ID))) {
+                        cancelRequested = true;
+                    }
+                    return;
+                }
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+            streamExecutor.execute(() -> handle(webSocket, text));
+        }
+
+        private void handle(WebSocket webSocket, String text) {
+            try {
+                JSONObject frame = new JSONObject(text);
+                String type = frame.getString("type");
+                if ("message".equals(type)) {
+                    cancelRequested = false;
+                    if (acksSupported && frame.has("client_id")) {
+                        send(webSocket, ChatFrame.ack(frame.getLong("client_id")), new JSONObject()
+                                .put("type", "ack")
+                                .put("client_id", frame.getLong("client_id")));
+                    }
+                    if (statusText != null) {
+                        send(webSocket, ChatFrame.status(statusText), new JSONObject()
+                                .put("type", "status")
+                                .put("content", statusText));
+                    }
+                    send(webSocket, ChatFrame.start(RESPONSE_ID), new JSONObject()
+                            .put("type", "start")
+                            .put("response_id", RESPONSE_ID));
+                    int drop = dropAfterChunks;
+                    dropAfterChunks = -1;
+                    streamFrom(webSocket, 1, drop);
+                } else if ("resume".equals(type)) {
+                    if (!RESPONSE_ID.equals(frame.optString("response_id"))) {
+                        // 未知回答，直接结束
+                        send(webSocket, ChatFrame.end(frame.optString("response_id"), ChatFrame.NO_SEQ), new JSONObject()
+                                .put("type", "end")
+                                .put("response_id", frame.optString("response_id")));
+                        return;
+                    }
+                    long fromSeq = Math.max(1, frame.getLong("from_seq") - resumeOverlap);
+                    streamFrom(webSocket, fromSeq, -1);
+                }
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        // 从fromSeq开始发送剩余的chunk和end帧，dropAfter大于等于0时发出对应数量后断开
+        private void streamFrom(WebSocket webSocket, long fromSeq, int dropAfter) throws JSONException {
+            int sent = 0;
+            for (long seq = fromSeq; seq <= answerChunks.size(); seq++) {
+                if (cancelRequested) {
+                    cancelledResponses.incrementAndGet();
+                    send(webSocket, ChatFrame.end(RESPONSE_ID, seq), new JSONObject()
+                            .put("type", "end")
+                            .put("response_id", RESPONSE_ID)
+                            .put("seq", seq));
+                    return;
+                }
+                if (dropAfter >= 0 && sent == dropAfter) {
+                    // 关闭帧排在已发送的chunk之后，客户端恰好收到dropAfter个chunk
+                    webSocket.close(1001, "going away");
+                    return;
+                }
+                String content = answerChunks.get((int) seq - 1);
+                boolean thinking = seq <= thinkingChunks;
+                // 二进制chunk省略response_id，客户端按当前回答处理
+                send(webSocket, ChatFrame.chunk(content, thinking, null, seq), new JSONObject()
+                        .put("type", "chunk")
+                        .put("response_id", RESPONSE_ID)
+                        .put("seq", seq)
+                        .put("content", content)
+                        .put("is_thinking", thinking));
+                chunksSent.incrementAndGet();
+                sent++;
+                if (sent == pauseAfterChunks) {
+                    awaitCancel();
+                }
+                pace(sent);
+            }
+            if (confirmConversationId != null) {
+                String payload = new JSONObject().put("conversation_id", confirmConversationId).toString();
+                send(webSocket, ChatFrame.confirm(ConfirmPayload.parse(payload)), new JSONObject()
+                        .put("type", "confirm")
+                        .put("content", payload));
+            }
+            send(webSocket, ChatFrame.end(RESPONSE_ID, answerChunks.size() + 1), new JSONObject()
+                    .put("type", "end")
+                    .put("response_id", RESPONSE_ID)
+                    .put("seq", answerChunks.size() + 1));
+        }
+
+        // 等待客户端的cancel帧，超时后继续发送
+        private void awaitCancel() {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(CANCEL_TIMEOUT_SECONDS);
+            try {
+                while (!cancelRequested && System.nanoTime() < deadline) {
+                    Thread.sleep(5);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // 每发完一批chunk暂停一段时间，模拟服务器的生成速度
+        private void pace(int sent) {
+            if (burstSize <= 0 || burstIntervalMs <= 0 || sent % burstSize != 0) {
+                return;
+            }
+            try {
+                Thread.sleep(burstIntervalMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // 按协商结果发送二进制帧或JSON文本帧
+        private void send(WebSocket webSocket, ChatFrame frame, JSONObject json) {
+            if (binary) {
+                byte[] bytes = BinaryFrameCodec.encode(frame);
+                bytesSent.addAndGet(bytes.length);
+                webSocket.send(ByteString.of(bytes));
+            } else {
+                String text = json.toString();
+                bytesSent.addAndGet(text.getBytes(StandardCharsets.UTF_8).length);
+                webSocket.send(text);
+            }
+        }
+    }
+}
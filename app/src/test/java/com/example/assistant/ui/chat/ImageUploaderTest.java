@@ -0,0 +1,112 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * 图片分块续传测试：创建上传、按分块发送，以及中断后从服务器记录的偏移继续
+ */
+public class ImageUploaderTest {
+
+    private MockWebServer server;
+    private OkHttpClient client;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        client = new OkHttpClient.Builder().build();
+        file = File.createTempFile("upload", ".jpg");
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[ImageUploader.CHUNK_SIZE + 1000]);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+        client.dispatcher().executorService().shutdown();
+        file.delete();
+    }
+
+    private ImageUploader newUploader() {
+        return new ImageUploader(client, server.url("/api/uploads").toString(), "token", 1);
+    }
+
+    private static MockResponse offset(int code, long offset) {
+        return new MockResponse().setResponseCode(code).setHeader("Upload-Offset", offset);
+    }
+
+    @Test
+    public void createsUploadAndResolvesLocation() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(201).setHeader("Location", "/api/uploads/abc"));
+
+        String uploadUrl = newUploader().create(file.length());
+        assertEquals(server.url("/api/uploads/abc").toString(), uploadUrl);
+
+        RecordedRequest request = server.takeRequest(1, TimeUnit.SECONDS);
+        assertEquals(String.valueOf(file.length()), request.getHeader("Upload-Length"));
+        assertEquals("Bearer token", request.getHeader("Authorization"));
+    }
+
+    @Test
+    public void resumesFromServerOffsetAfterFailedChunk() throws Exception {
+        long total = file.length();
+        server.enqueue(offset(200, 0));                       // HEAD
+        server.enqueue(offset(204, ImageUploader.CHUNK_SIZE)); // 第一块
+        server.enqueue(new MockResponse().setResponseCode(500));
+        server.enqueue(offset(200, ImageUploader.CHUNK_SIZE)); // 重新查询偏移
+        server.enqueue(offset(204, total));                    // 第二块
+
+        long[] progress = {-1};
+        newUploader().upload(server.url("/api/uploads/abc").toString(), file, (uploaded, length) -> progress[0] = uploaded);
+        assertEquals(total, progress[0]);
+        assertEquals(5, server.getRequestCount());
+
+        server.takeRequest();
+        RecordedRequest first = server.takeRequest();
+        assertEquals("0", first.getHeader("Upload-Offset"));
+        assertEquals(ImageUploader.CHUNK_SIZE, first.getBodySize());
+        server.takeRequest();
+        server.takeRequest();
+        // 已上传的第一块不再发送
+        RecordedRequest second = server.takeRequest();
+        assertEquals(String.valueOf(ImageUploader.CHUNK_SIZE), second.getHeader("Upload-Offset"));
+        assertEquals(total - ImageUploader.CHUNK_SIZE, second.getBodySize());
+    }
+
+    @Test
+    public void givesUpAfterRepeatedFailures() throws Exception {
+        server.enqueue(offset(200, 0));
+        for (int i = 0; i < ImageUploader.MAX_ATTEMPTS; i++) {
+            server.enqueue(new MockResponse().setResponseCode(503));
+            server.enqueue(offset(200, 0));
+        }
+
+        try {
+            newUploader().upload(server.url("/api/uploads/abc").toString(), file, (uploaded, length) -> { });
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            // 上传地址仍然有效，用户点击重试时继续
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import com.example.assistant.model.Message;
+import com.example.assistant.model.MessageList;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * MessageWindow的内存预算测试，模拟一次长时间会话中持续产生的消息
+ */
+public class MessageWindowTest {
+
+    private static final int MESSAGE_COUNT = 10000;
+    private static final int MESSAGE_LENGTH = 500;
+
+    private static String content(int index) {
+        StringBuilder builder = new StringBuilder(MESSAGE_LENGTH);
+        builder.append(index).append(':');
+        while (builder.length() < MESSAGE_LENGTH) {
+            builder.append('x');
+        }
+        return builder.toString();
+    }
+
+    private static long retainedChars(List<Message> messages) {
+        long total = 0;
+        for (Message message : messages) {
+            total += message.getContent().length();
+        }
+        return total;
+    }
+
+    @Test
+    public void streamingTenThousandMessagesStaysWithinBudget() {
+        MessageWindow window = new MessageWindow(200);
+        MessageList messages = MessageList.EMPTY;
+        long peakChars = 0;
+
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            MessageList updated = messages.put(new Message(content(i), i % 2 == 0 ? Message.TYPE_USER : Message.TYPE_AI));
+            messages = window.trim(updated);
+            peakChars = Math.max(peakChars, retainedChars(messages));
+        }
+
+        // 内存中的消息数量和字符数都不随会话长度增长
+        assertEquals(200, messages.size());
+        assertTrue("peakChars=" + peakChars, peakChars <= 201L * MESSAGE_LENGTH);
+        assertEquals(MESSAGE_COUNT - 200, window.getEvictedCount());
+        // 保留的是最近的消息
+        assertTrue(messages.get(199).getContent().startsWith((MESSAGE_COUNT - 1) + ":"));
+    }
+
+    @Test
+    public void anchoredRangeIsNotEvicted() {
+        MessageWindow window = new MessageWindow(50);
+        MessageList messages = MessageList.EMPTY;
+        for (int i = 0; i < 50; i++) {
+            messages = messages.put(new Message(content(i), Message.TYPE_AI));
+        }
+        Message anchor = messages.get(20);
+        window.setAnchor(anchor.getId());
+
+        for (int i = 50; i < 200; i++) {
+            messages = window.trim(messages.put(new Message(content(i), Message.TYPE_AI)));
+        }
+
+        // 锚点和它上方的少量消息仍然保留
+        assertTrue(messages.contains(anchor));
+        assertEquals(10, messages.indexOf(anchor));
+
+        // 回到底部后，下一次更新把窗口收缩回容量
+        window.clearAnchor();
+        messages = window.trim(messages);
+        assertEquals(50, messages.size());
+        assertFalse(messages.contains(anchor));
+    }
+
+    @Test
+    public void listWithinCapacityIsReturnedUnchanged() {
+        MessageWindow window = new MessageWindow(10);
+        MessageList messages = MessageList.EMPTY.put(new Message("hi", Message.TYPE_USER));
+
+        assertSame(messages, window.trim(messages));
+        assertEquals(0, window.getEvictedCount());
+    }
+}
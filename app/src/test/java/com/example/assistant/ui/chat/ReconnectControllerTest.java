@@ -0,0 +1,380 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+
+import com.example.assistant.model.Message;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.*;
+
+/**
+ * ReconnectController的单元测试、通过ChatProtocol的连接回调驱动的重连测试，
+ * 以及基于本地WebSocket服务器的重连和心跳测试
+ */
+public class ReconnectControllerTest {
+
+    // 通过ChatProtocol驱动控制器时，协议在测试线程上更新LiveData
+    @Rule
+    public InstantTaskExecutorRule instantTaskExecutorRule = new InstantTaskExecutorRule();
+
+    // 虚拟时钟调度器
+    private static class FakeScheduler implements ReconnectController.Scheduler {
+        long now = 0;
+        Runnable pending;
+        long dueTime;
+
+        @Override
+        public long now() {
+            return now;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMs) {
+            pending = task;
+            dueTime = now + delayMs;
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            if (pending == task) {
+                pending = null;
+            }
+        }
+
+        void runPending() {
+            Runnable task = pending;
+            pending = null;
+            now = dueTime;
+            task.run();
+        }
+    }
+
+    // 基于单线程执行器的调度器，所有控制器调用都在该线程上进行
+    private static class ExecutorScheduler implements ReconnectController.Scheduler {
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        final Map<Runnable, ScheduledFuture<?>> futures = new HashMap<>();
+
+        @Override
+        public long now() {
+            return System.nanoTime() / 1_000_000;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMs) {
+            futures.put(task, executor.schedule(task, delayMs, TimeUnit.MILLISECONDS));
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            ScheduledFuture<?> future = futures.remove(task);
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private ReconnectController.Config config;
+    private FakeScheduler scheduler;
+    private AtomicInteger connectCount;
+    private ReconnectController controller;
+
+    @Before
+    public void setUp() {
+        config = new ReconnectController.Config();
+        config.baseDelayMs = 1000;
+        config.maxDelayMs = 30000;
+        scheduler = new FakeScheduler();
+        connectCount = new AtomicInteger();
+        controller = new ReconnectController(config, scheduler, connectCount::incrementAndGet, new Random(42));
+    }
+
+    @Test
+    public void backoffIsJitteredAndCapped() {
+        for (int attempt = 1; attempt <= 12; attempt++) {
+            long backoff = Math.min(config.maxDelayMs, config.baseDelayMs << (attempt - 1));
+            for (int i = 0; i < 100; i++) {
+                long delay = controller.computeDelay(attempt);
+                assertTrue("attempt " + attempt + " delay " + delay, delay >= backoff / 2 && delay <= backoff);
+            }
+        }
+    }
+
+    @Test
+    public void neverGivesUp() {
+        controller.start();
+        for (int i = 0; i < 50; i++) {
+            controller.onDisconnected();
+            assertNotNull("retry should be scheduled after failure " + i, scheduler.pending);
+            scheduler.runPending();
+        }
+        assertEquals(51, connectCount.get());
+    }
+
+    @Test
+    public void networkRecoveryRetriesImmediately() {
+        controller.start();
+        controller.onConnected();
+
+        controller.onNetworkLost();
+        controller.onDisconnected();
+        // 没有网络时不安排重试
+        assertNull(scheduler.pending);
+        assertEquals(1, connectCount.get());
+
+        controller.onNetworkAvailable();
+        assertEquals(2, connectCount.get());
+        assertEquals(0, controller.getAttempts());
+    }
+
+    @Test
+    public void networkCallbackWhileConnectedDoesNotReconnect() {
+        controller.start();
+        controller.onConnected();
+        controller.onNetworkAvailable();
+
+        assertEquals(1, connectCount.get());
+    }
+
+    @Test
+    public void recordsTimeToReconnect() {
+        controller.start();
+        controller.onConnected();
+
+        scheduler.now = 1000;
+        controller.onDisconnected();
+        scheduler.runPending();
+        long retryAt = scheduler.now;
+        scheduler.now = retryAt + 100;
+        controller.onConnected();
+
+        assertEquals(1, controller.getReconnectCount());
+        assertEquals(retryAt + 100 - 1000, controller.getLastReconnectMs());
+        assertTrue(controller.isConnected());
+    }
+
+    @Test
+    public void drivenByProtocolConnectionCallbacks() throws Exception {
+        // 和ChatSession一样由ChatProtocol在连接打开和断开时通知控制器，
+        // 连接器只记录重连次数，由测试模拟WebSocket的回调
+        ChatProtocolTest.FakeScheduler clock = new ChatProtocolTest.FakeScheduler();
+        ReconnectController reconnectController = new ReconnectController(config, clock,
+                connectCount::incrementAndGet, new Random(42));
+        ChatProtocolTest.MemoryStore store = new ChatProtocolTest.MemoryStore();
+        ChatProtocol protocol = new ChatProtocol(clock, store, store, new AnswerCache(store), reconnectController);
+        protocol.restoreOutbound(new ArrayList<>());
+
+        reconnectController.start();
+        assertEquals(1, connectCount.get());
+        protocol.onConnected(new ChatProtocolTest.FakeTransport(), ServerFeatures.NONE);
+        assertTrue(reconnectController.isConnected());
+
+        // 连续两次连接失败，退避逐渐变长
+        clock.advance(1000);
+        protocol.onDisconnected("(Connection Failed)");
+        assertFalse(reconnectController.isConnected());
+        assertEquals("(Connection Failed)", protocol.getConnectionStatusLiveData().getValue());
+        clock.advance(config.baseDelayMs);
+        assertEquals(2, connectCount.get());
+        protocol.onDisconnected("(Connection Failed)");
+        assertEquals(2, reconnectController.getAttempts());
+        clock.advance(config.baseDelayMs);
+        assertEquals(2, connectCount.get());
+        clock.advance(config.baseDelayMs);
+        assertEquals(3, connectCount.get());
+
+        // 断线期间的问题在重连后发送
+        protocol.sendMessage(Message.DEFAULT_THREAD_ID, "还在吗");
+        ChatProtocolTest.FakeTransport transport = new ChatProtocolTest.FakeTransport();
+        protocol.onConnected(transport, ServerFeatures.NONE);
+        assertTrue(reconnectController.isConnected());
+        assertEquals(0, reconnectController.getAttempts());
+        assertEquals(1, reconnectController.getReconnectCount());
+        assertEquals(clock.now() - 1000, reconnectController.getLastReconnectMs());
+        assertEquals("还在吗", transport.ofType("message").get(0).getString("content"));
+
+        // 已连接时再次收到打开回调不会重复计数
+        protocol.onConnected(transport, ServerFeatures.NONE);
+        assertEquals(1, reconnectController.getReconnectCount());
+        assertEquals(3, connectCount.get());
+    }
+
+    private MockWebServer server;
+    private ServerSocket silentServer;
+
+    @After
+    public void tearDown() throws IOException {
+        if (server != null) {
+            server.shutdown();
+        }
+        if (silentServer != null) {
+            silentServer.close();
+        }
+    }
+
+    @Test
+    public void reconnectsToMockServerAfterServerClose() throws Exception {
+        server = new MockWebServer();
+        // 第一次连接打开后服务器立即关闭，第二次连接保持打开
+        server.enqueue(new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+            @Override
+            public void onOpen(WebSocket webSocket, Response response) {
+                webSocket.close(1001, "restarting");
+            }
+        }));
+        server.enqueue(new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+        }));
+        server.start();
+
+        config.baseDelayMs = 50;
+        config.maxDelayMs = 200;
+        CountDownLatch opened = new CountDownLatch(2);
+        ReconnectController[] holder = new ReconnectController[1];
+        ExecutorScheduler executorScheduler = new ExecutorScheduler();
+        OkHttpClient client = new OkHttpClient.Builder().build();
+        Request request = new Request.Builder().url(server.url("/assistant/ws")).build();
+
+        holder[0] = new ReconnectController(config, executorScheduler, () -> client.newWebSocket(request, new WebSocketListener() {
+            @Override
+            public void onOpen(WebSocket webSocket, Response response) {
+                executorScheduler.executor.execute(() -> {
+                    holder[0].onConnected();
+                    opened.countDown();
+                });
+            }
+
+            @Override
+            public void onClosing(WebSocket webSocket, int code, String reason) {
+                webSocket.close(1000, null);
+                executorScheduler.executor.execute(holder[0]::onDisconnected);
+            }
+
+            @Override
+            public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+                executorScheduler.executor.execute(holder[0]::onDisconnected);
+            }
+        }));
+        executorScheduler.executor.execute(holder[0]::start);
+
+        assertTrue("did not reconnect", opened.await(5, TimeUnit.SECONDS));
+        CountDownLatch checked = new CountDownLatch(1);
+        AtomicLong reconnectMs = new AtomicLong(-1);
+        executorScheduler.executor.execute(() -> {
+            reconnectMs.set(holder[0].getReconnectCount() == 1 ? holder[0].getLastReconnectMs() : -1);
+            checked.countDown();
+        });
+        checked.await(1, TimeUnit.SECONDS);
+
+        assertEquals(2, server.getRequestCount());
+        assertTrue("reconnectMs=" + reconnectMs.get(), reconnectMs.get() >= 0 && reconnectMs.get() < 2000);
+        executorScheduler.executor.shutdownNow();
+        client.dispatcher().executorService().shutdown();
+    }
+
+    @Test
+    public void pingDetectsHalfOpenConnection() throws Exception {
+        // 服务器完成握手后不再读写，模拟半开连接
+        silentServer = new ServerSocket(0);
+        Thread acceptThread = new Thread(() -> {
+            try {
+                Socket socket = silentServer.accept();
+                acceptUpgradeAndGoSilent(socket);
+            } catch (IOException ignored) {
+            }
+        });
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+
+        long pingIntervalMs = 200;
+        OkHttpClient client = new OkHttpClient.Builder()
+                .pingInterval(pingIntervalMs, TimeUnit.MILLISECONDS)
+                .build();
+        Request request = new Request.Builder()
+                .url("http://127.0.0.1:" + silentServer.getLocalPort() + "/assistant/ws")
+                .build();
+
+        CountDownLatch failed = new CountDownLatch(1);
+        AtomicLong openedAt = new AtomicLong();
+        AtomicLong failedAt = new AtomicLong();
+        client.newWebSocket(request, new WebSocketListener() {
+            @Override
+            public void onOpen(WebSocket webSocket, Response response) {
+                openedAt.set(System.nanoTime());
+            }
+
+            @Override
+            public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+                failedAt.set(System.nanoTime());
+                failed.countDown();
+            }
+        });
+
+        assertTrue("dead connection not detected", failed.await(5, TimeUnit.SECONDS));
+        assertTrue(openedAt.get() > 0);
+        long detectionMs = (failedAt.get() - openedAt.get()) / 1_000_000;
+        assertTrue("detectionMs=" + detectionMs, detectionMs <= pingIntervalMs * 5);
+        client.dispatcher().executorService().shutdown();
+    }
+
+    // 完成WebSocket握手后保持连接但不再响应任何数据（包括pong）
+    private static void acceptUpgradeAndGoSilent(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        String key = null;
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            if (line.toLowerCase().startsWith("sec-websocket-key:")) {
+                key = line.substring(line.indexOf(':') + 1).trim();
+            }
+        }
+        String accept;
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes(StandardCharsets.UTF_8));
+            accept = Base64.getEncoder().encodeToString(digest);
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+        OutputStream out = socket.getOutputStream();
+        out.write(("HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + accept + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+}
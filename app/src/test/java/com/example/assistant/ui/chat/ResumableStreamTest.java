@@ -0,0 +1,267 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+
+import com.example.assistant.model.Message;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+import static org.junit.Assert.*;
+
+/**
+ * 流式回答续传测试：StreamCursor的去重规则，以及ChatProtocol连接本地FakeAssistantServer，
+ * 断线后经ReconnectController重连、从断点续传
+ */
+public class ResumableStreamTest {
+
+    private static final List<String> ANSWER = Arrays.asList(
+            "今天", "下午", "三点", "有", "数学", "课，", "记得", "带", "练习", "册。");
+
+    @Test
+    public void cursorDropsDuplicatesAndStaleFrames() {
+        StreamCursor cursor = new StreamCursor();
+        cursor.begin("r1");
+
+        assertTrue(cursor.accept(ChatFrame.chunk("a", false, "r1", 1)));
+        assertTrue(cursor.accept(ChatFrame.chunk("b", false, "r1", 2)));
+        assertFalse(cursor.accept(ChatFrame.chunk("a", false, "r1", 1)));
+        assertFalse(cursor.accept(ChatFrame.chunk("x", false, "r0", 3)));
+        assertTrue(cursor.accept(ChatFrame.chunk("c", true, "r1", 3)));
+
+        assertTrue(cursor.canResume());
+        assertEquals(4, cursor.getResumeFromSeq());
+        assertEquals(2, cursor.getDroppedCount());
+
+        cursor.end();
+        assertFalse(cursor.canResume());
+        assertFalse(cursor.accept(ChatFrame.chunk("d", false, "r1", 4)));
+        // 二进制帧省略response_id，只带序号的迟到片段和重复的end帧同样丢弃
+        assertFalse(cursor.accept(ChatFrame.chunk("e", false, null, 5)));
+        assertFalse(cursor.accept(ChatFrame.end("r1", 6)));
+    }
+
+    @Test
+    public void cursorAcceptsFramesWithoutSequenceNumbers() {
+        StreamCursor cursor = new StreamCursor();
+        cursor.begin(null);
+
+        assertTrue(cursor.accept(ChatFrame.chunk("a", false, null, ChatFrame.NO_SEQ)));
+        assertTrue(cursor.accept(ChatFrame.chunk("a", false, null, ChatFrame.NO_SEQ)));
+        // 没有response_id的回答无法续传
+        assertFalse(cursor.canResume());
+    }
+
+    // 测试客户端：和ChatSession一样在读线程上解码、在单独的“主线程”上交给ChatProtocol，
+    // 连接关闭或失败时调用onDisconnected，由ReconnectController安排重连，重连后ChatProtocol自己请求续传
+    private static class ProtocolClient extends WebSocketListener
+            implements StreamingAccumulator.FrameScheduler, ReconnectController.Scheduler {
+        final ScheduledExecutorService mainThread = new ScheduledThreadPoolExecutor(1);
+        final Map<Runnable, ScheduledFuture<?>> scheduled = new HashMap<>();
+        final CountDownLatch ended = new CountDownLatch(1);
+        final OkHttpClient client;
+        final Request request;
+        final ReconnectController reconnectController;
+        final ChatProtocol protocol;
+        final ChatThread thread;
+        // 当前连接，只在主线程上访问；已被替换的旧连接的回调被忽略
+        private WebSocket webSocket;
+        private boolean asked = false;
+
+        ProtocolClient(OkHttpClient client, Request request) {
+            this.client = client;
+            this.request = request;
+            ReconnectController.Config config = new ReconnectController.Config();
+            config.baseDelayMs = 50;
+            config.maxDelayMs = 200;
+            reconnectController = new ReconnectController(config, this, this::connect);
+            ChatProtocolTest.MemoryStore store = new ChatProtocolTest.MemoryStore();
+            protocol = new ChatProtocol(this, store, store, new AnswerCache(store), reconnectController);
+            thread = protocol.getOrCreateThread(Message.DEFAULT_THREAD_ID);
+        }
+
+        void start() throws Exception {
+            mainThread.submit(() -> {
+                protocol.restoreOutbound(new ArrayList<>());
+                reconnectController.start();
+            }).get();
+        }
+
+        private void connect() {
+            webSocket = client.newWebSocket(request, this);
+        }
+
+        @Override
+        public void onOpen(WebSocket webSocket, Response response) {
+            mainThread.execute(() -> {
+                if (webSocket != this.webSocket) {
+                    return;
+                }
+                protocol.onConnected(webSocket::send, ServerFeatures.fromHeaders(response::header));
+                if (!asked) {
+                    asked = true;
+                    protocol.sendMessage(Message.DEFAULT_THREAD_ID, "今天有什么课");
+                }
+            });
+        }
+
+        @Override
+        public void onMessage(WebSocket webSocket, String text) {
+            long receivedAt = now();
+            ChatFrame frame = ChatFrameDecoder.decode(text);
+            mainThread.execute(() -> {
+                protocol.applyFrame(frame, receivedAt);
+                if (frame.getType() == ChatFrame.TYPE_END && !thread.isStreaming()) {
+                    ended.countDown();
+                }
+            });
+        }
+
+        @Override
+        public void onClosing(WebSocket webSocket, int code, String reason) {
+            webSocket.close(1000, null);
+            disconnected(webSocket, "(Disconnected)");
+        }
+
+        @Override
+        public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+            disconnected(webSocket, "(Connection Failed)");
+        }
+
+        private void disconnected(WebSocket webSocket, String status) {
+            mainThread.execute(() -> {
+                if (webSocket == this.webSocket) {
+                    protocol.onDisconnected(status);
+                }
+            });
+        }
+
+        // 在主线程上读取回答消息的内容
+        List<String> answers() throws Exception {
+            return mainThread.submit(() -> {
+                List<String> answers = new ArrayList<>();
+                for (Message message : thread.getMessages()) {
+                    if (message.getType() == Message.TYPE_AI) {
+                        answers.add(message.getContent());
+                    }
+                }
+                return answers;
+            }).get();
+        }
+
+        <T> T onMainThread(Callable<T> task) throws Exception {
+            return mainThread.submit(task).get();
+        }
+
+        void shutdown() throws Exception {
+            mainThread.submit(() -> {
+                reconnectController.stop();
+                if (webSocket != null) {
+                    webSocket.close(1000, null);
+                }
+            }).get();
+            mainThread.shutdownNow();
+        }
+
+        @Override
+        public long now() {
+            return System.nanoTime() / 1_000_000;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMs) {
+            scheduled.put(task, mainThread.schedule(task, delayMs, TimeUnit.MILLISECONDS));
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            ScheduledFuture<?> future = scheduled.remove(task);
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    // ChatProtocol在非Android线程上更新LiveData
+    @Rule
+    public InstantTaskExecutorRule instantTaskExecutorRule = new InstantTaskExecutorRule();
+
+    private FakeAssistantServer server;
+    private OkHttpClient client;
+    private ProtocolClient protocolClient;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeAssistantServer(ANSWER);
+        server.start();
+        client = new OkHttpClient.Builder().build();
+        protocolClient = new ProtocolClient(client, new Request.Builder().url(server.url()).build());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        protocolClient.shutdown();
+        server.shutdown();
+        client.dispatcher().executorService().shutdown();
+    }
+
+    @Test
+    public void resumesInterruptedAnswerAfterReconnect() throws Exception {
+        server.setDropAfterChunks(4);
+        protocolClient.start();
+        assertTrue(protocolClient.ended.await(5, TimeUnit.SECONDS));
+
+        // 断线后由重连控制器重新连接，续传的内容追加到同一条回答消息
+        assertEquals(Collections.singletonList(server.getFullAnswer()), protocolClient.answers());
+        assertEquals(1, (int) protocolClient.onMainThread(protocolClient.reconnectController::getReconnectCount));
+        assertEquals(2, server.getConnectionCount());
+        // 续传只发送剩余部分，不重新生成整个回答
+        assertEquals(ANSWER.size(), server.getChunksSent());
+        JSONObject resume = null;
+        for (String frame : server.getReceivedFrames()) {
+            JSONObject json = new JSONObject(frame);
+            if ("resume".equals(json.getString("type"))) {
+                resume = json;
+            }
+        }
+        assertNotNull(resume);
+        assertEquals(5, resume.getLong("from_seq"));
+    }
+
+    @Test
+    public void dropsChunksResentOnResume() throws Exception {
+        server.setDropAfterChunks(6);
+        server.setResumeOverlap(3);
+        protocolClient.start();
+        assertTrue(protocolClient.ended.await(5, TimeUnit.SECONDS));
+
+        assertEquals(Collections.singletonList(server.getFullAnswer()), protocolClient.answers());
+        assertEquals(3, (int) protocolClient.onMainThread(protocolClient.thread.streamCursor::getDroppedCount));
+    }
+}
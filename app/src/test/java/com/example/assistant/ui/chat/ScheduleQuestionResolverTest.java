@@ -0,0 +1,96 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import com.example.assistant.ui.course.ScheduleCache;
+import com.example.assistant.ui.course.model.Activity;
+import com.example.assistant.ui.course.model.Assignment;
+import com.example.assistant.ui.course.model.Course;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * 本地日程问答测试：日期和主题识别、回答格式，以及无法确定时交给服务器
+ */
+public class ScheduleQuestionResolverTest {
+
+    private static final TimeZone TIME_ZONE = TimeZone.getTimeZone("Asia/Shanghai");
+
+    private ScheduleCache cache;
+    private ScheduleQuestionResolver resolver;
+    // 2024-03-13，星期三
+    private long now;
+
+    @Before
+    public void setUp() {
+        cache = ScheduleCache.getInstance();
+        cache.clear();
+        resolver = new ScheduleQuestionResolver(cache);
+        Calendar calendar = Calendar.getInstance(TIME_ZONE);
+        calendar.clear();
+        calendar.set(2024, Calendar.MARCH, 13, 20, 0);
+        now = calendar.getTimeInMillis();
+
+        cache.setCourses(Arrays.asList(
+                new Course("2", "数学", "李老师", "09:00", "09:45", 4, "301", "全学期", "小学五年级"),
+                new Course("1", "语文", "王老师", "08:00", "08:45", 4, "301", "全学期", "小学五年级"),
+                new Course("3", "英语", "赵老师", "08:00", "08:45", 5, "302", "全学期", "小学五年级")));
+        cache.putAssignments(2024, 3, Collections.singletonList(
+                new Assignment("a1", "数学", "练习册第12页", "", "2024-03-15", false)));
+        cache.putActivities(2024, 3, Collections.singletonList(
+                new Activity("e1", "科技节", "", "2024-03-14", "14:00-15:00", "操场", false)));
+    }
+
+    @Test
+    public void answersCoursesForTomorrow() {
+        String answer = resolver.answer("明天有什么课？", now, TIME_ZONE);
+        assertEquals("明天（3月14日 星期四）有2节课：\n"
+                + "1. 08:00-08:45 语文（王老师，301）\n"
+                + "2. 09:00-09:45 数学（李老师，301）", answer);
+        assertEquals(answer, resolver.answer("明天我都有哪些课呀", now, TIME_ZONE));
+    }
+
+    @Test
+    public void resolvesWeekDaysAndDates() {
+        assertTrue(resolver.answer("周五要交什么作业", now, TIME_ZONE)
+                .startsWith("周五（3月15日 星期五）要交1项作业：\n1. 数学：练习册第12页"));
+        assertEquals("下周五（3月22日 星期五）没有要交的作业。", resolver.answer("下周五要交什么作业", now, TIME_ZONE));
+        assertTrue(resolver.answer("3月14日有什么活动", now, TIME_ZONE).contains("14:00-15:00 科技节（操场）"));
+        // 不带“这”“下”的过去的星期几指下周
+        assertTrue(resolver.answer("星期一有什么课", now, TIME_ZONE).startsWith("星期一（3月18日"));
+        assertEquals("周六（3月16日 星期六）没有课。", resolver.answer("周六有什么课", now, TIME_ZONE));
+    }
+
+    @Test
+    public void leavesOtherQuestionsToServer() {
+        // 需要理解内容的问题
+        assertNull(resolver.answer("明天数学课讲什么", now, TIME_ZONE));
+        assertNull(resolver.answer("为什么明天有数学课", now, TIME_ZONE));
+        // 没有日期或有多个日期
+        assertNull(resolver.answer("有什么作业", now, TIME_ZONE));
+        assertNull(resolver.answer("今天和明天有什么课", now, TIME_ZONE));
+        // 数据尚未加载的月份
+        assertNull(resolver.answer("4月1日有什么活动", now, TIME_ZONE));
+    }
+
+    @Test
+    public void leavesCoursesToServerWithoutRealTimetable() {
+        cache.clear();
+        assertNull(resolver.answer("明天有什么课", now, TIME_ZONE));
+
+        // 只在部分周次上课的课程无法判断
+        cache.setCourses(Collections.singletonList(
+                new Course("4", "科学", "钱老师", "10:00", "10:45", 4, "实验室", "1-8周", "小学五年级")));
+        assertNull(resolver.answer("明天有什么课", now, TIME_ZONE));
+    }
+}
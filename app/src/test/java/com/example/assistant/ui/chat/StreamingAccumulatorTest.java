@@ -0,0 +1,122 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * StreamingAccumulator的JVM单元测试，使用虚拟时钟验证UI刷新次数有上界
+ */
+public class StreamingAccumulatorTest {
+
+    // 虚拟时钟调度器，同一时间只会有一个待执行的刷新任务
+    private static class FakeScheduler implements StreamingAccumulator.FrameScheduler {
+        long now = 0;
+        Runnable pending;
+        long dueTime;
+
+        @Override
+        public long now() {
+            return now;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMs) {
+            pending = task;
+            dueTime = now + delayMs;
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            if (pending == task) {
+                pending = null;
+            }
+        }
+
+        // 推进时钟并执行到期的任务
+        void advanceTo(long time) {
+            while (pending != null && dueTime <= time) {
+                now = dueTime;
+                Runnable task = pending;
+                pending = null;
+                task.run();
+            }
+            now = time;
+        }
+    }
+
+    private FakeScheduler scheduler;
+    private List<Map<Long, String>> emissions;
+    private StreamingAccumulator accumulator;
+
+    @Before
+    public void setUp() {
+        scheduler = new FakeScheduler();
+        emissions = new ArrayList<>();
+        accumulator = new StreamingAccumulator(scheduler, emissions::add, 50);
+    }
+
+    @Test
+    public void emissionsAreBoundedByFlushInterval() {
+        int chunkCount = 2000;
+        long streamDurationMs = 1000;
+        StringBuilder expected = new StringBuilder();
+
+        for (int i = 0; i < chunkCount; i++) {
+            scheduler.advanceTo(i * streamDurationMs / chunkCount);
+            String chunk = "t" + i + " ";
+            expected.append(chunk);
+            accumulator.append(0, chunk);
+        }
+        accumulator.flush();
+
+        // 每个间隔最多一次刷新，再加上结束时的一次
+        long maxEmissions = streamDurationMs / 50 + 2;
+        assertTrue("emissions=" + emissions.size(), emissions.size() <= maxEmissions);
+        assertEquals(emissions.size(), accumulator.getFlushCount());
+        assertEquals(expected.toString(), emissions.get(emissions.size() - 1).get(0L));
+    }
+
+    @Test
+    public void burstOfChunksProducesSingleEmission() {
+        for (int i = 0; i < 2000; i++) {
+            accumulator.append(0, "x");
+        }
+        scheduler.advanceTo(100);
+
+        assertEquals(1, emissions.size());
+        assertEquals(2000, emissions.get(0).get(0L).length());
+    }
+
+    @Test
+    public void flushMergesAllDirtyBuffers() {
+        accumulator.append(1, "thinking");
+        accumulator.append(2, "answer");
+        accumulator.flush();
+
+        assertEquals(1, emissions.size());
+        assertEquals("thinking", emissions.get(0).get(1L));
+        assertEquals("answer", emissions.get(0).get(2L));
+        assertFalse(accumulator.hasPendingUpdates());
+        assertNull(scheduler.pending);
+    }
+
+    @Test
+    public void clearDropsPendingContent() {
+        accumulator.append(0, "abc");
+        accumulator.clear();
+        scheduler.advanceTo(1000);
+
+        assertTrue(emissions.isEmpty());
+        assertNull(accumulator.getContent(0));
+    }
+}
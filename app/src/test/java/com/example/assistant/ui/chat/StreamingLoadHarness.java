@@ -0,0 +1,385 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Looper;
+import android.view.ContextThemeWrapper;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.assistant.R;
+import com.example.assistant.adapter.MessageAdapter;
+import com.example.assistant.model.Message;
+
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * 流式回答的压力测试工具：本地FakeAssistantServer按设定的速率、批量和回答长度发送
+ * status/start/chunk/confirm/end帧，客户端是连接该服务器的ChatSession。
+ * 界面侧和ChatFragment一样，ChatViewModel的消息列表提交给挂在RecyclerView上的MessageAdapter，
+ * 差分、局部绑定和富文本渲染都真实执行。
+ * 需要在Robolectric下运行：测试线程就是主线程，等待期间按真实时间推进主线程的时钟并执行到期的任务。
+ * 统计吞吐量、主线程分配的字节数、列表发布次数、适配器的绑定次数和耗时，以及回答结束后仍被持有的堆内存。
+ * 设置了停止位置时，服务器发出指定数量的chunk后暂停，界面显示这些内容后调用ChatViewModel.stopGeneration，
+ * 用服务器下行的字节数衡量节省的流量
+ */
+class StreamingLoadHarness {
+
+    // 一次压力测试的参数
+    static final class LoadProfile {
+        final String name;
+        final int tokenCount;       // 回答片段总数，包括思考片段
+        final int thinkingTokens;   // 前多少个片段是思考内容
+        final int tokenLength;      // 每个片段的字符数
+        final int burstSize;        // 服务器每批发送的片段数，0表示不限速
+        final long burstIntervalMs; // 两批之间的间隔
+        final boolean binaryFrames;
+        final int cancelAfterChunks; // 收到多少个chunk后停止生成，小于0表示不停止
+
+        LoadProfile(String name, int tokenCount, int thinkingTokens, int tokenLength,
+                    int burstSize, long burstIntervalMs, boolean binaryFrames) {
+            this(name, tokenCount, thinkingTokens, tokenLength, burstSize, burstIntervalMs, binaryFrames, -1);
+        }
+
+        LoadProfile(String name, int tokenCount, int thinkingTokens, int tokenLength,
+                    int burstSize, long burstIntervalMs, boolean binaryFrames, int cancelAfterChunks) {
+            this.name = name;
+            this.tokenCount = tokenCount;
+            this.thinkingTokens = thinkingTokens;
+            this.tokenLength = tokenLength;
+            this.burstSize = burstSize;
+            this.burstIntervalMs = burstIntervalMs;
+            this.binaryFrames = binaryFrames;
+            this.cancelAfterChunks = cancelAfterChunks;
+        }
+
+        // 同样的负载，收到指定数量的chunk后停止生成
+        LoadProfile cancelAfter(String name, int chunks) {
+            return new LoadProfile(name, tokenCount, thinkingTokens, tokenLength,
+                    burstSize, burstIntervalMs, binaryFrames, chunks);
+        }
+
+        // 以固定速率发送，每10毫秒一批
+        static LoadProfile steady(String name, int tokensPerSecond, int tokenCount, int tokenLength) {
+            return new LoadProfile(name, tokenCount, 0, tokenLength,
+                    Math.max(1, tokensPerSecond / 100), 10, true);
+        }
+
+        List<String> tokens() {
+            List<String> tokens = new ArrayList<>(tokenCount);
+            for (int i = 0; i < tokenCount; i++) {
+                StringBuilder token = new StringBuilder(tokenLength);
+                while (token.length() < tokenLength) {
+                    token.append((char) ('甲' + (i + token.length()) % 10));
+                }
+                tokens.add(token.toString());
+            }
+            return tokens;
+        }
+    }
+
+    // 一次压力测试的结果
+    static final class LoadReport {
+        final String name;
+        int chunksSent;           // 服务器发出的chunk数
+        long charsReceived;       // 界面上思考和回答消息的字符数
+        long streamMs;            // 回答开始到结束（或停止）的时间
+        int statusFrames;
+        int confirmFrames;
+        int listEmissions;        // 回答开始后消息列表的发布次数
+        int binds;                // 回答开始后适配器的绑定次数
+        long bindUs;              // 这些绑定的总耗时
+        int answerMessages;       // 列表中回答消息的数量
+        boolean cancelled;        // 客户端是否停止了生成
+        long serverBytes;         // 服务器下行的字节数
+        int serverCancelled;      // 服务器因cancel帧提前结束的回答数
+        long allocatedBytes = -1; // 主线程分配的字节数，JVM不支持统计时为-1
+        long retainedBytes;       // 回答结束后比发问前多占用的堆内存（GC之后）
+        String thinking;
+        String answer;
+
+        LoadReport(String name) {
+            this.name = name;
+        }
+
+        double chunksPerSecond() {
+            return streamMs > 0 ? chunksSent * 1000.0 / streamMs : chunksSent;
+        }
+
+        double charsPerSecond() {
+            return streamMs > 0 ? charsReceived * 1000.0 / streamMs : charsReceived;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%s: chunks=%d chars=%d time=%dms throughput=%.0f chunks/s %.0f chars/s "
+                            + "emissions=%d binds=%d bindTime=%dus allocated=%dKB retained=%dKB "
+                            + "status=%d confirm=%d cancelled=%b answers=%d serverBytes=%d",
+                    name, chunksSent, charsReceived, streamMs, chunksPerSecond(), charsPerSecond(),
+                    listEmissions, binds, bindUs, allocatedBytes / 1024, retainedBytes / 1024,
+                    statusFrames, confirmFrames, cancelled, answerMessages, serverBytes);
+        }
+    }
+
+    private static final long TIMEOUT_SECONDS = 30;
+    // 回答结束后继续运行主线程的时间，等待最后的差分、绑定和思考内容的压缩
+    private static final long SETTLE_MS = 300;
+    private static final String STATUS_TEXT = "Searching...";
+
+    // 按参数运行一次压力测试，等待回答结束后返回结果。必须在Robolectric的主线程上调用
+    static LoadReport run(LoadProfile profile) throws Exception {
+        FakeAssistantServer server = new FakeAssistantServer(profile.tokens());
+        server.setBinaryFramesSupported(profile.binaryFrames);
+        server.setPacing(profile.burstSize, profile.burstIntervalMs);
+        server.setThinkingChunks(profile.thinkingTokens);
+        server.setStatusText(STATUS_TEXT);
+        server.setConfirmConversationId("load-test");
+        server.setPauseAfterChunks(profile.cancelAfterChunks);
+        server.start();
+
+        // 每次运行都从空的本地存储开始，上一次运行的聊天记录不会加载到列表中
+        Application application = RuntimeEnvironment.getApplication();
+        for (String database : application.databaseList()) {
+            application.deleteDatabase(database);
+        }
+        ActivityController<Activity> activity = Robolectric.buildActivity(Activity.class).setup();
+        ChatSession session = new ChatSession(application, server.url().toString());
+        Client client = new Client(profile, application, session, activity.get());
+        try {
+            LoadReport report = client.run(server);
+            report.chunksSent = server.getChunksSent();
+            report.serverBytes = server.getBytesSent();
+            report.serverCancelled = server.getCancelledResponses();
+            return report;
+        } finally {
+            client.release();
+            session.shutdown();
+            activity.destroy();
+            server.shutdown();
+        }
+    }
+
+    // 测试客户端：和ChatFragment一样观察ChatViewModel，把消息列表提交给适配器，
+    // 流式消息ID交给适配器做增量绑定，列表更新后滚动到底部
+    private static final class Client {
+
+        private final LoadProfile profile;
+        private final LoadReport report;
+        private final ChatViewModel viewModel;
+        private final RecyclerView recyclerView;
+        private final CountingAdapter adapter;
+        private final ShadowLooper mainLooper = shadowOf(Looper.getMainLooper());
+        private boolean streamStarted = false;
+        private boolean streamEnded = false;
+        private long streamStartedAt;
+
+        Client(LoadProfile profile, Application application, ChatSession session, Activity activity) {
+            this.profile = profile;
+            this.report = new LoadReport(profile.name);
+            this.viewModel = new ChatViewModel(application, session);
+
+            Context context = new ContextThemeWrapper(activity, R.style.Theme_Assistant);
+            adapter = new CountingAdapter(context);
+            recyclerView = new RecyclerView(context);
+            recyclerView.setLayoutManager(new LinearLayoutManager(context));
+            recyclerView.setAdapter(adapter);
+            activity.setContentView(recyclerView);
+
+            viewModel.getMessageListLiveData().observeForever(this::onListChanged);
+            viewModel.getStreamingMessageIdLiveData().observeForever(adapter::setStreamingMessageId);
+            viewModel.getIsStreamingLiveData().observeForever(this::onStreamingChanged);
+            viewModel.getConnectionStatusLiveData().observeForever(this::onStatusChanged);
+        }
+
+        LoadReport run(FakeAssistantServer server) throws Exception {
+            pumpUntil("connect", () -> "(Connected)".equals(viewModel.getConnectionStatusLiveData().getValue()));
+            long heapAtStart = usedHeapAfterGc();
+            long allocatedAtStart = allocatedBytes();
+
+            viewModel.sendMessage("load test");
+            if (profile.cancelAfterChunks >= 0) {
+                // 服务器发出指定数量的chunk后暂停，这些内容都显示后再停止，与界面上的停止按钮相同
+                int shownChars = (profile.cancelAfterChunks - profile.thinkingTokens) * profile.tokenLength;
+                pumpUntil("show " + profile.cancelAfterChunks + " chunks", () -> answerLength() >= shownChars);
+                report.cancelled = true;
+                report.streamMs = elapsedMs(streamStartedAt);
+                viewModel.stopGeneration();
+                // 等服务器以end帧结束被停止的回答
+                pumpUntil("end the cancelled answer", () -> server.getCancelledResponses() > 0);
+            } else {
+                pumpUntil("end", () -> streamEnded);
+            }
+            pumpFor(SETTLE_MS);
+
+            long allocatedAtEnd = allocatedBytes();
+            if (allocatedAtStart >= 0 && allocatedAtEnd >= 0) {
+                report.allocatedBytes = allocatedAtEnd - allocatedAtStart;
+            }
+            report.retainedBytes = usedHeapAfterGc() - heapAtStart;
+            report.binds = adapter.binds;
+            report.bindUs = adapter.bindNanos / 1000;
+            collectAnswer();
+            return report;
+        }
+
+        // 读取界面上最后一个问题之后的思考、回答和确认消息
+        private void collectAnswer() {
+            report.thinking = "";
+            report.answer = "";
+            for (Message message : messagesAfterQuestion()) {
+                if (message.getType() == Message.TYPE_AI_THINK) {
+                    // 结束后思考内容已被压缩，列表中只有预览
+                    report.thinking = message.getFullContent();
+                } else if (message.getType() == Message.TYPE_AI && report.answerMessages++ == 0) {
+                    report.answer = message.getContent();
+                } else if (message.getType() == Message.TYPE_CONFIRM) {
+                    report.confirmFrames++;
+                }
+            }
+            report.charsReceived = report.thinking.length() + report.answer.length();
+        }
+
+        private List<Message> messagesAfterQuestion() {
+            List<Message> messages = adapter.getCurrentList();
+            int start = messages.size();
+            while (start > 0 && messages.get(start - 1).getType() != Message.TYPE_USER) {
+                start--;
+            }
+            return messages.subList(start, messages.size());
+        }
+
+        private int answerLength() {
+            int length = 0;
+            for (Message message : messagesAfterQuestion()) {
+                if (message.getType() == Message.TYPE_AI) {
+                    length += message.getContent().length();
+                }
+            }
+            return length;
+        }
+
+        private void onListChanged(List<Message> messages) {
+            if (streamStarted) {
+                report.listEmissions++;
+            }
+            adapter.submitList(messages, () -> recyclerView.scrollToPosition(messages.size() - 1));
+        }
+
+        private void onStreamingChanged(Boolean streaming) {
+            if (Boolean.TRUE.equals(streaming) && !streamStarted) {
+                streamStarted = true;
+                streamStartedAt = System.nanoTime();
+                adapter.resetCounters();
+            } else if (!Boolean.TRUE.equals(streaming) && streamStarted && !streamEnded) {
+                streamEnded = true;
+                if (!report.cancelled) {
+                    report.streamMs = elapsedMs(streamStartedAt);
+                }
+            }
+        }
+
+        private void onStatusChanged(String status) {
+            if (STATUS_TEXT.equals(status)) {
+                report.statusFrames++;
+            }
+        }
+
+        void release() {
+            adapter.release();
+        }
+
+        // 运行主线程直到条件满足，主线程的时钟跟随真实时间前进，刷新间隔等定时任务按真实节奏执行
+        private void pumpUntil(String stage, BooleanSupplier condition) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+            long last = System.nanoTime();
+            while (!condition.getAsBoolean()) {
+                long now = System.nanoTime();
+                if (now > deadline) {
+                    throw new AssertionError(profile.name + " did not " + stage + " within "
+                            + TIMEOUT_SECONDS + "s: " + report);
+                }
+                mainLooper.idleFor(Duration.ofNanos(now - last));
+                last = now;
+                Thread.sleep(1);
+            }
+        }
+
+        private void pumpFor(long ms) throws InterruptedException {
+            long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ms);
+            pumpUntil("settle", () -> System.nanoTime() >= until);
+            mainLooper.idle();
+        }
+
+        private static long elapsedMs(long startNanos) {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        }
+
+        // 多次GC后的堆占用，取最小值减少并发分配的干扰
+        private static long usedHeapAfterGc() throws InterruptedException {
+            MemoryMXBean bean = ManagementFactory.getMemoryMXBean();
+            long used = Long.MAX_VALUE;
+            for (int i = 0; i < 3; i++) {
+                System.gc();
+                Thread.sleep(20);
+                used = Math.min(used, bean.getHeapMemoryUsage().getUsed());
+            }
+            return used;
+        }
+
+        // 当前线程累计分配的字节数，HotSpot以外的JVM返回-1
+        private static long allocatedBytes() {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+            return -1;
+        }
+    }
+
+    // 统计绑定次数和耗时的适配器，包括只更新流式内容的局部绑定
+    private static final class CountingAdapter extends MessageAdapter {
+        int binds;
+        long bindNanos;
+
+        CountingAdapter(Context context) {
+            super(context);
+        }
+
+        void resetCounters() {
+            binds = 0;
+            bindNanos = 0;
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position,
+                                     @NonNull List<Object> payloads) {
+            long start = System.nanoTime();
+            super.onBindViewHolder(holder, position, payloads);
+            bindNanos += System.nanoTime() - start;
+            binds++;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 流式回答压力测试：匀速、突发和超长回答三种负载经ChatSession、ChatViewModel流入挂在RecyclerView上的适配器，
+ * 内容完整，列表发布次数受刷新间隔限制，回答结束后多占用的堆内存和回答长度成正比；
+ * 停止生成后服务器不再发送剩余内容
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class StreamingLoadTest {
+
+    // 每个字符允许保留的堆内存：消息内容、渲染缓存、TextView的可编辑文本和预计算的排版各持有一份
+    private static final long RETAINED_BYTES_PER_CHAR = 64;
+    // 与回答长度无关的固定开销，例如首次绑定时加载的布局和资源
+    private static final long RETAINED_BYTES_BASE = 8 * 1024 * 1024;
+
+    private static StreamingLoadHarness.LoadReport runAndCheck(StreamingLoadHarness.LoadProfile profile)
+            throws Exception {
+        StreamingLoadHarness.LoadReport report = StreamingLoadHarness.run(profile);
+        String message = report.toString();
+
+        List<String> tokens = profile.tokens();
+        StringBuilder thinking = new StringBuilder();
+        StringBuilder answer = new StringBuilder();
+        for (int i = 0; i < tokens.size(); i++) {
+            (i < profile.thinkingTokens ? thinking : answer).append(tokens.get(i));
+        }
+        assertEquals(message, profile.tokenCount, report.chunksSent);
+        assertEquals(message, thinking.toString(), report.thinking);
+        assertEquals(message, answer.toString(), report.answer);
+        assertEquals(message, 1, report.statusFrames);
+        assertEquals(message, 1, report.confirmFrames);
+        assertTrue(message, report.binds > 0);
+        assertTrue(message, report.retainedBytes
+                <= (thinking.length() + answer.length()) * RETAINED_BYTES_PER_CHAR + RETAINED_BYTES_BASE);
+        return report;
+    }
+
+    // 每个刷新间隔最多发布一次，另外加上创建三条消息、结束时的刷新和思考内容的压缩
+    private static void assertEmissionsBounded(StreamingLoadHarness.LoadReport report) {
+        long maxEmissions = report.streamMs / StreamingAccumulator.DEFAULT_FLUSH_INTERVAL_MS + 6;
+        assertTrue(report.toString(), report.listEmissions <= maxEmissions);
+    }
+
+    @Test
+    public void steadyTokenRate() throws Exception {
+        StreamingLoadHarness.LoadReport report = runAndCheck(
+                StreamingLoadHarness.LoadProfile.steady("steady", 2000, 2000, 2));
+        assertEmissionsBounded(report);
+        assertTrue(report.toString(), report.listEmissions < report.chunksSent / 10);
+    }
+
+    @Test
+    public void burstsWithThinking() throws Exception {
+        // 每100毫秒突发200个片段，前400个是思考内容
+        StreamingLoadHarness.LoadReport report = runAndCheck(new StreamingLoadHarness.LoadProfile(
+                "bursts", 2000, 400, 3, 200, 100, true));
+        assertEmissionsBounded(report);
+    }
+
+    @Test
+    public void largeUnthrottledAnswerOverJson() throws Exception {
+        StreamingLoadHarness.LoadReport report = runAndCheck(new StreamingLoadHarness.LoadProfile(
+                "large-json", 20000, 0, 4, 0, 0, false));
+        assertEmissionsBounded(report);
+        assertTrue(report.toString(), report.listEmissions < report.chunksSent / 100);
+    }
+
+    @Test
+    public void stopGenerationSavesBandwidth() throws Exception {
+        StreamingLoadHarness.LoadProfile full = StreamingLoadHarness.LoadProfile.steady("full", 2000, 2000, 2);
+        StreamingLoadHarness.LoadReport fullReport = StreamingLoadHarness.run(full);
+        StreamingLoadHarness.LoadReport stopped = StreamingLoadHarness.run(full.cancelAfter("stopped", 100));
+        String message = fullReport + "\n" + stopped;
+
+        assertTrue(message, stopped.cancelled);
+        assertEquals(message, 1, stopped.serverCancelled);
+        // 服务器在cancel之后以end帧结束回答，不会生成新的回答消息
+        assertEquals(message, 100, stopped.chunksSent);
+        assertEquals(message, 1, stopped.answerMessages);
+        StringBuilder expected = new StringBuilder();
+        for (String token : full.tokens().subList(0, 100)) {
+            expected.append(token);
+        }
+        assertEquals(message, expected.toString(), stopped.answer);
+        assertTrue(message, stopped.serverBytes * 4 < fullReport.serverBytes);
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.ui.chat;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * StreamingMetrics的JVM单元测试，使用固定的时间戳验证各项延迟指标和百分位
+ */
+public class StreamingMetricsTest {
+
+    @Test
+    public void recordsLatenciesForOneResponse() {
+        StreamingMetrics metrics = new StreamingMetrics();
+        metrics.onSent("t1", 1000);
+        metrics.onStart("t1", 1200);
+        // 思考内容不计入首个回答片段
+        metrics.onChunk("t1", true, 10, 1300);
+        metrics.onChunk("t1", false, 5, 1500);
+        metrics.onChunk("t1", false, 5, 1800);
+        metrics.onEnd("t1", 2300);
+
+        assertEquals(200, metrics.getSendToStartMs().getPercentile(50));
+        assertEquals(500, metrics.getTimeToFirstChunkMs().getPercentile(50));
+        assertEquals(2, metrics.getInterChunkGapMs().getCount());
+        assertEquals(300, metrics.getInterChunkGapMs().getMax());
+        assertEquals(1300, metrics.getTotalResponseMs().getPercentile(50));
+        // 3个片段、20个字符，从第一个片段到end共1秒
+        assertEquals(3, metrics.getChunksPerSecond().getPercentile(50));
+        assertEquals(20, metrics.getCharsPerSecond().getPercentile(50));
+    }
+
+    @Test
+    public void tracksConversationsIndependently() {
+        StreamingMetrics metrics = new StreamingMetrics();
+        metrics.onSent("homework", 0);
+        metrics.onSent("planning", 100);
+        metrics.onStart("planning", 150);
+        metrics.onStart("homework", 400);
+        metrics.onEnd("planning", 600);
+        metrics.onEnd("homework", 1000);
+
+        assertEquals(2, metrics.getSendToStartMs().getCount());
+        assertEquals(50, metrics.getSendToStartMs().getPercentile(1));
+        assertEquals(400, metrics.getSendToStartMs().getPercentile(100));
+        assertEquals(500, metrics.getTotalResponseMs().getPercentile(1));
+        assertEquals(1000, metrics.getTotalResponseMs().getPercentile(100));
+    }
+
+    @Test
+    public void pipelinedQuestionKeepsItsOwnSendTime() {
+        StreamingMetrics metrics = new StreamingMetrics();
+        metrics.onSent("t1", 0);
+        metrics.onStart("t1", 100);
+        // 回答过程中发出的追问不影响正在接收的回答
+        metrics.onSent("t1", 300);
+        metrics.onChunk("t1", false, 3, 400);
+        metrics.onEnd("t1", 1000);
+        metrics.onStart("t1", 1100);
+        metrics.onChunk("t1", false, 3, 1200);
+        metrics.onEnd("t1", 1500);
+
+        assertEquals(100, metrics.getSendToStartMs().getPercentile(1));
+        assertEquals(800, metrics.getSendToStartMs().getPercentile(100));
+        assertEquals(1000, metrics.getTotalResponseMs().getPercentile(1));
+        assertEquals(1200, metrics.getTotalResponseMs().getPercentile(100));
+        assertEquals(0, metrics.getInterChunkGapMs().getCount());
+    }
+
+    @Test
+    public void interruptedResponseIsNotCounted() {
+        StreamingMetrics metrics = new StreamingMetrics();
+        metrics.onSent("t1", 0);
+        metrics.onStart("t1", 100);
+        metrics.onChunk("t1", false, 3, 200);
+        metrics.onInterrupted("t1");
+        // 续传后的片段不会和断线前的片段计算间隔
+        metrics.onChunk("t1", false, 3, 20000);
+        metrics.onEnd("t1", 20100);
+
+        assertEquals(0, metrics.getInterChunkGapMs().getCount());
+        assertEquals(0, metrics.getTotalResponseMs().getCount());
+    }
+
+    @Test
+    public void percentilesUseMostRecentSamples() {
+        StreamingMetrics metrics = new StreamingMetrics();
+        for (int i = 1; i <= 100; i++) {
+            metrics.onFrameDispatched(0, i);
+        }
+        StreamingMetrics.Samples samples = metrics.getDispatchDelayMs();
+        assertEquals(50, samples.getPercentile(50));
+        assertEquals(90, samples.getPercentile(90));
+        assertEquals(99, samples.getPercentile(99));
+        assertEquals(50, samples.getMean());
+
+        // 超过容量后最早的样本被替换
+        for (int i = 0; i < StreamingMetrics.MAX_SAMPLES; i++) {
+            metrics.onFrameDispatched(0, 7);
+        }
+        assertEquals(StreamingMetrics.MAX_SAMPLES, samples.getCount());
+        assertEquals(7, samples.getMax());
+        assertEquals(7, samples.getMean());
+    }
+
+    @Test
+    public void recordsFrameTimeSeparatelyFromRenderTime() {
+        StreamingMetrics metrics = new StreamingMetrics();
+        metrics.onRender(800);
+        metrics.onFrame(16667);
+        metrics.onFrame(50000);
+        assertEquals(1, metrics.getRenderUs().getCount());
+        assertEquals(2, metrics.getFrameUs().getCount());
+        assertEquals(50000, metrics.getFrameUs().getMax());
+        assertTrue(metrics.summary().contains("frame us"));
+
+        metrics.reset();
+        assertEquals(0, metrics.getFrameUs().getCount());
+    }
+}
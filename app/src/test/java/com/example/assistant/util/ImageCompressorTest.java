@@ -0,0 +1,45 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 图片压缩的尺寸计算测试：降采样率和缩放后的目标尺寸
+ */
+public class ImageCompressorTest {
+
+    @Test
+    public void samplesTwelveMegapixelPhotoWithoutGoingBelowTarget() {
+        // 4000x3000的照片按4降采样为1000x750会小于目标尺寸，因此只降采样2倍
+        assertEquals(2, ImageCompressor.calculateInSampleSize(4000, 3000, ImageCompressor.MAX_DIMENSION));
+        assertEquals(2, ImageCompressor.calculateInSampleSize(3000, 4000, ImageCompressor.MAX_DIMENSION));
+        assertEquals(4, ImageCompressor.calculateInSampleSize(8000, 6000, ImageCompressor.MAX_DIMENSION));
+    }
+
+    @Test
+    public void doesNotSampleSmallImages() {
+        assertEquals(1, ImageCompressor.calculateInSampleSize(1200, 900, ImageCompressor.MAX_DIMENSION));
+        assertEquals(1, ImageCompressor.calculateInSampleSize(3199, 2000, ImageCompressor.MAX_DIMENSION));
+    }
+
+    @Test
+    public void scalesLongestSideToMaxDimension() {
+        assertArrayEquals(new int[]{1600, 1200}, ImageCompressor.scaledSize(2000, 1500, 1600));
+        assertArrayEquals(new int[]{240, 320}, ImageCompressor.scaledSize(1200, 1600, 320));
+        // 不放大小图
+        assertArrayEquals(new int[]{800, 600}, ImageCompressor.scaledSize(800, 600, 1600));
+    }
+
+    @Test
+    public void decodedBitmapStaysFarBelowOriginalSize() {
+        int sampleSize = ImageCompressor.calculateInSampleSize(4000, 3000, ImageCompressor.MAX_DIMENSION);
+        // RGB_565每像素2字节，原图按ARGB_8888解码约需46MB
+        long decodedBytes = (4000L / sampleSize) * (3000L / sampleSize) * 2;
+        assertTrue(decodedBytes < 4000L * 3000L * 4 / 7);
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * MIT License
+ * Copyright (c) 2023 illu@biubiu.org
+ */
+package com.example.assistant.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * 聊天记录全文索引分词测试：中文二元组、英文小写和查询构造
+ */
+public class SearchTokenizerTest {
+
+    @Test
+    public void splitsChineseIntoBigrams() {
+        assertEquals("明天 天数 数学 学", SearchTokenizer.tokenize("明天数学"));
+        // 单字也会写入索引
+        assertEquals("课", SearchTokenizer.tokenize("课"));
+    }
+
+    @Test
+    public void splitsMixedTextAndLowercasesWords() {
+        assertEquals("明天 天 english 作业 业 p12",
+                SearchTokenizer.tokenize("明天English，作业P12!"));
+        assertEquals("", SearchTokenizer.tokenize("  ，。！ "));
+        assertEquals("", SearchTokenizer.tokenize(null));
+    }
+
+    @Test
+    public void buildsPhraseAndPrefixQueries() {
+        // 两字以上的中文片段按二元组做短语查询
+        assertEquals("\"数学 学作 作业\"", SearchTokenizer.buildQuery("数学作业"));
+        // 单字和英文做前缀查询，多个片段同时匹配
+        assertEquals("课* eng*", SearchTokenizer.buildQuery("课 Eng"));
+        // 查询中的FTS语法字符被当作分隔符，OR转为小写后只是普通词
+        assertEquals("a* or* b*", SearchTokenizer.buildQuery("a\" OR* (b"));
+        assertNull(SearchTokenizer.buildQuery("  ?? "));
+    }
+
+    @Test
+    public void highlightTermsAreLowercasedSegments() {
+        assertEquals(Arrays.asList("数学作业", "p12"), SearchTokenizer.highlightTerms("数学作业 P12"));
+    }
+}